@@ -0,0 +1,83 @@
+package com.todo.benchmark;
+
+import com.todo.TodoApplication;
+import com.todo.entity.Node;
+import com.todo.service.NodeService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The application context with a synthetic tree of {@code size} nodes in the given
+ * {@code shape}, built once per trial in a fresh in-memory H2 database.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkTree {
+
+    @Param({"WIDE", "DEEP", "BALANCED"})
+    public TreeShape shape;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    NodeService nodeService;
+
+    // Nodes with children, and nodes without; benchmarks keep leaves childless so moves never cycle
+    private long[] parentIds;
+    private long[] leafIds;
+
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void build() {
+        // Passed as arguments so they take precedence over application.properties
+        context = new SpringApplicationBuilder(TodoApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--spring.jpa.show-sql=false",
+                        "--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+        nodeService = context.getBean(NodeService.class);
+
+        Long rootId = nodeService.createNode(new Node("root", null, null)).getId();
+        shape.batches(size - 1).forEach(batch -> nodeService.createSubtrees(rootId, batch));
+
+        JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+        Set<Long> parents = new HashSet<>(jdbc.queryForList(
+                "SELECT DISTINCT parent_id FROM nodes WHERE parent_id IS NOT NULL", Long.class));
+        List<Long> ids = jdbc.queryForList("SELECT id FROM nodes", Long.class);
+        parentIds = parents.stream().mapToLong(Long::longValue).toArray();
+        leafIds = ids.stream().filter(id -> !parents.contains(id)).mapToLong(Long::longValue).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        context.close();
+    }
+
+    long randomParentId() {
+        return parentIds[ThreadLocalRandom.current().nextInt(parentIds.length)];
+    }
+
+    long randomLeafId() {
+        return leafIds[ThreadLocalRandom.current().nextInt(leafIds.length)];
+    }
+
+    // A search query whose last token prefixes the label of some node in the tree
+    String randomQuery() {
+        return "node " + ThreadLocalRandom.current().nextInt(size);
+    }
+}
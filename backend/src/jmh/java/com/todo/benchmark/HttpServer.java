@@ -0,0 +1,102 @@
+package com.todo.benchmark;
+
+import com.todo.TodoApplication;
+import com.todo.entity.Node;
+import com.todo.service.NodeService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The application serving HTTP on a random port, on Tomcat's platform-thread pool or with the
+ * {@code virtual-threads} profile, over a {@code BALANCED} tree of {@code size} nodes.
+ * The {@code virtual} runs only differ from {@code platform} on Java 21 and later.
+ */
+@State(Scope.Benchmark)
+public class HttpServer {
+
+    @Param({"platform", "virtual"})
+    public String threading;
+
+    @Param({"10000"})
+    public int size;
+
+    private HttpClient client;
+    private String baseUrl;
+
+    private long[] parentIds;
+    private long[] leafIds;
+
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void start() {
+        context = new SpringApplicationBuilder(TodoApplication.class)
+                .run(
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--logging.level.com.todo.config=INFO",
+                        "--server.port=0",
+                        "--spring.profiles.active=" + ("virtual".equals(threading) ? "virtual-threads" : "default"),
+                        "--spring.datasource.url=jdbc:h2:mem:http-benchmark;DB_CLOSE_DELAY=-1");
+        baseUrl = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort() + "/api/nodes";
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+        NodeService nodeService = context.getBean(NodeService.class);
+        Long rootId = nodeService.createNode(new Node("root", null, null)).getId();
+        TreeShape.BALANCED.batches(size - 1).forEach(batch -> nodeService.createSubtrees(rootId, batch));
+
+        JdbcTemplate jdbc = context.getBean(JdbcTemplate.class);
+        Set<Long> parents = new HashSet<>(jdbc.queryForList(
+                "SELECT DISTINCT parent_id FROM nodes WHERE parent_id IS NOT NULL", Long.class));
+        List<Long> ids = jdbc.queryForList("SELECT id FROM nodes", Long.class);
+        parentIds = parents.stream().mapToLong(Long::longValue).toArray();
+        leafIds = ids.stream().filter(id -> !parents.contains(id)).mapToLong(Long::longValue).toArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    long randomParentId() {
+        return parentIds[ThreadLocalRandom.current().nextInt(parentIds.length)];
+    }
+
+    long randomLeafId() {
+        return leafIds[ThreadLocalRandom.current().nextInt(leafIds.length)];
+    }
+
+    String randomQuery() {
+        return "node+" + ThreadLocalRandom.current().nextInt(size);
+    }
+
+    /** Sends a request to {@code /api/nodes + path} and returns the body, failing the benchmark on any non-2xx status. */
+    String send(String method, String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .method(method, HttpRequest.BodyPublishers.noBody())
+                .build();
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() / 100 != 2) {
+            throw new IllegalStateException(method + " " + path + " returned " + response.statusCode());
+        }
+        return response.body();
+    }
+}
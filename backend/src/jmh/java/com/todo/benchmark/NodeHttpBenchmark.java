@@ -0,0 +1,46 @@
+package com.todo.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load test of the {@code NodeController} endpoints over HTTP. Twice as many concurrent clients
+ * as Tomcat's default 200 workers, so platform threads queue requests while virtual threads do not.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.httpclient.keepalive.timeout=60")
+@Threads(400)
+public class NodeHttpBenchmark {
+
+    @Benchmark
+    public String children(HttpServer server) throws IOException, InterruptedException {
+        return server.send("GET", "/" + server.randomParentId() + "/children");
+    }
+
+    @Benchmark
+    public String subtree(HttpServer server) throws IOException, InterruptedException {
+        return server.send("GET", "/" + server.randomParentId() + "/subtree?depth=2");
+    }
+
+    @Benchmark
+    public String search(HttpServer server) throws IOException, InterruptedException {
+        return server.send("GET", "/search?limit=50&q=" + server.randomQuery());
+    }
+
+    @Benchmark
+    public String toggleComplete(HttpServer server) throws IOException, InterruptedException {
+        return server.send("PATCH", "/" + server.randomLeafId() + "/complete");
+    }
+}
@@ -0,0 +1,44 @@
+package com.todo.benchmark;
+
+import com.todo.dto.FilteredNodeTree;
+import com.todo.dto.NodeTree;
+import com.todo.entity.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Tree reads and search through {@link com.todo.service.NodeService}, served from the cache and index once warm. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeReadBenchmark {
+
+    @Benchmark
+    public List<Node> children(BenchmarkTree tree) {
+        return tree.nodeService.getChildren(tree.randomParentId());
+    }
+
+    @Benchmark
+    public NodeTree subtree(BenchmarkTree tree) {
+        return tree.nodeService.getSubtree(tree.randomParentId(), 2);
+    }
+
+    @Benchmark
+    public List<Node> search(BenchmarkTree tree) {
+        return tree.nodeService.search(tree.randomQuery(), null, null, 50);
+    }
+
+    @Benchmark
+    public List<FilteredNodeTree> searchTree(BenchmarkTree tree) {
+        return tree.nodeService.searchTree(tree.randomQuery(), "work", null, 50, false);
+    }
+}
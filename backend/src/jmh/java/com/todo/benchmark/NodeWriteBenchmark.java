@@ -0,0 +1,76 @@
+package com.todo.benchmark;
+
+import com.todo.dto.NodeBatchOperation;
+import com.todo.dto.NodeDraft;
+import com.todo.entity.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/** Single-node and batched writes through {@link com.todo.service.NodeService}, each in its own transaction. */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NodeWriteBenchmark {
+
+    static final int BATCH_SIZE = 100;
+    static final int DELETED_SUBTREE_SIZE = 10;
+
+    /** A small subtree created before each deleteNode call, outside the measured time. */
+    @State(Scope.Thread)
+    public static class DisposableSubtree {
+        Long rootId;
+
+        // Per-invocation setup is acceptable here: every measured call is a database transaction
+        @Setup(Level.Invocation)
+        public void create(BenchmarkTree tree) {
+            List<NodeDraft> leaves = Collections.nCopies(DELETED_SUBTREE_SIZE - 1,
+                    new NodeDraft("leaf", null, List.of("work"), null, null, null, List.of()));
+            NodeDraft draft = new NodeDraft("disposable", null, List.of("home"), null, null, null, leaves);
+            rootId = tree.nodeService.createSubtrees(tree.randomParentId(), List.of(draft)).get(0).getId();
+        }
+    }
+
+    @Benchmark
+    public Node createNode(BenchmarkTree tree) {
+        return tree.nodeService.createNode(new Node("created", tree.randomParentId(), null));
+    }
+
+    @Benchmark
+    public Node moveNode(BenchmarkTree tree) {
+        return tree.nodeService.moveNode(tree.randomLeafId(), tree.randomParentId(), 0);
+    }
+
+    @Benchmark
+    public void deleteNode(BenchmarkTree tree, DisposableSubtree subtree) {
+        tree.nodeService.deleteNode(subtree.rootId);
+    }
+
+    @Benchmark
+    public List<Node> batchUpdate(BenchmarkTree tree) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        List<NodeBatchOperation> operations = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            long id = random.nextBoolean() ? tree.randomLeafId() : tree.randomParentId();
+            operations.add(new NodeBatchOperation(NodeBatchOperation.Type.UPDATE, id, null, null,
+                    "updated " + i, null, null, random.nextBoolean(), null, null));
+        }
+        return tree.nodeService.applyBatch(operations);
+    }
+}
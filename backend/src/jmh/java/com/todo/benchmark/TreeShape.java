@@ -0,0 +1,109 @@
+package com.todo.benchmark;
+
+import com.todo.dto.NodeDraft;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Shapes of the synthetic trees the benchmarks run against. Each shape yields the nodes below
+ * the single root as batches of drafts, generated lazily so million-node trees never sit in
+ * memory twice and each batch can be inserted in its own transaction.
+ */
+public enum TreeShape {
+
+    /** Every node a direct child of the root. */
+    WIDE {
+        @Override
+        Stream<List<NodeDraft>> batches(int nodes) {
+            Labels labels = new Labels();
+            return IntStream.range(0, ceilDiv(nodes, BATCH_NODES))
+                    .mapToObj(batch -> {
+                        int count = Math.min(BATCH_NODES, nodes - batch * BATCH_NODES);
+                        List<NodeDraft> leaves = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            leaves.add(labels.draft(List.of()));
+                        }
+                        return leaves;
+                    });
+        }
+    },
+
+    /** Chains of {@value #CHAIN_LENGTH} nodes hanging off the root, one child per level. */
+    DEEP {
+        @Override
+        Stream<List<NodeDraft>> batches(int nodes) {
+            Labels labels = new Labels();
+            int chainsPerBatch = BATCH_NODES / CHAIN_LENGTH;
+            int chains = ceilDiv(nodes, CHAIN_LENGTH);
+            return IntStream.range(0, ceilDiv(chains, chainsPerBatch))
+                    .mapToObj(batch -> {
+                        List<NodeDraft> batchChains = new ArrayList<>(chainsPerBatch);
+                        for (int chain = batch * chainsPerBatch; chain < Math.min(chains, (batch + 1) * chainsPerBatch); chain++) {
+                            int length = Math.min(CHAIN_LENGTH, nodes - chain * CHAIN_LENGTH);
+                            NodeDraft draft = labels.draft(List.of());
+                            for (int level = 1; level < length; level++) {
+                                draft = labels.draft(List.of(draft));
+                            }
+                            batchChains.add(draft);
+                        }
+                        return batchChains;
+                    });
+        }
+    },
+
+    /** A tree where every inner node has up to {@value #FANOUT} children of equal size. */
+    BALANCED {
+        @Override
+        Stream<List<NodeDraft>> batches(int nodes) {
+            Labels labels = new Labels();
+            int children = Math.min(FANOUT, nodes);
+            return IntStream.range(0, children)
+                    .mapToObj(child -> List.of(balanced(share(nodes, children, child), labels)));
+        }
+
+        private NodeDraft balanced(int nodes, Labels labels) {
+            int below = nodes - 1;
+            int children = Math.min(FANOUT, below);
+            List<NodeDraft> drafts = new ArrayList<>(children);
+            for (int child = 0; child < children; child++) {
+                drafts.add(balanced(share(below, children, child), labels));
+            }
+            return labels.draft(drafts);
+        }
+    };
+
+    // Kept well inside the 2000-character path column at seven-digit ids
+    static final int CHAIN_LENGTH = 200;
+    static final int FANOUT = 10;
+
+    // Upper bound on the nodes inserted per transaction, except for BALANCED's top-level subtrees
+    private static final int BATCH_NODES = 5000;
+
+    private static final List<String> TAGS = List.of("work", "home", "errand", "someday");
+
+    /** Drafts for {@code nodes} nodes to insert under the root, batch by batch. */
+    abstract Stream<List<NodeDraft>> batches(int nodes);
+
+    // Size of the index-th of `parts` near-equal parts of `total`
+    private static int share(int total, int parts, int index) {
+        return total / parts + (index < total % parts ? 1 : 0);
+    }
+
+    private static int ceilDiv(int dividend, int divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+
+    // Numbers nodes in creation order so search benchmarks can query "node <n>"
+    private static final class Labels {
+        private int next;
+
+        NodeDraft draft(List<NodeDraft> children) {
+            int n = next++;
+            return new NodeDraft("node " + n, n % 10 == 0 ? "notes for node " + n : null,
+                    List.of(TAGS.get(n % TAGS.size())), n % 4 == 0, true, n % 50 == 0, children);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.todo.config;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * Defers taking a pooled connection until a transaction issues its first statement. Reads
+ * answered from {@link com.todo.service.NodeTreeCache} still open a transaction, but no longer
+ * occupy a connection, so under load only the requests that actually hit the database wait
+ * for the pool.
+ * <p>
+ * This only matters once the pool is the concurrency limit, so it is applied with the
+ * {@code virtual-threads} profile; on platform threads Tomcat's worker pool already bounds
+ * the requests holding connections, and the plain pool is used.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Bean
+    @Profile("virtual-threads")
+    public static BeanPostProcessor lazyConnectionDataSource() {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof DataSource dataSource && !(bean instanceof LazyConnectionDataSourceProxy)) {
+                    return new LazyConnectionDataSourceProxy(dataSource);
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,121 @@
+package com.todo.config;
+
+import com.todo.repository.NodeRepository;
+import com.todo.service.NodeChangeBroadcaster;
+import com.todo.service.NodeTreeCache;
+import com.todo.service.SqlStatementCounter;
+import com.todo.service.WorkspaceContext;
+import com.todo.service.WorkspacePartitions;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Metrics beyond Spring Boot's defaults, which already time every endpoint as
+ * {@code http.server.requests}: SQL statements per request and gauges describing the tree.
+ */
+@Configuration
+public class MetricsConfig {
+
+    /** A gauge value computed at most once per refresh interval; scrapes in between get the last one. */
+    static final class Refreshed {
+
+        private final DoubleSupplier source;
+        private final long refreshNanos;
+
+        private double value;
+        private long computedAt;
+        private boolean computed;
+
+        Refreshed(DoubleSupplier source, long refreshMs) {
+            this.source = source;
+            this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMs);
+        }
+
+        synchronized double get() {
+            long now = System.nanoTime();
+            if (!computed || now - computedAt >= refreshNanos) {
+                value = source.getAsDouble();
+                computedAt = now;
+                computed = true;
+            }
+            return value;
+        }
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer sqlStatementCounting(SqlStatementCounter sqlStatementCounter) {
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, sqlStatementCounter);
+    }
+
+    @Bean
+    public FilterRegistrationBean<SqlStatementMetricsFilter> sqlStatementMetrics(
+            MeterRegistry meterRegistry, SqlStatementCounter sqlStatementCounter) {
+        FilterRegistrationBean<SqlStatementMetricsFilter> registration =
+                new FilterRegistrationBean<>(new SqlStatementMetricsFilter(meterRegistry, sqlStatementCounter));
+        registration.addUrlPatterns("/api/*");
+        return registration;
+    }
+
+    // Size and depth take a count and a full scan in every partition, so they are queried at most once per
+    // todo.metrics.tree-refresh-ms however often scrapes come; the cache counters are read from memory
+    @Bean
+    public MeterBinder treeMetrics(
+            NodeRepository nodeRepository, NodeTreeCache nodeTreeCache, WorkspacePartitions workspacePartitions,
+            @Value("${todo.metrics.tree-refresh-ms:60000}") long treeRefreshMs) {
+        return registry -> {
+            for (int partition = 0; partition < workspacePartitions.count(); partition++) {
+                int index = partition;
+                Refreshed nodes = new Refreshed(
+                        () -> WorkspaceContext.callOnPartition(index, nodeRepository::count), treeRefreshMs);
+                Gauge.builder("todo.tree.nodes", nodes, Refreshed::get)
+                        .description("Number of nodes in the partition, across its workspaces")
+                        .tag("partition", String.valueOf(index))
+                        .strongReference(true)
+                        .register(registry);
+            }
+            Refreshed depth = new Refreshed(() -> {
+                int deepest = 0;
+                for (int partition = 0; partition < workspacePartitions.count(); partition++) {
+                    Integer partitionDepth = WorkspaceContext.callOnPartition(partition, nodeRepository::findMaxDepth);
+                    if (partitionDepth != null) {
+                        deepest = Math.max(deepest, partitionDepth);
+                    }
+                }
+                return deepest;
+            }, treeRefreshMs);
+            Gauge.builder("todo.tree.depth", depth, Refreshed::get)
+                    .description("Number of levels in the deepest branch of any tree")
+                    .strongReference(true)
+                    .register(registry);
+            Gauge.builder("todo.cache.size", nodeTreeCache, cache -> cache.getStats().size())
+                    .description("Nodes held in the in-memory node cache")
+                    .register(registry);
+            FunctionCounter.builder("todo.cache.requests", nodeTreeCache, cache -> cache.getStats().hits())
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("todo.cache.requests", nodeTreeCache, cache -> cache.getStats().misses())
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("todo.cache.evictions", nodeTreeCache, cache -> cache.getStats().evictions())
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder pushMetrics(NodeChangeBroadcaster nodeChangeBroadcaster) {
+        return registry -> Gauge.builder("todo.push.subscribers", nodeChangeBroadcaster, NodeChangeBroadcaster::subscriberCount)
+                .description("Open change streams")
+                .register(registry);
+    }
+}
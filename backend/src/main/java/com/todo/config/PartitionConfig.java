@@ -0,0 +1,118 @@
+package com.todo.config;
+
+import com.todo.service.WorkspaceContext;
+import com.todo.service.WorkspaceDirectory;
+import com.todo.service.WorkspacePartitions;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.output.MigrateResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Spreads workspaces over partition databases. Partition 0 is {@code spring.datasource.url} and
+ * is migrated by Spring Boot's Flyway as before; every URL in {@code todo.partitions.urls} adds a
+ * partition, migrated here with the same scripts. Each partition gets its own pool configured
+ * from {@code spring.datasource.hikari}, and the application's one {@link DataSource} routes
+ * between them by workspace, so repositories, JdbcTemplate and transactions work unchanged.
+ */
+@Configuration
+public class PartitionConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionConfig.class);
+
+    // allocationSize of the node_id_seq generator on Node
+    private static final int ID_ALLOCATION_SIZE = 50;
+
+    @Bean
+    public WorkspacePartitions workspacePartitions(
+            DataSourceProperties properties,
+            Environment environment,
+            @Value("${todo.partitions.urls:}") List<String> urls,
+            @Value("${spring.flyway.locations:classpath:db/migration}") String[] migrationLocations) {
+        List<HikariDataSource> dataSources = new ArrayList<>();
+        dataSources.add(pool(properties, environment, properties.determineUrl(), 0));
+        for (String url : urls) {
+            if (url.isBlank()) {
+                continue;
+            }
+            int partition = dataSources.size();
+            HikariDataSource dataSource = pool(properties, environment, url.trim(), partition);
+            dataSources.add(dataSource);
+            migrate(dataSource, partition, migrationLocations);
+        }
+        log.info("Workspaces are spread over {} partition(s)", dataSources.size());
+        return new WorkspacePartitions(dataSources);
+    }
+
+    @Bean
+    public WorkspaceDirectory workspaceDirectory(WorkspacePartitions workspacePartitions) {
+        return new WorkspaceDirectory(new JdbcTemplate(workspacePartitions.get(0)), workspacePartitions.count());
+    }
+
+    @Bean
+    public DataSource dataSource(WorkspacePartitions workspacePartitions, WorkspaceDirectory workspaceDirectory) {
+        return new WorkspaceRoutingDataSource(workspacePartitions, workspaceDirectory);
+    }
+
+    // Only node requests work inside a workspace; /api/workspaces manages workspaces from outside
+    @Bean
+    public FilterRegistrationBean<WorkspaceFilter> workspaceFilter(WorkspaceDirectory workspaceDirectory) {
+        FilterRegistrationBean<WorkspaceFilter> registration =
+                new FilterRegistrationBean<>(new WorkspaceFilter(workspaceDirectory));
+        registration.addUrlPatterns("/api/nodes/*");
+        return registration;
+    }
+
+    // Snapshot downloads and filtered streams are written on the MVC task executor, in the request's workspace
+    @Bean
+    public TaskDecorator workspacePropagation() {
+        return task -> {
+            String workspace = WorkspaceContext.bound();
+            if (workspace == null) {
+                return task;
+            }
+            boolean readOnly = WorkspaceContext.isReadOnly();
+            return () -> {
+                try (WorkspaceContext.Binding binding = readOnly
+                        ? WorkspaceContext.enterReadOnly(workspace) : WorkspaceContext.enter(workspace)) {
+                    task.run();
+                }
+            };
+        };
+    }
+
+    private static HikariDataSource pool(
+            DataSourceProperties properties, Environment environment, String url, int partition) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .url(url)
+                .build();
+        dataSource.setPoolName("partition-" + partition);
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+        return dataSource;
+    }
+
+    private static void migrate(DataSource dataSource, int partition, String[] locations) {
+        MigrateResult result = Flyway.configure().dataSource(dataSource).locations(locations).load().migrate();
+        if (result.initialSchemaVersion == null) {
+            // A new partition hands out node ids from its own range; see WorkspacePartitions
+            long firstValue = partition * WorkspacePartitions.ID_RANGE + ID_ALLOCATION_SIZE;
+            new JdbcTemplate(dataSource).execute("ALTER SEQUENCE node_id_seq RESTART WITH " + firstValue);
+        }
+    }
+}
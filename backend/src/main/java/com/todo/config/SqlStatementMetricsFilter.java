@@ -0,0 +1,48 @@
+package com.todo.config;
+
+import com.todo.service.SqlStatementCounter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.io.IOException;
+
+/**
+ * Records how many SQL statements each request issued, tagged like {@code http.server.requests}
+ * by method, URI template and status, so an endpoint's N+1 regression shows up however many
+ * service calls it makes. Statements run on other threads, such as those writing snapshot
+ * downloads and change streams, are not counted.
+ */
+class SqlStatementMetricsFilter extends OncePerRequestFilter {
+
+    private final MeterRegistry meterRegistry;
+    private final SqlStatementCounter sqlStatementCounter;
+
+    SqlStatementMetricsFilter(MeterRegistry meterRegistry, SqlStatementCounter sqlStatementCounter) {
+        this.meterRegistry = meterRegistry;
+        this.sqlStatementCounter = sqlStatementCounter;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long statementsBefore = sqlStatementCounter.current();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            Object uri = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            DistributionSummary.builder("http.server.requests.sql.statements")
+                    .description("SQL statements issued per HTTP request")
+                    .tag("method", request.getMethod())
+                    .tag("uri", uri != null ? uri.toString() : "UNKNOWN")
+                    .tag("status", String.valueOf(response.getStatus()))
+                    .register(meterRegistry)
+                    .record(sqlStatementCounter.current() - statementsBefore);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.todo.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+
+/**
+ * Reports which threads serve requests. Spring Boot silently falls back to platform threads when
+ * {@code spring.threads.virtual.enabled} is set on a runtime older than Java 21, which would
+ * otherwise go unnoticed in a load test of the {@code virtual-threads} profile.
+ */
+@Configuration
+public class ThreadingConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(ThreadingConfig.class);
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reportThreading(ApplicationReadyEvent event) {
+        Environment environment = event.getApplicationContext().getEnvironment();
+        boolean requested = environment.getProperty("spring.threads.virtual.enabled", Boolean.class, false);
+        if (Threading.VIRTUAL.isActive(environment)) {
+            log.info("Serving requests on virtual threads");
+        } else if (requested) {
+            log.warn("spring.threads.virtual.enabled is set but Java {} has no virtual threads; serving requests on platform threads",
+                    Runtime.version().feature());
+        }
+    }
+}
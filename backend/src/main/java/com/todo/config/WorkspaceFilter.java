@@ -0,0 +1,64 @@
+package com.todo.config;
+
+import com.todo.service.WorkspaceContext;
+import com.todo.service.WorkspaceDirectory;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Binds each node request to the workspace named by its {@code X-Workspace} header, or by its
+ * {@code workspace} parameter for EventSource and download links, which cannot set headers;
+ * requests naming neither work in the default workspace. Requests that may write hold the
+ * workspace's write lock until they complete, so moving the workspace to another partition
+ * waits for them and they wait for the move. Read requests bind the workspace read-only, so a
+ * workspace that was never written reads as empty instead of being placed on a partition.
+ */
+class WorkspaceFilter extends OncePerRequestFilter {
+
+    static final String HEADER = "X-Workspace";
+    static final String PARAMETER = "workspace";
+
+    private static final Set<String> READ_METHODS = Set.of("GET", "HEAD", "OPTIONS");
+
+    private final WorkspaceDirectory workspaceDirectory;
+
+    WorkspaceFilter(WorkspaceDirectory workspaceDirectory) {
+        this.workspaceDirectory = workspaceDirectory;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String workspace = request.getHeader(HEADER);
+        if (workspace == null) {
+            workspace = request.getParameter(PARAMETER);
+        }
+        if (workspace == null) {
+            workspace = WorkspaceContext.DEFAULT;
+        }
+        if (!WorkspaceContext.isValidName(workspace)) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid workspace: " + workspace);
+            return;
+        }
+
+        boolean read = READ_METHODS.contains(request.getMethod());
+        Lock writes = read ? null : workspaceDirectory.writeLock(workspace);
+        if (writes != null) {
+            writes.lock();
+        }
+        try (WorkspaceContext.Binding binding = read ? WorkspaceContext.enterReadOnly(workspace) : WorkspaceContext.enter(workspace)) {
+            chain.doFilter(request, response);
+        } finally {
+            if (writes != null) {
+                writes.unlock();
+            }
+        }
+    }
+}
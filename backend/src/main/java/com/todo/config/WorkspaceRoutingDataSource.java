@@ -0,0 +1,35 @@
+package com.todo.config;
+
+import com.todo.service.WorkspaceDirectory;
+import com.todo.service.WorkspacePartitions;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The application's data source: hands out connections of the partition that holds the
+ * workspace bound to the calling thread, or of the partition bound directly. Threads with
+ * neither, such as those running migrations and schema validation at startup, get partition 0.
+ * The lookup happens when a transaction takes its connection, so a transaction stays on one
+ * partition throughout. Only writes place a new workspace on a partition.
+ */
+class WorkspaceRoutingDataSource extends AbstractRoutingDataSource {
+
+    private final WorkspaceDirectory workspaceDirectory;
+
+    WorkspaceRoutingDataSource(WorkspacePartitions workspacePartitions, WorkspaceDirectory workspaceDirectory) {
+        this.workspaceDirectory = workspaceDirectory;
+        Map<Object, Object> targets = new HashMap<>();
+        for (int partition = 0; partition < workspacePartitions.count(); partition++) {
+            targets.put(partition, workspacePartitions.get(partition));
+        }
+        setTargetDataSources(targets);
+        setLenientFallback(false);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return workspaceDirectory.currentPartition();
+    }
+}
@@ -1,36 +1,198 @@
 package com.todo.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.todo.dto.FilteredNodeTree;
+import com.todo.dto.NodeBatchOperation;
+import com.todo.dto.NodeChanges;
+import com.todo.dto.NodeDraft;
+import com.todo.dto.NodePage;
+import com.todo.dto.NodeView;
+import com.todo.dto.NodeTree;
+import com.todo.dto.SnapshotImport;
+import com.todo.dto.TagCount;
 import com.todo.entity.Node;
+import com.todo.service.NodeChangeBroadcaster;
 import com.todo.service.NodeService;
+import com.todo.service.NodeSnapshotService;
+import com.todo.service.NodeStateBuffer;
+import com.todo.service.NodeTreeCache;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api/nodes")
-@CrossOrigin(origins = "http://localhost:4200")
+@CrossOrigin(origins = "http://localhost:4200", exposedHeaders = HttpHeaders.ETAG)
 public class NodeController {
     
     private final NodeService nodeService;
+    private final NodeChangeBroadcaster nodeChangeBroadcaster;
+    private final NodeSnapshotService nodeSnapshotService;
+    private final NodeStateBuffer nodeStateBuffer;
+    private final ObjectMapper objectMapper;
     
-    public NodeController(NodeService nodeService) {
+    public NodeController(
+            NodeService nodeService,
+            NodeChangeBroadcaster nodeChangeBroadcaster,
+            NodeSnapshotService nodeSnapshotService,
+            NodeStateBuffer nodeStateBuffer,
+            ObjectMapper objectMapper) {
         this.nodeService = nodeService;
+        this.nodeChangeBroadcaster = nodeChangeBroadcaster;
+        this.nodeSnapshotService = nodeSnapshotService;
+        this.nodeStateBuffer = nodeStateBuffer;
+        this.objectMapper = objectMapper;
     }
     
+    // Listings and nodes carry ETags; Spring answers a matching If-None-Match with 304 and no body.
+    // Tags are built from node versions, so a 304 is free when the nodes are cached but costs their query on a miss
     @GetMapping
-    public List<Node> getRootNodes() {
-        return nodeService.getAllRootNodes();
+    public ResponseEntity<List<Node>> getRootNodes() {
+        List<Node> roots = nodeService.getAllRootNodes();
+        return ResponseEntity.ok().eTag(NodeETags.of(roots)).body(roots);
+    }
+    
+    @GetMapping(params = "view")
+    public ResponseEntity<List<?>> getRootNodesView(@RequestParam String view) {
+        List<Node> roots = nodeService.getAllRootNodes();
+        return ResponseEntity.ok().eTag(NodeETags.of(roots)).body(project(roots, view));
     }
     
     @GetMapping("/{id}/children")
-    public List<Node> getChildren(@PathVariable Long id) {
-        return nodeService.getChildren(id);
+    public ResponseEntity<List<Node>> getChildren(@PathVariable Long id) {
+        List<Node> children = nodeService.getChildren(id);
+        return ResponseEntity.ok().eTag(NodeETags.of(children)).body(children);
+    }
+    
+    @GetMapping(path = "/{id}/children", params = "view")
+    public ResponseEntity<List<?>> getChildrenView(@PathVariable Long id, @RequestParam String view) {
+        List<Node> children = nodeService.getChildren(id);
+        return ResponseEntity.ok().eTag(NodeETags.of(children)).body(project(children, view));
+    }
+    
+    @GetMapping("/page")
+    public ResponseEntity<NodePage> getChildrenPage(
+            @RequestParam(required = false) Long parentId,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(nodeService.getChildrenPage(parentId, after, limit));
+    }
+    
+    @GetMapping("/filter")
+    public ResponseEntity<NodePage> filterNodes(
+            @RequestParam(required = false) Boolean completed,
+            @RequestParam(required = false) Boolean starred,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(nodeService.filterNodes(completed, starred, after, limit));
+    }
+    
+    @GetMapping("/tagged")
+    public ResponseEntity<NodePage> filterByTags(
+            @RequestParam(required = false) List<String> all,
+            @RequestParam(required = false) List<String> any,
+            @RequestParam(required = false) Boolean completed,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(nodeService.filterByTags(
+                all != null ? all : List.of(), any != null ? any : List.of(), completed, after, limit));
+    }
+    
+    @GetMapping("/tags")
+    public List<TagCount> getTagCounts() {
+        return nodeService.getTagCounts();
+    }
+    
+    // Writes the JSON array as the nodes are read, so neither side needs the whole result in memory
+    @GetMapping(path = "/filter/stream", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamFilteredNodes(
+            @RequestParam(required = false) Boolean completed,
+            @RequestParam(required = false) Boolean starred) {
+        return ResponseEntity.ok(out -> {
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+                generator.writeStartArray();
+                nodeService.streamFiltered(completed, starred, nodes -> {
+                    try {
+                        for (Node node : nodes) {
+                            generator.writeObject(node);
+                        }
+                        generator.flush();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                generator.writeEndArray();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        });
+    }
+    
+    @GetMapping("/tree")
+    public List<NodeTree> getForest(@RequestParam(required = false) Integer depth) {
+        return nodeService.getForest(depth);
+    }
+    
+    @GetMapping("/{id}/subtree")
+    public ResponseEntity<NodeTree> getSubtree(
+            @PathVariable Long id,
+            @RequestParam(required = false) Integer depth) {
+        return ResponseEntity.ok(nodeService.getSubtree(id, depth));
+    }
+    
+    @GetMapping("/{id}/ancestors")
+    public List<Node> getAncestors(@PathVariable Long id) {
+        return nodeService.getAncestors(id);
+    }
+    
+    @GetMapping("/{id}/mirrors")
+    public ResponseEntity<List<Node>> getMirrors(@PathVariable Long id) {
+        List<Node> mirrors = nodeService.getMirrors(id);
+        return ResponseEntity.ok().eTag(NodeETags.of(mirrors)).body(mirrors);
+    }
+    
+    @GetMapping("/changes")
+    public ResponseEntity<NodeChanges> getChanges(
+            @RequestParam(required = false) Long since,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(nodeService.getChanges(since, limit));
+    }
+    
+    @GetMapping(path = "/changes/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChanges(@RequestParam(required = false) Long rootId) {
+        return nodeChangeBroadcaster.subscribe(rootId);
+    }
+    
+    @GetMapping(path = "/snapshot", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportSnapshot() {
+        // The snapshot reads rows directly, so buffered expansion is written first
+        nodeStateBuffer.flush();
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"nodes.snapshot\"")
+                .body(out -> nodeSnapshotService.exportSnapshot(Channels.newChannel(out)));
+    }
+    
+    @PostMapping(path = "/snapshot", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<SnapshotImport> importSnapshot(InputStream body) throws IOException {
+        return ResponseEntity.ok(nodeSnapshotService.importSnapshot(Channels.newChannel(body)));
     }
     
     @GetMapping("/{id}")
     public ResponseEntity<Node> getNode(@PathVariable Long id) {
-        return ResponseEntity.ok(nodeService.getNodeById(id));
+        Node node = nodeService.getNodeById(id);
+        return ResponseEntity.ok().eTag(NodeETags.of(node)).body(node);
     }
     
     @PostMapping
@@ -38,9 +200,20 @@ public class NodeController {
         return ResponseEntity.ok(nodeService.createNode(node));
     }
     
+    @PostMapping("/bulk")
+    public ResponseEntity<List<Node>> createSubtrees(
+            @RequestParam(required = false) Long parentId,
+            @RequestBody List<NodeDraft> drafts) {
+        return ResponseEntity.ok(nodeService.createSubtrees(parentId, drafts));
+    }
+    
     @PutMapping("/{id}")
-    public ResponseEntity<Node> updateNode(@PathVariable Long id, @RequestBody Node node) {
-        return ResponseEntity.ok(nodeService.updateNode(id, node));
+    public ResponseEntity<Node> updateNode(
+            @PathVariable Long id,
+            @RequestBody Node node,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Node updated = nodeService.updateNode(id, node, NodeETags.expectedVersion(ifMatch));
+        return ResponseEntity.ok().eTag(NodeETags.of(updated)).body(updated);
     }
     
     @DeleteMapping("/{id}")
@@ -53,8 +226,15 @@ public class NodeController {
     public ResponseEntity<Node> moveNode(
             @PathVariable Long id,
             @RequestParam(required = false) Long parentId,
-            @RequestParam(required = false) Integer position) {
-        return ResponseEntity.ok(nodeService.moveNode(id, parentId, position));
+            @RequestParam(required = false) Integer position,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Node moved = nodeService.moveNode(id, parentId, position, NodeETags.expectedVersion(ifMatch));
+        return ResponseEntity.ok().eTag(NodeETags.of(moved)).body(moved);
+    }
+    
+    @PostMapping("/{id}/duplicate")
+    public ResponseEntity<NodeTree> duplicateSubtree(@PathVariable Long id) {
+        return ResponseEntity.ok(nodeService.duplicateSubtree(id));
     }
     
     // New endpoints for enhanced features
@@ -74,21 +254,65 @@ public class NodeController {
     }
     
     @PatchMapping("/{id}/notes")
-    public ResponseEntity<Node> updateNotes(@PathVariable Long id, @RequestBody String notes) {
-        return ResponseEntity.ok(nodeService.updateNotes(id, notes));
+    public ResponseEntity<Node> updateNotes(
+            @PathVariable Long id,
+            @RequestBody String notes,
+            @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Node updated = nodeService.updateNotes(id, notes, NodeETags.expectedVersion(ifMatch));
+        return ResponseEntity.ok().eTag(NodeETags.of(updated)).body(updated);
     }
     
     @PostMapping("/batch")
-    public ResponseEntity<List<Node>> batchUpdate(@RequestBody List<Node> nodes) {
-        return ResponseEntity.ok(nodeService.batchUpdate(nodes));
+    public ResponseEntity<List<Node>> applyBatch(@RequestBody List<NodeBatchOperation> operations) {
+        return ResponseEntity.ok(nodeService.applyBatch(operations));
+    }
+    
+    @GetMapping("/search/tree")
+    public ResponseEntity<List<FilteredNodeTree>> searchTree(
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String tag,
+            @RequestParam(required = false) Boolean completed,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "true") boolean descendants) {
+        return ResponseEntity.ok(nodeService.searchTree(q, tag, completed, limit, descendants));
+    }
+    
+    @GetMapping("/cache/stats")
+    public NodeTreeCache.Stats getCacheStats() {
+        return nodeService.getCacheStats();
     }
     
     @GetMapping("/search")
     public ResponseEntity<List<Node>> search(
             @RequestParam(required = false) String q,
             @RequestParam(required = false) String tag,
-            @RequestParam(required = false) Boolean completed) {
-        return ResponseEntity.ok(nodeService.search(q, tag, completed));
+            @RequestParam(required = false) Boolean completed,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(nodeService.search(q, tag, completed, limit));
+    }
+    
+    @GetMapping(path = "/search", params = "view")
+    public ResponseEntity<List<?>> searchView(
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String tag,
+            @RequestParam(required = false) Boolean completed,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam String view) {
+        return ResponseEntity.ok(project(nodeService.search(q, tag, completed, limit), view));
+    }
+    
+    // A stale If-Match, or an update that raced another one and lost when its transaction flushed
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<Void> preconditionFailed() {
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).build();
+    }
+    
+    // outline: no notes or tags, plus rollups; detail: everything, with tags loaded in one batch
+    private List<?> project(List<Node> nodes, String view) {
+        return switch (NodeView.parse(view)) {
+            case OUTLINE -> nodeService.toOutlines(nodes);
+            case DETAIL -> nodeService.toDetails(nodes);
+        };
     }
 }
 
@@ -0,0 +1,76 @@
+package com.todo.controller;
+
+import com.todo.dto.NodeVersion;
+import com.todo.entity.Node;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Strong entity tags for nodes and node listings, derived from the nodes' versions alone so
+ * they can be computed from cached nodes without a database round trip.
+ */
+final class NodeETags {
+
+    // A mirror's tag also carries its source's version after a dot
+    private static final Pattern NODE_TAG = Pattern.compile("\"(\\d+)(?:\\.(\\d+))?\"");
+
+    private NodeETags() {
+    }
+
+    /**
+     * A node's tag is its version, which changes with every change to its representation. A
+     * mirror shows its source's content too, so its tag adds the source's version.
+     */
+    static String of(Node node) {
+        if (node.getSourceVersion() != null) {
+            return "\"" + node.getVersion() + "." + node.getSourceVersion() + "\"";
+        }
+        return "\"" + node.getVersion() + "\"";
+    }
+
+    /** A listing's tag digests the ids and versions of its nodes in order, so it changes when any of them, their order or the membership does. */
+    static String of(List<Node> nodes) {
+        MessageDigest digest = sha256();
+        ByteBuffer entry = ByteBuffer.allocate(3 * Long.BYTES);
+        for (Node node : nodes) {
+            entry.clear();
+            entry.putLong(node.getId()).putLong(node.getVersion())
+                    .putLong(node.getSourceVersion() != null ? node.getSourceVersion() : -1);
+            digest.update(entry.array());
+        }
+        return "\"" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
+    }
+
+    /**
+     * The node version an {@code If-Match} header requires, or null when it is absent or
+     * {@code *}. A mirror's tag names its source's version as well. A header that cannot name
+     * any version of a node, such as a weak tag, fails the precondition outright.
+     */
+    static NodeVersion expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        Matcher matcher = NODE_TAG.matcher(ifMatch.trim());
+        if (!matcher.matches()) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "If-Match does not name a node version");
+        }
+        return new NodeVersion(Long.parseLong(matcher.group(1)),
+                matcher.group(2) != null ? Long.valueOf(matcher.group(2)) : null);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
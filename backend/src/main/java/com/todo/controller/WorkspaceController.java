@@ -0,0 +1,30 @@
+package com.todo.controller;
+
+import com.todo.dto.WorkspaceSummary;
+import com.todo.service.WorkspaceRebalancer;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/workspaces")
+@CrossOrigin(origins = "http://localhost:4200")
+public class WorkspaceController {
+    
+    private final WorkspaceRebalancer workspaceRebalancer;
+    
+    public WorkspaceController(WorkspaceRebalancer workspaceRebalancer) {
+        this.workspaceRebalancer = workspaceRebalancer;
+    }
+    
+    @GetMapping
+    public List<WorkspaceSummary> getWorkspaces() {
+        return workspaceRebalancer.summaries();
+    }
+    
+    // Returns once the workspace is served from the partition; it stays readable throughout, writes to it wait
+    @PostMapping("/{workspace}/move")
+    public WorkspaceSummary moveWorkspace(@PathVariable String workspace, @RequestParam int partition) {
+        return workspaceRebalancer.move(workspace, partition);
+    }
+}
@@ -0,0 +1,22 @@
+package com.todo.dto;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import com.todo.entity.Node;
+
+import java.util.List;
+
+/**
+ * A node of a search-filtered tree: matching nodes, their ancestors and optionally their
+ * descendants. {@code matched} marks search hits and {@code matches} holds the character
+ * ranges of the hit's content to highlight.
+ */
+public record FilteredNodeTree(
+        @JsonUnwrapped Node node,
+        boolean matched,
+        List<MatchRange> matches,
+        List<FilteredNodeTree> children) {
+
+    /** Half-open range {@code [start, end)} of content characters. */
+    public record MatchRange(int start, int end) {
+    }
+}
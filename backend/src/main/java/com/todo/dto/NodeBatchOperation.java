@@ -0,0 +1,35 @@
+package com.todo.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * One step of {@code POST /api/nodes/batch}. Which fields are read depends on {@code op}:
+ * <ul>
+ *   <li>{@code create}: {@code parentId}, {@code position} (index among the new siblings, last when
+ *   omitted) and the content fields</li>
+ *   <li>{@code update}: {@code id} and whichever content fields are non-null</li>
+ *   <li>{@code move}: {@code id}, {@code parentId} and {@code position} (index among the new siblings)</li>
+ *   <li>{@code delete}: {@code id}; the node's subtree is removed with it</li>
+ * </ul>
+ */
+public record NodeBatchOperation(
+        Type op,
+        Long id,
+        Long parentId,
+        Integer position,
+        String content,
+        String notes,
+        List<String> tags,
+        Boolean isCompleted,
+        Boolean isExpanded,
+        Boolean isStarred) {
+
+    public enum Type {
+        @JsonProperty("create") CREATE,
+        @JsonProperty("update") UPDATE,
+        @JsonProperty("move") MOVE,
+        @JsonProperty("delete") DELETE
+    }
+}
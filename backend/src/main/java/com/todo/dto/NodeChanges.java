@@ -0,0 +1,15 @@
+package com.todo.dto;
+
+import com.todo.entity.Node;
+
+import java.util.List;
+
+/**
+ * Answer to {@code GET /api/nodes/changes}: the current state of every node created, updated
+ * or moved after the requested cursor, and the ids of those deleted. Clients pass
+ * {@code cursor} as the next {@code since}; when {@code complete} is false more changes
+ * are waiting and should be fetched right away. When {@code reloadRequired} is true the changes
+ * after {@code since} are no longer kept; clients take {@code cursor} and reload the tree.
+ */
+public record NodeChanges(long cursor, boolean complete, List<Node> nodes, List<Long> deletedIds, boolean reloadRequired) {
+}
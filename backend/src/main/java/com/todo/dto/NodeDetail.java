@@ -0,0 +1,24 @@
+package com.todo.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/** Every field of a node with its rollups, with the tags of a whole listing loaded in one query. */
+public record NodeDetail(
+        Long id,
+        Long parentId,
+        String content,
+        Integer position,
+        String path,
+        LocalDateTime createdAt,
+        LocalDateTime updatedAt,
+        Boolean isCompleted,
+        Boolean isExpanded,
+        Boolean isStarred,
+        String notes,
+        List<String> tags,
+        Long mirrorId,
+        int childCount,
+        int descendantCount,
+        int completedDescendantCount) {
+}
@@ -0,0 +1,17 @@
+package com.todo.dto;
+
+import java.util.List;
+
+/**
+ * A node to be created together with its nested children, as accepted by
+ * {@code POST /api/nodes/bulk}. Siblings keep the order in which they are listed.
+ */
+public record NodeDraft(
+        String content,
+        String notes,
+        List<String> tags,
+        Boolean isCompleted,
+        Boolean isExpanded,
+        Boolean isStarred,
+        List<NodeDraft> children) {
+}
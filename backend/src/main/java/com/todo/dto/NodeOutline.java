@@ -0,0 +1,19 @@
+package com.todo.dto;
+
+/**
+ * What the tree needs to draw a node: its text, place, flags and child and progress counts,
+ * without notes or tags.
+ */
+public record NodeOutline(
+        Long id,
+        Long parentId,
+        String content,
+        Integer position,
+        Boolean isCompleted,
+        Boolean isExpanded,
+        Boolean isStarred,
+        Long mirrorId,
+        int childCount,
+        int descendantCount,
+        int completedDescendantCount) {
+}
@@ -0,0 +1,13 @@
+package com.todo.dto;
+
+import com.todo.entity.Node;
+
+import java.util.List;
+
+/**
+ * One keyset page of a node listing. {@code next} is an opaque cursor to pass as the next
+ * {@code after}, or null on the last page; pages stay consistent while nodes are inserted or
+ * removed in front of the cursor.
+ */
+public record NodePage(List<Node> nodes, String next) {
+}
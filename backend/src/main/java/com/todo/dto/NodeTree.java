@@ -0,0 +1,13 @@
+package com.todo.dto;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import com.todo.entity.Node;
+
+import java.util.List;
+
+/**
+ * A node together with its position-ordered children, serialized as the node's
+ * own fields plus a nested {@code children} array.
+ */
+public record NodeTree(@JsonUnwrapped Node node, List<NodeTree> children) {
+}
@@ -0,0 +1,12 @@
+package com.todo.dto;
+
+/**
+ * The node version an {@code If-Match} header names. A mirror's tag also names the version of
+ * its source, which writes of the mirror's content through it must still find.
+ */
+public record NodeVersion(long version, Long sourceVersion) {
+
+    public static NodeVersion of(long version) {
+        return new NodeVersion(version, null);
+    }
+}
@@ -0,0 +1,20 @@
+package com.todo.dto;
+
+import java.util.Locale;
+
+/**
+ * Read projection selected with the {@code view} query parameter of the listing endpoints:
+ * {@code outline} for drawing the tree, {@code detail} for a node's full content.
+ */
+public enum NodeView {
+    OUTLINE,
+    DETAIL;
+
+    public static NodeView parse(String view) {
+        try {
+            return valueOf(view.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Unknown view: " + view);
+        }
+    }
+}
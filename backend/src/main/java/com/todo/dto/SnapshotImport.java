@@ -0,0 +1,8 @@
+package com.todo.dto;
+
+/**
+ * Answer to {@code POST /api/nodes/snapshot}: how many nodes were imported and the amount
+ * added to every snapshot id, so an imported node's id is its snapshot id plus {@code idOffset}.
+ */
+public record SnapshotImport(long nodes, long idOffset) {
+}
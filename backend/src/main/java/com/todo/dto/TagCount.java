@@ -0,0 +1,5 @@
+package com.todo.dto;
+
+/** A tag in use and the number of nodes carrying it, as listed for a tag sidebar. */
+public record TagCount(String tag, long count) {
+}
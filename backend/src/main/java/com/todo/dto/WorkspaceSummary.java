@@ -0,0 +1,5 @@
+package com.todo.dto;
+
+/** A workspace as listed by {@code GET /api/workspaces}: the partition holding it and its number of nodes. */
+public record WorkspaceSummary(String name, int partition, long nodes) {
+}
@@ -1,26 +1,51 @@
 package com.todo.entity;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import jakarta.persistence.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "nodes")
+@Table(name = "nodes", indexes = {
+        @Index(name = "idx_nodes_path", columnList = "path"),
+        @Index(name = "idx_nodes_parent_position", columnList = "parent_id, position"),
+        @Index(name = "idx_nodes_completed", columnList = "is_completed"),
+        @Index(name = "idx_nodes_starred", columnList = "is_starred"),
+        @Index(name = "idx_nodes_workspace_parent_position", columnList = "workspace, parent_id, position")
+})
 public class Node {
     
+    public static final String DEFAULT_WORKSPACE = "default";
+    
+    // Pooled sequence: ids are handed out in blocks without a round trip, so inserts can be batched
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "node_id_seq")
+    @SequenceGenerator(name = "node_id_seq", sequenceName = "node_id_seq", allocationSize = 50)
     private Long id;
     
     @Column(nullable = false)
     private String content;
     
+    // Set on creation from the request's workspace and never changed; see WorkspaceContext
+    @Column(nullable = false, length = 64, updatable = false)
+    @JsonIgnore
+    private String workspace = DEFAULT_WORKSPACE;
+    
     @Column(name = "parent_id")
     private Long parentId;
     
+    // Sparse sort key among siblings; see NodeService.POSITION_GAP. Null until placed, so a node
+    // created without one is appended after its siblings
     @Column(nullable = false)
-    private Integer position = 0;
+    private Integer position;
+    
+    // Materialized ancestry, e.g. "/1/5/" for node 9 under 5 under root 1 and "/" for roots; maintained by NodeService.
+    // It grows by one id per level, so the column has H2's largest VARCHAR length rather than a depth limit
+    @Column(length = 1_000_000)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private String path;
     
     @Column(name = "created_at", nullable = false, updatable = false)
     private LocalDateTime createdAt;
@@ -38,16 +63,44 @@ public class Node {
     private Boolean isStarred = false;
     
     @ElementCollection
-    @CollectionTable(name = "node_tags", joinColumns = @JoinColumn(name = "node_id"))
+    @CollectionTable(name = "node_tags", joinColumns = @JoinColumn(name = "node_id"),
+            indexes = @Index(name = "idx_node_tags_tag", columnList = "tag"))
     @Column(name = "tag")
     private List<String> tags = new ArrayList<>();
     
     @Column(name = "notes", columnDefinition = "TEXT")
     private String notes;
     
+    // A mirror shows its source's content, notes and tags, keeping none of its own; never another mirror
     @Column(name = "mirror_id")
     private Long mirrorId;
     
+    // Version of the source a resolved mirror was read with, part of the mirror's ETag
+    @Transient
+    @JsonIgnore
+    private Long sourceVersion;
+    
+    // Bumped by Hibernate on every entity update and by NodeService's bulk statements alike, so it
+    // changes whenever the node's representation does; served as the node's ETag
+    @Version
+    @Column(name = "version", nullable = false)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Long version;
+    
+    // Rollups for expand arrows and progress indicators, excluding the node itself. Written on insert,
+    // then only adjusted in place by NodeService's set-wise updates so stale entities never overwrite them
+    @Column(name = "child_count", nullable = false, updatable = false)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Integer childCount = 0;
+    
+    @Column(name = "descendant_count", nullable = false, updatable = false)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Integer descendantCount = 0;
+    
+    @Column(name = "completed_descendant_count", nullable = false, updatable = false)
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private Integer completedDescendantCount = 0;
+    
     public Node() {
     }
     
@@ -85,6 +138,14 @@ public class Node {
         this.content = content;
     }
     
+    public String getWorkspace() {
+        return workspace;
+    }
+    
+    public void setWorkspace(String workspace) {
+        this.workspace = workspace;
+    }
+    
     public Long getParentId() {
         return parentId;
     }
@@ -101,6 +162,14 @@ public class Node {
         this.position = position;
     }
     
+    public String getPath() {
+        return path;
+    }
+    
+    public void setPath(String path) {
+        this.path = path;
+    }
+    
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
@@ -165,5 +234,44 @@ public class Node {
     public void setMirrorId(Long mirrorId) {
         this.mirrorId = mirrorId;
     }
+    
+    public Long getSourceVersion() {
+        return sourceVersion;
+    }
+    
+    public void setSourceVersion(Long sourceVersion) {
+        this.sourceVersion = sourceVersion;
+    }
+    
+    public Long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    
+    public Integer getChildCount() {
+        return childCount;
+    }
+    
+    public void setChildCount(Integer childCount) {
+        this.childCount = childCount;
+    }
+    
+    public Integer getDescendantCount() {
+        return descendantCount;
+    }
+    
+    public void setDescendantCount(Integer descendantCount) {
+        this.descendantCount = descendantCount;
+    }
+    
+    public Integer getCompletedDescendantCount() {
+        return completedDescendantCount;
+    }
+    
+    public void setCompletedDescendantCount(Integer completedDescendantCount) {
+        this.completedDescendantCount = completedDescendantCount;
+    }
 }
-
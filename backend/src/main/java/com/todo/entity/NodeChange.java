@@ -0,0 +1,113 @@
+package com.todo.entity;
+
+import jakarta.persistence.*;
+import org.springframework.data.domain.Persistable;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * One entry of the change log behind {@code GET /api/nodes/changes}: which node of which
+ * workspace changed how, numbered by a sequence that only grows, so clients can ask for
+ * everything after a number.
+ */
+@Entity
+@Table(name = "node_changes")
+@IdClass(NodeChange.Key.class)
+public class NodeChange implements Persistable<NodeChange.Key> {
+    
+    public enum Type {
+        CREATE, UPDATE, MOVE, DELETE
+    }
+    
+    /** An entry's number is only unique within its workspace. */
+    public static class Key implements Serializable {
+        
+        private String workspace;
+        private Long seq;
+        
+        public Key() {
+        }
+        
+        public Key(String workspace, Long seq) {
+            this.workspace = workspace;
+            this.seq = seq;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && Objects.equals(workspace, key.workspace) && Objects.equals(seq, key.seq);
+        }
+        
+        @Override
+        public int hashCode() {
+            return Objects.hash(workspace, seq);
+        }
+    }
+    
+    @Id
+    @Column(nullable = false, length = 64)
+    private String workspace;
+    
+    // Assigned by NodeChangeLog from the partition's sequence; a workspace's entries keep their
+    // numbers when it moves to another partition, which may have used them for other workspaces
+    @Id
+    private Long seq;
+    
+    @Column(name = "node_id", nullable = false)
+    private Long nodeId;
+    
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 10)
+    private Type type;
+    
+    @Column(name = "changed_at", nullable = false)
+    private LocalDateTime changedAt;
+    
+    public NodeChange() {
+    }
+    
+    public NodeChange(Long seq, String workspace, Long nodeId, Type type) {
+        this.seq = seq;
+        this.workspace = workspace;
+        this.nodeId = nodeId;
+        this.type = type;
+    }
+    
+    @PrePersist
+    protected void onCreate() {
+        changedAt = LocalDateTime.now();
+    }
+    
+    public Long getSeq() {
+        return seq;
+    }
+    
+    @Override
+    public Key getId() {
+        return new Key(workspace, seq);
+    }
+    
+    // Entries are only ever inserted, so saving one persists it without first looking for its row
+    @Override
+    public boolean isNew() {
+        return changedAt == null;
+    }
+    
+    public String getWorkspace() {
+        return workspace;
+    }
+    
+    public Long getNodeId() {
+        return nodeId;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public LocalDateTime getChangedAt() {
+        return changedAt;
+    }
+}
@@ -0,0 +1,58 @@
+package com.todo.repository;
+
+import com.todo.entity.NodeChange;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface NodeChangeRepository extends JpaRepository<NodeChange, NodeChange.Key> {
+    
+    List<NodeChange> findByWorkspaceAndSeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(
+            String workspace, Long after, Long upTo, Pageable pageable);
+    
+    @Query("SELECT MAX(c.seq) FROM NodeChange c WHERE c.workspace = :workspace AND c.seq <= :upTo")
+    Long findLatestSeq(@Param("workspace") String workspace, @Param("upTo") long upTo);
+    
+    @Query("""
+            SELECT MAX(c.seq) FROM NodeChange c
+            WHERE c.workspace = :workspace AND c.changedAt < :cutoff AND c.seq <= :upTo
+            """)
+    Long findLastSeqBefore(
+            @Param("workspace") String workspace, @Param("cutoff") LocalDateTime cutoff, @Param("upTo") long upTo);
+    
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM NodeChange c WHERE c.workspace = :workspace AND c.seq <= :seq")
+    int deleteThrough(@Param("workspace") String workspace, @Param("seq") long seq);
+    
+    // Highest number used in this partition by any workspace
+    @Query("SELECT MAX(c.seq) FROM NodeChange c")
+    Long findMaxSeq();
+    
+    // First number of a new block of NodeChangeLog.SEQ_BLOCK_SIZE from this partition's sequence.
+    // Taking it flushes nothing, as NodeChangeLog takes it while holding its lock
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FLUSH_MODE, value = "COMMIT"))
+    @Query(value = "SELECT NEXT VALUE FOR node_change_seq", nativeQuery = true)
+    long nextSeqBlock();
+    
+    // The number the sequence hands out next
+    @Query(value = "SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = 'NODE_CHANGE_SEQ'",
+            nativeQuery = true)
+    Long findNextSeq();
+    
+    @Transactional
+    @Modifying
+    @Query(value = "ALTER SEQUENCE node_change_seq RESTART WITH :next", nativeQuery = true)
+    void restartSeqs(@Param("next") long next);
+}
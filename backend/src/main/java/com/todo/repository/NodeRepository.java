@@ -1,33 +1,237 @@
 package com.todo.repository;
 
 import com.todo.entity.Node;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface NodeRepository extends JpaRepository<Node, Long> {
     
-    List<Node> findByParentIdIsNullOrderByPositionAsc();
+    // Queries reaching the root level or the whole table take the workspace; all others start from
+    // node ids or paths, which belong to one workspace
+    List<Node> findByWorkspaceAndParentIdIsNullOrderByPositionAsc(String workspace);
     
     List<Node> findByParentIdOrderByPositionAsc(Long parentId);
     
-    @Query("SELECT MAX(n.position) FROM Node n WHERE n.parentId = :parentId")
-    Integer findMaxPositionByParentId(Long parentId);
+    @Query("""
+            SELECT MAX(n.position) FROM Node n
+            WHERE n.workspace = :workspace
+              AND (n.parentId = :parentId OR (:parentId IS NULL AND n.parentId IS NULL))
+            """)
+    Integer findMaxPositionByParentId(@Param("workspace") String workspace, @Param("parentId") Long parentId);
     
-    // Search methods
-    @Query("SELECT n FROM Node n WHERE LOWER(n.content) LIKE LOWER(CONCAT('%', :query, '%'))")
-    List<Node> findByContentContaining(@Param("query") String query);
+    // Levels in the deepest branch: a path holds one slash per level, e.g. "/1/5/" for the third
+    @Query("SELECT MAX(LENGTH(n.path) - LENGTH(REPLACE(n.path, '/', ''))) FROM Node n")
+    Integer findMaxDepth();
     
-    @Query("SELECT n FROM Node n JOIN n.tags t WHERE LOWER(t) LIKE LOWER(CONCAT('%', :tag, '%'))")
-    List<Node> findByTagsContaining(@Param("tag") String tag);
+    // Sort keys of a parent's children, used to pick a gap for an insert without loading entities;
+    // excludedId, the node being placed, may be null for a new one
+    @Query("""
+            SELECT n.position FROM Node n
+            WHERE n.workspace = :workspace
+              AND (n.parentId = :parentId OR (:parentId IS NULL AND n.parentId IS NULL))
+              AND (:excludedId IS NULL OR n.id <> :excludedId)
+            ORDER BY n.position, n.id
+            """)
+    List<Integer> findSiblingPositions(
+            @Param("workspace") String workspace,
+            @Param("parentId") Long parentId,
+            @Param("excludedId") Long excludedId);
+    
+    // Pages through all node ids of a partition in ascending order, used to rebuild the search index
+    @Query("SELECT n.id FROM Node n WHERE n.id > :afterId ORDER BY n.id")
+    List<Long> findIdsAfter(@Param("afterId") long afterId, Pageable pageable);
+    
+    @Query("SELECT DISTINCT n FROM Node n LEFT JOIN FETCH n.tags WHERE n.id IN :ids")
+    List<Node> findAllWithTagsByIdIn(@Param("ids") Collection<Long> ids);
+    
+    @Query(value = "SELECT node_id, tag FROM node_tags WHERE node_id IN (:ids)", nativeQuery = true)
+    List<Object[]> findTagsByNodeIdIn(@Param("ids") Collection<Long> ids);
     
     // Filter by completion status
-    List<Node> findByIsCompletedOrderByPositionAsc(Boolean isCompleted);
+    List<Node> findByWorkspaceAndIsCompletedOrderByPositionAsc(String workspace, Boolean isCompleted, Pageable pageable);
     
     List<Node> findByIsStarredTrueOrderByPositionAsc();
+    
+    // Keyset pages in sibling order; the position bound comes first so idx_nodes_workspace_parent_position
+    // and idx_nodes_parent_position serve it as a range
+    @Query("""
+            SELECT n FROM Node n
+            WHERE n.workspace = :workspace AND n.parentId IS NULL
+              AND n.position >= :afterPosition AND (n.position > :afterPosition OR n.id > :afterId)
+            ORDER BY n.position, n.id
+            """)
+    List<Node> findRootsAfter(
+            @Param("workspace") String workspace,
+            @Param("afterPosition") int afterPosition,
+            @Param("afterId") long afterId,
+            Pageable pageable);
+    
+    @Query("""
+            SELECT n FROM Node n
+            WHERE n.parentId = :parentId
+              AND n.position >= :afterPosition AND (n.position > :afterPosition OR n.id > :afterId)
+            ORDER BY n.position, n.id
+            """)
+    List<Node> findChildrenAfter(
+            @Param("parentId") Long parentId,
+            @Param("afterPosition") int afterPosition,
+            @Param("afterId") long afterId,
+            Pageable pageable);
+    
+    // Keyset pages over a workspace in id order, filtered by the flags that are given
+    @Query("""
+            SELECT n FROM Node n
+            WHERE n.workspace = :workspace AND n.id > :afterId
+              AND (:completed IS NULL OR n.isCompleted = :completed)
+              AND (:starred IS NULL OR n.isStarred = :starred)
+            ORDER BY n.id
+            """)
+    List<Node> findFilteredAfter(
+            @Param("workspace") String workspace,
+            @Param("completed") Boolean completed,
+            @Param("starred") Boolean starred,
+            @Param("afterId") long afterId,
+            Pageable pageable);
+    
+    // Same filter as a cursor-backed stream; must be consumed, and closed, inside a transaction
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query("""
+            SELECT n FROM Node n
+            WHERE n.workspace = :workspace
+              AND (:completed IS NULL OR n.isCompleted = :completed)
+              AND (:starred IS NULL OR n.isStarred = :starred)
+            ORDER BY n.id
+            """)
+    Stream<Node> streamFiltered(
+            @Param("workspace") String workspace,
+            @Param("completed") Boolean completed,
+            @Param("starred") Boolean starred);
+    
+    // Subtree loading: one recursive query instead of one query per level
+    @Query(value = """
+            WITH RECURSIVE subtree(id, depth) AS (
+                SELECT id, 0 FROM nodes WHERE id = :rootId
+                UNION ALL
+                SELECT n.id, s.depth + 1 FROM nodes n JOIN subtree s ON n.parent_id = s.id
+                WHERE s.depth < :maxDepth
+            )
+            SELECT n.* FROM nodes n JOIN subtree s ON n.id = s.id
+            ORDER BY s.depth, n.parent_id, n.position, n.id
+            """, nativeQuery = true)
+    List<Node> findSubtree(@Param("rootId") Long rootId, @Param("maxDepth") int maxDepth);
+    
+    @Query(value = """
+            WITH RECURSIVE subtree(id, depth) AS (
+                SELECT id, 0 FROM nodes WHERE workspace = :workspace AND parent_id IS NULL
+                UNION ALL
+                SELECT n.id, s.depth + 1 FROM nodes n JOIN subtree s ON n.parent_id = s.id
+                WHERE s.depth < :maxDepth
+            )
+            SELECT n.* FROM nodes n JOIN subtree s ON n.id = s.id
+            ORDER BY s.depth, n.parent_id, n.position, n.id
+            """, nativeQuery = true)
+    List<Node> findForest(@Param("workspace") String workspace, @Param("maxDepth") int maxDepth);
+    
+    // Ancestry lookups: a node's descendants are exactly the rows whose path starts with its path plus its id
+    // Rows are [id, path, isCompleted]: enough to take each node off its ancestors' rollups when deleting it
+    @Query("""
+            SELECT d.id, d.path, d.isCompleted FROM Node d, Node n
+            WHERE n.id = :rootId AND (d.id = n.id OR d.path LIKE CONCAT(n.path, CAST(n.id AS String), '/%'))
+            """)
+    List<Object[]> findSubtreeRows(@Param("rootId") Long rootId);
+    
+    @Query("""
+            SELECT DISTINCT d FROM Node d, Node m
+            WHERE m.id IN :rootIds AND (d.id = m.id OR d.path LIKE CONCAT(m.path, CAST(m.id AS String), '/%'))
+            """)
+    List<Node> findSubtrees(@Param("rootIds") Collection<Long> rootIds);
+    
+    // One node's subtree with tags fetched; the prefix is a bound literal so the path index applies
+    @Query("""
+            SELECT DISTINCT n FROM Node n LEFT JOIN FETCH n.tags
+            WHERE n.id = :rootId OR n.path LIKE CONCAT(:descendantPath, '%')
+            """)
+    List<Node> findSubtreeWithTags(@Param("rootId") Long rootId, @Param("descendantPath") String descendantPath);
+    
+    // Mirror sources with tags fetched, so resolving a listing's mirrors takes one query
+    @Query("SELECT DISTINCT n FROM Node n LEFT JOIN FETCH n.tags WHERE n.id IN :ids")
+    List<Node> findWithTagsByIdIn(@Param("ids") Collection<Long> ids);
+    
+    List<Node> findByMirrorIdOrderByIdAsc(Long mirrorId);
+    
+    @Query("SELECT n.id FROM Node n WHERE n.mirrorId IN :sourceIds")
+    List<Long> findIdsByMirrorIdIn(@Param("sourceIds") Collection<Long> sourceIds);
+    
+    @Query("SELECT n.path, n.id FROM Node n WHERE n.mirrorId = :sourceId")
+    List<Object[]> findMirrorPaths(@Param("sourceId") Long sourceId);
+    
+    @Query("SELECT n.path, n.id FROM Node n WHERE n.id IN :ids")
+    List<Object[]> findPathsByIdIn(@Param("ids") Collection<Long> ids);
+    
+    // Turning mirrors into plain nodes: their sources' tags first, then content and notes in one statement
+    @Modifying(flushAutomatically = true)
+    @Query(value = """
+            INSERT INTO node_tags (node_id, tag)
+            SELECT m.id, t.tag FROM nodes m JOIN node_tags t ON t.node_id = m.mirror_id
+            WHERE m.id IN (:mirrorIds)
+            """, nativeQuery = true)
+    int copySourceTags(@Param("mirrorIds") Collection<Long> mirrorIds);
+    
+    @Modifying
+    @Query(value = """
+            UPDATE nodes m SET
+                content = (SELECT s.content FROM nodes s WHERE s.id = m.mirror_id),
+                notes = (SELECT s.notes FROM nodes s WHERE s.id = m.mirror_id),
+                mirror_id = NULL,
+                version = version + 1
+            WHERE m.id IN (:mirrorIds)
+            """, nativeQuery = true)
+    int detachMirrors(@Param("mirrorIds") Collection<Long> mirrorIds);
+    
+    @Modifying(flushAutomatically = true)
+    @Query("""
+            UPDATE Node n SET n.path = CONCAT(:newPrefix, SUBSTRING(n.path, LENGTH(:oldPrefix) + 1)),
+                              n.version = n.version + 1
+            WHERE n.path LIKE CONCAT(:oldPrefix, '%')
+            """)
+    int replacePathPrefix(@Param("oldPrefix") String oldPrefix, @Param("newPrefix") String newPrefix);
+    
+    // Adds to the rollups of a node's ancestors in one statement; child_count only changes on its parent
+    @Modifying(flushAutomatically = true)
+    @Query(value = """
+            UPDATE nodes SET
+                version = version + 1,
+                child_count = child_count + CASE WHEN id = :parentId THEN :childDelta ELSE 0 END,
+                descendant_count = descendant_count + :descendantDelta,
+                completed_descendant_count = completed_descendant_count + :completedDelta
+            WHERE id IN (:ancestorIds)
+            """, nativeQuery = true)
+    int adjustRollups(
+            @Param("ancestorIds") Collection<Long> ancestorIds,
+            @Param("parentId") Long parentId,
+            @Param("childDelta") int childDelta,
+            @Param("descendantDelta") int descendantDelta,
+            @Param("completedDelta") int completedDelta);
+    
+    // Bulk deletes bypass the persistence context; callers pass bounded id batches
+    @Modifying
+    @Query(value = "DELETE FROM node_tags WHERE node_id IN (:ids)", nativeQuery = true)
+    int deleteTagsByNodeIds(@Param("ids") Collection<Long> ids);
+    
+    @Modifying
+    @Query(value = "DELETE FROM nodes WHERE id IN (:ids)", nativeQuery = true)
+    int deleteByIds(@Param("ids") Collection<Long> ids);
 }
 
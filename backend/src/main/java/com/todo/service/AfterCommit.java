@@ -0,0 +1,27 @@
+package com.todo.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Defers side effects of a write, such as updating in-memory indexes, until the
+ * surrounding transaction commits; runs them immediately outside a transaction.
+ */
+final class AfterCommit {
+    
+    private AfterCommit() {
+    }
+    
+    static void run(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
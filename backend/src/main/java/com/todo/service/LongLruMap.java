@@ -0,0 +1,197 @@
+package com.todo.service;
+
+import java.util.Arrays;
+
+/**
+ * Map from primitive long keys to values, kept in least-recently-used order so the coldest
+ * entry can be evicted. Keys are never boxed: entries live in parallel arrays linked from the
+ * eldest to the newest, and an open-addressing table of entry indexes, at most half full and
+ * probed linearly, finds them. An entry takes about 32 bytes besides its value, against some
+ * 56 for a {@code LinkedHashMap} entry with its boxed key.
+ * <p>
+ * Not thread-safe; {@link NodeTreeCache} guards its maps with its monitor.
+ */
+final class LongLruMap<V> {
+
+    private static final int NONE = -1;
+
+    // Entry i maps keys[i] to values[i]; older[i] and newer[i] link the entries in access order
+    private long[] keys;
+    private Object[] values;
+    private int[] older;
+    private int[] newer;
+    private int eldest = NONE;
+    private int newest = NONE;
+
+    // Removed entries are reused before the arrays grow, chained through newer[]
+    private int free = NONE;
+    private int allocated;
+    private int size;
+
+    // Entry index plus one per slot, zero marking an empty slot
+    private int[] table;
+    private int mask;
+
+    LongLruMap() {
+        keys = new long[16];
+        values = new Object[16];
+        older = new int[16];
+        newer = new int[16];
+        table = new int[32];
+        mask = table.length - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Returns the value for {@code key}, marking it the most recently used, or null. */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return null;
+        }
+        int entry = table[slot] - 1;
+        touch(entry);
+        return (V) values[entry];
+    }
+
+    /** Maps {@code key} to {@code value} as the most recently used entry and returns the previous value. */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        int slot = slotOf(key);
+        if (slot >= 0) {
+            int entry = table[slot] - 1;
+            V previous = (V) values[entry];
+            values[entry] = value;
+            touch(entry);
+            return previous;
+        }
+        if ((size + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+            slot = slotOf(key);
+        }
+        int entry = allocate();
+        keys[entry] = key;
+        values[entry] = value;
+        link(entry);
+        table[-slot - 1] = entry + 1;
+        size++;
+        return null;
+    }
+
+    /** Removes the entry for {@code key} and returns its value, or null when there was none. */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            return null;
+        }
+        int entry = table[slot] - 1;
+        V previous = (V) values[entry];
+        vacate(slot);
+        unlink(entry);
+        values[entry] = null;
+        newer[entry] = free;
+        free = entry;
+        size--;
+        return previous;
+    }
+
+    /** The key of the least recently used entry; the map must not be empty. */
+    long eldestKey() {
+        return keys[eldest];
+    }
+
+    // The key's slot when present, otherwise -(slot where it would go) - 1
+    private int slotOf(long key) {
+        for (int slot = home(key); ; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (entry == NONE) {
+                return -slot - 1;
+            }
+            if (keys[entry] == key) {
+                return slot;
+            }
+        }
+    }
+
+    private int home(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    // Empties a slot, moving later entries of the probe run back so none becomes unreachable
+    private void vacate(int slot) {
+        int gap = slot;
+        for (int next = (slot + 1) & mask; table[next] != 0; next = (next + 1) & mask) {
+            int home = home(keys[table[next] - 1]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                table[gap] = table[next];
+                gap = next;
+            }
+        }
+        table[gap] = 0;
+    }
+
+    private void rehash(int slots) {
+        table = new int[slots];
+        mask = slots - 1;
+        for (int entry = eldest; entry != NONE; entry = newer[entry]) {
+            int slot = home(keys[entry]);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = entry + 1;
+        }
+    }
+
+    private int allocate() {
+        if (free != NONE) {
+            int entry = free;
+            free = newer[entry];
+            return entry;
+        }
+        if (allocated == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            older = Arrays.copyOf(older, capacity);
+            newer = Arrays.copyOf(newer, capacity);
+        }
+        return allocated++;
+    }
+
+    private void touch(int entry) {
+        if (entry != newest) {
+            unlink(entry);
+            link(entry);
+        }
+    }
+
+    // Appends the entry as the newest
+    private void link(int entry) {
+        older[entry] = newest;
+        newer[entry] = NONE;
+        if (newest != NONE) {
+            newer[newest] = entry;
+        } else {
+            eldest = entry;
+        }
+        newest = entry;
+    }
+
+    private void unlink(int entry) {
+        if (older[entry] != NONE) {
+            newer[older[entry]] = newer[entry];
+        } else {
+            eldest = newer[entry];
+        }
+        if (newer[entry] != NONE) {
+            older[newer[entry]] = older[entry];
+        } else {
+            newest = older[entry];
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.todo.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pushes a {@code changes} Server-Sent Event to every client watching a subtree, or the whole
+ * tree of its workspace, in which nodes were written. Events only carry the latest change-log
+ * cursor of the subscriber's workspace; clients fetch the delta itself from
+ * {@code GET /api/nodes/changes}.
+ * <p>
+ * Committed changes are collected and flushed every {@code todo.push.flush-interval-ms}, so a
+ * burst of writes reaches each subscriber as a single event. A subscriber whose previous event
+ * is still being written is only marked pending, which bounds a slow client to one event in
+ * flight. Open streams are async requests that hold no thread; events are written by a sender
+ * pool of {@code todo.push.sender-threads} threads that grows while those are busy, so a client
+ * that stops reading holds up one thread and never the other subscribers' events. A subscriber
+ * whose event is not written within {@code todo.push.send-timeout-ms} is dropped, and its stream
+ * closed once the write returns; the client reconnects and polls the changes it missed.
+ */
+@Component
+public class NodeChangeBroadcaster {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeChangeBroadcaster.class);
+
+    static final String EVENT_NAME = "changes";
+
+    private final class Subscriber {
+
+        private final String workspace;
+        private final Long rootId;
+        private final SseEmitter emitter;
+        private final AtomicBoolean pending = new AtomicBoolean();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        // When the event being written was handed to the senders, while sending
+        private volatile long sendStartedNanos;
+
+        private Subscriber(String workspace, Long rootId, SseEmitter emitter) {
+            this.workspace = workspace;
+            this.rootId = rootId;
+            this.emitter = emitter;
+        }
+
+        private void send(long cursor) {
+            if (!sending.compareAndSet(false, true)) {
+                return;
+            }
+            pending.set(false);
+            sendStartedNanos = System.nanoTime();
+            senders.execute(() -> {
+                try {
+                    emitter.send(SseEmitter.event().name(EVENT_NAME).data(cursor));
+                    if (!subscribers.contains(this)) {
+                        // Dropped while the write was stuck
+                        emitter.complete();
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // The client went away; the container completes the emitter
+                    subscribers.remove(this);
+                } finally {
+                    sending.set(false);
+                }
+            });
+        }
+
+        private boolean stalled(long now) {
+            return sending.get() && now - sendStartedNanos > sendTimeoutNanos;
+        }
+    }
+
+    private final NodeChangeLog nodeChangeLog;
+    private final long timeoutMs;
+    private final long flushIntervalMs;
+    private final long sendTimeoutNanos;
+    private final Executor senders;
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    // Ids on the paths of nodes written since the last flush, and the workspaces they were written in
+    private Set<Long> touchedIds = new HashSet<>();
+    private Set<String> touchedWorkspaces = new HashSet<>();
+
+    private ScheduledExecutorService flusher;
+
+    @Autowired
+    public NodeChangeBroadcaster(
+            NodeChangeLog nodeChangeLog,
+            @Value("${todo.push.timeout-ms:600000}") long timeoutMs,
+            @Value("${todo.push.flush-interval-ms:100}") long flushIntervalMs,
+            @Value("${todo.push.sender-threads:4}") int senderThreads,
+            @Value("${todo.push.send-timeout-ms:5000}") long sendTimeoutMs) {
+        this(nodeChangeLog, timeoutMs, flushIntervalMs, sendTimeoutMs, senderPool(senderThreads));
+    }
+
+    NodeChangeBroadcaster(
+            NodeChangeLog nodeChangeLog, long timeoutMs, long flushIntervalMs, long sendTimeoutMs, Executor senders) {
+        this.nodeChangeLog = nodeChangeLog;
+        this.timeoutMs = timeoutMs;
+        this.flushIntervalMs = flushIntervalMs;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+        this.senders = senders;
+    }
+
+    /**
+     * Keeps {@code coreThreads} threads and starts another whenever all are writing, rather than
+     * queueing behind a stuck write. A subscriber has at most one write in flight, which bounds
+     * the threads by the number of subscribers.
+     */
+    static ExecutorService senderPool(int coreThreads) {
+        return new ThreadPoolExecutor(coreThreads, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), daemonThreads("node-push-sender-"));
+    }
+
+    @PostConstruct
+    void start() {
+        flusher = Executors.newSingleThreadScheduledExecutor(daemonThreads("node-push-flush-"));
+        flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                // A failed flush must not cancel the schedule; pending subscribers are retried next time
+                log.warn("Failed to push node changes", e);
+            }
+        }, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        if (senders instanceof ExecutorService executor) {
+            executor.shutdownNow();
+        }
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    /** Opens a stream of change events for the subtree under {@code rootId}, or the workspace's whole tree when null. */
+    public SseEmitter subscribe(Long rootId) {
+        return subscribe(rootId, new SseEmitter(timeoutMs));
+    }
+
+    SseEmitter subscribe(Long rootId, SseEmitter emitter) {
+        Subscriber subscriber = new Subscriber(WorkspaceContext.current(), rootId, emitter);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(error -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        return emitter;
+    }
+
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * Notifies the subscribers of every subtree containing the node whose descendant path is
+     * {@code descendantPath} (e.g. "/1/5/9/" for node 9), once the surrounding transaction commits.
+     */
+    public void changed(String descendantPath) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        String workspace = WorkspaceContext.current();
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                touchedWorkspaces.add(workspace);
+                int start = 1;
+                for (int end = descendantPath.indexOf('/', start); end > start; end = descendantPath.indexOf('/', start)) {
+                    touchedIds.add(Long.valueOf(descendantPath.substring(start, end)));
+                    start = end + 1;
+                }
+            }
+        });
+    }
+
+    /**
+     * Sends one event to each subscriber whose subtree changed since the last flush or whose last
+     * event was held back, and drops those whose last event has been stuck for too long.
+     */
+    void flush() {
+        Set<Long> ids;
+        Set<String> workspaces;
+        synchronized (this) {
+            ids = touchedIds;
+            workspaces = touchedWorkspaces;
+            touchedIds = new HashSet<>();
+            touchedWorkspaces = new HashSet<>();
+        }
+
+        Map<String, Long> cursors = new HashMap<>();
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.stalled(now)) {
+                subscribers.remove(subscriber);
+                log.debug("Dropped a change stream of workspace {} that stopped reading", subscriber.workspace);
+                continue;
+            }
+            if (workspaces.contains(subscriber.workspace)
+                    && (subscriber.rootId == null || ids.contains(subscriber.rootId))) {
+                subscriber.pending.set(true);
+            }
+            if (subscriber.pending.get() && !subscriber.sending.get()) {
+                subscriber.send(cursors.computeIfAbsent(subscriber.workspace,
+                        workspace -> WorkspaceContext.callReadOnly(workspace, nodeChangeLog::latest)));
+            }
+        }
+    }
+
+    private static CustomizableThreadFactory daemonThreads(String prefix) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(prefix);
+        threadFactory.setDaemon(true);
+        return threadFactory;
+    }
+}
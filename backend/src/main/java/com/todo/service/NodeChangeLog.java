@@ -0,0 +1,338 @@
+package com.todo.service;
+
+import com.todo.entity.NodeChange;
+import com.todo.repository.NodeChangeRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Sequence-numbered log of node creates, updates, moves and deletes, written in the same
+ * transaction as the change itself. Readers coalesce entries per node, so a delta costs
+ * O(changes) however large the tree is.
+ * <p>
+ * Each workspace's entries live in its partition, and a client reads those of its own workspace.
+ * Each partition numbers its entries from its own database sequence, so numbers are unique within
+ * a workspace whichever application instance takes them, while partitions may use the same
+ * numbers for different workspaces. Before a workspace moves in from another partition, the
+ * target's sequence is moved past the numbers the workspace used, so a workspace's numbers, and
+ * clients' cursors, only grow.
+ * <p>
+ * A transaction's entries are held until it commits and then numbered and written together, so
+ * an operation takes its numbers once however many nodes it changes. Numbers come from blocks of
+ * {@value #SEQ_BLOCK_SIZE} the partition's sequence hands out in one step, so most operations take
+ * theirs without a round trip; numbers of a block not used before a restart are skipped.
+ * <p>
+ * A workspace's entries are only read up to the lowest number still held by one of its
+ * transactions that has not completed, so a transaction committing after a later-numbered one
+ * never lands behind a cursor a client already holds. Those transactions, like the blocks, are
+ * only known to this application instance, which is one reason the application runs as a single
+ * instance.
+ * <p>
+ * Entries older than {@code todo.changes.retention-hours} are deleted every
+ * {@code todo.changes.prune-interval-ms}. A client whose cursor is older than the last entry
+ * deleted from its workspace is told to reload instead.
+ */
+@Component
+public class NodeChangeLog {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeChangeLog.class);
+
+    /**
+     * Nodes changed or deleted after a cursor, each listed once in order of its last change.
+     * {@code complete} is false when more entries follow {@code cursor}; {@code reloadRequired}
+     * is true when entries after the requested cursor have been deleted, and {@code cursor} is
+     * then the one to take before reloading.
+     */
+    public record Delta(long cursor, boolean complete, List<Long> changedIds, List<Long> deletedIds,
+                        boolean reloadRequired) {
+
+        static Delta reload(long cursor) {
+            return new Delta(cursor, true, List.of(), List.of(), true);
+        }
+    }
+
+    // INCREMENT BY of node_change_seq: each value it hands out starts a block of this many numbers
+    static final int SEQ_BLOCK_SIZE = 50;
+
+    private final NodeChangeRepository nodeChangeRepository;
+    private final WorkspacePartitions workspacePartitions;
+    private final WorkspaceDirectory workspaceDirectory;
+    private final int defaultLimit;
+    private final long retentionHours;
+    private final long pruneIntervalMs;
+
+    // Highest number in use, and per workspace the lowest number taken by each of its
+    // transactions that have not completed yet; both guarded by this
+    private long lastSeq;
+    private final Map<String, NavigableSet<Long>> inFlight = new HashMap<>();
+    // Per partition, the next number of the block in use and the end of that block, exclusive;
+    // guarded by this
+    private final long[] blockNext;
+    private final long[] blockEnd;
+
+    private ScheduledExecutorService pruner;
+
+    public NodeChangeLog(
+            NodeChangeRepository nodeChangeRepository,
+            WorkspacePartitions workspacePartitions,
+            WorkspaceDirectory workspaceDirectory,
+            @Value("${todo.changes.default-limit:1000}") int defaultLimit,
+            @Value("${todo.changes.retention-hours:168}") long retentionHours,
+            @Value("${todo.changes.prune-interval-ms:3600000}") long pruneIntervalMs) {
+        this.nodeChangeRepository = nodeChangeRepository;
+        this.workspacePartitions = workspacePartitions;
+        this.workspaceDirectory = workspaceDirectory;
+        this.defaultLimit = defaultLimit;
+        this.retentionHours = retentionHours;
+        this.pruneIntervalMs = pruneIntervalMs;
+        this.blockNext = new long[workspacePartitions.count()];
+        this.blockEnd = new long[workspacePartitions.count()];
+    }
+
+    @PostConstruct
+    void start() {
+        loadLastSeq();
+        if (retentionHours <= 0) {
+            return;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("node-change-pruner-");
+        threadFactory.setDaemon(true);
+        pruner = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        pruner.scheduleWithFixedDelay(() -> {
+            try {
+                prune(LocalDateTime.now().minusHours(retentionHours));
+            } catch (RuntimeException e) {
+                // Entries left behind are deleted by the next run
+                log.warn("Failed to prune the node change log", e);
+            }
+        }, pruneIntervalMs, pruneIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (pruner != null) {
+            pruner.shutdownNow();
+        }
+    }
+
+    synchronized void loadLastSeq() {
+        for (int partition = 0; partition < workspacePartitions.count(); partition++) {
+            Long max = WorkspaceContext.callOnPartition(partition, nodeChangeRepository::findMaxSeq);
+            if (max != null && max > lastSeq) {
+                lastSeq = max;
+            }
+        }
+    }
+
+    /**
+     * Moves the partition's sequence past {@code seq} unless it is there already, and drops the
+     * rest of the partition's block, which may hold lower numbers. No numbers are taken meanwhile,
+     * so none is handed out twice.
+     */
+    public synchronized void skipSeqsThrough(int partition, long seq) {
+        WorkspaceContext.callOnPartition(partition, () -> {
+            Long next = nodeChangeRepository.findNextSeq();
+            if (next != null && next <= seq) {
+                nodeChangeRepository.restartSeqs(seq + 1);
+            }
+            return null;
+        });
+        blockNext[partition] = blockEnd[partition];
+        lastSeq = Math.max(lastSeq, seq);
+    }
+
+    public void record(NodeChange.Type type, Long nodeId) {
+        recordAll(type, List.of(nodeId));
+    }
+
+    /**
+     * Logs changes of the current workspace's nodes: when the surrounding transaction commits,
+     * with the rest of its entries, or right away when there is none.
+     */
+    public void recordAll(NodeChange.Type type, Collection<Long> nodeIds) {
+        if (nodeIds.isEmpty()) {
+            return;
+        }
+        String workspace = WorkspaceContext.current();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            Pending pending = new Pending(workspaceDirectory.currentPartition());
+            pending.add(workspace, type, nodeIds);
+            try {
+                pending.beforeCommit(false);
+            } finally {
+                pending.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            }
+            return;
+        }
+        Pending pending = (Pending) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            pending = new Pending(workspaceDirectory.currentPartition());
+            TransactionSynchronizationManager.bindResource(this, pending);
+            TransactionSynchronizationManager.registerSynchronization(pending);
+        }
+        pending.add(workspace, type, nodeIds);
+    }
+
+    /** Sequence number of the current workspace's newest readable entry, or 0 when its log is empty. */
+    public long latest() {
+        String workspace = WorkspaceContext.current();
+        Long latest = nodeChangeRepository.findLatestSeq(workspace, readableSeq(workspace));
+        // Retention may have deleted every entry, the newest included
+        return Math.max(latest != null ? latest : 0, workspaceDirectory.changesPrunedThrough(workspace));
+    }
+
+    /** Reads at most {@code limit} entries after {@code since}, or the configured default when null. */
+    public Delta since(long since, Integer limit) {
+        String workspace = WorkspaceContext.current();
+        if (since < workspaceDirectory.changesPrunedThrough(workspace)) {
+            return Delta.reload(latest());
+        }
+
+        int pageSize = limit != null && limit > 0 ? limit : defaultLimit;
+        List<NodeChange> entries = nodeChangeRepository.findByWorkspaceAndSeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(
+                workspace, since, readableSeq(workspace), PageRequest.of(0, pageSize + 1));
+        boolean complete = entries.size() <= pageSize;
+        if (!complete) {
+            entries = entries.subList(0, pageSize);
+        }
+
+        // Only the last entry per node matters; re-inserting moves the node to its latest change
+        Map<Long, NodeChange.Type> lastChange = new LinkedHashMap<>();
+        for (NodeChange entry : entries) {
+            lastChange.remove(entry.getNodeId());
+            lastChange.put(entry.getNodeId(), entry.getType());
+        }
+        List<Long> changedIds = new ArrayList<>();
+        List<Long> deletedIds = new ArrayList<>();
+        lastChange.forEach((nodeId, type) -> (type == NodeChange.Type.DELETE ? deletedIds : changedIds).add(nodeId));
+
+        long cursor = entries.isEmpty() ? since : entries.get(entries.size() - 1).getSeq();
+        return new Delta(cursor, complete, changedIds, deletedIds, false);
+    }
+
+    /**
+     * Deletes every workspace's entries written before {@code cutoff}, recording the last one
+     * deleted first so that no client reads past the gap, and returns how many were deleted.
+     */
+    int prune(LocalDateTime cutoff) {
+        int pruned = 0;
+        for (String workspace : workspaceDirectory.assignments().keySet()) {
+            // Keeps the workspace on its partition until its entries are gone
+            Lock lock = workspaceDirectory.writeLock(workspace);
+            lock.lock();
+            try {
+                pruned += WorkspaceContext.call(workspace, () -> {
+                    Long through = nodeChangeRepository.findLastSeqBefore(workspace, cutoff, readableSeq(workspace));
+                    if (through == null || through <= workspaceDirectory.changesPrunedThrough(workspace)) {
+                        return 0;
+                    }
+                    workspaceDirectory.changesPruned(workspace, through);
+                    return nodeChangeRepository.deleteThrough(workspace, through);
+                });
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (pruned > 0) {
+            log.info("Deleted {} node change log entries written before {}", pruned, cutoff);
+        }
+        return pruned;
+    }
+
+    private record Change(NodeChange.Type type, Long nodeId) {
+    }
+
+    // Entries of one transaction, numbered and written when it commits and kept unreadable until
+    // it completes
+    private final class Pending implements TransactionSynchronization {
+
+        private final int partition;
+        private final Map<String, List<Change>> changes = new LinkedHashMap<>();
+        private final Map<String, Long> firstSeqs = new HashMap<>();
+
+        Pending(int partition) {
+            this.partition = partition;
+        }
+
+        void add(String workspace, NodeChange.Type type, Collection<Long> nodeIds) {
+            List<Change> workspaceChanges = changes.computeIfAbsent(workspace, key -> new ArrayList<>());
+            for (Long nodeId : nodeIds) {
+                workspaceChanges.add(new Change(type, nodeId));
+            }
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            changes.forEach((workspace, workspaceChanges) -> {
+                long[] seqs = reserve(workspace, partition, workspaceChanges.size());
+                firstSeqs.put(workspace, seqs[0]);
+                List<NodeChange> entries = new ArrayList<>(seqs.length);
+                for (int i = 0; i < seqs.length; i++) {
+                    Change change = workspaceChanges.get(i);
+                    entries.add(new NodeChange(seqs[i], workspace, change.nodeId(), change.type()));
+                }
+                nodeChangeRepository.saveAll(entries);
+            });
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (TransactionSynchronizationManager.hasResource(NodeChangeLog.this)) {
+                TransactionSynchronizationManager.unbindResource(NodeChangeLog.this);
+            }
+            firstSeqs.forEach(NodeChangeLog.this::release);
+        }
+    }
+
+    // Taking the numbers and marking them in flight is one step, so no reader sees the one without
+    // the other. Only a block running out costs a round trip to the partition's sequence
+    private synchronized long[] reserve(String workspace, int partition, int count) {
+        long[] seqs = new long[count];
+        for (int i = 0; i < count; i++) {
+            if (blockNext[partition] == blockEnd[partition]) {
+                blockNext[partition] = nodeChangeRepository.nextSeqBlock();
+                blockEnd[partition] = blockNext[partition] + SEQ_BLOCK_SIZE;
+            }
+            seqs[i] = blockNext[partition]++;
+        }
+        lastSeq = Math.max(lastSeq, seqs[count - 1]);
+        inFlight.computeIfAbsent(workspace, key -> new TreeSet<>()).add(seqs[0]);
+        return seqs;
+    }
+
+    private synchronized void release(String workspace, long first) {
+        NavigableSet<Long> seqs = inFlight.get(workspace);
+        seqs.remove(first);
+        if (seqs.isEmpty()) {
+            inFlight.remove(workspace);
+        }
+    }
+
+    // Highest number up to which every entry of the workspace is committed or rolled back
+    private synchronized long readableSeq(String workspace) {
+        NavigableSet<Long> seqs = inFlight.get(workspace);
+        return seqs == null ? lastSeq : seqs.first() - 1;
+    }
+}
@@ -0,0 +1,389 @@
+package com.todo.service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+import java.util.function.LongPredicate;
+
+/**
+ * Compressed set of node ids. Ids are split into chunks of 65536 by their high bits; a chunk
+ * keeps the low 16 bits of its ids as a sorted array while it holds at most {@link #ARRAY_MAX}
+ * of them, and as a 65536-bit bitmap beyond that. Sparse chunks thus take two bytes per id and
+ * dense ones at most one bit, and set operations work a chunk at a time, word by word where
+ * both sides are bitmaps.
+ * <p>
+ * Not thread-safe; {@link NodeSearchIndex} guards its bitmaps with its lock.
+ */
+final class NodeIdBitmap {
+
+    static final int ARRAY_MAX = 4096;
+
+    private static final int WORDS = 1024;
+
+    private final TreeMap<Long, Chunk> chunks = new TreeMap<>();
+    private long cardinality;
+
+    boolean add(long id) {
+        boolean added = chunks.computeIfAbsent(id >>> 16, key -> new Chunk()).add((char) id);
+        if (added) {
+            cardinality++;
+        }
+        return added;
+    }
+
+    boolean remove(long id) {
+        Long key = id >>> 16;
+        Chunk chunk = chunks.get(key);
+        if (chunk == null || !chunk.remove((char) id)) {
+            return false;
+        }
+        if (chunk.size == 0) {
+            chunks.remove(key);
+        }
+        cardinality--;
+        return true;
+    }
+
+    boolean contains(long id) {
+        Chunk chunk = chunks.get(id >>> 16);
+        return chunk != null && chunk.contains((char) id);
+    }
+
+    void clear() {
+        chunks.clear();
+        cardinality = 0;
+    }
+
+    long cardinality() {
+        return cardinality;
+    }
+
+    boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /** Hands the ids from {@code fromId} on to {@code action} in ascending order until it returns false. */
+    void forEach(long fromId, LongPredicate action) {
+        long fromKey = fromId >>> 16;
+        for (Map.Entry<Long, Chunk> entry : chunks.tailMap(fromKey, true).entrySet()) {
+            long high = entry.getKey() << 16;
+            int fromLow = entry.getKey() == fromKey ? (int) (fromId & 0xFFFF) : 0;
+            if (!entry.getValue().forEach(fromLow, low -> action.test(high | low))) {
+                return;
+            }
+        }
+    }
+
+    static NodeIdBitmap and(NodeIdBitmap a, NodeIdBitmap b) {
+        NodeIdBitmap smaller = a.chunks.size() <= b.chunks.size() ? a : b;
+        NodeIdBitmap larger = smaller == a ? b : a;
+        NodeIdBitmap result = new NodeIdBitmap();
+        for (Map.Entry<Long, Chunk> entry : smaller.chunks.entrySet()) {
+            Chunk other = larger.chunks.get(entry.getKey());
+            if (other != null) {
+                result.put(entry.getKey(), Chunk.and(entry.getValue(), other));
+            }
+        }
+        return result;
+    }
+
+    /** Size of the intersection of {@code a} and {@code b}, without building it. */
+    static long andCardinality(NodeIdBitmap a, NodeIdBitmap b) {
+        NodeIdBitmap smaller = a.chunks.size() <= b.chunks.size() ? a : b;
+        NodeIdBitmap larger = smaller == a ? b : a;
+        long cardinality = 0;
+        for (Map.Entry<Long, Chunk> entry : smaller.chunks.entrySet()) {
+            Chunk other = larger.chunks.get(entry.getKey());
+            if (other != null) {
+                cardinality += Chunk.andCardinality(entry.getValue(), other);
+            }
+        }
+        return cardinality;
+    }
+
+    static NodeIdBitmap or(NodeIdBitmap a, NodeIdBitmap b) {
+        NodeIdBitmap result = new NodeIdBitmap();
+        for (Map.Entry<Long, Chunk> entry : a.chunks.entrySet()) {
+            Chunk other = b.chunks.get(entry.getKey());
+            result.put(entry.getKey(), other != null ? Chunk.or(entry.getValue(), other) : entry.getValue().copy());
+        }
+        for (Map.Entry<Long, Chunk> entry : b.chunks.entrySet()) {
+            if (!a.chunks.containsKey(entry.getKey())) {
+                result.put(entry.getKey(), entry.getValue().copy());
+            }
+        }
+        return result;
+    }
+
+    /** The ids of {@code a} that are not in {@code b}. */
+    static NodeIdBitmap andNot(NodeIdBitmap a, NodeIdBitmap b) {
+        NodeIdBitmap result = new NodeIdBitmap();
+        for (Map.Entry<Long, Chunk> entry : a.chunks.entrySet()) {
+            Chunk other = b.chunks.get(entry.getKey());
+            result.put(entry.getKey(), other != null ? Chunk.andNot(entry.getValue(), other) : entry.getValue().copy());
+        }
+        return result;
+    }
+
+    /**
+     * Union of all {@code bitmaps}; empty when there are none. Each chunk of the result is
+     * gathered as words and built once, so a union of many small bitmaps costs no copying.
+     */
+    static NodeIdBitmap union(Iterable<NodeIdBitmap> bitmaps) {
+        TreeMap<Long, long[]> words = new TreeMap<>();
+        for (NodeIdBitmap bitmap : bitmaps) {
+            for (Map.Entry<Long, Chunk> entry : bitmap.chunks.entrySet()) {
+                entry.getValue().orInto(words.computeIfAbsent(entry.getKey(), key -> new long[WORDS]));
+            }
+        }
+        NodeIdBitmap result = new NodeIdBitmap();
+        words.forEach((key, chunkWords) -> result.put(key, new Chunk(chunkWords)));
+        return result;
+    }
+
+    private void put(Long key, Chunk chunk) {
+        if (chunk.size > 0) {
+            chunks.put(key, chunk);
+            cardinality += chunk.size;
+        }
+    }
+
+    // The ids of one 65536-id range: sorted low bits in `array`, or one bit each in `words`
+    private static final class Chunk {
+
+        private char[] array;
+        private long[] words;
+        private int size;
+
+        private Chunk() {
+            array = new char[4];
+        }
+
+        private Chunk(char[] array, int size) {
+            this.array = array;
+            this.size = size;
+        }
+
+        private Chunk(long[] words) {
+            this.words = words;
+            for (long word : words) {
+                size += Long.bitCount(word);
+            }
+            if (size <= ARRAY_MAX) {
+                toArray();
+            }
+        }
+
+        boolean add(char low) {
+            if (words != null) {
+                long bit = 1L << low;
+                if ((words[low >>> 6] & bit) != 0) {
+                    return false;
+                }
+                words[low >>> 6] |= bit;
+                size++;
+                return true;
+            }
+            int index = Arrays.binarySearch(array, 0, size, low);
+            if (index >= 0) {
+                return false;
+            }
+            if (size == ARRAY_MAX) {
+                toWords();
+                return add(low);
+            }
+            index = -index - 1;
+            if (size == array.length) {
+                array = Arrays.copyOf(array, Math.min(ARRAY_MAX, size * 2));
+            }
+            System.arraycopy(array, index, array, index + 1, size - index);
+            array[index] = low;
+            size++;
+            return true;
+        }
+
+        boolean remove(char low) {
+            if (words != null) {
+                long bit = 1L << low;
+                if ((words[low >>> 6] & bit) == 0) {
+                    return false;
+                }
+                words[low >>> 6] &= ~bit;
+                size--;
+                if (size <= ARRAY_MAX) {
+                    toArray();
+                }
+                return true;
+            }
+            int index = Arrays.binarySearch(array, 0, size, low);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(array, index + 1, array, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        boolean contains(char low) {
+            return words != null
+                    ? (words[low >>> 6] & (1L << low)) != 0
+                    : Arrays.binarySearch(array, 0, size, low) >= 0;
+        }
+
+        // Returns false when the action stopped the iteration
+        boolean forEach(int fromLow, IntPredicate action) {
+            if (words == null) {
+                int index = Arrays.binarySearch(array, 0, size, (char) fromLow);
+                for (int i = index >= 0 ? index : -index - 1; i < size; i++) {
+                    if (!action.test(array[i])) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            for (int w = fromLow >>> 6; w < WORDS; w++) {
+                long word = words[w];
+                if (w == fromLow >>> 6) {
+                    word &= -1L << fromLow;
+                }
+                while (word != 0) {
+                    if (!action.test((w << 6) | Long.numberOfTrailingZeros(word))) {
+                        return false;
+                    }
+                    word &= word - 1;
+                }
+            }
+            return true;
+        }
+
+        Chunk copy() {
+            return words != null ? new Chunk(words.clone()) : new Chunk(Arrays.copyOf(array, size), size);
+        }
+
+        static Chunk and(Chunk a, Chunk b) {
+            if (a.words != null && b.words != null) {
+                long[] words = new long[WORDS];
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] = a.words[w] & b.words[w];
+                }
+                return new Chunk(words);
+            }
+            Chunk sparse = a.words == null ? a : b;
+            Chunk other = sparse == a ? b : a;
+            char[] result = new char[sparse.size];
+            int size = 0;
+            for (int i = 0; i < sparse.size; i++) {
+                if (other.contains(sparse.array[i])) {
+                    result[size++] = sparse.array[i];
+                }
+            }
+            return new Chunk(result, size);
+        }
+
+        static int andCardinality(Chunk a, Chunk b) {
+            int cardinality = 0;
+            if (a.words != null && b.words != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    cardinality += Long.bitCount(a.words[w] & b.words[w]);
+                }
+                return cardinality;
+            }
+            Chunk sparse = a.words == null ? a : b;
+            Chunk other = sparse == a ? b : a;
+            for (int i = 0; i < sparse.size; i++) {
+                if (other.contains(sparse.array[i])) {
+                    cardinality++;
+                }
+            }
+            return cardinality;
+        }
+
+        static Chunk or(Chunk a, Chunk b) {
+            if (a.words == null && b.words == null && a.size + b.size <= ARRAY_MAX) {
+                char[] result = new char[a.size + b.size];
+                int i = 0, j = 0, size = 0;
+                while (i < a.size || j < b.size) {
+                    char next;
+                    if (j == b.size || (i < a.size && a.array[i] < b.array[j])) {
+                        next = a.array[i++];
+                    } else if (i == a.size || b.array[j] < a.array[i]) {
+                        next = b.array[j++];
+                    } else {
+                        next = a.array[i++];
+                        j++;
+                    }
+                    result[size++] = next;
+                }
+                return new Chunk(result, size);
+            }
+            long[] words = a.toWordsCopy();
+            b.forEach(0, low -> {
+                words[low >>> 6] |= 1L << low;
+                return true;
+            });
+            return new Chunk(words);
+        }
+
+        static Chunk andNot(Chunk a, Chunk b) {
+            if (a.words != null) {
+                long[] words = a.words.clone();
+                b.forEach(0, low -> {
+                    words[low >>> 6] &= ~(1L << low);
+                    return true;
+                });
+                return new Chunk(words);
+            }
+            char[] result = new char[a.size];
+            int size = 0;
+            for (int i = 0; i < a.size; i++) {
+                if (!b.contains(a.array[i])) {
+                    result[size++] = a.array[i];
+                }
+            }
+            return new Chunk(result, size);
+        }
+
+        void orInto(long[] target) {
+            if (words != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    target[w] |= words[w];
+                }
+                return;
+            }
+            for (int i = 0; i < size; i++) {
+                target[array[i] >>> 6] |= 1L << array[i];
+            }
+        }
+
+        private long[] toWordsCopy() {
+            if (words != null) {
+                return words.clone();
+            }
+            long[] result = new long[WORDS];
+            for (int i = 0; i < size; i++) {
+                result[array[i] >>> 6] |= 1L << array[i];
+            }
+            return result;
+        }
+
+        private void toWords() {
+            words = toWordsCopy();
+            array = null;
+        }
+
+        private void toArray() {
+            char[] result = new char[Math.max(size, 4)];
+            int count = 0;
+            for (int w = 0; w < WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    result[count++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            array = result;
+            words = null;
+        }
+    }
+}
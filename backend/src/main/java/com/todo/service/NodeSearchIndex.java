@@ -0,0 +1,519 @@
+package com.todo.service;
+
+import com.todo.dto.TagCount;
+import com.todo.entity.Node;
+import com.todo.repository.NodeRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-process inverted index over node content, notes and tags.
+ * <p>
+ * Text is case-folded and split into letter/digit tokens; every query token matches indexed
+ * tokens it is a prefix of, and all query tokens must match. Results are ranked by where the
+ * tokens matched (content over tags over notes, exact over prefix). Tokens are kept sorted, so
+ * the tokens a query token prefixes are one range of the dictionary, and each token has a
+ * {@link NodeIdBitmap} of the nodes containing it per field; a query is a few unions and
+ * intersections of bitmaps, and only the nodes left are scored. The index is rebuilt at
+ * startup and kept current by {@link NodeService} after each committed write. With
+ * {@code todo.search.background-rebuild} the startup rebuild runs on its own thread, so a large
+ * database starts serving requests at once and search results fill in as the rebuild finishes.
+ * <p>
+ * Tags are case-folded and interned in a dictionary that gives each distinct tag an integer id
+ * and a {@link NodeIdBitmap} of the nodes carrying it. Completed nodes have a bitmap as well, so
+ * tag filters, their AND/OR combinations and per-tag counts are set operations on bitmaps.
+ * <p>
+ * One index covers every workspace, which node ids keep apart; each workspace has a bitmap of
+ * its nodes, and every lookup is restricted to the current workspace's.
+ */
+@Component
+public class NodeSearchIndex {
+
+    static final int REBUILD_PAGE_SIZE = 5000;
+
+    private static final int CONTENT = 1;
+    private static final int TAGS = 2;
+    private static final int NOTES = 4;
+    private static final int[] FIELDS = {CONTENT, TAGS, NOTES};
+
+    // Highest weight one query token can score, for an exact match in content
+    private static final int MAX_WEIGHT = weight(CONTENT, true);
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    // What a node contributes to the index, taken from the entity before the write commits
+    private record Fields(String workspace, Map<String, Integer> fieldsByToken, Set<String> tags, boolean completed) {
+    }
+    
+    // What the index holds for one node, kept so its postings can be removed on update
+    private record Document(String workspace, Map<String, Integer> fieldsByToken, int[] tagIds, boolean completed) {
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(NodeSearchIndex.class);
+
+    private final NodeRepository nodeRepository;
+    private final WorkspacePartitions workspacePartitions;
+    private final boolean backgroundRebuild;
+
+    // token -> per field, in FIELDS order, the nodes containing it there, or null for none
+    private final NavigableMap<String, NodeIdBitmap[]> postings = new TreeMap<>();
+    // Tag dictionary: tag -> tag id, and per tag id its name and the nodes carrying it
+    private final NavigableMap<String, Integer> tagIds = new TreeMap<>();
+    private final List<String> tagNames = new ArrayList<>();
+    private final List<NodeIdBitmap> nodesByTag = new ArrayList<>();
+    private final NodeIdBitmap completedNodes = new NodeIdBitmap();
+    private final Map<String, NodeIdBitmap> nodesByWorkspace = new HashMap<>();
+    private final Map<Long, Document> documents = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Ids written while a rebuild loads the table; their loaded rows may be stale and are skipped
+    private Set<Long> writtenDuringRebuild;
+
+    public NodeSearchIndex(
+            NodeRepository nodeRepository,
+            WorkspacePartitions workspacePartitions,
+            @Value("${todo.search.background-rebuild:false}") boolean backgroundRebuild) {
+        this.nodeRepository = nodeRepository;
+        this.workspacePartitions = workspacePartitions;
+        this.backgroundRebuild = backgroundRebuild;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildOnStartup() {
+        if (backgroundRebuild) {
+            rebuildInBackground();
+        } else {
+            rebuild();
+        }
+    }
+
+    /** Runs {@link #rebuild()} on its own daemon thread, e.g. after a bulk import bypassed {@link #index(Node)}. */
+    public void rebuildInBackground() {
+        Thread thread = new Thread(() -> {
+            try {
+                long start = System.nanoTime();
+                rebuild();
+                log.info("Search index rebuilt in {} ms", (System.nanoTime() - start) / 1_000_000);
+            } catch (RuntimeException e) {
+                log.error("Search index rebuild failed; search only covers nodes written since startup", e);
+            }
+        }, "search-index-rebuild");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Reindexes every node, reading each partition's table in pages of {@link #REBUILD_PAGE_SIZE}
+     * so only one page of entities is held at a time. Searches and committed writes proceed in
+     * between; concurrent rebuilds run one after the other.
+     */
+    public synchronized void rebuild() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            tagIds.clear();
+            tagNames.clear();
+            nodesByTag.clear();
+            completedNodes.clear();
+            nodesByWorkspace.clear();
+            documents.clear();
+            writtenDuringRebuild = new HashSet<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (int partition = 0; partition < workspacePartitions.count(); partition++) {
+            rebuildPartition(partition);
+        }
+
+        lock.writeLock().lock();
+        try {
+            writtenDuringRebuild = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void rebuildPartition(int partition) {
+        long afterId = 0;
+        List<Long> ids;
+        while (!(ids = findIdsAfter(partition, afterId)).isEmpty()) {
+            List<Long> page = ids;
+            List<Node> nodes = WorkspaceContext.callOnPartition(partition,
+                    () -> nodeRepository.findAllWithTagsByIdIn(page));
+            lock.writeLock().lock();
+            try {
+                for (Node node : nodes) {
+                    if (!writtenDuringRebuild.contains(node.getId())) {
+                        // A workspace being moved has its rows in two partitions for a moment
+                        remove(node.getId());
+                        add(node.getId(), toFields(node));
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            afterId = ids.get(ids.size() - 1);
+        }
+    }
+
+    private List<Long> findIdsAfter(int partition, long afterId) {
+        return WorkspaceContext.callOnPartition(partition,
+                () -> nodeRepository.findIdsAfter(afterId, PageRequest.of(0, REBUILD_PAGE_SIZE)));
+    }
+
+    /** Indexes the node's current content, notes, tags and completion once the transaction commits. */
+    public void index(Node node) {
+        Long id = node.getId();
+        Fields fields = toFields(node);
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                remove(id);
+                add(id, fields);
+                if (writtenDuringRebuild != null) {
+                    writtenDuringRebuild.add(id);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    public void remove(Collection<Long> ids) {
+        List<Long> removedIds = List.copyOf(ids);
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                removedIds.forEach(this::remove);
+                if (writtenDuringRebuild != null) {
+                    writtenDuringRebuild.addAll(removedIds);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Returns the ids of at most {@code limit} nodes matching every token of {@code query}
+     * and having a tag starting with {@code tag}, best match first. Blank criteria are ignored;
+     * when both are blank nothing matches.
+     */
+    public List<Long> search(String query, String tag, Boolean completed, int limit) {
+        List<String> terms = tokenize(query);
+        String tagPrefix = tag != null ? tag.trim().toLowerCase(Locale.ROOT) : "";
+        if (terms.isEmpty() && tagPrefix.isEmpty()) {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try {
+            NodeIdBitmap matches = workspaceNodes();
+            if (!tagPrefix.isEmpty()) {
+                matches = NodeIdBitmap.and(matches, NodeIdBitmap.union(
+                        prefixRange(tagIds, tagPrefix).values().stream().map(nodesByTag::get).toList()));
+            }
+            List<NodeIdBitmap[]> termWeights = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                if (matches.isEmpty()) {
+                    return List.of();
+                }
+                NodeIdBitmap[] byWeight = byWeight(term);
+                termWeights.add(byWeight);
+                matches = NodeIdBitmap.and(matches, NodeIdBitmap.union(
+                        Arrays.stream(byWeight).filter(Objects::nonNull).toList()));
+            }
+            if (completed != null) {
+                matches = completed
+                        ? NodeIdBitmap.and(matches, completedNodes)
+                        : NodeIdBitmap.andNot(matches, completedNodes);
+            }
+            return best(matches, termWeights, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Every tag in use with the number of nodes carrying it, most used first, then by name. */
+    public List<TagCount> tagCounts() {
+        lock.readLock().lock();
+        try {
+            NodeIdBitmap workspaceNodes = workspaceNodes();
+            List<TagCount> counts = new ArrayList<>();
+            for (int tagId = 0; tagId < tagNames.size(); tagId++) {
+                long count = NodeIdBitmap.andCardinality(nodesByTag.get(tagId), workspaceNodes);
+                if (count > 0) {
+                    counts.add(new TagCount(tagNames.get(tagId), count));
+                }
+            }
+            counts.sort(Comparator.comparingLong(TagCount::count).reversed().thenComparing(TagCount::tag));
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Returns, in id order after {@code afterId}, the ids of at most {@code limit} nodes carrying
+     * every tag in {@code allTags} and at least one in {@code anyTags}, optionally restricted to
+     * the given completion. Tags match whole and ignoring case; an empty list imposes nothing,
+     * and when both are empty nothing matches.
+     */
+    public List<Long> findByTags(Collection<String> allTags, Collection<String> anyTags,
+                                 Boolean completed, long afterId, int limit) {
+        if (allTags.isEmpty() && anyTags.isEmpty()) {
+            return List.of();
+        }
+        lock.readLock().lock();
+        try {
+            NodeIdBitmap matches = null;
+            for (String tag : allTags) {
+                NodeIdBitmap tagged = tagged(tag);
+                matches = matches == null ? tagged : NodeIdBitmap.and(matches, tagged);
+            }
+            if (!anyTags.isEmpty()) {
+                NodeIdBitmap tagged = NodeIdBitmap.union(anyTags.stream().map(this::tagged).toList());
+                matches = matches == null ? tagged : NodeIdBitmap.and(matches, tagged);
+            }
+            matches = NodeIdBitmap.and(matches, workspaceNodes());
+            if (completed != null) {
+                matches = completed
+                        ? NodeIdBitmap.and(matches, completedNodes)
+                        : NodeIdBitmap.andNot(matches, completedNodes);
+            }
+            List<Long> ids = new ArrayList<>(Math.min(limit, 1024));
+            matches.forEach(afterId + 1, id -> {
+                ids.add(id);
+                return ids.size() < limit;
+            });
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    private NodeIdBitmap workspaceNodes() {
+        NodeIdBitmap nodes = nodesByWorkspace.get(WorkspaceContext.current());
+        return nodes != null ? nodes : new NodeIdBitmap();
+    }
+    
+    private NodeIdBitmap tagged(String tag) {
+        Integer tagId = tagIds.get(tag.trim().toLowerCase(Locale.ROOT));
+        return tagId != null ? nodesByTag.get(tagId) : new NodeIdBitmap();
+    }
+    
+    // Per weight, the nodes one query token gives that weight at best; null where none
+    private NodeIdBitmap[] byWeight(String term) {
+        List<List<NodeIdBitmap>> bitmaps = new ArrayList<>();
+        for (int weight = 0; weight <= MAX_WEIGHT; weight++) {
+            bitmaps.add(new ArrayList<>());
+        }
+        for (Map.Entry<String, NodeIdBitmap[]> posting : prefixRange(postings, term).entrySet()) {
+            boolean exact = posting.getKey().equals(term);
+            for (int field = 0; field < FIELDS.length; field++) {
+                if (posting.getValue()[field] != null) {
+                    bitmaps.get(weight(FIELDS[field], exact)).add(posting.getValue()[field]);
+                }
+            }
+        }
+        NodeIdBitmap[] byWeight = new NodeIdBitmap[MAX_WEIGHT + 1];
+        NodeIdBitmap better = new NodeIdBitmap();
+        for (int weight = MAX_WEIGHT; weight > 0; weight--) {
+            if (!bitmaps.get(weight).isEmpty()) {
+                NodeIdBitmap nodes = NodeIdBitmap.union(bitmaps.get(weight));
+                byWeight[weight] = NodeIdBitmap.andNot(nodes, better);
+                better = NodeIdBitmap.or(better, nodes);
+            }
+        }
+        return byWeight;
+    }
+
+    /**
+     * The ids of at most {@code limit} of {@code matches}, highest score first, then lowest id. A
+     * node's score is the sum of the weights the query tokens give it; scores are small, so the
+     * best are picked by counting how many nodes have each score rather than by sorting.
+     */
+    private static List<Long> best(NodeIdBitmap matches, List<NodeIdBitmap[]> termWeights, int limit) {
+        long[] ids = new long[(int) matches.cardinality()];
+        int[] count = {0};
+        matches.forEach(0, id -> {
+            ids[count[0]++] = id;
+            return true;
+        });
+        int[] scores = new int[ids.length];
+        for (NodeIdBitmap[] byWeight : termWeights) {
+            for (int weight = 1; weight < byWeight.length; weight++) {
+                if (byWeight[weight] == null) {
+                    continue;
+                }
+                int termWeight = weight;
+                // Both are in id order, so one forward walk finds each node's index
+                int[] index = {0};
+                NodeIdBitmap.and(byWeight[weight], matches).forEach(0, id -> {
+                    while (ids[index[0]] != id) {
+                        index[0]++;
+                    }
+                    scores[index[0]] += termWeight;
+                    return true;
+                });
+            }
+        }
+
+        int maxScore = MAX_WEIGHT * termWeights.size();
+        int[] nodesByScore = new int[maxScore + 1];
+        for (int score : scores) {
+            nodesByScore[score]++;
+        }
+        // The lowest score among the best, and how many nodes with it are kept
+        int lowest = maxScore;
+        int better = 0;
+        while (lowest > 0 && better + nodesByScore[lowest] < limit) {
+            better += nodesByScore[lowest--];
+        }
+        int keptAtLowest = Math.max(0, limit - better);
+
+        List<List<Long>> byScore = new ArrayList<>();
+        for (int score = lowest; score <= maxScore; score++) {
+            byScore.add(new ArrayList<>());
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (scores[i] > lowest || (scores[i] == lowest && byScore.get(0).size() < keptAtLowest)) {
+                byScore.get(scores[i] - lowest).add(ids[i]);
+            }
+        }
+        List<Long> best = new ArrayList<>();
+        for (int score = maxScore; score >= lowest; score--) {
+            best.addAll(byScore.get(score - lowest));
+        }
+        return best.size() > limit ? best.subList(0, limit) : best;
+    }
+
+    private static int weight(int fields, boolean exact) {
+        int weight = (fields & CONTENT) != 0 ? 3 : (fields & TAGS) != 0 ? 2 : 1;
+        return exact ? weight * 2 : weight;
+    }
+
+    private static <V> NavigableMap<String, V> prefixRange(NavigableMap<String, V> map, String prefix) {
+        return map.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private void add(Long id, Fields fields) {
+        int[] documentTagIds = new int[fields.tags().size()];
+        int i = 0;
+        for (String tag : fields.tags()) {
+            int tagId = intern(tag);
+            nodesByTag.get(tagId).add(id);
+            documentTagIds[i++] = tagId;
+        }
+        if (fields.completed()) {
+            completedNodes.add(id);
+        }
+        nodesByWorkspace.computeIfAbsent(fields.workspace(), key -> new NodeIdBitmap()).add(id);
+        documents.put(id, new Document(fields.workspace(), fields.fieldsByToken(), documentTagIds, fields.completed()));
+        fields.fieldsByToken().forEach((token, mask) -> {
+            NodeIdBitmap[] byField = postings.computeIfAbsent(token, key -> new NodeIdBitmap[FIELDS.length]);
+            for (int field = 0; field < FIELDS.length; field++) {
+                if ((mask & FIELDS[field]) != 0) {
+                    if (byField[field] == null) {
+                        byField[field] = new NodeIdBitmap();
+                    }
+                    byField[field].add(id);
+                }
+            }
+        });
+    }
+    
+    // Tag ids are never reused, so a tag no node carries any more keeps its id until the next rebuild
+    private int intern(String tag) {
+        Integer tagId = tagIds.get(tag);
+        if (tagId == null) {
+            tagId = tagNames.size();
+            tagIds.put(tag, tagId);
+            tagNames.add(tag);
+            nodesByTag.add(new NodeIdBitmap());
+        }
+        return tagId;
+    }
+
+    private void remove(Long id) {
+        Document document = documents.remove(id);
+        if (document == null) {
+            return;
+        }
+        document.fieldsByToken().forEach((token, mask) -> {
+            NodeIdBitmap[] byField = postings.get(token);
+            boolean empty = true;
+            for (int field = 0; field < FIELDS.length; field++) {
+                if ((mask & FIELDS[field]) != 0) {
+                    byField[field].remove(id);
+                    if (byField[field].isEmpty()) {
+                        byField[field] = null;
+                    }
+                }
+                empty &= byField[field] == null;
+            }
+            if (empty) {
+                postings.remove(token);
+            }
+        });
+        for (int tagId : document.tagIds()) {
+            nodesByTag.get(tagId).remove(id);
+        }
+        completedNodes.remove(id);
+        nodesByWorkspace.get(document.workspace()).remove(id);
+    }
+
+    private static Fields toFields(Node node) {
+        Map<String, Integer> fieldsByToken = new HashMap<>();
+        addTokens(fieldsByToken, node.getContent(), CONTENT);
+        addTokens(fieldsByToken, node.getNotes(), NOTES);
+        Set<String> tags = new HashSet<>();
+        for (String tag : node.getTags()) {
+            addTokens(fieldsByToken, tag, TAGS);
+            tags.add(tag.toLowerCase(Locale.ROOT));
+        }
+        return new Fields(node.getWorkspace(), fieldsByToken, tags, Boolean.TRUE.equals(node.getIsCompleted()));
+    }
+
+    private static void addTokens(Map<String, Integer> fieldsByToken, String text, int field) {
+        for (String token : tokenize(text)) {
+            fieldsByToken.merge(token, field, (a, b) -> a | b);
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        List<String> tokens = new ArrayList<>();
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+}
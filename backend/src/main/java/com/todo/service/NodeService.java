@@ -1,197 +1,1239 @@
 package com.todo.service;
 
+import com.todo.dto.FilteredNodeTree;
+import com.todo.dto.NodeBatchOperation;
+import com.todo.dto.NodeChanges;
+import com.todo.dto.NodeDetail;
+import com.todo.dto.NodeDraft;
+import com.todo.dto.NodeOutline;
+import com.todo.dto.NodePage;
+import com.todo.dto.NodeTree;
+import com.todo.dto.NodeVersion;
+import com.todo.dto.TagCount;
 import com.todo.entity.Node;
+import com.todo.entity.NodeChange;
 import com.todo.repository.NodeRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Hibernate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class NodeService {
     
+    // Path of root nodes, which have no ancestors
+    private static final String ROOT_PATH = "/";
+    
+    // Spacing between sibling sort keys; inserts take the midpoint of their neighbours
+    static final int POSITION_GAP = 1024;
+    
+    // Upper bound on ids per bulk DELETE statement, and on nodes deleted per transaction
+    static final int DELETE_BATCH_SIZE = 500;
+    
+    // Nodes per keyset page unless the limit parameter is given, and the most a page may hold
+    static final int DEFAULT_PAGE_SIZE = 100;
+    static final int MAX_PAGE_SIZE = 1000;
+    
+    // Nodes serialized between persistence-context clears when streaming a listing
+    static final int STREAM_CHUNK_SIZE = 500;
+    
+    // Upper bound on ids per child-count or tag lookup when projecting a listing
+    static final int LOOKUP_BATCH_SIZE = 1000;
+    
     private final NodeRepository nodeRepository;
+    private final NodeTreeCache nodeTreeCache;
+    private final NodeSearchIndex nodeSearchIndex;
+    private final NodeChangeLog nodeChangeLog;
+    private final NodeChangeBroadcaster nodeChangeBroadcaster;
+    private final NodeStateBuffer nodeStateBuffer;
+    private final TransactionOperations transactionOperations;
+    private final int defaultSearchLimit;
+    
+    @PersistenceContext
+    private EntityManager entityManager;
     
-    public NodeService(NodeRepository nodeRepository) {
+    public NodeService(
+            NodeRepository nodeRepository,
+            NodeTreeCache nodeTreeCache,
+            NodeSearchIndex nodeSearchIndex,
+            NodeChangeLog nodeChangeLog,
+            NodeChangeBroadcaster nodeChangeBroadcaster,
+            NodeStateBuffer nodeStateBuffer,
+            TransactionOperations transactionOperations,
+            @Value("${todo.search.default-limit:100}") int defaultSearchLimit) {
         this.nodeRepository = nodeRepository;
+        this.nodeTreeCache = nodeTreeCache;
+        this.nodeSearchIndex = nodeSearchIndex;
+        this.nodeChangeLog = nodeChangeLog;
+        this.nodeChangeBroadcaster = nodeChangeBroadcaster;
+        this.nodeStateBuffer = nodeStateBuffer;
+        this.transactionOperations = transactionOperations;
+        this.defaultSearchLimit = defaultSearchLimit;
     }
     
+    @Transactional(readOnly = true)
     public List<Node> getAllRootNodes() {
-        return nodeRepository.findByParentIdIsNullOrderByPositionAsc();
+        Optional<List<Node>> cached = nodeTreeCache.getChildren(null);
+        if (cached.isPresent()) {
+            return resolve(cached.get());
+        }
+        long version = nodeTreeCache.version();
+        List<Node> roots = nodeRepository.findByWorkspaceAndParentIdIsNullOrderByPositionAsc(WorkspaceContext.current());
+        nodeTreeCache.putChildren(null, roots, version);
+        return resolve(roots);
     }
     
+    @Transactional(readOnly = true)
     public List<Node> getChildren(Long parentId) {
-        return nodeRepository.findByParentIdOrderByPositionAsc(parentId);
+        Optional<List<Node>> cached = nodeTreeCache.getChildren(parentId);
+        if (cached.isPresent()) {
+            return resolve(inWorkspace(cached.get()));
+        }
+        long version = nodeTreeCache.version();
+        List<Node> children = nodeRepository.findByParentIdOrderByPositionAsc(parentId);
+        nodeTreeCache.putChildren(parentId, children, version);
+        return resolve(inWorkspace(children));
+    }
+    
+    /**
+     * Returns the children of {@code parentId}, or the root nodes when null, in sibling order
+     * starting after the cursor {@code after} from a previous page.
+     */
+    @Transactional(readOnly = true)
+    public NodePage getChildrenPage(Long parentId, String after, Integer limit) {
+        int pageSize = toPageSize(limit);
+        int afterPosition = Integer.MIN_VALUE;
+        long afterId = 0;
+        if (after != null && !after.isBlank()) {
+            String[] parts = after.split(":");
+            try {
+                afterPosition = Integer.parseInt(parts[0]);
+                afterId = Long.parseLong(parts[1]);
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Invalid cursor: " + after);
+            }
+        }
+        PageRequest page = PageRequest.of(0, pageSize + 1);
+        List<Node> nodes = resolve(parentId == null
+                ? nodeRepository.findRootsAfter(WorkspaceContext.current(), afterPosition, afterId, page)
+                : inWorkspace(nodeRepository.findChildrenAfter(parentId, afterPosition, afterId, page)));
+        if (nodes.size() <= pageSize) {
+            return new NodePage(nodes, null);
+        }
+        Node last = nodes.get(pageSize - 1);
+        return new NodePage(nodes.subList(0, pageSize), last.getPosition() + ":" + last.getId());
+    }
+    
+    /** Returns the nodes matching the given completed and starred flags in id order, starting after the cursor {@code after}. */
+    @Transactional(readOnly = true)
+    public NodePage filterNodes(Boolean completed, Boolean starred, String after, Integer limit) {
+        int pageSize = toPageSize(limit);
+        long afterId = toAfterId(after);
+        List<Node> nodes = resolve(
+                nodeRepository.findFilteredAfter(
+                        WorkspaceContext.current(), completed, starred, afterId, PageRequest.of(0, pageSize + 1)));
+        if (nodes.size() <= pageSize) {
+            return new NodePage(nodes, null);
+        }
+        List<Node> pageNodes = nodes.subList(0, pageSize);
+        return new NodePage(pageNodes, String.valueOf(pageNodes.get(pageSize - 1).getId()));
     }
     
+    /**
+     * Returns the nodes carrying every tag in {@code allTags} and at least one in
+     * {@code anyTags} in id order, starting after the cursor {@code after}. The tag bitmaps of
+     * the search index pick the page; only its nodes are loaded.
+     */
+    @Transactional(readOnly = true)
+    public NodePage filterByTags(List<String> allTags, List<String> anyTags, Boolean completed,
+                                 String after, Integer limit) {
+        int pageSize = toPageSize(limit);
+        List<Long> ids = nodeSearchIndex.findByTags(allTags, anyTags, completed, toAfterId(after), pageSize + 1);
+        List<Long> pageIds = ids.size() <= pageSize ? ids : ids.subList(0, pageSize);
+        Map<Long, Node> nodesById = nodeRepository.findAllById(pageIds).stream()
+                .collect(Collectors.toMap(Node::getId, Function.identity()));
+        List<Node> nodes = resolve(pageIds.stream()
+                .map(nodesById::get)
+                .filter(Objects::nonNull)
+                .toList());
+        return new NodePage(nodes, ids.size() <= pageSize ? null : String.valueOf(pageIds.get(pageSize - 1)));
+    }
+    
+    public List<TagCount> getTagCounts() {
+        return nodeSearchIndex.tagCounts();
+    }
+    
+    /**
+     * Hands every node matching the given flags to {@code consumer} in id order, in chunks of
+     * {@link #STREAM_CHUNK_SIZE} with their tags loaded. The chunks are detached once consumed,
+     * so memory stays flat however many nodes match; returns the number of nodes streamed.
+     */
+    @Transactional(readOnly = true)
+    public long streamFiltered(Boolean completed, Boolean starred, Consumer<List<Node>> consumer) {
+        long count = 0;
+        List<Node> chunk = new ArrayList<>(STREAM_CHUNK_SIZE);
+        try (Stream<Node> nodes = nodeRepository.streamFiltered(WorkspaceContext.current(), completed, starred)) {
+            for (Node node : (Iterable<Node>) nodes::iterator) {
+                chunk.add(node);
+                if (chunk.size() == STREAM_CHUNK_SIZE) {
+                    count += consumeChunk(chunk, consumer);
+                }
+            }
+        }
+        return count + consumeChunk(chunk, consumer);
+    }
+    
+    private int consumeChunk(List<Node> chunk, Consumer<List<Node>> consumer) {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+        // The first initialization batch-loads the tags of the whole chunk (default_batch_fetch_size)
+        chunk.forEach(node -> Hibernate.initialize(node.getTags()));
+        consumer.accept(chunk);
+        int size = chunk.size();
+        chunk.clear();
+        entityManager.clear();
+        return size;
+    }
+    
+    @Transactional(readOnly = true)
     public Node getNodeById(Long id) {
-        return nodeRepository.findById(id)
-                .orElseThrow(() -> new RuntimeException("Node not found with id: " + id));
+        return resolve(cachedNode(id));
     }
     
+    /**
+     * Loads a node and its descendants down to {@code depth} levels (unlimited when null)
+     * with a single recursive query.
+     */
+    @Transactional(readOnly = true)
+    public NodeTree getSubtree(Long id, Integer depth) {
+        List<Node> nodes = resolve(nodeRepository.findSubtree(id, toMaxDepth(depth)));
+        if (nodes.isEmpty() || !inWorkspace(nodes.get(0))) {
+            throw new RuntimeException("Node not found with id: " + id);
+        }
+        return toTree(nodes.get(0), groupByParent(nodes));
+    }
+    
+    /**
+     * Loads every root node and its descendants down to {@code depth} levels
+     * (unlimited when null) with a single recursive query.
+     */
+    @Transactional(readOnly = true)
+    public List<NodeTree> getForest(Integer depth) {
+        List<Node> nodes = resolve(nodeRepository.findForest(WorkspaceContext.current(), toMaxDepth(depth)));
+        Map<Long, List<Node>> childrenByParent = groupByParent(nodes);
+        return nodes.stream()
+                .filter(node -> node.getParentId() == null)
+                .map(root -> toTree(root, childrenByParent))
+                .toList();
+    }
+    
+    /**
+     * Returns the ancestors of a node ordered from its root down to its parent,
+     * resolved from the node's materialized path with a single id lookup.
+     */
+    @Transactional(readOnly = true)
+    public List<Node> getAncestors(Long id) {
+        Node node = getNodeById(id);
+        List<Long> ancestorIds = pathIds(node.getPath());
+        return resolve(nodeRepository.findAllById(ancestorIds).stream()
+                .sorted(Comparator.comparingInt(ancestor -> ancestor.getPath().length()))
+                .toList());
+    }
+    
+    /** Returns the mirrors of {@code sourceId}, found through the mirror index and resolved against the source. */
+    @Transactional(readOnly = true)
+    public List<Node> getMirrors(Long sourceId) {
+        return resolve(inWorkspace(nodeRepository.findByMirrorIdOrderByIdAsc(sourceId)));
+    }
+    
+    /** Creates a node, or a mirror of another node when {@code mirrorId} is set. */
     @Transactional
     public Node createNode(Node node) {
-        if (node.getParentId() != null && !nodeRepository.existsById(node.getParentId())) {
-            throw new RuntimeException("Parent node not found");
+        node.setWorkspace(WorkspaceContext.current());
+        node.setPath(pathOf(node.getParentId()));
+        if (node.getMirrorId() != null) {
+            // Mirrors point straight at the node holding the content and keep none of their own
+            Node source = contentOwner(loadNode(node.getMirrorId()));
+            node.setMirrorId(source.getId());
+            node.setContent("");
+            node.setNotes(null);
+            node.setTags(new ArrayList<>());
+        }
+        
+        // position is an index among the new siblings, as for moves; without one the node is appended
+        node.setPosition(node.getPosition() != null
+                ? positionAtIndex(node.getParentId(), null, node.getPosition())
+                : appendPosition(node.getParentId()));
+        
+        nodeTreeCache.childrenChanged(node.getParentId());
+        Node saved = saveNode(node);
+        adjustRollups(saved.getPath(), 1, 1, completedCount(saved));
+        return present(saved);
+    }
+    
+    /**
+     * Creates whole subtrees under {@code parentId} (the root level when null), appended after
+     * the existing children. Ids come from the pooled sequence, so the rows are written as JDBC
+     * batches when the transaction flushes. Returns the created top-level nodes.
+     */
+    @Transactional
+    public List<Node> createSubtrees(Long parentId, List<NodeDraft> drafts) {
+        String parentPath = pathOf(parentId);
+        int position = appendPosition(parentId);
+        List<Node> created = new ArrayList<>(drafts.size());
+        Map<NodeDraft, int[]> rollups = new IdentityHashMap<>();
+        for (NodeDraft draft : drafts) {
+            tally(draft, rollups);
+            Node node = insertDraft(draft, parentId, parentPath, position, rollups).node();
+            created.add(node);
+            position += POSITION_GAP;
+        }
+        adjustRollups(parentPath, created.size(),
+                created.stream().mapToInt(node -> 1 + node.getDescendantCount()).sum(),
+                created.stream().mapToInt(NodeService::completedCount).sum());
+        nodeTreeCache.childrenChanged(parentId);
+        nodeChangeBroadcaster.changed(parentPath);
+        return created;
+    }
+    
+    /**
+     * Copies the node and all its descendants, including notes, tags, flags and sibling order,
+     * and places the copy right after the original. The subtree is read in one query and the
+     * copies are written as batched inserts. Returns the copy with its nested children.
+     */
+    @Transactional
+    public NodeTree duplicateSubtree(Long id) {
+        Node source = loadNode(id);
+        Long parentId = source.getParentId();
+        
+        // Mirrors are copied as plain nodes with their sources' content
+        Node root = source;
+        Map<Long, List<Node>> childrenByParent = new HashMap<>();
+        for (Node node : resolve(nodeRepository.findSubtreeWithTags(id, descendantPath(source)))) {
+            if (node.getId().equals(id)) {
+                root = node;
+            } else {
+                childrenByParent.computeIfAbsent(node.getParentId(), key -> new ArrayList<>()).add(node);
+            }
         }
+        NodeDraft draft = toDraft(root, childrenByParent);
         
-        // Set default position if not set
-        if (node.getPosition() == null) {
-            Integer maxPosition = nodeRepository.findMaxPositionByParentId(node.getParentId());
-            node.setPosition(maxPosition != null ? maxPosition + 1 : 0);
+        Integer position = positionAfter(source);
+        if (position == null) {
+            rebalanceChildren(parentId, null);
+            position = positionAfter(source);
         }
         
-        return nodeRepository.save(node);
+        Map<NodeDraft, int[]> rollups = new IdentityHashMap<>();
+        tally(draft, rollups);
+        NodeTree copy = insertDraft(draft, parentId, source.getPath(), position, rollups);
+        adjustRollups(source.getPath(), 1, 1 + copy.node().getDescendantCount(), completedCount(copy.node()));
+        
+        nodeTreeCache.childrenChanged(parentId);
+        nodeChangeBroadcaster.changed(source.getPath());
+        return copy;
     }
     
     @Transactional
     public Node updateNode(Long id, Node node) {
-        Node existing = getNodeById(id);
-        existing.setContent(node.getContent());
+        return updateNode(id, node, null);
+    }
+    
+    /**
+     * Updates the node's content and, when given, its position as an index among its siblings,
+     * provided it is still at {@code expectedVersion} when given. A mirror's content is written
+     * to its source, which must then still be at the expected source version too.
+     */
+    @Transactional
+    public Node updateNode(Long id, Node node, NodeVersion expectedVersion) {
+        Node existing = loadNode(id);
+        checkVersion(existing, expectedVersion);
+        Node owner = contentOwner(existing);
+        checkSourceVersion(existing, owner, expectedVersion);
+        owner.setContent(node.getContent());
+        if (owner != existing) {
+            saveNode(owner);
+        }
+        mirrorsChanged(owner);
         if (node.getPosition() != null) {
-            existing.setPosition(node.getPosition());
+            existing.setPosition(positionAtIndex(existing.getParentId(), id, node.getPosition()));
+            nodeTreeCache.childrenChanged(existing.getParentId());
         }
-        return nodeRepository.save(existing);
+        return present(saveNode(existing));
     }
     
-    @Transactional
+    /**
+     * Deletes the node and its subtree, deepest nodes first, committing every
+     * {@link #DELETE_BATCH_SIZE} nodes in a transaction of their own so a large subtree does not
+     * hold one long transaction. Each batch takes its nodes off the rollups of their ancestors,
+     * so if the delete stops partway what is left is a smaller, consistent subtree under the
+     * same node, and deleting that node again resumes it. Mirrors outside the subtree are
+     * detached in the batch that deletes their source, so a delete that stops partway leaves
+     * every mirror either showing a source that still exists or already detached. Inside an
+     * enclosing transaction, as in {@link #applyBatch}, the batches join it and the delete stays
+     * all-or-nothing.
+     */
     public void deleteNode(Long id) {
-        Node node = getNodeById(id);
+        Node node = loadNode(id);
+        List<Object[]> rows = transactionOperations.execute(status -> new ArrayList<>(nodeRepository.findSubtreeRows(id)));
+        Set<Long> subtreeIds = rows.stream().map(row -> (Long) row[0]).collect(Collectors.toSet());
         
-        // Recursively delete all children
-        List<Node> children = nodeRepository.findByParentIdOrderByPositionAsc(id);
-        for (Node child : children) {
-            deleteNode(child.getId());
+        // A node's descendants are always deeper than it, so no batch leaves a node without its parent
+        rows.sort(Comparator.comparingLong((Object[] row) -> ((String) row[1]).chars().filter(c -> c == '/').count()).reversed());
+        for (int from = 0; from < rows.size(); from += DELETE_BATCH_SIZE) {
+            List<Object[]> batch = rows.subList(from, Math.min(from + DELETE_BATCH_SIZE, rows.size()));
+            transactionOperations.executeWithoutResult(status -> deleteBatch(batch, subtreeIds));
+            nodeChangeBroadcaster.changed(descendantPath(node));
         }
-        
-        nodeRepository.delete(node);
     }
     
     @Transactional
     public Node moveNode(Long id, Long newParentId, Integer newPosition) {
-        Node node = getNodeById(id);
+        return moveNode(id, newParentId, newPosition, null);
+    }
+    
+    /**
+     * Moves the node, provided it is still at {@code expectedVersion} when given. A mirror moves
+     * without its source, so only the mirror's own version is checked.
+     */
+    @Transactional
+    public Node moveNode(Long id, Long newParentId, Integer newPosition, NodeVersion expectedVersion) {
+        Node node = loadNode(id);
+        checkVersion(node, expectedVersion);
         
-        // Validate no circular reference
-        if (newParentId != null) {
-            Node tempParent = nodeRepository.findById(newParentId).orElse(null);
-            while (tempParent != null) {
-                if (tempParent.getId().equals(id)) {
-                    throw new RuntimeException("Cannot create circular reference");
-                }
-                tempParent = tempParent.getParentId() != null ? 
-                    nodeRepository.findById(tempParent.getParentId()).orElse(null) : null;
-            }
+        // Validate no circular reference: the new parent must not lie within the moved subtree
+        String newPath = pathOf(newParentId);
+        String oldDescendantPath = descendantPath(node);
+        if (newPath.startsWith(oldDescendantPath)) {
+            throw new RuntimeException("Cannot create circular reference");
         }
         
-        Long oldParentId = node.getParentId();
+        // newPosition is an index among the new siblings; only the moved row gets a new sort key
+        int position = positionAtIndex(newParentId, id, newPosition);
         
-        // If parent changed, recalculate positions in old parent's children
-        if (!java.util.Objects.equals(oldParentId, newParentId)) {
-            List<Node> oldSiblings = nodeRepository.findByParentIdOrderByPositionAsc(oldParentId);
-            int position = 0;
-            for (Node sibling : oldSiblings) {
-                if (!sibling.getId().equals(id)) {
-                    sibling.setPosition(position++);
-                    nodeRepository.save(sibling);
-                }
-            }
-        }
-        
-        // Update node's parent and position
+        nodeTreeCache.childrenChanged(node.getParentId());
+        nodeTreeCache.childrenChanged(newParentId);
         node.setParentId(newParentId);
         
-        // Recalculate positions in new parent's children
-        List<Node> newSiblings = nodeRepository.findByParentIdOrderByPositionAsc(newParentId);
-        
-        if (newPosition == null || newPosition < 0 || newPosition > newSiblings.size()) {
-            newPosition = newSiblings.size();
+        // Re-root the paths of all descendants in one statement
+        if (!newPath.equals(node.getPath())) {
+            int descendants = 1 + node.getDescendantCount();
+            adjustRollups(node.getPath(), -1, -descendants, -completedCount(node));
+            adjustRollups(newPath, 1, descendants, completedCount(node));
+            node.setPath(newPath);
+            nodeRepository.replacePathPrefix(oldDescendantPath, descendantPath(node));
+            nodeTreeCache.subtreeMoved(oldDescendantPath);
         }
+        // Watchers of the old location see the node leave, the save below notifies the new one
+        nodeChangeBroadcaster.changed(oldDescendantPath);
         
-        int position = 0;
-        for (Node sibling : newSiblings) {
-            if (!sibling.getId().equals(id)) {
-                if (position == newPosition) {
-                    position++;
-                }
-                sibling.setPosition(position++);
-                nodeRepository.save(sibling);
-            }
-        }
-        
-        node.setPosition(newPosition);
-        return nodeRepository.save(node);
+        node.setPosition(position);
+        return present(saveNode(node, NodeChange.Type.MOVE));
     }
     
     // New service methods for enhanced features
     @Transactional
     public Node toggleComplete(Long id) {
-        Node node = getNodeById(id);
+        Node node = loadNode(id);
         node.setIsCompleted(!node.getIsCompleted());
-        return nodeRepository.save(node);
+        adjustRollups(node.getPath(), 0, 0, node.getIsCompleted() ? 1 : -1);
+        return present(saveNode(node));
     }
     
+    /** Flips the node's expansion, in the state buffer when write-behind is enabled. */
     @Transactional
     public Node toggleExpand(Long id) {
-        Node node = getNodeById(id);
+        if (nodeStateBuffer.isEnabled()) {
+            // A node with a pending state is not read again below, so its workspace is checked here
+            cachedNode(id);
+            nodeStateBuffer.toggleExpanded(id, () -> cachedNode(id).getIsExpanded());
+            return getNodeById(id);
+        }
+        Node node = loadNode(id);
         node.setIsExpanded(!node.getIsExpanded());
-        return nodeRepository.save(node);
+        return present(saveNode(node));
     }
     
     @Transactional
     public Node toggleStar(Long id) {
-        Node node = getNodeById(id);
+        Node node = loadNode(id);
         node.setIsStarred(!node.getIsStarred());
-        return nodeRepository.save(node);
+        return present(saveNode(node));
     }
     
     @Transactional
     public Node updateNotes(Long id, String notes) {
-        Node node = getNodeById(id);
-        node.setNotes(notes);
-        return nodeRepository.save(node);
+        return updateNotes(id, notes, null);
     }
     
+    /**
+     * Sets the node's notes, or its source's for a mirror, provided both are still at
+     * {@code expectedVersion} when given.
+     */
     @Transactional
-    public List<Node> batchUpdate(List<Node> nodes) {
-        for (Node node : nodes) {
-            if (node.getId() != null) {
-                Node existing = getNodeById(node.getId());
-                if (node.getContent() != null) existing.setContent(node.getContent());
-                if (node.getIsCompleted() != null) existing.setIsCompleted(node.getIsCompleted());
-                if (node.getIsExpanded() != null) existing.setIsExpanded(node.getIsExpanded());
-                if (node.getIsStarred() != null) existing.setIsStarred(node.getIsStarred());
-                if (node.getNotes() != null) existing.setNotes(node.getNotes());
-                nodeRepository.save(existing);
+    public Node updateNotes(Long id, String notes, NodeVersion expectedVersion) {
+        Node node = loadNode(id);
+        checkVersion(node, expectedVersion);
+        Node owner = contentOwner(node);
+        checkSourceVersion(node, owner, expectedVersion);
+        owner.setNotes(notes);
+        saveNode(owner);
+        mirrorsChanged(owner);
+        return present(node);
+    }
+    
+    /**
+     * Applies creates, updates, moves and deletes in request order within one transaction and
+     * returns the persisted state of every created, updated or moved node. Nodes to update are
+     * loaded with one query and their changes are flushed as JDBC batches.
+     */
+    @Transactional
+    public List<Node> applyBatch(List<NodeBatchOperation> operations) {
+        List<Long> updateIds = operations.stream()
+                .filter(operation -> operation.op() == NodeBatchOperation.Type.UPDATE)
+                .map(NodeBatchOperation::id)
+                .toList();
+        Map<Long, Node> updatable = nodeRepository.findAllById(updateIds).stream()
+                .filter(NodeService::inWorkspace)
+                .collect(Collectors.toMap(Node::getId, Function.identity()));
+        
+        List<Node> results = new ArrayList<>();
+        for (NodeBatchOperation operation : operations) {
+            if (operation.op() == null) {
+                throw new RuntimeException("Batch operation type is required");
+            }
+            switch (operation.op()) {
+                case CREATE -> {
+                    Node node = new Node(operation.content(), operation.parentId(), operation.position());
+                    applyChanges(node, node, operation);
+                    results.add(createNode(node));
+                }
+                case UPDATE -> {
+                    Node existing = updatable.get(operation.id());
+                    if (existing == null) {
+                        throw new RuntimeException("Node not found with id: " + operation.id());
+                    }
+                    boolean wasCompleted = Boolean.TRUE.equals(existing.getIsCompleted());
+                    Node owner = contentOwner(existing);
+                    applyChanges(existing, owner, operation);
+                    if (operation.isExpanded() != null) {
+                        nodeStateBuffer.expandedSet(existing.getId(), operation.isExpanded());
+                    }
+                    if (wasCompleted != Boolean.TRUE.equals(existing.getIsCompleted())) {
+                        adjustRollups(existing.getPath(), 0, 0, wasCompleted ? -1 : 1);
+                    }
+                    if (owner != existing) {
+                        saveNode(owner);
+                    }
+                    if (operation.content() != null || operation.notes() != null || operation.tags() != null) {
+                        mirrorsChanged(owner);
+                    }
+                    results.add(present(saveNode(existing)));
+                }
+                case MOVE -> results.add(moveNode(operation.id(), operation.parentId(), operation.position()));
+                case DELETE -> deleteNode(operation.id());
             }
         }
-        return nodes;
+        return results;
     }
     
-    public List<Node> search(String q, String tag, Boolean completed) {
-        List<Node> results = new ArrayList<>();
-        
-        if (q != null && !q.isEmpty()) {
-            results.addAll(nodeRepository.findByContentContaining(q));
+    /**
+     * Returns what changed after change {@code since}: the current state of created, updated
+     * and moved nodes and the ids of deleted ones. Without {@code since} only the cursor of the
+     * latest change is returned; clients take it before loading the tree and poll from there.
+     * A cursor past the change log's retention only gets a fresh cursor and a request to reload.
+     */
+    @Transactional(readOnly = true)
+    public NodeChanges getChanges(Long since, Integer limit) {
+        if (since == null) {
+            return new NodeChanges(nodeChangeLog.latest(), true, List.of(), List.of(), false);
+        }
+        NodeChangeLog.Delta delta = nodeChangeLog.since(since, limit);
+        if (delta.reloadRequired()) {
+            return new NodeChanges(delta.cursor(), true, List.of(), List.of(), true);
         }
-        if (tag != null && !tag.isEmpty()) {
-            List<Node> tagResults = nodeRepository.findByTagsContaining(tag);
-            if (results.isEmpty()) {
-                results.addAll(tagResults);
+        Map<Long, Node> changed = nodeRepository.findAllById(delta.changedIds()).stream()
+                .collect(Collectors.toMap(Node::getId, Function.identity()));
+        
+        // A node missing here was deleted by a change past this page, which the next page reports too
+        List<Node> nodes = new ArrayList<>(changed.size());
+        List<Long> deletedIds = new ArrayList<>(delta.deletedIds());
+        for (Long id : delta.changedIds()) {
+            Node node = changed.get(id);
+            if (node != null) {
+                nodes.add(node);
             } else {
-                results.retainAll(tagResults);
+                deletedIds.add(id);
             }
         }
-        if (completed != null) {
-            List<Node> completedResults = nodeRepository.findByIsCompletedOrderByPositionAsc(completed);
-            if (results.isEmpty()) {
-                results.addAll(completedResults);
+        return new NodeChanges(delta.cursor(), delta.complete(), resolve(nodes), deletedIds, false);
+    }
+    
+    /** Projects a listing to outlines, which carry the nodes' stored rollups and so need no further queries. */
+    public List<NodeOutline> toOutlines(List<Node> nodes) {
+        return nodes.stream()
+                .map(node -> new NodeOutline(
+                        node.getId(),
+                        node.getParentId(),
+                        node.getContent(),
+                        node.getPosition(),
+                        node.getIsCompleted(),
+                        node.getIsExpanded(),
+                        node.getIsStarred(),
+                        node.getMirrorId(),
+                        node.getChildCount(),
+                        node.getDescendantCount(),
+                        node.getCompletedDescendantCount()))
+                .toList();
+    }
+    
+    /**
+     * Projects a listing to details, loading the tags of all its nodes with one query per batch
+     * rather than initializing every node's tag collection on its own.
+     */
+    @Transactional(readOnly = true)
+    public List<NodeDetail> toDetails(List<Node> nodes) {
+        Map<Long, List<String>> tagsById = new HashMap<>();
+        forEachIdBatch(nodes.stream().map(NodeService::contentOwnerId).distinct().toList(), ids -> {
+            for (Object[] row : nodeRepository.findTagsByNodeIdIn(ids)) {
+                tagsById.computeIfAbsent(((Number) row[0]).longValue(), id -> new ArrayList<>()).add((String) row[1]);
+            }
+        });
+        return nodes.stream()
+                .map(node -> new NodeDetail(
+                        node.getId(),
+                        node.getParentId(),
+                        node.getContent(),
+                        node.getPosition(),
+                        node.getPath(),
+                        node.getCreatedAt(),
+                        node.getUpdatedAt(),
+                        node.getIsCompleted(),
+                        node.getIsExpanded(),
+                        node.getIsStarred(),
+                        node.getNotes(),
+                        tagsById.getOrDefault(contentOwnerId(node), List.of()),
+                        node.getMirrorId(),
+                        node.getChildCount(),
+                        node.getDescendantCount(),
+                        node.getCompletedDescendantCount()))
+                .toList();
+    }
+    
+    private static void forEachIdBatch(List<Long> ids, Consumer<List<Long>> action) {
+        for (int from = 0; from < ids.size(); from += LOOKUP_BATCH_SIZE) {
+            action.accept(ids.subList(from, Math.min(from + LOOKUP_BATCH_SIZE, ids.size())));
+        }
+    }
+    
+    public NodeTreeCache.Stats getCacheStats() {
+        return nodeTreeCache.getStats();
+    }
+    
+    /**
+     * Searches content, notes and tags through the in-memory index, best match first.
+     * With neither {@code q} nor {@code tag} it lists nodes by completion status only.
+     */
+    @Transactional(readOnly = true)
+    public List<Node> search(String q, String tag, Boolean completed, Integer limit) {
+        int maxResults = limit != null && limit > 0 ? limit : defaultSearchLimit;
+        boolean hasQuery = q != null && !q.isBlank();
+        boolean hasTag = tag != null && !tag.isBlank();
+        if (!hasQuery && !hasTag) {
+            return completed != null
+                    ? resolve(nodeRepository.findByWorkspaceAndIsCompletedOrderByPositionAsc(
+                            WorkspaceContext.current(), completed, PageRequest.of(0, maxResults)))
+                    : List.of();
+        }
+        
+        List<Long> rankedIds = nodeSearchIndex.search(q, tag, completed, maxResults);
+        Map<Long, Node> nodesById = nodeRepository.findAllById(rankedIds).stream()
+                .collect(Collectors.toMap(Node::getId, Function.identity()));
+        return resolve(rankedIds.stream()
+                .map(nodesById::get)
+                .filter(Objects::nonNull)
+                .toList());
+    }
+    
+    /**
+     * Builds the search-filtered forest in one pass: the ranked matches, every ancestor on their
+     * paths and, when {@code includeDescendants} is set, everything beneath them, nested in
+     * position order with the content ranges each query token matched.
+     */
+    @Transactional(readOnly = true)
+    public List<FilteredNodeTree> searchTree(
+            String q, String tag, Boolean completed, Integer limit, boolean includeDescendants) {
+        int maxResults = limit != null && limit > 0 ? limit : defaultSearchLimit;
+        List<Long> matchIds = nodeSearchIndex.search(q, tag, completed, maxResults);
+        if (matchIds.isEmpty()) {
+            return List.of();
+        }
+        
+        Map<Long, Node> nodesById = new HashMap<>();
+        List<Node> matches = includeDescendants
+                ? nodeRepository.findSubtrees(matchIds)
+                : nodeRepository.findAllById(matchIds);
+        matches.forEach(node -> nodesById.put(node.getId(), node));
+        
+        // Ancestors come straight from the materialized paths, so they take one lookup in total
+        Set<Long> ancestorIds = new HashSet<>();
+        for (Long matchId : matchIds) {
+            Node match = nodesById.get(matchId);
+            if (match != null) {
+                ancestorIds.addAll(pathIds(match.getPath()));
+            }
+        }
+        ancestorIds.removeAll(nodesById.keySet());
+        nodeRepository.findAllById(ancestorIds).forEach(node -> nodesById.put(node.getId(), node));
+        
+        Set<Long> matchedIds = new HashSet<>(matchIds);
+        List<String> terms = NodeSearchIndex.tokenize(q);
+        Map<Long, List<Node>> childrenByParent = new HashMap<>();
+        List<Node> roots = new ArrayList<>();
+        for (Node node : resolve(List.copyOf(nodesById.values()))) {
+            if (node.getParentId() != null && nodesById.containsKey(node.getParentId())) {
+                childrenByParent.computeIfAbsent(node.getParentId(), key -> new ArrayList<>()).add(node);
             } else {
-                results.retainAll(completedResults);
+                roots.add(node);
             }
         }
+        return sortedByPosition(roots).stream()
+                .map(root -> toFilteredTree(root, childrenByParent, matchedIds, terms))
+                .toList();
+    }
+    
+    // Children are only reachable through their parent, so neither is cached until read
+    private NodeTree insertDraft(
+            NodeDraft draft, Long parentId, String parentPath, int position, Map<NodeDraft, int[]> rollups) {
+        Node node = new Node(draft.content(), parentId, position);
+        node.setWorkspace(WorkspaceContext.current());
+        node.setPath(parentPath);
+        if (draft.notes() != null) node.setNotes(draft.notes());
+        if (draft.tags() != null) node.setTags(new ArrayList<>(draft.tags()));
+        if (draft.isCompleted() != null) node.setIsCompleted(draft.isCompleted());
+        if (draft.isExpanded() != null) node.setIsExpanded(draft.isExpanded());
+        if (draft.isStarred() != null) node.setIsStarred(draft.isStarred());
+        int[] rollup = rollups.get(draft);
+        node.setChildCount(draft.children() != null ? draft.children().size() : 0);
+        node.setDescendantCount(rollup[0]);
+        node.setCompletedDescendantCount(rollup[1]);
+        
+        Node saved = nodeRepository.save(node);
+        nodeSearchIndex.index(saved);
+        nodeChangeLog.record(NodeChange.Type.CREATE, saved.getId());
         
-        return results.stream().distinct().toList();
+        List<NodeTree> children = new ArrayList<>();
+        if (draft.children() != null) {
+            int childPosition = 0;
+            for (NodeDraft child : draft.children()) {
+                children.add(insertDraft(child, saved.getId(), descendantPath(saved), childPosition, rollups));
+                childPosition += POSITION_GAP;
+            }
+        }
+        return new NodeTree(saved, children);
+    }
+    
+    // Records the descendant and completed-descendant counts of every draft in the tree, returning the root's
+    private static int[] tally(NodeDraft draft, Map<NodeDraft, int[]> rollups) {
+        int[] rollup = new int[2];
+        if (draft.children() != null) {
+            for (NodeDraft child : draft.children()) {
+                int[] childRollup = tally(child, rollups);
+                rollup[0] += 1 + childRollup[0];
+                rollup[1] += (Boolean.TRUE.equals(child.isCompleted()) ? 1 : 0) + childRollup[1];
+            }
+        }
+        rollups.put(draft, rollup);
+        return rollup;
+    }
+    
+    private static int toPageSize(Integer limit) {
+        return limit != null && limit > 0 ? Math.min(limit, MAX_PAGE_SIZE) : DEFAULT_PAGE_SIZE;
+    }
+    
+    private static NodeDraft toDraft(Node node, Map<Long, List<Node>> childrenByParent) {
+        List<NodeDraft> children = sortedByPosition(childrenByParent.getOrDefault(node.getId(), List.of())).stream()
+                .map(child -> toDraft(child, childrenByParent))
+                .toList();
+        return new NodeDraft(node.getContent(), node.getNotes(), node.getTags(),
+                node.getIsCompleted(), node.getIsExpanded(), node.getIsStarred(), children);
+    }
+    
+    // Content, notes and tags go to the content owner, which is the node itself unless it is a mirror
+    private static void applyChanges(Node node, Node contentOwner, NodeBatchOperation changes) {
+        if (changes.content() != null) contentOwner.setContent(changes.content());
+        if (changes.notes() != null) contentOwner.setNotes(changes.notes());
+        if (changes.tags() != null) contentOwner.setTags(new ArrayList<>(changes.tags()));
+        if (changes.isCompleted() != null) node.setIsCompleted(changes.isCompleted());
+        if (changes.isExpanded() != null) node.setIsExpanded(changes.isExpanded());
+        if (changes.isStarred() != null) node.setIsStarred(changes.isStarred());
+    }
+    
+    // What reads return: mirrors with their sources' content, and expansion still waiting in the state buffer
+    private List<Node> resolve(List<Node> nodes) {
+        return withPendingState(resolveMirrors(nodes));
+    }
+    
+    private Node resolve(Node node) {
+        return resolve(List.of(node)).get(0);
+    }
+    
+    /**
+     * Shows every mirror in {@code nodes} with its source's content, notes and tags, as a copy so
+     * cached and managed nodes stay untouched. Sources come from the cache where possible and
+     * otherwise from one query for the whole listing.
+     */
+    private List<Node> resolveMirrors(List<Node> nodes) {
+        Map<Long, Node> sources = new HashMap<>();
+        List<Long> uncachedIds = new ArrayList<>();
+        for (Node node : nodes) {
+            Long sourceId = node.getMirrorId();
+            if (sourceId != null && !sources.containsKey(sourceId)) {
+                Node cached = nodeTreeCache.getNode(sourceId).orElse(null);
+                sources.put(sourceId, cached);
+                if (cached == null) {
+                    uncachedIds.add(sourceId);
+                }
+            }
+        }
+        if (sources.isEmpty()) {
+            return nodes;
+        }
+        if (!uncachedIds.isEmpty()) {
+            long version = nodeTreeCache.version();
+            for (Node source : nodeRepository.findWithTagsByIdIn(uncachedIds)) {
+                nodeTreeCache.putNode(source, version);
+                sources.put(source.getId(), source);
+            }
+        }
+        return nodes.stream()
+                .map(node -> node.getMirrorId() != null ? mirrorView(node, sources.get(node.getMirrorId())) : node)
+                .toList();
+    }
+    
+    private List<Node> withPendingState(List<Node> nodes) {
+        if (nodeStateBuffer.isEmpty()) {
+            return nodes;
+        }
+        return nodes.stream()
+                .map(node -> {
+                    NodeStateBuffer.Pending pending = nodeStateBuffer.pending(node.getId());
+                    return pending != null ? pendingView(node, pending) : node;
+                })
+                .toList();
+    }
+    
+    // What a write returns for a node: views are taken after a flush so they carry the new version
+    private Node present(Node node) {
+        NodeStateBuffer.Pending pending = nodeStateBuffer.pending(node.getId());
+        if (node.getMirrorId() == null && pending == null) {
+            return node;
+        }
+        entityManager.flush();
+        Node view = node.getMirrorId() != null ? mirrorView(node, loadNode(node.getMirrorId())) : node;
+        return pending != null ? pendingView(view, pending) : view;
+    }
+    
+    private static Node mirrorView(Node mirror, Node source) {
+        if (source == null) {
+            return mirror;
+        }
+        Node view = copyOf(mirror, source);
+        view.setSourceVersion(source.getVersion());
+        return view;
+    }
+    
+    // The buffered flips count as versions the row has not been given yet
+    private static Node pendingView(Node node, NodeStateBuffer.Pending pending) {
+        Node view = copyOf(node, node);
+        view.setSourceVersion(node.getSourceVersion());
+        view.setIsExpanded(pending.expanded());
+        view.setVersion(node.getVersion() + pending.flips());
+        return view;
+    }
+    
+    // A detached copy of the node showing the content, notes and tags of contentOwner
+    private static Node copyOf(Node node, Node contentOwner) {
+        Node copy = new Node(contentOwner.getContent(), node.getParentId(), node.getPosition());
+        copy.setId(node.getId());
+        copy.setWorkspace(node.getWorkspace());
+        copy.setPath(node.getPath());
+        copy.setCreatedAt(node.getCreatedAt());
+        copy.setUpdatedAt(node.getUpdatedAt());
+        copy.setIsCompleted(node.getIsCompleted());
+        copy.setIsExpanded(node.getIsExpanded());
+        copy.setIsStarred(node.getIsStarred());
+        copy.setTags(new ArrayList<>(contentOwner.getTags()));
+        copy.setNotes(contentOwner.getNotes());
+        copy.setMirrorId(node.getMirrorId());
+        copy.setVersion(node.getVersion());
+        copy.setChildCount(node.getChildCount());
+        copy.setDescendantCount(node.getDescendantCount());
+        copy.setCompletedDescendantCount(node.getCompletedDescendantCount());
+        return copy;
+    }
+    
+    // The node whose row holds the content shown by this one: its source for a mirror, otherwise itself
+    private Node contentOwner(Node node) {
+        return node.getMirrorId() != null ? loadNode(node.getMirrorId()) : node;
+    }
+    
+    private static Long contentOwnerId(Node node) {
+        return node.getMirrorId() != null ? node.getMirrorId() : node.getId();
+    }
+    
+    // Mirrors keep no copy, so a source edit only has to reach the change streams watching them
+    private void mirrorsChanged(Node source) {
+        if (nodeChangeBroadcaster.subscriberCount() == 0) {
+            return;
+        }
+        for (Object[] row : nodeRepository.findMirrorPaths(source.getId())) {
+            nodeChangeBroadcaster.changed(row[0] + String.valueOf(row[1]) + "/");
+        }
+    }
+    
+    // Removes nodes with no descendants outside the batch set-wise, tags first, after taking them off their ancestors' rollups
+    private void deleteBatch(List<Object[]> rows, Set<Long> subtreeIds) {
+        Map<String, int[]> removedByPath = new HashMap<>();
+        for (Object[] row : rows) {
+            int[] removed = removedByPath.computeIfAbsent((String) row[1], path -> new int[2]);
+            removed[0]++;
+            removed[1] += Boolean.TRUE.equals(row[2]) ? 1 : 0;
+        }
+        removedByPath.forEach((path, removed) -> adjustRollups(path, -removed[0], -removed[0], -removed[1]));
+        
+        List<Long> ids = rows.stream().map(row -> (Long) row[0]).toList();
+        detachMirrorsOf(ids, subtreeIds);
+        nodeRepository.deleteTagsByNodeIds(ids);
+        nodeRepository.deleteByIds(ids);
+        nodeTreeCache.nodesDeleted(ids);
+        nodeSearchIndex.remove(ids);
+        nodeChangeLog.recordAll(NodeChange.Type.DELETE, ids);
+    }
+    
+    // Mirrors of nodes about to be deleted, outside the deleted subtree, become plain nodes keeping what they showed
+    private void detachMirrorsOf(List<Long> deletedIds, Set<Long> subtreeIds) {
+        List<Long> mirrorIds = new ArrayList<>();
+        forEachIdBatch(deletedIds, ids -> nodeRepository.findIdsByMirrorIdIn(ids).stream()
+                .filter(mirrorId -> !subtreeIds.contains(mirrorId))
+                .forEach(mirrorIds::add));
+        if (mirrorIds.isEmpty()) {
+            return;
+        }
+        forEachIdBatch(mirrorIds, ids -> {
+            nodeRepository.copySourceTags(ids);
+            nodeRepository.detachMirrors(ids);
+        });
+        for (Node mirror : nodeRepository.findAllById(mirrorIds)) {
+            nodeSearchIndex.index(mirror);
+            nodeChangeBroadcaster.changed(descendantPath(mirror));
+        }
+        nodeTreeCache.nodesChanged(mirrorIds);
+        nodeChangeLog.recordAll(NodeChange.Type.UPDATE, mirrorIds);
+    }
+    
+    // Rejected like a concurrent update caught at flush, so callers handle both the same way
+    private void checkVersion(Node node, NodeVersion expectedVersion) {
+        if (expectedVersion != null
+                && (node.getVersion() == null
+                        || expectedVersion.version() != node.getVersion() + nodeStateBuffer.pendingFlips(node.getId()))) {
+            throw new ObjectOptimisticLockingFailureException(Node.class, node.getId());
+        }
+    }
+    
+    // A write through a mirror lands on its source, which the mirror's tag pins as well; a tag
+    // without a source version is a plain node's and never matches a mirror
+    private static void checkSourceVersion(Node node, Node owner, NodeVersion expectedVersion) {
+        if (expectedVersion != null && owner != node
+                && !Objects.equals(expectedVersion.sourceVersion(), owner.getVersion())) {
+            throw new ObjectOptimisticLockingFailureException(Node.class, owner.getId());
+        }
+    }
+    
+    // Reads take the cache's snapshot of the node, caching it on a miss
+    private Node cachedNode(Long id) {
+        Optional<Node> cached = nodeTreeCache.getNode(id);
+        if (cached.isPresent()) {
+            return cached.filter(NodeService::inWorkspace)
+                    .orElseThrow(() -> new RuntimeException("Node not found with id: " + id));
+        }
+        long version = nodeTreeCache.version();
+        Node node = loadNode(id);
+        nodeTreeCache.putNode(node, version);
+        return node;
+    }
+    
+    // Writes always start from the managed entity, never from a shared cache snapshot
+    private Node loadNode(Long id) {
+        return nodeRepository.findById(id)
+                .filter(NodeService::inWorkspace)
+                .orElseThrow(() -> new RuntimeException("Node not found with id: " + id));
+    }
+    
+    // Node ids are unique across workspaces; a node of another workspace is treated as missing
+    private static boolean inWorkspace(Node node) {
+        return WorkspaceContext.current().equals(node.getWorkspace());
+    }
+    
+    // Siblings share their parent's workspace, so the first one decides for the whole list
+    private static List<Node> inWorkspace(List<Node> siblings) {
+        return siblings.isEmpty() || inWorkspace(siblings.get(0)) ? siblings : List.of();
+    }
+    
+    private Node saveNode(Node node) {
+        return saveNode(node, node.getId() == null ? NodeChange.Type.CREATE : NodeChange.Type.UPDATE);
+    }
+    
+    private Node saveNode(Node node, NodeChange.Type change) {
+        Node saved = nodeRepository.save(node);
+        nodeTreeCache.nodeSaved(saved);
+        nodeSearchIndex.index(saved);
+        nodeChangeLog.record(change, saved.getId());
+        nodeChangeBroadcaster.changed(descendantPath(saved));
+        return saved;
+    }
+    
+    private static long toAfterId(String after) {
+        if (after == null || after.isBlank()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(after);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Invalid cursor: " + after);
+        }
+    }
+    
+    private int appendPosition(Long parentId) {
+        Integer maxPosition = nodeRepository.findMaxPositionByParentId(WorkspaceContext.current(), parentId);
+        if (maxPosition == null) {
+            return 0;
+        }
+        if (maxPosition > Integer.MAX_VALUE - POSITION_GAP) {
+            rebalanceChildren(parentId, null);
+            maxPosition = nodeRepository.findMaxPositionByParentId(WorkspaceContext.current(), parentId);
+        }
+        return maxPosition + POSITION_GAP;
+    }
+    
+    /**
+     * Picks a sort key that places a node at {@code index} among the children of {@code parentId}
+     * other than {@code excludedId}, respacing them when the neighbouring keys leave no room. A
+     * missing or out-of-range index places it last. Creates, updates and moves all take indexes,
+     * so clients never deal in sort keys.
+     */
+    private int positionAtIndex(Long parentId, Long excludedId, Integer index) {
+        List<Integer> siblingPositions = nodeRepository.findSiblingPositions(
+                WorkspaceContext.current(), parentId, excludedId);
+        if (index == null || index < 0 || index > siblingPositions.size()) {
+            index = siblingPositions.size();
+        }
+        Integer position = positionAt(siblingPositions, index);
+        if (position == null) {
+            rebalanceChildren(parentId, excludedId);
+            siblingPositions = nodeRepository.findSiblingPositions(WorkspaceContext.current(), parentId, excludedId);
+            position = positionAt(siblingPositions, index);
+        }
+        return position;
+    }
+    
+    /**
+     * Picks a sort key that places a node at {@code index} among siblings with the given
+     * ordered keys, or returns null when the neighbouring keys leave no room.
+     */
+    private static Integer positionAt(List<Integer> siblingPositions, int index) {
+        Integer before = index > 0 ? siblingPositions.get(index - 1) : null;
+        Integer after = index < siblingPositions.size() ? siblingPositions.get(index) : null;
+        long position;
+        if (before == null && after == null) {
+            position = 0;
+        } else if (after == null) {
+            position = (long) before + POSITION_GAP;
+        } else if (before == null) {
+            position = (long) after - POSITION_GAP;
+        } else if ((long) after - before >= 2) {
+            position = before + ((long) after - before) / 2;
+        } else {
+            return null;
+        }
+        return position >= Integer.MIN_VALUE && position <= Integer.MAX_VALUE ? (int) position : null;
+    }
+    
+    // Respaces a parent's children POSITION_GAP apart, skipping the node being moved
+    private void rebalanceChildren(Long parentId, Long excludedId) {
+        int position = 0;
+        List<Node> children = parentId != null
+                ? nodeRepository.findByParentIdOrderByPositionAsc(parentId)
+                : nodeRepository.findByWorkspaceAndParentIdIsNullOrderByPositionAsc(WorkspaceContext.current());
+        for (Node child : children) {
+            if (!child.getId().equals(excludedId)) {
+                child.setPosition(position);
+                saveNode(child);
+                position += POSITION_GAP;
+            }
+        }
+    }
+    
+    // Sort key between the node and its next sibling, or null when there is no room
+    private Integer positionAfter(Node node) {
+        List<Integer> siblingPositions = new ArrayList<>(nodeRepository.findSiblingPositions(
+                WorkspaceContext.current(), node.getParentId(), node.getId()));
+        int index = 0;
+        while (index < siblingPositions.size() && siblingPositions.get(index) <= node.getPosition()) {
+            index++;
+        }
+        siblingPositions.add(index, node.getPosition());
+        return positionAt(siblingPositions, index + 1);
+    }
+    
+    // Path for a new child of parentId, known before the child is saved so it is inserted in one write
+    private String pathOf(Long parentId) {
+        if (parentId == null) {
+            return ROOT_PATH;
+        }
+        return descendantPath(nodeRepository.findById(parentId)
+                .filter(NodeService::inWorkspace)
+                .orElseThrow(() -> new RuntimeException("Parent node not found")));
+    }
+    
+    // Prefix shared by the paths of all of the node's descendants
+    private static String descendantPath(Node node) {
+        return node.getPath() + node.getId() + "/";
+    }
+    
+    private FilteredNodeTree toFilteredTree(
+            Node node, Map<Long, List<Node>> childrenByParent, Set<Long> matchedIds, List<String> terms) {
+        boolean matched = matchedIds.contains(node.getId());
+        List<FilteredNodeTree> children = sortedByPosition(childrenByParent.getOrDefault(node.getId(), List.of()))
+                .stream()
+                .map(child -> toFilteredTree(child, childrenByParent, matchedIds, terms))
+                .toList();
+        return new FilteredNodeTree(node, matched, matched ? matchRanges(node.getContent(), terms) : List.of(), children);
+    }
+    
+    private static List<Node> sortedByPosition(List<Node> nodes) {
+        return nodes.stream()
+                .sorted(Comparator.comparing(Node::getPosition).thenComparing(Node::getId))
+                .toList();
+    }
+    
+    // Ranges where a query token starts a word of the content, mirroring the index's prefix matching
+    private static List<FilteredNodeTree.MatchRange> matchRanges(String content, List<String> terms) {
+        if (content == null || terms.isEmpty()) {
+            return List.of();
+        }
+        String folded = content.toLowerCase(Locale.ROOT);
+        List<FilteredNodeTree.MatchRange> ranges = new ArrayList<>();
+        for (String term : terms) {
+            for (int start = folded.indexOf(term); start >= 0; start = folded.indexOf(term, start + 1)) {
+                if (start == 0 || !Character.isLetterOrDigit(folded.charAt(start - 1))) {
+                    ranges.add(new FilteredNodeTree.MatchRange(start, start + term.length()));
+                }
+            }
+        }
+        ranges.sort(Comparator.comparingInt(FilteredNodeTree.MatchRange::start));
+        
+        List<FilteredNodeTree.MatchRange> merged = new ArrayList<>();
+        for (FilteredNodeTree.MatchRange range : ranges) {
+            FilteredNodeTree.MatchRange last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && range.start() <= last.end()) {
+                merged.set(merged.size() - 1, new FilteredNodeTree.MatchRange(last.start(), Math.max(last.end(), range.end())));
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+    
+    // Completed nodes in the node's subtree, itself included
+    private static int completedCount(Node node) {
+        return (Boolean.TRUE.equals(node.getIsCompleted()) ? 1 : 0) + node.getCompletedDescendantCount();
+    }
+    
+    /**
+     * Adds to the rollups of every ancestor in {@code path} with one statement, the deepest of
+     * them being the parent whose child count changes. The statement bypasses the persistence
+     * context and bumps the ancestors' versions, so ancestors already loaded in this transaction
+     * are refreshed; otherwise saving one of them later would fail its optimistic lock check.
+     */
+    private void adjustRollups(String path, int childDelta, int descendantDelta, int completedDelta) {
+        List<Long> ancestorIds = pathIds(path);
+        if (ancestorIds.isEmpty() || (childDelta == 0 && descendantDelta == 0 && completedDelta == 0)) {
+            return;
+        }
+        Long parentId = ancestorIds.get(ancestorIds.size() - 1);
+        nodeRepository.adjustRollups(ancestorIds, parentId, childDelta, descendantDelta, completedDelta);
+        for (Long ancestorId : ancestorIds) {
+            // Only returns a loaded instance when the entity is already managed, otherwise an unloaded proxy
+            Node ancestor = entityManager.getReference(Node.class, ancestorId);
+            if (Hibernate.isInitialized(ancestor)) {
+                entityManager.refresh(ancestor);
+            }
+        }
+        nodeTreeCache.nodesChanged(ancestorIds);
+    }
+    
+    private static List<Long> pathIds(String path) {
+        return Arrays.stream(path.split("/"))
+                .filter(segment -> !segment.isEmpty())
+                .map(Long::valueOf)
+                .toList();
+    }
+    
+    private int toMaxDepth(Integer depth) {
+        return depth != null ? Math.max(depth, 0) : Integer.MAX_VALUE;
+    }
+    
+    // Query results arrive ordered by position, so each child list keeps sibling order
+    private Map<Long, List<Node>> groupByParent(List<Node> nodes) {
+        return nodes.stream()
+                .filter(node -> node.getParentId() != null)
+                .collect(Collectors.groupingBy(Node::getParentId));
+    }
+    
+    // Built with an explicit stack so a deep chain cannot overflow the thread's stack
+    private NodeTree toTree(Node node, Map<Long, List<Node>> childrenByParent) {
+        NodeTree root = treeOf(node, childrenByParent);
+        Deque<NodeTree> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            NodeTree tree = pending.pop();
+            for (Node child : childrenByParent.getOrDefault(tree.node().getId(), List.of())) {
+                NodeTree childTree = treeOf(child, childrenByParent);
+                tree.children().add(childTree);
+                pending.push(childTree);
+            }
+        }
+        return root;
+    }
+    
+    private static NodeTree treeOf(Node node, Map<Long, List<Node>> childrenByParent) {
+        return new NodeTree(node, childrenByParent.containsKey(node.getId()) ? new ArrayList<>() : List.of());
     }
 }
 
@@ -0,0 +1,48 @@
+package com.todo.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Times every public {@link NodeService} operation, tagged by operation and outcome. SQL
+ * statements are counted per HTTP request instead, as {@code http.server.requests.sql.statements}.
+ * <p>
+ * Ordered outside the transaction interceptor so the flush at commit, where batched
+ * inserts and updates are executed, is part of the measurement.
+ */
+@Aspect
+@Component
+@Order(0)
+public class NodeServiceMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public NodeServiceMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Around("execution(public * com.todo.service.NodeService.*(..))")
+    public Object measure(ProceedingJoinPoint joinPoint) throws Throwable {
+        String operation = joinPoint.getSignature().getName();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "success";
+        try {
+            return joinPoint.proceed();
+        } catch (Throwable e) {
+            outcome = "error";
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("todo.node.operation")
+                    .description("Duration of NodeService operations, including the transaction commit")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.todo.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary snapshot format of the node forest, read and written one node at a time through NIO
+ * channels so neither side holds more than a buffer's worth of it.
+ * <p>
+ * Layout: the magic {@code TODOSNAP}, a format version byte, the highest node id and the
+ * lowest root position, then one record per node and an end marker followed by the node count. Integers are
+ * LEB128 varints (zigzag-encoded where they may be negative), strings are UTF-8 with a
+ * varint length, and timestamps are microseconds since the epoch in UTC.
+ * <p>
+ * Version 2 adds each node's rollups after its position. Version 1 snapshots are still read,
+ * with zero rollups the importer has to recompute.
+ */
+final class NodeSnapshot {
+
+    static final int VERSION = 2;
+    static final int VERSION_WITHOUT_ROLLUPS = 1;
+
+    private static final byte[] MAGIC = "TODOSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte END = 0;
+    private static final byte NODE = 1;
+
+    private static final int COMPLETED = 1;
+    private static final int EXPANDED = 1 << 1;
+    private static final int STARRED = 1 << 2;
+    private static final int HAS_PARENT = 1 << 3;
+    private static final int HAS_MIRROR = 1 << 4;
+    private static final int HAS_UPDATED_AT = 1 << 5;
+    private static final int HAS_NOTES = 1 << 6;
+
+    /** One node as stored in a snapshot, with its materialized path, tags and rollups. */
+    record Entry(long id, Long parentId, int position, String path, LocalDateTime createdAt,
+                 LocalDateTime updatedAt, boolean completed, boolean expanded, boolean starred,
+                 Long mirrorId, String content, String notes, List<String> tags,
+                 int childCount, int descendantCount, int completedDescendantCount) {
+    }
+
+    private NodeSnapshot() {
+    }
+
+    static final class Writer {
+
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private long count;
+
+        Writer(WritableByteChannel channel, long maxId, int minRootPosition) throws IOException {
+            this.channel = channel;
+            ensure(MAGIC.length + 1);
+            buffer.put(MAGIC).put((byte) VERSION);
+            putVarLong(maxId);
+            putZigzag(minRootPosition);
+        }
+
+        void write(Entry entry) throws IOException {
+            int flags = (entry.completed() ? COMPLETED : 0)
+                    | (entry.expanded() ? EXPANDED : 0)
+                    | (entry.starred() ? STARRED : 0)
+                    | (entry.parentId() != null ? HAS_PARENT : 0)
+                    | (entry.mirrorId() != null ? HAS_MIRROR : 0)
+                    | (entry.updatedAt() != null ? HAS_UPDATED_AT : 0)
+                    | (entry.notes() != null ? HAS_NOTES : 0);
+            ensure(2);
+            buffer.put(NODE).put((byte) flags);
+            putVarLong(entry.id());
+            if (entry.parentId() != null) putVarLong(entry.parentId());
+            putZigzag(entry.position());
+            putVarLong(entry.childCount());
+            putVarLong(entry.descendantCount());
+            putVarLong(entry.completedDescendantCount());
+            putString(entry.path());
+            putZigzag(toMicros(entry.createdAt()));
+            if (entry.updatedAt() != null) putZigzag(toMicros(entry.updatedAt()));
+            if (entry.mirrorId() != null) putVarLong(entry.mirrorId());
+            putString(entry.content());
+            if (entry.notes() != null) putString(entry.notes());
+            putVarLong(entry.tags().size());
+            for (String tag : entry.tags()) {
+                putString(tag);
+            }
+            count++;
+        }
+
+        /** Writes the end marker and node count and flushes the buffer; the caller closes the channel. */
+        void finish() throws IOException {
+            ensure(1);
+            buffer.put(END);
+            putVarLong(count);
+            flush();
+        }
+
+        long count() {
+            return count;
+        }
+
+        private void putVarLong(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private void putZigzag(long value) throws IOException {
+            putVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void putString(String value) throws IOException {
+            byte[] bytes = (value != null ? value : "").getBytes(StandardCharsets.UTF_8);
+            putVarLong(bytes.length);
+            for (int offset = 0; offset < bytes.length; ) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, length);
+                offset += length;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    static final class Reader {
+
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        private final long maxId;
+        private final int minRootPosition;
+        private final int version;
+        private long count;
+
+        Reader(ReadableByteChannel channel) throws IOException {
+            this.channel = channel;
+            require(MAGIC.length + 1);
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new RuntimeException("Not a node snapshot");
+            }
+            version = buffer.get();
+            if (version != VERSION && version != VERSION_WITHOUT_ROLLUPS) {
+                throw new RuntimeException("Unsupported snapshot version: " + version);
+            }
+            maxId = getVarLong();
+            minRootPosition = (int) getZigzag();
+        }
+
+        long maxId() {
+            return maxId;
+        }
+
+        int minRootPosition() {
+            return minRootPosition;
+        }
+
+        int version() {
+            return version;
+        }
+
+        /** Returns the next node, or null after the last one once the node count has been checked. */
+        Entry next() throws IOException {
+            require(1);
+            byte type = buffer.get();
+            if (type == END) {
+                long expected = getVarLong();
+                if (expected != count) {
+                    throw new RuntimeException("Snapshot holds " + count + " nodes but declares " + expected);
+                }
+                return null;
+            }
+            if (type != NODE) {
+                throw new RuntimeException("Corrupt snapshot: unknown record type " + type);
+            }
+            require(1);
+            int flags = buffer.get();
+            long id = getVarLong();
+            Long parentId = (flags & HAS_PARENT) != 0 ? getVarLong() : null;
+            int position = (int) getZigzag();
+            boolean hasRollups = version != VERSION_WITHOUT_ROLLUPS;
+            int childCount = hasRollups ? (int) getVarLong() : 0;
+            int descendantCount = hasRollups ? (int) getVarLong() : 0;
+            int completedDescendantCount = hasRollups ? (int) getVarLong() : 0;
+            String path = getString();
+            LocalDateTime createdAt = fromMicros(getZigzag());
+            LocalDateTime updatedAt = (flags & HAS_UPDATED_AT) != 0 ? fromMicros(getZigzag()) : null;
+            Long mirrorId = (flags & HAS_MIRROR) != 0 ? getVarLong() : null;
+            String content = getString();
+            String notes = (flags & HAS_NOTES) != 0 ? getString() : null;
+            int tagCount = (int) getVarLong();
+            List<String> tags = new ArrayList<>(tagCount);
+            for (int i = 0; i < tagCount; i++) {
+                tags.add(getString());
+            }
+            count++;
+            return new Entry(id, parentId, position, path, createdAt, updatedAt,
+                    (flags & COMPLETED) != 0, (flags & EXPANDED) != 0, (flags & STARRED) != 0,
+                    mirrorId, content, notes, tags, childCount, descendantCount, completedDescendantCount);
+        }
+
+        private long getVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                require(1);
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new RuntimeException("Corrupt snapshot: varint too long");
+        }
+
+        private long getZigzag() throws IOException {
+            long value = getVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private String getString() throws IOException {
+            int length = (int) getVarLong();
+            byte[] bytes = new byte[length];
+            for (int offset = 0; offset < length; ) {
+                require(1);
+                int chunk = Math.min(buffer.remaining(), length - offset);
+                buffer.get(bytes, offset, chunk);
+                offset += chunk;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        // Refills the buffer until at least `bytes` are available; `bytes` never exceeds the buffer size
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+            buffer.compact();
+            try {
+                while (buffer.position() < bytes) {
+                    if (channel.read(buffer) < 0) {
+                        throw new RuntimeException("Truncated snapshot");
+                    }
+                }
+            } finally {
+                buffer.flip();
+            }
+        }
+    }
+
+    private static long toMicros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + time.getNano() / 1_000;
+    }
+
+    private static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(
+                Math.floorDiv(micros, 1_000_000), (int) Math.floorMod(micros, 1_000_000) * 1_000, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,312 @@
+package com.todo.service;
+
+import com.todo.dto.SnapshotImport;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exports the current workspace's node forest as a {@link NodeSnapshot} and imports one next to
+ * its existing roots. Both directions stream through plain JDBC, so neither holds more than one
+ * batch of nodes in memory nor goes through the persistence context.
+ * <p>
+ * Exported ids are numbered from 1 whatever partition the workspace lives in. Imported ids are
+ * the snapshot's ids shifted past every id the pooled {@code node_id_seq} has handed out, and the
+ * sequence is moved past the imported range first, so imports never collide with existing nodes
+ * or with id blocks Hibernate has already allocated. Parent, mirror and path references are
+ * shifted alike; imported roots are placed after the existing ones. Imports are
+ * not written to the change log: connected clients are nudged over the change stream and should
+ * reload, and the search index is rebuilt in the background.
+ */
+@Service
+public class NodeSnapshotService {
+
+    // Nodes per JDBC batch on import
+    static final int BATCH_SIZE = 1000;
+
+    // allocationSize of the node_id_seq generator on Node
+    private static final int ID_ALLOCATION_SIZE = 50;
+
+    private static final String EXPORT_SQL = """
+            SELECT n.id, n.parent_id, n.position, n.path, n.created_at, n.updated_at, n.is_completed,
+                   n.is_expanded, n.is_starred, n.mirror_id, n.content, n.notes, n.child_count,
+                   n.descendant_count, n.completed_descendant_count, t.tag
+            FROM nodes n LEFT JOIN node_tags t ON t.node_id = n.id
+            WHERE n.workspace = ?
+            ORDER BY n.id
+            """;
+
+    private static final String INSERT_NODE_SQL = """
+            INSERT INTO nodes (id, content, parent_id, position, path, created_at, updated_at,
+                               is_completed, is_expanded, is_starred, notes, mirror_id,
+                               child_count, descendant_count, completed_descendant_count, workspace)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String INSERT_TAG_SQL = "INSERT INTO node_tags (node_id, tag) VALUES (?, ?)";
+
+    // Rollups of the nodes imported from a version 1 snapshot, which does not carry them; the same
+    // backfill as the V2 migration, restricted to the imported id range, which no other node references
+    private static final String RECOMPUTE_CHILD_COUNTS_SQL = """
+            MERGE INTO nodes t USING (
+                SELECT parent_id, COUNT(*) AS children FROM nodes
+                WHERE id BETWEEN ? AND ? AND parent_id IS NOT NULL GROUP BY parent_id
+            ) s ON t.id = s.parent_id
+            WHEN MATCHED THEN UPDATE SET t.child_count = s.children
+            """;
+
+    private static final String RECOMPUTE_DESCENDANT_COUNTS_SQL = """
+            MERGE INTO nodes t USING (
+                WITH RECURSIVE ancestry(node_id, ancestor_id, completed) AS (
+                    SELECT id, parent_id, is_completed FROM nodes WHERE id BETWEEN ? AND ? AND parent_id IS NOT NULL
+                    UNION ALL
+                    SELECT a.node_id, p.parent_id, a.completed FROM ancestry a JOIN nodes p ON p.id = a.ancestor_id
+                    WHERE p.parent_id IS NOT NULL
+                )
+                SELECT ancestor_id, COUNT(*) AS descendants,
+                       SUM(CASE WHEN completed THEN 1 ELSE 0 END) AS completed_descendants
+                FROM ancestry GROUP BY ancestor_id
+            ) s ON t.id = s.ancestor_id
+            WHEN MATCHED THEN UPDATE SET t.descendant_count = s.descendants,
+                                         t.completed_descendant_count = s.completed_descendants
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionOperations transactionOperations;
+    private final NodeTreeCache nodeTreeCache;
+    private final NodeSearchIndex nodeSearchIndex;
+    private final NodeChangeBroadcaster nodeChangeBroadcaster;
+
+    public NodeSnapshotService(
+            JdbcTemplate jdbcTemplate,
+            TransactionOperations transactionOperations,
+            NodeTreeCache nodeTreeCache,
+            NodeSearchIndex nodeSearchIndex,
+            NodeChangeBroadcaster nodeChangeBroadcaster) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionOperations = transactionOperations;
+        this.nodeTreeCache = nodeTreeCache;
+        this.nodeSearchIndex = nodeSearchIndex;
+        this.nodeChangeBroadcaster = nodeChangeBroadcaster;
+    }
+
+    /**
+     * Writes every node of the workspace to {@code channel} in id order and returns how many were
+     * written. The repeatable-read transaction gives the header and the node cursor one consistent view.
+     */
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public long exportSnapshot(WritableByteChannel channel) throws IOException {
+        String workspace = WorkspaceContext.current();
+        Long minId = jdbcTemplate.queryForObject("SELECT MIN(id) FROM nodes WHERE workspace = ?", Long.class, workspace);
+        Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM nodes WHERE workspace = ?", Long.class, workspace);
+        Integer minRootPosition = jdbcTemplate.queryForObject(
+                "SELECT MIN(position) FROM nodes WHERE parent_id IS NULL AND workspace = ?", Integer.class, workspace);
+        // Renumbers from 1, so a snapshot taken on a later partition does not span that partition's id range
+        long idShift = minId != null ? 1 - minId : 0;
+        NodeSnapshot.Writer writer = new NodeSnapshot.Writer(
+                channel, maxId != null ? maxId + idShift : 0, minRootPosition != null ? minRootPosition : 0);
+
+        EntryCollector collector = new EntryCollector(writer, idShift);
+        // Without lazy execution H2 materializes the whole join before returning its first row
+        jdbcTemplate.execute("SET LAZY_QUERY_EXECUTION TRUE");
+        try {
+            jdbcTemplate.query(EXPORT_SQL, collector, workspace);
+            collector.writeCurrent();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            jdbcTemplate.execute("SET LAZY_QUERY_EXECUTION FALSE");
+        }
+        writer.finish();
+        return writer.count();
+    }
+
+    /** Reads a snapshot from {@code channel} and inserts its nodes in one transaction. */
+    public SnapshotImport importSnapshot(ReadableByteChannel channel) throws IOException {
+        NodeSnapshot.Reader reader = new NodeSnapshot.Reader(channel);
+        // Sequence DDL commits on its own, so the ids are reserved before the import transaction starts
+        long idOffset = reserveIds(reader.maxId());
+        try {
+            long count = transactionOperations.execute(status -> {
+                try {
+                    return insertAll(reader, idOffset);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            return new SnapshotImport(count, idOffset);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Returns the offset for imported ids, having moved node_id_seq past offset + maxId
+    private long reserveIds(long maxId) {
+        long next = jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR node_id_seq", Long.class);
+        // Hibernate's pooled optimizer hands out the ids below each value it fetches, hence the extra block
+        long restart = next + maxId + 2L * ID_ALLOCATION_SIZE;
+        // Each partition's sequence stays inside the partition's id range; see WorkspacePartitions
+        if (restart / WorkspacePartitions.ID_RANGE != next / WorkspacePartitions.ID_RANGE) {
+            throw new RuntimeException("Snapshot ids do not fit in the partition's id range");
+        }
+        jdbcTemplate.execute("ALTER SEQUENCE node_id_seq RESTART WITH " + restart);
+        return next;
+    }
+
+    private long insertAll(NodeSnapshot.Reader reader, long idOffset) throws IOException {
+        String workspace = WorkspaceContext.current();
+        Integer maxRootPosition = jdbcTemplate.queryForObject(
+                "SELECT MAX(position) FROM nodes WHERE parent_id IS NULL AND workspace = ?", Integer.class, workspace);
+        long rootShift = maxRootPosition == null
+                ? 0
+                : (long) maxRootPosition + NodeService.POSITION_GAP - reader.minRootPosition();
+
+        List<Object[]> nodeRows = new ArrayList<>(BATCH_SIZE);
+        List<Object[]> tagRows = new ArrayList<>();
+        long count = 0;
+        for (NodeSnapshot.Entry entry = reader.next(); entry != null; entry = reader.next()) {
+            if (entry.id() < 1 || entry.id() > reader.maxId()) {
+                throw new RuntimeException("Snapshot node id " + entry.id() + " is outside 1.." + reader.maxId());
+            }
+            long id = entry.id() + idOffset;
+            nodeRows.add(new Object[] {
+                    id,
+                    entry.content(),
+                    entry.parentId() != null ? entry.parentId() + idOffset : null,
+                    entry.parentId() != null ? entry.position() : rootPosition(entry.position(), rootShift),
+                    shiftPath(entry.path(), idOffset),
+                    entry.createdAt(),
+                    entry.updatedAt(),
+                    entry.completed(),
+                    entry.expanded(),
+                    entry.starred(),
+                    entry.notes(),
+                    entry.mirrorId() != null ? entry.mirrorId() + idOffset : null,
+                    entry.childCount(),
+                    entry.descendantCount(),
+                    entry.completedDescendantCount(),
+                    workspace
+            });
+            for (String tag : entry.tags()) {
+                tagRows.add(new Object[] {id, tag});
+            }
+            count++;
+            if (nodeRows.size() == BATCH_SIZE) {
+                insertBatch(nodeRows, tagRows);
+            }
+        }
+        insertBatch(nodeRows, tagRows);
+        if (reader.version() == NodeSnapshot.VERSION_WITHOUT_ROLLUPS) {
+            jdbcTemplate.update(RECOMPUTE_CHILD_COUNTS_SQL, idOffset + 1, idOffset + reader.maxId());
+            jdbcTemplate.update(RECOMPUTE_DESCENDANT_COUNTS_SQL, idOffset + 1, idOffset + reader.maxId());
+        }
+
+        nodeTreeCache.childrenChanged(null);
+        nodeChangeBroadcaster.changed("/");
+        AfterCommit.run(nodeSearchIndex::rebuildInBackground);
+        return count;
+    }
+
+    private void insertBatch(List<Object[]> nodeRows, List<Object[]> tagRows) {
+        if (!nodeRows.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_NODE_SQL, nodeRows);
+            nodeRows.clear();
+        }
+        if (!tagRows.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_TAG_SQL, tagRows);
+            tagRows.clear();
+        }
+    }
+
+    private static int rootPosition(int position, long rootShift) {
+        long shifted = position + rootShift;
+        if (shifted > Integer.MAX_VALUE) {
+            throw new RuntimeException("Snapshot root positions do not fit after the existing roots");
+        }
+        return (int) shifted;
+    }
+
+    // Shifts every ancestor id in a materialized path such as "/1/5/"
+    static String shiftPath(String path, long idOffset) {
+        if (path == null || idOffset == 0) {
+            return path;
+        }
+        StringBuilder shifted = new StringBuilder(path.length() + 8);
+        shifted.append('/');
+        int start = 1;
+        for (int end = path.indexOf('/', start); end > start; end = path.indexOf('/', start)) {
+            shifted.append(Long.parseLong(path, start, end, 10) + idOffset).append('/');
+            start = end + 1;
+        }
+        return shifted.toString();
+    }
+
+    // Folds the node-tag join rows, which arrive grouped by node, into one entry per node
+    private static final class EntryCollector implements RowCallbackHandler {
+
+        private final NodeSnapshot.Writer writer;
+        private final long idShift;
+        private NodeSnapshot.Entry current;
+
+        private EntryCollector(NodeSnapshot.Writer writer, long idShift) {
+            this.writer = writer;
+            this.idShift = idShift;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            long id = rs.getLong("id") + idShift;
+            if (current == null || current.id() != id) {
+                writeCurrent();
+                Long parentId = rs.getObject("parent_id", Long.class);
+                Long mirrorId = rs.getObject("mirror_id", Long.class);
+                current = new NodeSnapshot.Entry(
+                        id,
+                        parentId != null ? parentId + idShift : null,
+                        rs.getInt("position"),
+                        shiftPath(rs.getString("path"), idShift),
+                        rs.getObject("created_at", LocalDateTime.class),
+                        rs.getObject("updated_at", LocalDateTime.class),
+                        rs.getBoolean("is_completed"),
+                        rs.getBoolean("is_expanded"),
+                        rs.getBoolean("is_starred"),
+                        mirrorId != null ? mirrorId + idShift : null,
+                        rs.getString("content"),
+                        rs.getString("notes"),
+                        new ArrayList<>(),
+                        rs.getInt("child_count"),
+                        rs.getInt("descendant_count"),
+                        rs.getInt("completed_descendant_count"));
+            }
+            String tag = rs.getString("tag");
+            if (tag != null) {
+                current.tags().add(tag);
+            }
+        }
+
+        private void writeCurrent() {
+            if (current == null) {
+                return;
+            }
+            try {
+                writer.write(current);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            current = null;
+        }
+    }
+}
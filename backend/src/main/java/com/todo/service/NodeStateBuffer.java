@@ -0,0 +1,224 @@
+package com.todo.service;
+
+import com.todo.entity.NodeChange;
+import com.todo.repository.NodeRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Write-behind buffer for node expansion, the UI-only state that changes on almost every
+ * navigation. A toggle flips the node's pending state in memory, and repeated flips of a node
+ * coalesce into one pending value. Pending states are written every
+ * {@code todo.write-behind.flush-interval-ms}, or as soon as {@code todo.write-behind.max-pending}
+ * nodes are waiting, as one JDBC batch of a single update statement, and once more on shutdown.
+ * <p>
+ * Until then reads overlay the pending state. Every flip counts as one version of the node: the
+ * overlay adds the pending flips to the stored version and the flush adds them to the row, so
+ * ETags change with each flip and stay the same across the flush.
+ * <p>
+ * Each workspace's states are written in a transaction on its own partition. A workspace being
+ * moved to another partition is skipped and keeps its states pending until the move is done.
+ */
+@Component
+public class NodeStateBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeStateBuffer.class);
+
+    static final String FLUSH_SQL = "UPDATE nodes SET is_expanded = ?, version = version + ? WHERE id = ?";
+
+    /** A node's expansion as last toggled, and how many flips of it are not written yet. */
+    public record Pending(String workspace, boolean expanded, int flips) {
+
+        Pending flip() {
+            return new Pending(workspace, !expanded, flips + 1);
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionOperations transactionOperations;
+    private final NodeRepository nodeRepository;
+    private final NodeTreeCache nodeTreeCache;
+    private final NodeChangeLog nodeChangeLog;
+    private final NodeChangeBroadcaster nodeChangeBroadcaster;
+    private final WorkspaceDirectory workspaceDirectory;
+    private final boolean enabled;
+    private final long flushIntervalMs;
+    private final int maxPending;
+
+    private final Map<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private ScheduledExecutorService flusher;
+
+    public NodeStateBuffer(
+            JdbcTemplate jdbcTemplate,
+            TransactionOperations transactionOperations,
+            NodeRepository nodeRepository,
+            NodeTreeCache nodeTreeCache,
+            NodeChangeLog nodeChangeLog,
+            NodeChangeBroadcaster nodeChangeBroadcaster,
+            WorkspaceDirectory workspaceDirectory,
+            @Value("${todo.write-behind.enabled:false}") boolean enabled,
+            @Value("${todo.write-behind.flush-interval-ms:200}") long flushIntervalMs,
+            @Value("${todo.write-behind.max-pending:1000}") int maxPending) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionOperations = transactionOperations;
+        this.nodeRepository = nodeRepository;
+        this.nodeTreeCache = nodeTreeCache;
+        this.nodeChangeLog = nodeChangeLog;
+        this.nodeChangeBroadcaster = nodeChangeBroadcaster;
+        this.workspaceDirectory = workspaceDirectory;
+        this.enabled = enabled;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxPending = maxPending;
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("node-state-flush-");
+        threadFactory.setDaemon(true);
+        flusher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+        flushQuietly();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /** The node's unwritten expansion, or null when its row is current. */
+    public Pending pending(Long id) {
+        return pending.get(id);
+    }
+
+    public int pendingFlips(Long id) {
+        Pending state = pending.get(id);
+        return state != null ? state.flips() : 0;
+    }
+
+    /**
+     * Flips the node's expansion. When nothing is pending for it, {@code stored} supplies the
+     * stored state; it is read while the node's entry is locked, after any earlier flush of it
+     * has committed.
+     */
+    public Pending toggleExpanded(Long id, BooleanSupplier stored) {
+        Pending toggled = pending.compute(id, (key, current) ->
+                current != null ? current.flip() : new Pending(WorkspaceContext.current(), !stored.getAsBoolean(), 1));
+        if (pending.size() >= maxPending && flusher != null && flushRequested.compareAndSet(false, true)) {
+            flusher.execute(this::flushQuietly);
+        }
+        return toggled;
+    }
+
+    /** Replaces a pending expansion that a transactional write has just set outright, so the flush does not undo it. */
+    public void expandedSet(Long id, boolean expanded) {
+        pending.computeIfPresent(id, (key, current) -> new Pending(current.workspace(), expanded, current.flips() + 1));
+    }
+
+    /**
+     * Writes every pending state, in one transaction per workspace. Flips made while the flush
+     * runs stay pending; rows that no longer exist are dropped.
+     */
+    public synchronized void flush() {
+        flushRequested.set(false);
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, Map<Long, Pending>> byWorkspace = new HashMap<>();
+        pending.forEach((id, state) ->
+                byWorkspace.computeIfAbsent(state.workspace(), key -> new HashMap<>()).put(id, state));
+        byWorkspace.forEach(this::flush);
+    }
+
+    private void flush(String workspace, Map<Long, Pending> flushing) {
+        Lock writes = workspaceDirectory.writeLock(workspace);
+        if (!writes.tryLock()) {
+            return;
+        }
+        try {
+            WorkspaceContext.run(workspace, () -> write(flushing));
+        } finally {
+            writes.unlock();
+        }
+
+        // Only now is every flushed row committed and evicted from the cache
+        flushing.forEach((id, flushed) -> pending.computeIfPresent(id, (key, current) ->
+                current.flips() == flushed.flips()
+                        ? null
+                        : new Pending(current.workspace(), current.expanded(), current.flips() - flushed.flips())));
+    }
+
+    private void write(Map<Long, Pending> flushing) {
+        List<Long> ids = new ArrayList<>(flushing.keySet());
+        List<Object[]> rows = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Pending state = flushing.get(id);
+            rows.add(new Object[] {state.expanded(), state.flips(), id});
+        }
+
+        transactionOperations.executeWithoutResult(status -> {
+            int[] counts = jdbcTemplate.batchUpdate(FLUSH_SQL, rows);
+            List<Long> written = new ArrayList<>(ids.size());
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    written.add(ids.get(i));
+                }
+            }
+            if (written.isEmpty()) {
+                return;
+            }
+            nodeTreeCache.nodesChanged(written);
+            nodeChangeLog.recordAll(NodeChange.Type.UPDATE, written);
+            if (nodeChangeBroadcaster.subscriberCount() > 0) {
+                for (int from = 0; from < written.size(); from += NodeService.LOOKUP_BATCH_SIZE) {
+                    List<Long> batch = written.subList(from, Math.min(from + NodeService.LOOKUP_BATCH_SIZE, written.size()));
+                    for (Object[] row : nodeRepository.findPathsByIdIn(batch)) {
+                        nodeChangeBroadcaster.changed(row[0] + String.valueOf(row[1]) + "/");
+                    }
+                }
+            }
+        });
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            // Pending states are kept and retried with the next flush
+            log.warn("Failed to write pending node states", e);
+        }
+    }
+}
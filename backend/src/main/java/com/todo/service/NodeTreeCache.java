@@ -0,0 +1,303 @@
+package com.todo.service;
+
+import com.todo.entity.Node;
+import org.hibernate.Hibernate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process cache of node snapshots and each parent's ordered child ids, bounded to
+ * {@code todo.cache.max-nodes} entries. Beyond that the least recently used node is evicted
+ * together with its cached descendants, so a cold subtree goes at once rather than node by node.
+ * Reading or loading a child list counts as a use of the parent and its ancestors, so the
+ * subtree being browsed stays warm however long ago its root was read itself.
+ * <p>
+ * Writes are applied after the surrounding transaction commits, so rolled back changes
+ * never become visible. A child list is only served when every child is still cached;
+ * otherwise the lookup counts as a miss and the caller reloads it from the database.
+ * Cached nodes are detached snapshots shared between callers and must not be modified.
+ * Node ids are unique across workspaces, so only the root levels are kept per workspace.
+ * Nodes and child lists are held in {@link LongLruMap}s, keyed by unboxed ids. Cached nodes are
+ * also ordered by materialized path, so a subtree's cached nodes are one range and dropping
+ * them costs time in proportion to the subtree, not to the cache.
+ */
+@Component
+public class NodeTreeCache {
+
+    /** Counters for sizing the cache. */
+    public record Stats(long hits, long misses, long evictions, int size) {
+    }
+
+    private final boolean enabled;
+    private final int maxNodes;
+
+    private final LongLruMap<Node> nodesById = new LongLruMap<>();
+    private final LongLruMap<long[]> childIdsByParent = new LongLruMap<>();
+    // Each cached node under the path its children have, so a subtree's nodes follow its root's
+    private final NavigableMap<String, Node> nodesByDescendantPath = new TreeMap<>();
+    private final Map<String, long[]> rootIdsByWorkspace = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Bumped on every invalidation so loads that raced with a write are not cached
+    private long version;
+
+    public NodeTreeCache(
+            @Value("${todo.cache.enabled:false}") boolean enabled,
+            @Value("${todo.cache.max-nodes:100000}") int maxNodes) {
+        this.enabled = enabled;
+        this.maxNodes = maxNodes;
+    }
+
+    public synchronized long version() {
+        return version;
+    }
+
+    public synchronized Optional<Node> getNode(Long id) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        Node node = nodesById.get(id);
+        (node != null ? hits : misses).incrementAndGet();
+        return Optional.ofNullable(node);
+    }
+
+    public synchronized Optional<List<Node>> getChildren(Long parentId) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        String workspace = WorkspaceContext.current();
+        long[] childIds = childIds(parentId, workspace);
+        if (childIds == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        List<Node> children = new ArrayList<>(childIds.length);
+        for (long childId : childIds) {
+            Node child = nodesById.get(childId);
+            if (child == null) {
+                removeChildIds(parentId, workspace);
+                misses.incrementAndGet();
+                return Optional.empty();
+            }
+            children.add(child);
+        }
+        if (parentId != null) {
+            touchAncestors(parentId);
+        }
+        hits.incrementAndGet();
+        return Optional.of(children);
+    }
+
+    /** Caches a node loaded while the cache was at {@code loadedAtVersion}. */
+    public synchronized void putNode(Node node, long loadedAtVersion) {
+        if (enabled && loadedAtVersion == version) {
+            cache(snapshot(node));
+            evict();
+        }
+    }
+
+    /** Caches a position-ordered child list loaded while the cache was at {@code loadedAtVersion}. */
+    public synchronized void putChildren(Long parentId, List<Node> children, long loadedAtVersion) {
+        if (!enabled || loadedAtVersion != version || children.size() > maxNodes) {
+            return;
+        }
+        long[] childIds = new long[children.size()];
+        for (int i = 0; i < childIds.length; i++) {
+            Node child = children.get(i);
+            childIds[i] = child.getId();
+            cache(snapshot(child));
+        }
+        if (parentId != null) {
+            childIdsByParent.put(parentId, childIds);
+            touchAncestors(parentId);
+        } else {
+            rootIdsByWorkspace.put(WorkspaceContext.current(), childIds);
+        }
+        evict();
+    }
+
+    /**
+     * Caches the node as saved. The snapshot is taken once the transaction commits, so the
+     * flush has already set its version and update time; a node whose tags were never loaded
+     * is dropped instead of loading them.
+     */
+    public void nodeSaved(Node node) {
+        if (enabled) {
+            afterCommit(() -> {
+                version++;
+                if (Hibernate.isInitialized(node.getTags())) {
+                    cache(snapshot(node));
+                    evict();
+                } else {
+                    uncache(node.getId());
+                }
+            });
+        }
+    }
+
+    public void childrenChanged(Long parentId) {
+        if (enabled) {
+            String workspace = WorkspaceContext.current();
+            afterCommit(() -> {
+                version++;
+                removeChildIds(parentId, workspace);
+            });
+        }
+    }
+
+    public void nodesDeleted(Collection<Long> ids) {
+        if (enabled) {
+            List<Long> deletedIds = List.copyOf(ids);
+            afterCommit(() -> {
+                version++;
+                for (Long id : deletedIds) {
+                    uncache(id);
+                    childIdsByParent.remove(id);
+                }
+            });
+        }
+    }
+
+    /** Drops nodes changed behind the cache's back, such as ancestors whose rollups were adjusted in bulk. */
+    public void nodesChanged(Collection<Long> ids) {
+        if (enabled) {
+            List<Long> changedIds = List.copyOf(ids);
+            afterCommit(() -> {
+                version++;
+                for (Long id : changedIds) {
+                    uncache(id);
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops every cached node whose materialized path starts with {@code pathPrefix}, i.e. a
+     * moved node's descendants, with their child lists.
+     */
+    public void subtreeMoved(String pathPrefix) {
+        if (enabled) {
+            afterCommit(() -> {
+                version++;
+                removeDescendants(pathPrefix);
+            });
+        }
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits.get(), misses.get(), evictions.get(), nodesById.size());
+    }
+
+    // Drops the coldest node with its child list and its cached descendants
+    private void evict() {
+        while (nodesById.size() > maxNodes) {
+            Node eldest = nodesById.remove(nodesById.eldestKey());
+            childIdsByParent.remove(eldest.getId());
+            evictions.incrementAndGet();
+            if (eldest.getPath() != null) {
+                nodesByDescendantPath.remove(descendantPath(eldest));
+                evictions.addAndGet(removeDescendants(descendantPath(eldest)));
+            }
+        }
+    }
+
+    private void touchAncestors(long parentId) {
+        Node parent = nodesById.get(parentId);
+        if (parent != null && parent.getPath() != null) {
+            for (String ancestorId : parent.getPath().split("/")) {
+                if (!ancestorId.isEmpty()) {
+                    nodesById.get(Long.parseLong(ancestorId));
+                }
+            }
+        }
+    }
+
+    private void cache(Node node) {
+        Node previous = nodesById.put(node.getId(), node);
+        if (previous != null && previous.getPath() != null) {
+            nodesByDescendantPath.remove(descendantPath(previous));
+        }
+        if (node.getPath() != null) {
+            nodesByDescendantPath.put(descendantPath(node), node);
+        }
+    }
+
+    private void uncache(long id) {
+        Node removed = nodesById.remove(id);
+        if (removed != null && removed.getPath() != null) {
+            nodesByDescendantPath.remove(descendantPath(removed));
+        }
+    }
+
+    // Drops the cached nodes under a path, and their child lists, and returns how many there were
+    private int removeDescendants(String pathPrefix) {
+        NavigableMap<String, Node> descendants =
+                nodesByDescendantPath.subMap(pathPrefix, false, pathPrefix + Character.MAX_VALUE, false);
+        int removed = descendants.size();
+        for (Node descendant : descendants.values()) {
+            nodesById.remove(descendant.getId());
+            childIdsByParent.remove(descendant.getId());
+        }
+        descendants.clear();
+        return removed;
+    }
+
+    private static String descendantPath(Node node) {
+        return node.getPath() + node.getId() + "/";
+    }
+
+    // A null parent stands for the workspace's root level
+    private long[] childIds(Long parentId, String workspace) {
+        return parentId != null ? childIdsByParent.get(parentId) : rootIdsByWorkspace.get(workspace);
+    }
+
+    private void removeChildIds(Long parentId, String workspace) {
+        if (parentId != null) {
+            childIdsByParent.remove(parentId);
+        } else {
+            rootIdsByWorkspace.remove(workspace);
+        }
+    }
+
+    private void afterCommit(Runnable action) {
+        AfterCommit.run(() -> {
+            synchronized (this) {
+                action.run();
+            }
+        });
+    }
+
+    // Copies the entity so the cache never holds managed instances or lazy collections
+    private static Node snapshot(Node node) {
+        Node copy = new Node(node.getContent(), node.getParentId(), node.getPosition());
+        copy.setId(node.getId());
+        copy.setWorkspace(node.getWorkspace());
+        copy.setPath(node.getPath());
+        copy.setCreatedAt(node.getCreatedAt());
+        copy.setUpdatedAt(node.getUpdatedAt());
+        copy.setIsCompleted(node.getIsCompleted());
+        copy.setIsExpanded(node.getIsExpanded());
+        copy.setIsStarred(node.getIsStarred());
+        copy.setTags(new ArrayList<>(node.getTags()));
+        copy.setNotes(node.getNotes());
+        copy.setMirrorId(node.getMirrorId());
+        copy.setVersion(node.getVersion());
+        copy.setChildCount(node.getChildCount());
+        copy.setDescendantCount(node.getDescendantCount());
+        copy.setCompletedDescendantCount(node.getCompletedDescendantCount());
+        return copy;
+    }
+}
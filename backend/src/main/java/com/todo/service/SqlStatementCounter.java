@@ -0,0 +1,26 @@
+package com.todo.service;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.springframework.stereotype.Component;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread, so the statements
+ * issued by one request can be measured as the difference of two readings.
+ * JDBC batches count once per batch, matching the round trips to the database.
+ */
+@Component
+public class SqlStatementCounter implements StatementInspector {
+
+    private final ThreadLocal<long[]> count = ThreadLocal.withInitial(() -> new long[1]);
+
+    @Override
+    public String inspect(String sql) {
+        count.get()[0]++;
+        return sql;
+    }
+
+    /** Statements prepared on this thread so far. */
+    public long current() {
+        return count.get()[0];
+    }
+}
@@ -0,0 +1,131 @@
+package com.todo.service;
+
+import com.todo.entity.Node;
+
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * The workspace the current thread works in. {@code WorkspaceFilter} binds one for each request
+ * to {@code /api/nodes}; the routing data source sends the thread's statements to the partition
+ * holding it, and NodeService keeps every read and write inside it. Background work binds a
+ * workspace, or a partition directly, around what it does. A thread with nothing bound works in
+ * the default workspace, but its statements go to partition 0, which is where startup and
+ * migrations run.
+ * <p>
+ * A workspace bound read-only, as for GET requests, is not placed on a partition when it has
+ * never been used; see {@link WorkspaceDirectory#currentPartition()}.
+ */
+public final class WorkspaceContext {
+
+    public static final String DEFAULT = Node.DEFAULT_WORKSPACE;
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
+    private static final ThreadLocal<String> WORKSPACE = new ThreadLocal<>();
+    private static final ThreadLocal<Integer> PARTITION = new ThreadLocal<>();
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<>();
+
+    /** Restores the previous binding when closed. */
+    public static final class Binding implements AutoCloseable {
+
+        private final String previousWorkspace;
+        private final Integer previousPartition;
+        private final Boolean previousReadOnly;
+
+        private Binding(String workspace, Integer partition, Boolean readOnly) {
+            previousWorkspace = WORKSPACE.get();
+            previousPartition = PARTITION.get();
+            previousReadOnly = READ_ONLY.get();
+            set(WORKSPACE, workspace);
+            set(PARTITION, partition);
+            set(READ_ONLY, readOnly);
+        }
+
+        @Override
+        public void close() {
+            set(WORKSPACE, previousWorkspace);
+            set(PARTITION, previousPartition);
+            set(READ_ONLY, previousReadOnly);
+        }
+
+        private static <T> void set(ThreadLocal<T> local, T value) {
+            if (value != null) {
+                local.set(value);
+            } else {
+                local.remove();
+            }
+        }
+    }
+
+    private WorkspaceContext() {
+    }
+
+    public static boolean isValidName(String workspace) {
+        return workspace != null && NAME.matcher(workspace).matches();
+    }
+
+    /** The workspace bound to this thread, or the default workspace. */
+    public static String current() {
+        String workspace = WORKSPACE.get();
+        return workspace != null ? workspace : DEFAULT;
+    }
+
+    /** The workspace bound to this thread, or null. */
+    public static String bound() {
+        return WORKSPACE.get();
+    }
+
+    /** The partition bound to this thread, or null when statements follow the workspace. */
+    public static Integer boundPartition() {
+        return PARTITION.get();
+    }
+
+    /** Whether the workspace was bound for reading only. */
+    public static boolean isReadOnly() {
+        return READ_ONLY.get() != null;
+    }
+
+    public static Binding enter(String workspace) {
+        if (!isValidName(workspace)) {
+            throw new RuntimeException("Invalid workspace: " + workspace);
+        }
+        return new Binding(workspace, null, null);
+    }
+
+    /** Binds {@code workspace} for work that only reads it. */
+    public static Binding enterReadOnly(String workspace) {
+        if (!isValidName(workspace)) {
+            throw new RuntimeException("Invalid workspace: " + workspace);
+        }
+        return new Binding(workspace, null, true);
+    }
+
+    public static void run(String workspace, Runnable action) {
+        try (Binding binding = enter(workspace)) {
+            action.run();
+        }
+    }
+
+    public static <T> T call(String workspace, Supplier<T> action) {
+        try (Binding binding = enter(workspace)) {
+            return action.get();
+        }
+    }
+
+    public static <T> T callReadOnly(String workspace, Supplier<T> action) {
+        try (Binding binding = enterReadOnly(workspace)) {
+            return action.get();
+        }
+    }
+
+    /**
+     * Runs {@code action} against one partition whatever workspace it belongs to, for work that
+     * spans all of them. Must not be called inside a transaction, which keeps its connection.
+     */
+    public static <T> T callOnPartition(int partition, Supplier<T> action) {
+        try (Binding binding = new Binding(WORKSPACE.get(), partition, READ_ONLY.get())) {
+            return action.get();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.todo.service;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Which partition holds each workspace. The assignments live in the {@code workspaces} table of
+ * partition 0 and are read once into memory, so routing a connection costs a map lookup. A
+ * workspace written for the first time is placed on the partition holding the fewest workspaces.
+ * Reading a workspace never places it, so requests naming arbitrary workspaces do not grow the
+ * catalog; until its first write it has no rows anywhere, and its reads go to partition 0.
+ * <p>
+ * Each workspace also has a lock: writes to the workspace share it and {@link WorkspaceRebalancer}
+ * takes it exclusively while it copies the workspace to another partition.
+ * <p>
+ * The catalog also keeps, per workspace, the number of the last change-log entry removed by
+ * {@link NodeChangeLog}'s retention, below which a cursor can no longer be served.
+ * <p>
+ * Assignments and locks are held in memory, so a move is only seen, and only waits for writes,
+ * within this application instance; the application runs as a single instance.
+ */
+public class WorkspaceDirectory {
+
+    private final JdbcTemplate catalog;
+    private final int partitionCount;
+
+    private final Map<String, Integer> partitions = new ConcurrentHashMap<>();
+    private final Map<String, Long> changesPrunedThrough = new ConcurrentHashMap<>();
+    private final Map<String, ReadWriteLock> locks = new ConcurrentHashMap<>();
+    private volatile boolean loaded;
+
+    /** {@code catalog} works on partition 0 directly, outside the routing data source. */
+    public WorkspaceDirectory(JdbcTemplate catalog, int partitionCount) {
+        this.catalog = catalog;
+        this.partitionCount = partitionCount;
+    }
+
+    /**
+     * The partition this thread's statements go to: the one bound directly, else the bound
+     * workspace's, assigning one when it is new unless it was bound read-only, else partition 0.
+     */
+    public int currentPartition() {
+        Integer partition = WorkspaceContext.boundPartition();
+        if (partition != null) {
+            return partition;
+        }
+        String workspace = WorkspaceContext.bound();
+        if (workspace == null) {
+            return 0;
+        }
+        if (WorkspaceContext.isReadOnly()) {
+            partition = partitionIfKnown(workspace);
+            return partition != null ? partition : 0;
+        }
+        return partitionOf(workspace);
+    }
+
+    /** The workspace's partition, assigning one when the workspace is new. */
+    public int partitionOf(String workspace) {
+        load();
+        Integer partition = partitions.get(workspace);
+        return partition != null ? partition : register(workspace);
+    }
+
+    /** The workspace's partition, or null when the workspace has never been used. */
+    public Integer partitionIfKnown(String workspace) {
+        load();
+        return partitions.get(workspace);
+    }
+
+    /** Every known workspace with its partition, by name. */
+    public Map<String, Integer> assignments() {
+        load();
+        return new TreeMap<>(partitions);
+    }
+
+    /** Number of the workspace's last change-log entry deleted by retention, or 0 when none was. */
+    public long changesPrunedThrough(String workspace) {
+        load();
+        return changesPrunedThrough.getOrDefault(workspace, 0L);
+    }
+
+    synchronized void changesPruned(String workspace, long seq) {
+        load();
+        catalog.update("UPDATE workspaces SET changes_pruned_through = ? WHERE name = ?", seq, workspace);
+        changesPrunedThrough.put(workspace, seq);
+    }
+
+    /** Shared by every write to the workspace; held for the whole request. */
+    public Lock writeLock(String workspace) {
+        return lock(workspace).readLock();
+    }
+
+    Lock moveLock(String workspace) {
+        return lock(workspace).writeLock();
+    }
+
+    synchronized void assign(String workspace, int partition) {
+        load();
+        catalog.update("UPDATE workspaces SET partition_index = ? WHERE name = ?", partition, workspace);
+        partitions.put(workspace, partition);
+    }
+
+    private synchronized int register(String workspace) {
+        Integer existing = partitions.get(workspace);
+        if (existing != null) {
+            return existing;
+        }
+        int[] workspaces = new int[partitionCount];
+        for (int partition : partitions.values()) {
+            if (partition < partitionCount) {
+                workspaces[partition]++;
+            }
+        }
+        int emptiest = 0;
+        for (int partition = 1; partition < partitionCount; partition++) {
+            if (workspaces[partition] < workspaces[emptiest]) {
+                emptiest = partition;
+            }
+        }
+        catalog.update("INSERT INTO workspaces (name, partition_index) VALUES (?, ?)", workspace, emptiest);
+        partitions.put(workspace, emptiest);
+        return emptiest;
+    }
+
+    private ReadWriteLock lock(String workspace) {
+        return locks.computeIfAbsent(workspace, key -> new ReentrantReadWriteLock());
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!loaded) {
+                catalog.query("SELECT name, partition_index, changes_pruned_through FROM workspaces",
+                        (RowCallbackHandler) row -> {
+                            String name = row.getString(1);
+                            partitions.put(name, row.getInt(2));
+                            changesPrunedThrough.put(name, row.getLong(3));
+                        });
+                loaded = true;
+            }
+        }
+    }
+}
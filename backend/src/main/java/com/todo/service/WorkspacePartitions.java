@@ -0,0 +1,56 @@
+package com.todo.service;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * The partition databases workspaces are spread over: partition 0 at {@code spring.datasource.url},
+ * which also holds the workspace directory, and one more for each entry of
+ * {@code todo.partitions.urls}. Node ids are unique across partitions because partition p hands
+ * out ids from {@code p * ID_RANGE} on, so a workspace keeps its ids when it moves.
+ */
+public class WorkspacePartitions implements Closeable {
+
+    public static final long ID_RANGE = 1L << 40;
+
+    private final List<DataSource> dataSources;
+
+    public WorkspacePartitions(List<? extends DataSource> dataSources) {
+        if (dataSources.isEmpty()) {
+            throw new IllegalArgumentException("At least one partition is required");
+        }
+        this.dataSources = List.copyOf(dataSources);
+    }
+
+    public int count() {
+        return dataSources.size();
+    }
+
+    public boolean exists(int partition) {
+        return partition >= 0 && partition < dataSources.size();
+    }
+
+    /** The partition's own pool, outside the routing data source and its transactions. */
+    public DataSource get(int partition) {
+        if (!exists(partition)) {
+            throw new RuntimeException("Partition not found: " + partition);
+        }
+        return dataSources.get(partition);
+    }
+
+    @Override
+    public void close() {
+        for (DataSource dataSource : dataSources) {
+            if (dataSource instanceof Closeable closeable) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.todo.service;
+
+import com.todo.dto.WorkspaceSummary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+
+/**
+ * Moves a workspace to another partition while the application keeps serving it. The move takes
+ * the workspace's lock exclusively, so it starts once the workspace's running writes have
+ * committed and later writes wait for it, while reads carry on against the old partition. It
+ * copies the workspace's nodes, tags and change log to the target partition in one transaction,
+ * {@link #COPY_PAGE_SIZE} nodes at a time, points the directory at the target, releases the lock
+ * and only then deletes the copied rows from the old partition.
+ * <p>
+ * Ids, versions and change numbers are copied unchanged, and the target's change-log sequence is
+ * first moved past every number the workspace used, so cached nodes, the search index, ETags and
+ * clients' change cursors all stay valid across the move. Change numbers are only unique within
+ * a workspace, so the copied entries never collide with those of the target's own workspaces.
+ */
+@Service
+public class WorkspaceRebalancer {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkspaceRebalancer.class);
+
+    static final int COPY_PAGE_SIZE = 1000;
+
+    private static final String NODE_COLUMNS = """
+            id, content, parent_id, position, path, created_at, updated_at, is_completed, is_expanded,
+            is_starred, notes, mirror_id, child_count, descendant_count, completed_descendant_count, version""";
+
+    private static final String SELECT_NODES_SQL =
+            "SELECT " + NODE_COLUMNS + " FROM nodes WHERE workspace = ? AND id > ? ORDER BY id LIMIT ?";
+
+    private static final String INSERT_NODE_SQL = "INSERT INTO nodes (" + NODE_COLUMNS + ", workspace) "
+            + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SELECT_TAGS_SQL = """
+            SELECT t.node_id, t.tag FROM node_tags t JOIN nodes n ON n.id = t.node_id
+            WHERE n.workspace = ? AND n.id BETWEEN ? AND ?
+            """;
+
+    private static final String INSERT_TAG_SQL = "INSERT INTO node_tags (node_id, tag) VALUES (?, ?)";
+
+    private static final String SELECT_CHANGES_SQL = """
+            SELECT seq, node_id, type, changed_at FROM node_changes
+            WHERE workspace = ? AND seq > ? ORDER BY seq LIMIT ?
+            """;
+
+    private static final String INSERT_CHANGE_SQL =
+            "INSERT INTO node_changes (seq, node_id, type, changed_at, workspace) VALUES (?, ?, ?, ?, ?)";
+
+    private final WorkspacePartitions workspacePartitions;
+    private final WorkspaceDirectory workspaceDirectory;
+    private final NodeChangeLog nodeChangeLog;
+
+    public WorkspaceRebalancer(
+            WorkspacePartitions workspacePartitions, WorkspaceDirectory workspaceDirectory, NodeChangeLog nodeChangeLog) {
+        this.workspacePartitions = workspacePartitions;
+        this.workspaceDirectory = workspaceDirectory;
+        this.nodeChangeLog = nodeChangeLog;
+    }
+
+    /** Every known workspace with its partition and number of nodes, by name. */
+    public List<WorkspaceSummary> summaries() {
+        List<Map<String, Long>> nodeCounts = new ArrayList<>();
+        for (int partition = 0; partition < workspacePartitions.count(); partition++) {
+            Map<String, Long> counts = new HashMap<>();
+            new JdbcTemplate(workspacePartitions.get(partition)).query(
+                    "SELECT workspace, COUNT(*) FROM nodes GROUP BY workspace",
+                    (RowCallbackHandler) row -> counts.put(row.getString(1), row.getLong(2)));
+            nodeCounts.add(counts);
+        }
+        List<WorkspaceSummary> summaries = new ArrayList<>();
+        workspaceDirectory.assignments().forEach((workspace, partition) -> summaries.add(new WorkspaceSummary(
+                workspace,
+                partition,
+                workspacePartitions.exists(partition) ? nodeCounts.get(partition).getOrDefault(workspace, 0L) : 0)));
+        return summaries;
+    }
+
+    /** Moves the workspace to {@code target}, returning once it is served from there. */
+    public WorkspaceSummary move(String workspace, int target) {
+        if (!WorkspaceContext.isValidName(workspace) || workspaceDirectory.partitionIfKnown(workspace) == null) {
+            throw new RuntimeException("Workspace not found: " + workspace);
+        }
+        if (!workspacePartitions.exists(target)) {
+            throw new RuntimeException("Partition not found: " + target);
+        }
+
+        long start = System.nanoTime();
+        int source;
+        long nodes;
+        Lock lock = workspaceDirectory.moveLock(workspace);
+        lock.lock();
+        try {
+            source = workspaceDirectory.partitionOf(workspace);
+            if (source == target) {
+                return new WorkspaceSummary(workspace, target, countNodes(workspace, target));
+            }
+            // Entries pruned from the log still count: cursors may already point past the ones left
+            nodeChangeLog.skipSeqsThrough(target, Math.max(
+                    lastChange(workspace, source), workspaceDirectory.changesPrunedThrough(workspace)));
+            nodes = copy(workspace, workspacePartitions.get(source), workspacePartitions.get(target));
+            workspaceDirectory.assign(workspace, target);
+        } finally {
+            lock.unlock();
+        }
+
+        // Nothing routes to the old rows any more
+        inTransaction(workspacePartitions.get(source), jdbcTemplate -> deleteRows(jdbcTemplate, workspace));
+        log.info("Moved workspace {} with {} nodes from partition {} to {} in {} ms",
+                workspace, nodes, source, target, (System.nanoTime() - start) / 1_000_000);
+        return new WorkspaceSummary(workspace, target, nodes);
+    }
+
+    // Copies in one target transaction and returns the number of nodes copied
+    private long copy(String workspace, DataSource from, DataSource to) {
+        JdbcTemplate source = new JdbcTemplate(from);
+        return inTransaction(to, target -> {
+            // Rows left behind by an earlier move that failed half way
+            deleteRows(target, workspace);
+
+            long copied = 0;
+            long afterId = 0;
+            List<Object[]> nodeRows;
+            while (!(nodeRows = source.query(SELECT_NODES_SQL, (rs, i) -> nodeRow(rs, workspace),
+                    workspace, afterId, COPY_PAGE_SIZE)).isEmpty()) {
+                long firstId = (Long) nodeRows.get(0)[0];
+                long lastId = (Long) nodeRows.get(nodeRows.size() - 1)[0];
+                target.batchUpdate(INSERT_NODE_SQL, nodeRows);
+                List<Object[]> tagRows = source.query(SELECT_TAGS_SQL,
+                        (rs, i) -> new Object[] {rs.getLong("node_id"), rs.getString("tag")},
+                        workspace, firstId, lastId);
+                if (!tagRows.isEmpty()) {
+                    target.batchUpdate(INSERT_TAG_SQL, tagRows);
+                }
+                copied += nodeRows.size();
+                afterId = lastId;
+            }
+
+            long afterSeq = 0;
+            List<Object[]> changeRows;
+            while (!(changeRows = source.query(SELECT_CHANGES_SQL, (rs, i) -> changeRow(rs, workspace),
+                    workspace, afterSeq, COPY_PAGE_SIZE)).isEmpty()) {
+                target.batchUpdate(INSERT_CHANGE_SQL, changeRows);
+                afterSeq = (Long) changeRows.get(changeRows.size() - 1)[0];
+            }
+            return copied;
+        });
+    }
+
+    private long lastChange(String workspace, int partition) {
+        Long seq = new JdbcTemplate(workspacePartitions.get(partition))
+                .queryForObject("SELECT MAX(seq) FROM node_changes WHERE workspace = ?", Long.class, workspace);
+        return seq != null ? seq : 0;
+    }
+
+    private long countNodes(String workspace, int partition) {
+        Long count = new JdbcTemplate(workspacePartitions.get(partition))
+                .queryForObject("SELECT COUNT(*) FROM nodes WHERE workspace = ?", Long.class, workspace);
+        return count != null ? count : 0;
+    }
+
+    // Returns the number of nodes deleted
+    private static int deleteRows(JdbcTemplate jdbcTemplate, String workspace) {
+        jdbcTemplate.update("DELETE FROM node_tags WHERE node_id IN (SELECT id FROM nodes WHERE workspace = ?)", workspace);
+        jdbcTemplate.update("DELETE FROM node_changes WHERE workspace = ?", workspace);
+        return jdbcTemplate.update("DELETE FROM nodes WHERE workspace = ?", workspace);
+    }
+
+    // Runs directly on one partition's pool, outside the routing data source and its transactions
+    private static <T> T inTransaction(DataSource dataSource, Function<JdbcTemplate, T> work) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        return new TransactionTemplate(new DataSourceTransactionManager(dataSource))
+                .execute(status -> work.apply(jdbcTemplate));
+    }
+
+    private static Object[] nodeRow(ResultSet rs, String workspace) throws SQLException {
+        return new Object[] {
+                rs.getLong("id"),
+                rs.getString("content"),
+                rs.getObject("parent_id", Long.class),
+                rs.getInt("position"),
+                rs.getString("path"),
+                rs.getObject("created_at", LocalDateTime.class),
+                rs.getObject("updated_at", LocalDateTime.class),
+                rs.getBoolean("is_completed"),
+                rs.getBoolean("is_expanded"),
+                rs.getBoolean("is_starred"),
+                rs.getString("notes"),
+                rs.getObject("mirror_id", Long.class),
+                rs.getInt("child_count"),
+                rs.getInt("descendant_count"),
+                rs.getInt("completed_descendant_count"),
+                rs.getLong("version"),
+                workspace
+        };
+    }
+
+    private static Object[] changeRow(ResultSet rs, String workspace) throws SQLException {
+        return new Object[] {
+                rs.getLong("seq"),
+                rs.getLong("node_id"),
+                rs.getString("type"),
+                rs.getObject("changed_at", LocalDateTime.class),
+                workspace
+        };
+    }
+}
@@ -0,0 +1,47 @@
+-- Baseline schema, matching the entity mappings in com.todo.entity.
+-- Later changes go into new V<n>__<description>.sql files; never edit an applied migration.
+
+-- Pooled sequence: the increment must equal the entity's allocationSize
+CREATE SEQUENCE node_id_seq START WITH 1 INCREMENT BY 50;
+-- Change-log numbers, taken by NodeChangeLog from the sequence of the partition being written
+-- in blocks: the increment must equal NodeChangeLog.SEQ_BLOCK_SIZE
+CREATE SEQUENCE node_change_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE nodes (
+    id           BIGINT        NOT NULL,
+    content      VARCHAR(255)  NOT NULL,
+    parent_id    BIGINT,
+    position     INTEGER       NOT NULL,
+    -- One id per ancestor; without a length the column takes H2's largest VARCHAR so depth is not capped
+    path         VARCHAR,
+    created_at   TIMESTAMP(6)  NOT NULL,
+    updated_at   TIMESTAMP(6),
+    is_completed BOOLEAN       NOT NULL,
+    is_expanded  BOOLEAN       NOT NULL,
+    is_starred   BOOLEAN       NOT NULL,
+    notes        TEXT,
+    mirror_id    BIGINT,
+    PRIMARY KEY (id)
+);
+
+-- Child lists in sibling order, subtree prefix scans and the completed/starred filters
+CREATE INDEX idx_nodes_parent_position ON nodes (parent_id, position);
+CREATE INDEX idx_nodes_path ON nodes (path);
+CREATE INDEX idx_nodes_completed ON nodes (is_completed);
+CREATE INDEX idx_nodes_starred ON nodes (is_starred);
+
+CREATE TABLE node_tags (
+    node_id BIGINT NOT NULL,
+    tag     VARCHAR(255),
+    CONSTRAINT fk_node_tags_node FOREIGN KEY (node_id) REFERENCES nodes (id)
+);
+
+CREATE INDEX idx_node_tags_tag ON node_tags (tag);
+
+CREATE TABLE node_changes (
+    seq        BIGINT       NOT NULL,
+    node_id    BIGINT       NOT NULL,
+    type       VARCHAR(10)  NOT NULL CHECK (type IN ('CREATE', 'UPDATE', 'MOVE', 'DELETE')),
+    changed_at TIMESTAMP(6) NOT NULL,
+    PRIMARY KEY (seq)
+);
@@ -0,0 +1,23 @@
+-- Denormalized rollups for expand arrows and progress indicators, maintained by NodeService:
+-- direct children, all descendants, and completed descendants (neither count includes the node itself)
+ALTER TABLE nodes ADD COLUMN child_count INTEGER DEFAULT 0 NOT NULL;
+ALTER TABLE nodes ADD COLUMN descendant_count INTEGER DEFAULT 0 NOT NULL;
+ALTER TABLE nodes ADD COLUMN completed_descendant_count INTEGER DEFAULT 0 NOT NULL;
+
+MERGE INTO nodes t USING (
+    SELECT parent_id, COUNT(*) AS children FROM nodes WHERE parent_id IS NOT NULL GROUP BY parent_id
+) s ON t.id = s.parent_id
+WHEN MATCHED THEN UPDATE SET t.child_count = s.children;
+
+-- Pairs every node with each of its ancestors, then counts per ancestor
+MERGE INTO nodes t USING (
+    WITH RECURSIVE ancestry(node_id, ancestor_id, completed) AS (
+        SELECT id, parent_id, is_completed FROM nodes WHERE parent_id IS NOT NULL
+        UNION ALL
+        SELECT a.node_id, p.parent_id, a.completed FROM ancestry a JOIN nodes p ON p.id = a.ancestor_id
+        WHERE p.parent_id IS NOT NULL
+    )
+    SELECT ancestor_id, COUNT(*) AS descendants, SUM(CASE WHEN completed THEN 1 ELSE 0 END) AS completed_descendants
+    FROM ancestry GROUP BY ancestor_id
+) s ON t.id = s.ancestor_id
+WHEN MATCHED THEN UPDATE SET t.descendant_count = s.descendants, t.completed_descendant_count = s.completed_descendants;
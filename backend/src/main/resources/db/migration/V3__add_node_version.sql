@@ -0,0 +1,2 @@
+-- Optimistic-locking version of each node, bumped on every change to its row; it is also the node's ETag
+ALTER TABLE nodes ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
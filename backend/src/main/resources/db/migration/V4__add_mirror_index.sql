@@ -0,0 +1,2 @@
+-- Finds a source's mirrors without a table scan: mirror listings, change fan-out and source deletion
+CREATE INDEX idx_nodes_mirror ON nodes (mirror_id);
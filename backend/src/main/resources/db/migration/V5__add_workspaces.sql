@@ -0,0 +1,21 @@
+-- Workspaces: every node and change-log entry belongs to one, and a workspace lives whole in one
+-- partition database. Existing rows form the default workspace.
+ALTER TABLE nodes ADD COLUMN workspace VARCHAR(64) DEFAULT 'default' NOT NULL;
+ALTER TABLE node_changes ADD COLUMN workspace VARCHAR(64) DEFAULT 'default' NOT NULL;
+
+-- A workspace's root level in sibling order
+CREATE INDEX idx_nodes_workspace_parent_position ON nodes (workspace, parent_id, position);
+
+-- Change numbers are unique within a workspace only: each partition numbers its own entries, and a
+-- workspace moved in keeps its numbers. The key also reads a workspace's change log in order
+ALTER TABLE node_changes DROP PRIMARY KEY;
+ALTER TABLE node_changes ADD PRIMARY KEY (workspace, seq);
+
+-- Which partition holds each workspace; only partition 0's table is read
+CREATE TABLE workspaces (
+    name            VARCHAR(64) NOT NULL,
+    partition_index INTEGER     NOT NULL,
+    PRIMARY KEY (name)
+);
+
+INSERT INTO workspaces (name, partition_index) VALUES ('default', 0);
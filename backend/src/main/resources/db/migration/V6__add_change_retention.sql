@@ -0,0 +1,3 @@
+-- Change-log entries older than todo.changes.retention-hours are deleted; the number of the last
+-- one deleted per workspace tells clients with an older cursor to reload instead of polling
+ALTER TABLE workspaces ADD COLUMN changes_pruned_through BIGINT DEFAULT 0 NOT NULL;
@@ -0,0 +1,28 @@
+package com.todo.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataSourceConfigTest {
+
+    private final ApplicationContextRunner runner = new ApplicationContextRunner()
+            .withUserConfiguration(DataSourceConfig.class)
+            .withBean(DataSource.class, () -> new DriverManagerDataSource("jdbc:h2:mem:datasource-config", "sa", ""));
+
+    @Test
+    void virtualThreads_takeConnectionsLazily() {
+        runner.withPropertyValues("spring.profiles.active=virtual-threads")
+                .run(context -> assertInstanceOf(LazyConnectionDataSourceProxy.class, context.getBean(DataSource.class)));
+    }
+
+    @Test
+    void platformThreads_keepThePlainPool() {
+        runner.run(context -> assertFalse(context.getBean(DataSource.class) instanceof LazyConnectionDataSourceProxy));
+    }
+}
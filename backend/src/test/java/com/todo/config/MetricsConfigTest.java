@@ -0,0 +1,49 @@
+package com.todo.config;
+
+import com.todo.repository.NodeRepository;
+import com.todo.service.NodeTreeCache;
+import com.todo.service.WorkspacePartitions;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class MetricsConfigTest {
+
+    private final NodeRepository nodeRepository = mock(NodeRepository.class);
+
+    private SimpleMeterRegistry registry(long treeRefreshMs) {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        new MetricsConfig().treeMetrics(nodeRepository, mock(NodeTreeCache.class),
+                new WorkspacePartitions(List.of(mock(DataSource.class))), treeRefreshMs).bindTo(registry);
+        return registry;
+    }
+
+    @Test
+    void treeGauges_queryOncePerRefreshInterval() {
+        when(nodeRepository.count()).thenReturn(42L);
+        when(nodeRepository.findMaxDepth()).thenReturn(3);
+        SimpleMeterRegistry registry = registry(60_000);
+
+        for (int scrape = 0; scrape < 3; scrape++) {
+            assertEquals(42, registry.get("todo.tree.nodes").gauge().value());
+            assertEquals(3, registry.get("todo.tree.depth").gauge().value());
+        }
+
+        verify(nodeRepository, times(1)).count();
+        verify(nodeRepository, times(1)).findMaxDepth();
+    }
+
+    @Test
+    void treeGauges_queryAgainOnceTheIntervalHasPassed() {
+        when(nodeRepository.count()).thenReturn(42L, 43L);
+        SimpleMeterRegistry registry = registry(0);
+
+        assertEquals(42, registry.get("todo.tree.nodes").gauge().value());
+        assertEquals(43, registry.get("todo.tree.nodes").gauge().value());
+    }
+}
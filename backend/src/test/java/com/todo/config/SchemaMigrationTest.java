@@ -0,0 +1,71 @@
+package com.todo.config;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Upgrades databases holding data through the migrations that rewrite existing rows. */
+class SchemaMigrationTest {
+
+    private static DriverManagerDataSource database() {
+        return new DriverManagerDataSource("jdbc:h2:mem:migration-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1", "sa", "");
+    }
+
+    private static void migrate(DriverManagerDataSource dataSource, String target) {
+        Flyway.configure().dataSource(dataSource).locations("classpath:db/migration").target(target).load().migrate();
+    }
+
+    @Test
+    void v2_backfillsRollupsOfExistingTrees() {
+        DriverManagerDataSource dataSource = database();
+        migrate(dataSource, "1");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        // 1 ─┬─ 2 ── 3 (completed)
+        //    └─ 4
+        // 5
+        String insert = "INSERT INTO nodes (id, content, parent_id, position, path, created_at, is_completed, is_expanded, is_starred) "
+                + "VALUES (?, ?, ?, 0, ?, CURRENT_TIMESTAMP, ?, FALSE, FALSE)";
+        jdbcTemplate.update(insert, 1, "root", null, "/", false);
+        jdbcTemplate.update(insert, 2, "child", 1, "/1/", false);
+        jdbcTemplate.update(insert, 3, "grandchild", 2, "/1/2/", true);
+        jdbcTemplate.update(insert, 4, "second child", 1, "/1/", false);
+        jdbcTemplate.update(insert, 5, "other root", null, "/", false);
+
+        migrate(dataSource, "2");
+
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT id, child_count, descendant_count, completed_descendant_count FROM nodes ORDER BY id");
+        assertEquals(List.of(
+                List.of(1L, 2, 3, 1),
+                List.of(2L, 1, 1, 1),
+                List.of(3L, 0, 0, 0),
+                List.of(4L, 0, 0, 0),
+                List.of(5L, 0, 0, 0)),
+                rows.stream().map(row -> List.copyOf(row.values())).toList());
+    }
+
+    @Test
+    void latest_upgradesADatabaseWithData() {
+        DriverManagerDataSource dataSource = database();
+        migrate(dataSource, "1");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.update("INSERT INTO nodes (id, content, parent_id, position, path, created_at, is_completed, is_expanded, is_starred) "
+                + "VALUES (1, 'root', NULL, 0, '/', CURRENT_TIMESTAMP, FALSE, FALSE, FALSE)");
+        jdbcTemplate.update("INSERT INTO node_changes (seq, node_id, type, changed_at) VALUES (7, 1, 'CREATE', CURRENT_TIMESTAMP)");
+
+        migrate(dataSource, "latest");
+
+        // Existing rows belong to the default workspace, which lives in partition 0
+        assertEquals("default", jdbcTemplate.queryForObject("SELECT workspace FROM nodes WHERE id = 1", String.class));
+        assertEquals("default", jdbcTemplate.queryForObject("SELECT workspace FROM node_changes WHERE seq = 7", String.class));
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT partition_index FROM workspaces WHERE name = 'default'", Integer.class));
+        assertEquals(0L, jdbcTemplate.queryForObject("SELECT version FROM nodes WHERE id = 1", Long.class));
+    }
+}
@@ -0,0 +1,46 @@
+package com.todo.config;
+
+import com.todo.service.SqlStatementCounter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlStatementMetricsFilterTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final SqlStatementCounter counter = new SqlStatementCounter();
+    private final SqlStatementMetricsFilter filter = new SqlStatementMetricsFilter(registry, counter);
+
+    @Test
+    void doFilter_recordsTheStatementsOfTheWholeRequestUnderItsUriTemplate() throws Exception {
+        counter.inspect("select before the request");
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/api/nodes/7/move");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, (req, res) -> {
+            // Two service calls in one request
+            counter.inspect("select n from nodes");
+            counter.inspect("update nodes");
+            counter.inspect("select n from nodes");
+            req.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/api/nodes/{id}/move");
+        });
+
+        assertEquals(3.0, registry.get("http.server.requests.sql.statements")
+                .tags("method", "PUT", "uri", "/api/nodes/{id}/move", "status", "200").summary().totalAmount());
+    }
+
+    @Test
+    void doFilter_withoutAHandler_recordsUnderUnknown() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(new MockHttpServletRequest("GET", "/api/missing"), response, (req, res) ->
+                ((MockHttpServletResponse) res).setStatus(404));
+
+        assertEquals(1, registry.get("http.server.requests.sql.statements")
+                .tags("uri", "UNKNOWN", "status", "404").summary().count());
+    }
+}
@@ -0,0 +1,94 @@
+package com.todo.controller;
+
+import com.todo.entity.Node;
+import com.todo.service.NodeService;
+import com.todo.service.WorkspaceContext;
+import com.todo.service.WorkspaceDirectory;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.UUID;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/** Conditional writes through the HTTP layer, with the ETags the endpoints actually serve. */
+@SpringBootTest
+@AutoConfigureMockMvc
+class NodeControllerIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private NodeService nodeService;
+
+    @Autowired
+    private WorkspaceDirectory workspaceDirectory;
+
+    private String eTag(String workspace, long id) throws Exception {
+        return mockMvc.perform(get("/api/nodes/{id}", id).header("X-Workspace", workspace))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    }
+
+    @Test
+    void readsOfAWorkspaceNeverWritten_areEmptyAndDoNotRegisterIt() throws Exception {
+        String workspace = "unseen-" + UUID.randomUUID();
+
+        mockMvc.perform(get("/api/nodes").header("X-Workspace", workspace))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$").isEmpty());
+        mockMvc.perform(get("/api/nodes/search").param("q", "anything").header("X-Workspace", workspace))
+                .andExpect(status().isOk());
+        assertNull(workspaceDirectory.partitionIfKnown(workspace));
+
+        mockMvc.perform(post("/api/nodes").header("X-Workspace", workspace)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"content\": \"first\"}"))
+                .andExpect(status().isOk());
+        assertNotNull(workspaceDirectory.partitionIfKnown(workspace));
+        mockMvc.perform(get("/api/nodes").header("X-Workspace", workspace))
+                .andExpect(jsonPath("$[0].content").value("first"));
+    }
+
+    @Test
+    void writesThroughAMirror_failWhenTheSourceChangedSinceItsTag() throws Exception {
+        String workspace = "etag-" + UUID.randomUUID();
+        Node source = WorkspaceContext.call(workspace, () -> nodeService.createNode(new Node("source", null, null)));
+        Node mirrorDraft = new Node("", null, null);
+        mirrorDraft.setMirrorId(source.getId());
+        Node mirror = WorkspaceContext.call(workspace, () -> nodeService.createNode(mirrorDraft));
+        String staleTag = eTag(workspace, mirror.getId());
+
+        mockMvc.perform(put("/api/nodes/{id}", source.getId()).header("X-Workspace", workspace)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"content\": \"edited at the source\"}"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(patch("/api/nodes/{id}/notes", mirror.getId()).header("X-Workspace", workspace)
+                        .header(HttpHeaders.IF_MATCH, staleTag)
+                        .contentType(MediaType.TEXT_PLAIN).content("lost update"))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(put("/api/nodes/{id}", mirror.getId()).header("X-Workspace", workspace)
+                        .header(HttpHeaders.IF_MATCH, staleTag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"content\": \"lost update\"}"))
+                .andExpect(status().isPreconditionFailed());
+
+        mockMvc.perform(patch("/api/nodes/{id}/notes", mirror.getId()).header("X-Workspace", workspace)
+                        .header(HttpHeaders.IF_MATCH, eTag(workspace, mirror.getId()))
+                        .contentType(MediaType.TEXT_PLAIN).content("current"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content").value("edited at the source"))
+                .andExpect(jsonPath("$.notes").value("current"));
+    }
+}
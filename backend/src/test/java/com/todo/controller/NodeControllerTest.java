@@ -1,22 +1,49 @@
 package com.todo.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.todo.dto.FilteredNodeTree;
+import com.todo.dto.NodeChanges;
+import com.todo.dto.NodeDetail;
+import com.todo.dto.NodeDraft;
+import com.todo.dto.NodeOutline;
+import com.todo.dto.NodePage;
+import com.todo.dto.NodeTree;
+import com.todo.dto.NodeVersion;
+import com.todo.dto.SnapshotImport;
+import com.todo.dto.TagCount;
 import com.todo.entity.Node;
+import com.todo.service.NodeChangeBroadcaster;
 import com.todo.service.NodeService;
+import com.todo.service.NodeSnapshotService;
+import com.todo.service.NodeStateBuffer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -25,6 +52,18 @@ class NodeControllerTest {
     @Mock
     private NodeService nodeService;
 
+    @Mock
+    private NodeChangeBroadcaster nodeChangeBroadcaster;
+
+    @Mock
+    private NodeSnapshotService nodeSnapshotService;
+
+    @Mock
+    private NodeStateBuffer nodeStateBuffer;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
     @InjectMocks
     private NodeController nodeController;
 
@@ -34,6 +73,7 @@ class NodeControllerTest {
     void setUp() {
         testNode = new Node("Test Node", null, 0);
         testNode.setId(1L);
+        testNode.setVersion(0L);
     }
 
     @Test
@@ -41,7 +81,7 @@ class NodeControllerTest {
         List<Node> nodes = List.of(testNode);
         when(nodeService.getAllRootNodes()).thenReturn(nodes);
 
-        List<Node> result = nodeController.getRootNodes();
+        List<Node> result = nodeController.getRootNodes().getBody();
 
         assertEquals(1, result.size());
         assertEquals(testNode.getId(), result.get(0).getId());
@@ -53,12 +93,71 @@ class NodeControllerTest {
         List<Node> children = List.of(testNode);
         when(nodeService.getChildren(1L)).thenReturn(children);
 
-        List<Node> result = nodeController.getChildren(1L);
+        List<Node> result = nodeController.getChildren(1L).getBody();
 
         assertEquals(1, result.size());
         verify(nodeService).getChildren(1L);
     }
 
+    @Test
+    void getChildren_eTagChangesWithAnyChildVersionOrOrder() {
+        Node other = new Node("Other", null, 1024); other.setId(2L); other.setVersion(3L);
+        when(nodeService.getChildren(1L)).thenReturn(List.of(testNode, other));
+        String eTag = nodeController.getChildren(1L).getHeaders().getETag();
+
+        assertEquals(eTag, nodeController.getChildren(1L).getHeaders().getETag());
+        when(nodeService.getChildren(1L)).thenReturn(List.of(other, testNode));
+        assertNotEquals(eTag, nodeController.getChildren(1L).getHeaders().getETag());
+        other.setVersion(4L);
+        when(nodeService.getChildren(1L)).thenReturn(List.of(testNode, other));
+        assertNotEquals(eTag, nodeController.getChildren(1L).getHeaders().getETag());
+        when(nodeService.getChildren(1L)).thenReturn(List.of(testNode));
+        assertNotEquals(eTag, nodeController.getChildren(1L).getHeaders().getETag());
+    }
+
+    @Test
+    void getSubtree_returnsTreeWithOkStatus() {
+        NodeTree tree = new NodeTree(testNode, List.of());
+        when(nodeService.getSubtree(1L, 3)).thenReturn(tree);
+
+        ResponseEntity<NodeTree> response = nodeController.getSubtree(1L, 3);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(tree, response.getBody());
+        verify(nodeService).getSubtree(1L, 3);
+    }
+
+    @Test
+    void getForest_returnsTrees() {
+        when(nodeService.getForest(null)).thenReturn(List.of(new NodeTree(testNode, List.of())));
+
+        List<NodeTree> result = nodeController.getForest(null);
+
+        assertEquals(1, result.size());
+        verify(nodeService).getForest(null);
+    }
+
+    @Test
+    void getAncestors_returnsAncestorList() {
+        when(nodeService.getAncestors(2L)).thenReturn(List.of(testNode));
+
+        List<Node> result = nodeController.getAncestors(2L);
+
+        assertEquals(1, result.size());
+        verify(nodeService).getAncestors(2L);
+    }
+
+    @Test
+    void searchTree_returnsFilteredForest() {
+        List<FilteredNodeTree> forest = List.of(new FilteredNodeTree(testNode, true, List.of(), List.of()));
+        when(nodeService.searchTree("milk", null, null, 20, false)).thenReturn(forest);
+
+        ResponseEntity<List<FilteredNodeTree>> response = nodeController.searchTree("milk", null, null, 20, false);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(forest, response.getBody());
+    }
+
     @Test
     void getNode_returnsNodeWithOkStatus() {
         when(nodeService.getNodeById(1L)).thenReturn(testNode);
@@ -67,6 +166,7 @@ class NodeControllerTest {
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals(testNode, response.getBody());
+        assertEquals("\"0\"", response.getHeaders().getETag());
         verify(nodeService).getNodeById(1L);
     }
 
@@ -82,16 +182,234 @@ class NodeControllerTest {
         verify(nodeService).createNode(newNode);
     }
 
+    @Test
+    void createSubtrees_returnsCreatedRoots() {
+        List<NodeDraft> drafts = List.of(new NodeDraft("a", null, null, null, null, null, List.of()));
+        when(nodeService.createSubtrees(1L, drafts)).thenReturn(List.of(testNode));
+
+        ResponseEntity<List<Node>> response = nodeController.createSubtrees(1L, drafts);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(List.of(testNode), response.getBody());
+    }
+
+    @Test
+    void getChanges_returnsDelta() {
+        NodeChanges changes = new NodeChanges(7L, true, List.of(testNode), List.of(3L), false);
+        when(nodeService.getChanges(5L, null)).thenReturn(changes);
+
+        ResponseEntity<NodeChanges> response = nodeController.getChanges(5L, null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(changes, response.getBody());
+    }
+
+    @Test
+    void streamChanges_subscribesToSubtree() {
+        SseEmitter emitter = new SseEmitter();
+        when(nodeChangeBroadcaster.subscribe(5L)).thenReturn(emitter);
+
+        assertSame(emitter, nodeController.streamChanges(5L));
+    }
+
+    @Test
+    void getChildrenView_projectsToOutlines() {
+        List<Node> children = List.of(testNode);
+        List<NodeOutline> outlines = List.of(new NodeOutline(1L, null, "Test Node", 0, false, true, false, null, 2, 5, 1));
+        when(nodeService.getChildren(5L)).thenReturn(children);
+        when(nodeService.toOutlines(children)).thenReturn(outlines);
+
+        assertEquals(outlines, nodeController.getChildrenView(5L, "outline").getBody());
+    }
+
+    @Test
+    void searchView_projectsToDetails() {
+        List<Node> nodes = List.of(testNode);
+        List<NodeDetail> details = List.of(new NodeDetail(1L, null, "Test Node", 0, "/", null, null,
+                false, true, false, null, List.of("work"), null, 0, 0, 0));
+        when(nodeService.search("test", null, null, null)).thenReturn(nodes);
+        when(nodeService.toDetails(nodes)).thenReturn(details);
+
+        ResponseEntity<List<?>> response = nodeController.searchView("test", null, null, null, "DETAIL");
+
+        assertEquals(details, response.getBody());
+    }
+
+    @Test
+    void getRootNodesView_rejectsUnknownView() {
+        when(nodeService.getAllRootNodes()).thenReturn(List.of(testNode));
+
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> nodeController.getRootNodesView("full"));
+
+        assertEquals("Unknown view: full", exception.getMessage());
+    }
+
+    @Test
+    void getChildrenPage_returnsPage() {
+        NodePage page = new NodePage(List.of(testNode), "0:1");
+        when(nodeService.getChildrenPage(5L, "0:0", 1)).thenReturn(page);
+
+        ResponseEntity<NodePage> response = nodeController.getChildrenPage(5L, "0:0", 1);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(page, response.getBody());
+    }
+
+    @Test
+    void filterNodes_returnsPage() {
+        NodePage page = new NodePage(List.of(testNode), null);
+        when(nodeService.filterNodes(null, true, null, null)).thenReturn(page);
+
+        ResponseEntity<NodePage> response = nodeController.filterNodes(null, true, null, null);
+
+        assertEquals(page, response.getBody());
+    }
+
+    @Test
+    void filterByTags_defaultsMissingTagListsToEmpty() {
+        NodePage page = new NodePage(List.of(testNode), null);
+        when(nodeService.filterByTags(List.of("work"), List.of(), false, null, 20)).thenReturn(page);
+
+        ResponseEntity<NodePage> response = nodeController.filterByTags(List.of("work"), null, false, null, 20);
+
+        assertEquals(page, response.getBody());
+    }
+
+    @Test
+    void getTagCounts_returnsCountsFromService() {
+        List<TagCount> counts = List.of(new TagCount("work", 2));
+        when(nodeService.getTagCounts()).thenReturn(counts);
+
+        assertEquals(counts, nodeController.getTagCounts());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamFilteredNodes_writesChunksAsOneJsonArray() throws IOException {
+        Node other = new Node("Other", null, 1);
+        other.setId(2L);
+        when(nodeService.streamFiltered(eq(true), isNull(), any())).thenAnswer(invocation -> {
+            Consumer<List<Node>> consumer = invocation.getArgument(2);
+            consumer.accept(List.of(testNode));
+            consumer.accept(List.of(other));
+            return 2L;
+        });
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        nodeController.streamFilteredNodes(true, null).getBody().writeTo(out);
+
+        List<Node> nodes = List.of(objectMapper.readValue(out.toByteArray(), Node[].class));
+        assertEquals(List.of(1L, 2L), nodes.stream().map(Node::getId).toList());
+    }
+
+    @Test
+    void exportSnapshot_streamsToResponseBody() throws IOException {
+        when(nodeSnapshotService.exportSnapshot(any(WritableByteChannel.class))).thenReturn(3L);
+
+        ResponseEntity<StreamingResponseBody> response = nodeController.exportSnapshot();
+        response.getBody().writeTo(new ByteArrayOutputStream());
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("attachment; filename=\"nodes.snapshot\"",
+                response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
+        var order = inOrder(nodeStateBuffer, nodeSnapshotService);
+        order.verify(nodeStateBuffer).flush();
+        order.verify(nodeSnapshotService).exportSnapshot(any(WritableByteChannel.class));
+    }
+
+    @Test
+    void importSnapshot_returnsSummary() throws IOException {
+        SnapshotImport summary = new SnapshotImport(3, 100);
+        when(nodeSnapshotService.importSnapshot(any(ReadableByteChannel.class))).thenReturn(summary);
+
+        ResponseEntity<SnapshotImport> response = nodeController.importSnapshot(new ByteArrayInputStream(new byte[0]));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(summary, response.getBody());
+    }
+
+    @Test
+    void duplicateSubtree_returnsCopiedTree() {
+        NodeTree copy = new NodeTree(testNode, List.of());
+        when(nodeService.duplicateSubtree(1L)).thenReturn(copy);
+
+        ResponseEntity<NodeTree> response = nodeController.duplicateSubtree(1L);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(copy, response.getBody());
+    }
+
     @Test
     void updateNode_returnsUpdatedNodeWithOkStatus() {
         Node updatedNode = new Node("Updated Node", null, 0);
-        when(nodeService.updateNode(anyLong(), any(Node.class))).thenReturn(testNode);
+        when(nodeService.updateNode(anyLong(), any(Node.class), isNull())).thenReturn(testNode);
 
-        ResponseEntity<Node> response = nodeController.updateNode(1L, updatedNode);
+        ResponseEntity<Node> response = nodeController.updateNode(1L, updatedNode, null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals(testNode, response.getBody());
-        verify(nodeService).updateNode(1L, updatedNode);
+        verify(nodeService).updateNode(1L, updatedNode, null);
+    }
+
+    @Test
+    void updateNode_passesIfMatchVersionAndReturnsNewETag() {
+        Node updatedNode = new Node("Updated Node", null, 0);
+        testNode.setVersion(8L);
+        when(nodeService.updateNode(1L, updatedNode, NodeVersion.of(7))).thenReturn(testNode);
+
+        ResponseEntity<Node> response = nodeController.updateNode(1L, updatedNode, "\"7\"");
+
+        assertEquals("\"8\"", response.getHeaders().getETag());
+    }
+
+    @Test
+    void updateNode_anyIfMatchSkipsTheVersionCheck() {
+        Node updatedNode = new Node("Updated Node", null, 0);
+        when(nodeService.updateNode(1L, updatedNode, null)).thenReturn(testNode);
+
+        nodeController.updateNode(1L, updatedNode, "*");
+
+        verify(nodeService).updateNode(1L, updatedNode, null);
+    }
+
+    @Test
+    void updateNode_weakIfMatchFailsThePrecondition() {
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> nodeController.updateNode(1L, new Node("x", null, 0), "W/\"7\""));
+
+        assertEquals(HttpStatus.PRECONDITION_FAILED, exception.getStatusCode());
+        verifyNoInteractions(nodeService);
+    }
+
+    @Test
+    void updateNode_mirrorTagNamesTheMirrorsAndTheSourcesVersions() {
+        Node updatedNode = new Node("Updated Node", null, 0);
+        testNode.setVersion(4L);
+        testNode.setSourceVersion(12L);
+        when(nodeService.updateNode(1L, updatedNode, new NodeVersion(3, 11L))).thenReturn(testNode);
+
+        ResponseEntity<Node> response = nodeController.updateNode(1L, updatedNode, "\"3.11\"");
+
+        assertEquals("\"4.12\"", response.getHeaders().getETag());
+    }
+
+    @Test
+    void getMirrors_returnsResolvedMirrorsWithListingETag() {
+        Node mirror = new Node("Test Node", null, 0); mirror.setId(5L); mirror.setVersion(0L);
+        mirror.setMirrorId(1L); mirror.setSourceVersion(0L);
+        when(nodeService.getMirrors(1L)).thenReturn(List.of(mirror));
+
+        ResponseEntity<List<Node>> response = nodeController.getMirrors(1L);
+
+        assertEquals(List.of(mirror), response.getBody());
+        String eTag = response.getHeaders().getETag();
+        mirror.setSourceVersion(1L);
+        assertNotEquals(eTag, nodeController.getMirrors(1L).getHeaders().getETag());
+    }
+
+    @Test
+    void preconditionFailed_answers412() {
+        assertEquals(HttpStatus.PRECONDITION_FAILED, nodeController.preconditionFailed().getStatusCode());
     }
 
     @Test
@@ -106,32 +424,32 @@ class NodeControllerTest {
 
     @Test
     void moveNode_returnsMovedNodeWithOkStatus() {
-        when(nodeService.moveNode(anyLong(), any(), any())).thenReturn(testNode);
+        when(nodeService.moveNode(anyLong(), any(), any(), isNull())).thenReturn(testNode);
 
-        ResponseEntity<Node> response = nodeController.moveNode(1L, 2L, 0);
+        ResponseEntity<Node> response = nodeController.moveNode(1L, 2L, 0, null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals(testNode, response.getBody());
-        verify(nodeService).moveNode(1L, 2L, 0);
+        verify(nodeService).moveNode(1L, 2L, 0, null);
     }
 
     @Test
     void moveNode_withNullParentId_works() {
-        when(nodeService.moveNode(anyLong(), any(), any())).thenReturn(testNode);
+        when(nodeService.moveNode(anyLong(), any(), any(), isNull())).thenReturn(testNode);
 
-        ResponseEntity<Node> response = nodeController.moveNode(1L, null, 0);
+        ResponseEntity<Node> response = nodeController.moveNode(1L, null, 0, null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        verify(nodeService).moveNode(1L, null, 0);
+        verify(nodeService).moveNode(1L, null, 0, null);
     }
 
     @Test
     void moveNode_withNullPosition_works() {
-        when(nodeService.moveNode(anyLong(), any(), any())).thenReturn(testNode);
+        when(nodeService.moveNode(anyLong(), any(), any(), isNull())).thenReturn(testNode);
 
-        ResponseEntity<Node> response = nodeController.moveNode(1L, 2L, null);
+        ResponseEntity<Node> response = nodeController.moveNode(1L, 2L, null, null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
-        verify(nodeService).moveNode(1L, 2L, null);
+        verify(nodeService).moveNode(1L, 2L, null, null);
     }
 }
@@ -0,0 +1,62 @@
+package com.todo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongLruMapTest {
+
+    @Test
+    void putGetAndRemove() {
+        LongLruMap<String> map = new LongLruMap<>();
+
+        assertNull(map.put(7, "a"));
+        assertEquals("a", map.put(7, "b"));
+        assertNull(map.put(-3, "c"));
+
+        assertEquals("b", map.get(7));
+        assertEquals("c", map.get(-3));
+        assertNull(map.get(8));
+        assertEquals("b", map.remove(7));
+        assertNull(map.remove(7));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void eldestKey_followsAccessOrder() {
+        LongLruMap<String> map = new LongLruMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+        map.put(3, "c");
+        map.get(1);
+
+        assertEquals(2, map.eldestKey());
+        map.remove(2);
+        assertEquals(3, map.eldestKey());
+        map.put(3, "d");
+        assertEquals(1, map.eldestKey());
+    }
+
+    @Test
+    void matchesAHashMapThroughGrowthAndRemovals() {
+        LongLruMap<Long> map = new LongLruMap<>();
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            // Few distinct keys, clustered, so probe runs collide and removals shift them
+            long key = random.nextInt(2_000) * 64L;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, (long) i), map.put(key, (long) i));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        expected.forEach((key, value) -> assertEquals(value, map.get(key)));
+    }
+}
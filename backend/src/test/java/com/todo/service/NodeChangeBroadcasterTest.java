@@ -0,0 +1,165 @@
+package com.todo.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NodeChangeBroadcasterTest {
+
+    @Mock
+    private NodeChangeLog nodeChangeLog;
+
+    private NodeChangeBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() {
+        // Sends run inline so each flush is observable right away
+        broadcaster = new NodeChangeBroadcaster(nodeChangeLog, 60_000, 100, 5_000, Runnable::run);
+    }
+
+    @Test
+    void flush_notifiesOnlySubscribersOfTouchedSubtrees() {
+        RecordingEmitter all = new RecordingEmitter();
+        RecordingEmitter branch = new RecordingEmitter();
+        RecordingEmitter elsewhere = new RecordingEmitter();
+        broadcaster.subscribe(null, all);
+        broadcaster.subscribe(5L, branch);
+        broadcaster.subscribe(6L, elsewhere);
+        when(nodeChangeLog.latest()).thenReturn(42L);
+
+        broadcaster.changed("/1/5/9/");
+        broadcaster.flush();
+
+        assertEquals(1, all.sent);
+        assertEquals(1, branch.sent);
+        assertEquals(0, elsewhere.sent);
+    }
+
+    @Test
+    void flush_coalescesBurstsIntoOneEvent() {
+        RecordingEmitter emitter = new RecordingEmitter();
+        broadcaster.subscribe(null, emitter);
+        when(nodeChangeLog.latest()).thenReturn(3L);
+
+        broadcaster.changed("/1/");
+        broadcaster.changed("/2/");
+        broadcaster.changed("/1/3/");
+        broadcaster.flush();
+        broadcaster.flush();
+
+        assertEquals(1, emitter.sent);
+        verify(nodeChangeLog, times(1)).latest();
+    }
+
+    @Test
+    void flush_dropsSubscribersThatCannotBeWritten() {
+        RecordingEmitter gone = new RecordingEmitter();
+        gone.fail = true;
+        broadcaster.subscribe(null, gone);
+        when(nodeChangeLog.latest()).thenReturn(1L);
+
+        broadcaster.changed("/1/");
+        broadcaster.flush();
+
+        assertEquals(0, broadcaster.subscriberCount());
+    }
+
+    @Test
+    void flush_keepsNotifyingOthersWhileOneSubscriberStalls() throws Exception {
+        ExecutorService senders = NodeChangeBroadcaster.senderPool(1);
+        NodeChangeBroadcaster pooled = new NodeChangeBroadcaster(nodeChangeLog, 60_000, 100, 200, senders);
+        try {
+            StalledEmitter stalled = new StalledEmitter();
+            SignallingEmitter responsive = new SignallingEmitter();
+            pooled.subscribe(null, stalled);
+            pooled.subscribe(null, responsive);
+            when(nodeChangeLog.latest()).thenReturn(1L, 2L);
+
+            pooled.changed("/1/");
+            pooled.flush();
+            assertTrue(stalled.writing.await(5, TimeUnit.SECONDS));
+            assertTrue(responsive.received.tryAcquire(5, TimeUnit.SECONDS));
+
+            // The stalled write holds the only core thread, yet the next event still goes out
+            pooled.changed("/1/");
+            pooled.flush();
+            assertTrue(responsive.received.tryAcquire(5, TimeUnit.SECONDS));
+
+            Thread.sleep(300);
+            pooled.flush();
+            assertEquals(1, pooled.subscriberCount());
+
+            stalled.release.countDown();
+            assertTrue(stalled.completed.await(5, TimeUnit.SECONDS));
+        } finally {
+            senders.shutdownNow();
+        }
+    }
+
+    @Test
+    void changed_withoutSubscribers_isIgnored() {
+        broadcaster.changed("/1/");
+        broadcaster.flush();
+
+        verifyNoInteractions(nodeChangeLog);
+    }
+
+    private static class RecordingEmitter extends SseEmitter {
+
+        private int sent;
+        private boolean fail;
+
+        @Override
+        public void send(SseEventBuilder builder) throws IOException {
+            if (fail) {
+                throw new IOException("Broken pipe");
+            }
+            sent++;
+        }
+    }
+
+    private static class StalledEmitter extends SseEmitter {
+
+        private final CountDownLatch writing = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+    }
+
+    private static class SignallingEmitter extends SseEmitter {
+
+        private final Semaphore received = new Semaphore(0);
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            received.release();
+        }
+    }
+}
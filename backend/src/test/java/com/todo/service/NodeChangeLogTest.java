@@ -0,0 +1,270 @@
+package com.todo.service;
+
+import com.todo.entity.NodeChange;
+import com.todo.repository.NodeChangeRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NodeChangeLogTest {
+
+    @Mock
+    private NodeChangeRepository nodeChangeRepository;
+
+    @Mock
+    private WorkspaceDirectory workspaceDirectory;
+
+    private NodeChangeLog changeLog;
+
+    @BeforeEach
+    void setUp() {
+        changeLog = new NodeChangeLog(nodeChangeRepository, new WorkspacePartitions(List.of(mock(DataSource.class))),
+                workspaceDirectory, 3, 24, 60_000);
+        // 20 entries were written
+        when(nodeChangeRepository.findMaxSeq()).thenReturn(20L);
+        changeLog.loadLastSeq();
+    }
+
+    private static NodeChange entry(long seq, long nodeId, NodeChange.Type type) {
+        return new NodeChange(seq, WorkspaceContext.DEFAULT, nodeId, type);
+    }
+
+    @Test
+    void since_keepsOnlyTheLastChangePerNodeInOrder() {
+        when(nodeChangeRepository.findByWorkspaceAndSeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(
+                "default", 5L, 20L, PageRequest.of(0, 11))).thenReturn(List.of(
+                entry(6, 1, NodeChange.Type.CREATE),
+                entry(7, 2, NodeChange.Type.UPDATE),
+                entry(8, 1, NodeChange.Type.MOVE),
+                entry(9, 2, NodeChange.Type.DELETE)));
+
+        NodeChangeLog.Delta delta = changeLog.since(5L, 10);
+
+        assertEquals(new NodeChangeLog.Delta(9L, true, List.of(1L), List.of(2L), false), delta);
+    }
+
+    @Test
+    void since_stopsAtTheLimitAndReportsMore() {
+        when(nodeChangeRepository.findByWorkspaceAndSeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(
+                "default", 0L, 20L, PageRequest.of(0, 4))).thenReturn(List.of(
+                entry(1, 1, NodeChange.Type.CREATE),
+                entry(2, 2, NodeChange.Type.CREATE),
+                entry(3, 3, NodeChange.Type.CREATE),
+                entry(4, 4, NodeChange.Type.CREATE)));
+
+        NodeChangeLog.Delta delta = changeLog.since(0L, null);
+
+        assertEquals(3L, delta.cursor());
+        assertFalse(delta.complete());
+        assertEquals(List.of(1L, 2L, 3L), delta.changedIds());
+    }
+
+    @Test
+    void since_withoutNewEntries_keepsTheCursor() {
+        when(nodeChangeRepository.findByWorkspaceAndSeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(
+                "default", 7L, 20L, PageRequest.of(0, 4))).thenReturn(List.of());
+
+        assertEquals(new NodeChangeLog.Delta(7L, true, List.of(), List.of(), false), changeLog.since(7L, null));
+    }
+
+    // Runs records inside a transaction up to the point where it commits, leaving it to complete
+    private static List<TransactionSynchronization> recordCommitting(Runnable records) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            records.run();
+            List<TransactionSynchronization> running = TransactionSynchronizationManager.getSynchronizations();
+            running.forEach(synchronization -> synchronization.beforeCommit(false));
+            return running;
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    private static void complete(List<TransactionSynchronization> running) {
+        running.forEach(synchronization -> synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+    }
+
+    private static List<Long> seqsOf(List<NodeChange> entries) {
+        return entries.stream().map(NodeChange::getSeq).toList();
+    }
+
+    @Test
+    void since_stopsBeforeEntriesOfTransactionsStillRunning() {
+        // Entry 21 is written in a transaction that has not committed yet, entry 22 by one that has
+        when(nodeChangeRepository.nextSeqBlock()).thenReturn(21L);
+        List<TransactionSynchronization> running = recordCommitting(() -> changeLog.record(NodeChange.Type.CREATE, 1L));
+        changeLog.record(NodeChange.Type.UPDATE, 2L);
+
+        changeLog.since(20L, null);
+        verify(nodeChangeRepository).findByWorkspaceAndSeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(
+                "default", 20L, 20L, PageRequest.of(0, 4));
+
+        complete(running);
+        changeLog.since(20L, null);
+        verify(nodeChangeRepository).findByWorkspaceAndSeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(
+                "default", 20L, 22L, PageRequest.of(0, 4));
+    }
+
+    @Test
+    void since_isNotHeldBackByTransactionsOfOtherWorkspaces() {
+        when(nodeChangeRepository.nextSeqBlock()).thenReturn(21L);
+        List<TransactionSynchronization> running = recordCommitting(
+                () -> WorkspaceContext.run("acme", () -> changeLog.record(NodeChange.Type.CREATE, 1L)));
+        changeLog.record(NodeChange.Type.UPDATE, 2L);
+
+        changeLog.since(20L, null);
+        verify(nodeChangeRepository).findByWorkspaceAndSeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(
+                "default", 20L, 22L, PageRequest.of(0, 4));
+        complete(running);
+    }
+
+    @Test
+    void recordAll_numbersEntriesFromThePartitionSequence() {
+        when(nodeChangeRepository.nextSeqBlock()).thenReturn(31L);
+
+        changeLog.recordAll(NodeChange.Type.DELETE, List.of(7L, 8L, 9L));
+
+        verify(nodeChangeRepository).saveAll(argThat((List<NodeChange> entries) ->
+                seqsOf(entries).equals(List.of(31L, 32L, 33L))
+                        && entries.stream().map(NodeChange::getNodeId).toList().equals(List.of(7L, 8L, 9L))));
+    }
+
+    @Test
+    void record_withinATransaction_writesItsEntriesTogetherWhenItCommits() {
+        when(nodeChangeRepository.nextSeqBlock()).thenReturn(21L);
+
+        List<TransactionSynchronization> running = recordCommitting(() -> {
+            changeLog.record(NodeChange.Type.CREATE, 1L);
+            changeLog.recordAll(NodeChange.Type.UPDATE, List.of(2L, 3L));
+            verifyNoMoreInteractions(nodeChangeRepository);
+        });
+        complete(running);
+        changeLog.record(NodeChange.Type.UPDATE, 4L);
+
+        verify(nodeChangeRepository).saveAll(argThat((List<NodeChange> entries) ->
+                seqsOf(entries).equals(List.of(21L, 22L, 23L))
+                        && entries.stream().map(NodeChange::getNodeId).toList().equals(List.of(1L, 2L, 3L))));
+        verify(nodeChangeRepository).saveAll(argThat((List<NodeChange> entries) -> seqsOf(entries).equals(List.of(24L))));
+        verify(nodeChangeRepository, times(1)).nextSeqBlock();
+        assertFalse(TransactionSynchronizationManager.hasResource(changeLog));
+    }
+
+    @Test
+    void record_withinATransactionThatRollsBack_takesNoNumbers() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            changeLog.record(NodeChange.Type.CREATE, 1L);
+            complete(TransactionSynchronizationManager.getSynchronizations());
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(nodeChangeRepository, never()).nextSeqBlock();
+        verify(nodeChangeRepository, never()).saveAll(any());
+        changeLog.since(20L, null);
+        verify(nodeChangeRepository).findByWorkspaceAndSeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(
+                "default", 20L, 20L, PageRequest.of(0, 4));
+    }
+
+    @Test
+    void recordAll_pastTheEndOfABlock_continuesInTheNextOne() {
+        when(nodeChangeRepository.nextSeqBlock()).thenReturn(21L, 121L);
+        List<Long> nodeIds = LongStream.rangeClosed(1, NodeChangeLog.SEQ_BLOCK_SIZE + 2).boxed().toList();
+
+        changeLog.recordAll(NodeChange.Type.CREATE, nodeIds);
+
+        List<Long> expected = new ArrayList<>(LongStream.range(21, 21 + NodeChangeLog.SEQ_BLOCK_SIZE).boxed().toList());
+        expected.addAll(List.of(121L, 122L));
+        verify(nodeChangeRepository).saveAll(argThat((List<NodeChange> entries) -> seqsOf(entries).equals(expected)));
+    }
+
+    @Test
+    void skipSeqsThrough_onlyMovesTheSequenceForward() {
+        when(nodeChangeRepository.findNextSeq()).thenReturn(5L, 50L);
+
+        changeLog.skipSeqsThrough(0, 20);
+        changeLog.skipSeqsThrough(0, 20);
+
+        verify(nodeChangeRepository, times(1)).restartSeqs(21L);
+    }
+
+    @Test
+    void skipSeqsThrough_dropsTheRestOfThePartitionsBlock() {
+        when(nodeChangeRepository.nextSeqBlock()).thenReturn(21L, 71L);
+        when(nodeChangeRepository.findNextSeq()).thenReturn(71L);
+        changeLog.record(NodeChange.Type.CREATE, 1L);
+
+        changeLog.skipSeqsThrough(0, 40);
+        changeLog.record(NodeChange.Type.UPDATE, 1L);
+
+        verify(nodeChangeRepository, never()).restartSeqs(anyLong());
+        verify(nodeChangeRepository).saveAll(argThat((List<NodeChange> entries) -> seqsOf(entries).equals(List.of(71L))));
+    }
+
+    @Test
+    void since_beforeTheLastPrunedEntry_asksForAReload() {
+        when(workspaceDirectory.changesPrunedThrough("default")).thenReturn(15L);
+        when(nodeChangeRepository.findLatestSeq("default", 20L)).thenReturn(18L);
+
+        assertEquals(new NodeChangeLog.Delta(18L, true, List.of(), List.of(), true), changeLog.since(10L, null));
+        verify(nodeChangeRepository, never()).findByWorkspaceAndSeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(
+                anyString(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void latest_afterEveryEntryWasPruned_isTheLastPrunedEntry() {
+        when(workspaceDirectory.changesPrunedThrough("default")).thenReturn(15L);
+        when(nodeChangeRepository.findLatestSeq("default", 20L)).thenReturn(null);
+
+        assertEquals(15L, changeLog.latest());
+    }
+
+    @Test
+    void prune_recordsTheLastEntryBeforeDeletingUpToIt() {
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(24);
+        when(workspaceDirectory.assignments()).thenReturn(Map.of("default", 0));
+        when(workspaceDirectory.writeLock("default")).thenReturn(new ReentrantLock());
+        when(workspaceDirectory.changesPrunedThrough("default")).thenReturn(4L);
+        when(nodeChangeRepository.findLastSeqBefore("default", cutoff, 20L)).thenReturn(12L);
+        when(nodeChangeRepository.deleteThrough("default", 12L)).thenReturn(8);
+
+        assertEquals(8, changeLog.prune(cutoff));
+
+        InOrder inOrder = inOrder(workspaceDirectory, nodeChangeRepository);
+        inOrder.verify(workspaceDirectory).changesPruned("default", 12L);
+        inOrder.verify(nodeChangeRepository).deleteThrough("default", 12L);
+    }
+
+    @Test
+    void prune_withNothingOlderThanTheCutoff_deletesNothing() {
+        LocalDateTime cutoff = LocalDateTime.now().minusHours(24);
+        when(workspaceDirectory.assignments()).thenReturn(Map.of("default", 0));
+        when(workspaceDirectory.writeLock("default")).thenReturn(new ReentrantLock());
+        when(nodeChangeRepository.findLastSeqBefore("default", cutoff, 20L)).thenReturn(null);
+
+        assertEquals(0, changeLog.prune(cutoff));
+
+        verify(workspaceDirectory, never()).changesPruned(anyString(), anyLong());
+        verify(nodeChangeRepository, never()).deleteThrough(anyString(), anyLong());
+    }
+}
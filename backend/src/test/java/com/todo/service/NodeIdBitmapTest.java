@@ -0,0 +1,110 @@
+package com.todo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeIdBitmapTest {
+
+    private static List<Long> toList(NodeIdBitmap bitmap) {
+        List<Long> ids = new ArrayList<>();
+        bitmap.forEach(0, id -> ids.add(id));
+        return ids;
+    }
+
+    private static NodeIdBitmap bitmapOf(Iterable<Long> ids) {
+        NodeIdBitmap bitmap = new NodeIdBitmap();
+        ids.forEach(bitmap::add);
+        return bitmap;
+    }
+
+    @Test
+    void addRemoveAndContains_acrossChunks() {
+        NodeIdBitmap bitmap = new NodeIdBitmap();
+
+        assertTrue(bitmap.add(5));
+        assertTrue(bitmap.add(70_000));
+        assertTrue(bitmap.add(1L << 40));
+        assertFalse(bitmap.add(5));
+
+        assertEquals(3, bitmap.cardinality());
+        assertTrue(bitmap.contains(70_000));
+        assertFalse(bitmap.contains(70_001));
+        assertEquals(List.of(5L, 70_000L, 1L << 40), toList(bitmap));
+
+        assertTrue(bitmap.remove(70_000));
+        assertFalse(bitmap.remove(70_000));
+        assertEquals(List.of(5L, 1L << 40), toList(bitmap));
+        assertEquals(2, bitmap.cardinality());
+    }
+
+    @Test
+    void denseChunk_switchesToBitsAndBack() {
+        NodeIdBitmap bitmap = new NodeIdBitmap();
+        for (long id = 0; id <= NodeIdBitmap.ARRAY_MAX; id++) {
+            bitmap.add(id * 2);
+        }
+
+        assertEquals(NodeIdBitmap.ARRAY_MAX + 1, bitmap.cardinality());
+        assertTrue(bitmap.contains(2 * NodeIdBitmap.ARRAY_MAX));
+        assertFalse(bitmap.contains(1));
+
+        bitmap.remove(0);
+        bitmap.remove(2);
+        assertEquals(NodeIdBitmap.ARRAY_MAX - 1, bitmap.cardinality());
+        assertEquals(4L, toList(bitmap).get(0));
+        assertTrue(bitmap.contains(2 * NodeIdBitmap.ARRAY_MAX));
+    }
+
+    @Test
+    void forEach_startsAtIdAndStopsWhenAsked() {
+        NodeIdBitmap bitmap = bitmapOf(List.of(1L, 3L, 65_540L, 65_545L, 200_000L));
+
+        List<Long> ids = new ArrayList<>();
+        bitmap.forEach(65_541, id -> {
+            ids.add(id);
+            return ids.size() < 1;
+        });
+
+        assertEquals(List.of(65_545L), ids);
+    }
+
+    @Test
+    void setOperations_matchSetSemanticsForSparseAndDenseChunks() {
+        Random random = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            TreeSet<Long> left = new TreeSet<>();
+            TreeSet<Long> right = new TreeSet<>();
+            // Alternate sparse and dense chunks so every pairing of representations is exercised
+            int leftCount = round % 2 == 0 ? 200 : 30_000;
+            int rightCount = round % 4 < 2 ? 200 : 30_000;
+            for (int i = 0; i < leftCount; i++) {
+                left.add((long) random.nextInt(150_000));
+            }
+            for (int i = 0; i < rightCount; i++) {
+                right.add((long) random.nextInt(150_000));
+            }
+            NodeIdBitmap a = bitmapOf(left);
+            NodeIdBitmap b = bitmapOf(right);
+
+            TreeSet<Long> and = new TreeSet<>(left);
+            and.retainAll(right);
+            TreeSet<Long> or = new TreeSet<>(left);
+            or.addAll(right);
+            TreeSet<Long> andNot = new TreeSet<>(left);
+            andNot.removeAll(right);
+
+            assertEquals(new ArrayList<>(and), toList(NodeIdBitmap.and(a, b)));
+            assertEquals(and.size(), NodeIdBitmap.andCardinality(a, b));
+            assertEquals(new ArrayList<>(or), toList(NodeIdBitmap.or(a, b)));
+            assertEquals(new ArrayList<>(andNot), toList(NodeIdBitmap.andNot(a, b)));
+            assertEquals(or.size(), NodeIdBitmap.union(List.of(a, b)).cardinality());
+            assertEquals(left.size(), a.cardinality());
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.todo.service;
+
+import com.todo.dto.TagCount;
+import com.todo.entity.Node;
+import com.todo.repository.NodeRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class NodeSearchIndexTest {
+
+    @Mock
+    private NodeRepository nodeRepository;
+
+    private NodeSearchIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new NodeSearchIndex(nodeRepository, new WorkspacePartitions(List.of(mock(DataSource.class))), false);
+    }
+
+    private static Node node(long id, String content, String notes, String... tags) {
+        Node node = new Node(content, null, 0);
+        node.setId(id);
+        node.setNotes(notes);
+        node.setTags(new ArrayList<>(List.of(tags)));
+        return node;
+    }
+
+    @Test
+    void search_matchesPrefixesCaseInsensitivelyAcrossFields() {
+        index.index(node(1, "Buy Milk", null));
+        index.index(node(2, "Call mom", "about the milkshake"));
+        index.index(node(3, "Shopping list", null, "Milk"));
+        index.index(node(4, "Unrelated", null));
+
+        assertEquals(List.of(1L, 3L, 2L), index.search("MIL", null, null, 10));
+    }
+
+    @Test
+    void search_requiresEveryQueryTokenAndRanksExactContentFirst() {
+        index.index(node(1, "milk and bread", null));
+        index.index(node(2, "milkshake", "bread"));
+        index.index(node(3, "milk", null));
+
+        assertEquals(List.of(1L, 2L), index.search("milk bread", null, null, 10));
+    }
+
+    @Test
+    void search_filtersByTagPrefixAndCompletion() {
+        Node done = node(1, "milk", null, "groceries");
+        done.setIsCompleted(true);
+        index.index(done);
+        index.index(node(2, "milk", null, "grocery"));
+        index.index(node(3, "milk", null, "work"));
+
+        assertEquals(List.of(1L, 2L), index.search("milk", "Groc", null, 10));
+        assertEquals(List.of(2L), index.search(null, "groc", false, 10));
+    }
+
+    @Test
+    void search_scoresEachNodeByItsBestMatchPerQueryToken() {
+        index.index(node(1, "milkshake", "milk"));
+        index.index(node(2, "milk", "milkshake"));
+        index.index(node(3, "shopping", "milk", "milk"));
+        index.index(node(4, "milk milky", null));
+
+        assertEquals(List.of(2L, 4L, 3L, 1L), index.search("milk", null, null, 10));
+        assertEquals(List.of(2L, 4L), index.search("milk", null, null, 2));
+    }
+
+    @Test
+    void search_withAShortPrefixOverALargeIndex_answersWithinTenMilliseconds() {
+        String[] words = {"alpha", "amber", "apple", "archive", "atlas", "beta", "budget", "call", "draft", "email"};
+        for (long id = 1; id <= 100_000; id++) {
+            index.index(node(id, "task " + words[(int) (id % words.length)] + " " + id, null, "tag" + id % 100));
+        }
+
+        // The target is for compiled code, which takes the JIT about a hundred searches
+        for (int run = 0; run < 150; run++) {
+            index.search("a t", null, null, 50);
+        }
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 50; run++) {
+            long start = System.nanoTime();
+            assertEquals(50, index.search("a t", null, null, 50).size());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        assertTrue(best < 10_000_000, "best of 50 searches took " + best / 1000 + " µs");
+    }
+
+    @Test
+    void search_appliesLimit() {
+        for (long id = 1; id <= 5; id++) {
+            index.index(node(id, "task " + id, null));
+        }
+
+        assertEquals(2, index.search("task", null, null, 2).size());
+    }
+
+    @Test
+    void reindexAndRemove_replacePreviousPostings() {
+        index.index(node(1, "milk", null));
+        index.index(node(1, "bread", null));
+        assertTrue(index.search("milk", null, null, 10).isEmpty());
+        assertEquals(List.of(1L), index.search("bread", null, null, 10));
+
+        index.remove(List.of(1L));
+        assertTrue(index.search("bread", null, null, 10).isEmpty());
+    }
+
+    @Test
+    void searchAndTags_onlyCoverTheCurrentWorkspace() {
+        index.index(node(1, "milk", null, "groceries"));
+        Node other = node(2, "milk", null, "groceries", "work");
+        other.setWorkspace("acme");
+        index.index(other);
+
+        assertEquals(List.of(1L), index.search("milk", null, null, 10));
+        assertEquals(List.of(new TagCount("groceries", 1)), index.tagCounts());
+        assertEquals(List.of(1L), index.findByTags(List.of("groceries"), List.of(), null, 0, 10));
+        WorkspaceContext.run("acme", () -> {
+            assertEquals(List.of(2L), index.search("milk", "groc", null, 10));
+            assertEquals(List.of(2L), index.findByTags(List.of("groceries", "work"), List.of(), null, 0, 10));
+            assertEquals(2, index.tagCounts().size());
+        });
+        assertTrue(WorkspaceContext.call("empty", () -> index.search("milk", null, null, 10)).isEmpty());
+    }
+
+    @Test
+    void rebuild_loadsAllNodesFromRepository() {
+        when(nodeRepository.findIdsAfter(0L, PageRequest.of(0, NodeSearchIndex.REBUILD_PAGE_SIZE))).thenReturn(List.of(7L));
+        when(nodeRepository.findIdsAfter(7L, PageRequest.of(0, NodeSearchIndex.REBUILD_PAGE_SIZE))).thenReturn(List.of());
+        when(nodeRepository.findAllWithTagsByIdIn(List.of(7L))).thenReturn(List.of(node(7, "from database", null)));
+
+        index.rebuild();
+
+        assertEquals(List.of(7L), index.search("data", null, null, 10));
+    }
+
+    @Test
+    void rebuild_keepsWritesCommittedWhileLoading() {
+        when(nodeRepository.findIdsAfter(0L, PageRequest.of(0, NodeSearchIndex.REBUILD_PAGE_SIZE))).thenReturn(List.of(7L, 8L, 9L));
+        when(nodeRepository.findIdsAfter(9L, PageRequest.of(0, NodeSearchIndex.REBUILD_PAGE_SIZE))).thenReturn(List.of());
+        when(nodeRepository.findAllWithTagsByIdIn(List.of(7L, 8L, 9L))).thenAnswer(invocation -> {
+            // Committed while the rows below were being read
+            index.index(node(7, "renamed", null));
+            index.remove(List.of(8L));
+            return List.of(node(7, "stale", null), node(8, "deleted", null), node(9, "untouched", null));
+        });
+
+        index.rebuild();
+
+        assertEquals(List.of(7L), index.search("renamed", null, null, 10));
+        assertTrue(index.search("stale", null, null, 10).isEmpty());
+        assertTrue(index.search("deleted", null, null, 10).isEmpty());
+        assertEquals(List.of(9L), index.search("untouched", null, null, 10));
+    }
+
+    @Test
+    void tagCounts_countNodesPerTagMostUsedFirst() {
+        index.index(node(1, "a", null, "Work", "urgent"));
+        index.index(node(2, "b", null, "work"));
+        index.index(node(3, "c", null, "home"));
+
+        assertEquals(List.of(new TagCount("work", 2), new TagCount("home", 1), new TagCount("urgent", 1)),
+                index.tagCounts());
+    }
+
+    @Test
+    void findByTags_combinesAllAndAnyTagsWithCompletion() {
+        Node done = node(1, "a", null, "work", "urgent");
+        done.setIsCompleted(true);
+        index.index(done);
+        index.index(node(2, "b", null, "work", "home"));
+        index.index(node(3, "c", null, "work"));
+        index.index(node(4, "d", null, "urgent"));
+
+        assertEquals(List.of(1L, 2L, 3L), index.findByTags(List.of("Work"), List.of(), null, 0, 10));
+        assertEquals(List.of(1L, 2L), index.findByTags(List.of("work"), List.of("urgent", "home"), null, 0, 10));
+        assertEquals(List.of(1L, 2L, 4L), index.findByTags(List.of(), List.of("urgent", "home"), null, 0, 10));
+        assertEquals(List.of(1L), index.findByTags(List.of("work", "urgent"), List.of(), null, 0, 10));
+        assertEquals(List.of(2L, 3L), index.findByTags(List.of("work"), List.of(), false, 0, 10));
+        assertEquals(List.of(1L), index.findByTags(List.of("work"), List.of(), true, 0, 10));
+        assertTrue(index.findByTags(List.of("work", "missing"), List.of(), null, 0, 10).isEmpty());
+        assertTrue(index.findByTags(List.of(), List.of(), null, 0, 10).isEmpty());
+    }
+
+    @Test
+    void findByTags_pagesAfterIdInIdOrder() {
+        for (long id = 1; id <= 5; id++) {
+            index.index(node(id, "task", null, "work"));
+        }
+
+        assertEquals(List.of(1L, 2L), index.findByTags(List.of("work"), List.of(), null, 0, 2));
+        assertEquals(List.of(3L, 4L), index.findByTags(List.of("work"), List.of(), null, 2, 2));
+        assertEquals(List.of(5L), index.findByTags(List.of("work"), List.of(), null, 4, 2));
+    }
+
+    @Test
+    void tagBitmaps_followReindexAndRemove() {
+        index.index(node(1, "a", null, "work"));
+        index.index(node(2, "b", null, "work"));
+        index.index(node(1, "a", null, "home"));
+        index.remove(List.of(2L));
+
+        assertTrue(index.findByTags(List.of("work"), List.of(), null, 0, 10).isEmpty());
+        assertEquals(List.of(1L), index.findByTags(List.of("home"), List.of(), null, 0, 10));
+        assertEquals(List.of(new TagCount("home", 1)), index.tagCounts());
+    }
+}
@@ -0,0 +1,208 @@
+package com.todo.service;
+
+import com.todo.dto.NodeChanges;
+import com.todo.dto.NodeDraft;
+import com.todo.dto.NodeTree;
+import com.todo.entity.Node;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs NodeService against the application context on the in-memory H2 database, migrated by
+ * Flyway and validated by Hibernate, so the native and JPQL statements actually execute. Each
+ * test works in a workspace of its own and leaves the others' data alone.
+ */
+@SpringBootTest
+class NodeServiceIntegrationTest {
+
+    @Autowired
+    private NodeService nodeService;
+
+    @Autowired
+    private NodeChangeLog nodeChangeLog;
+
+    @Autowired
+    private WorkspacePartitions workspacePartitions;
+
+    @Autowired
+    private Environment environment;
+
+    private WorkspaceContext.Binding workspace;
+
+    @BeforeEach
+    void enterWorkspace() {
+        workspace = WorkspaceContext.enter("it-" + UUID.randomUUID());
+    }
+
+    @AfterEach
+    void leaveWorkspace() {
+        workspace.close();
+    }
+
+    private static NodeDraft draft(String content, NodeDraft... children) {
+        return new NodeDraft(content, null, null, null, null, null, List.of(children));
+    }
+
+    private static List<String> contents(List<NodeTree> trees) {
+        return trees.stream().map(tree -> tree.node().getContent()).toList();
+    }
+
+    private static NodeTree child(NodeTree tree, String content) {
+        return tree.children().stream()
+                .filter(child -> child.node().getContent().equals(content))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private Node node(Long id) {
+        return nodeService.getNodeById(id);
+    }
+
+    @Test
+    void schema_isMigratedByFlywayAndValidatedByHibernate() throws IOException {
+        // The context only starts when the entities match the migrated schema
+        assertEquals("validate", environment.getProperty("spring.jpa.hibernate.ddl-auto"));
+
+        int migrations = new PathMatchingResourcePatternResolver().getResources("classpath:db/migration/V*.sql").length;
+        Integer applied = new JdbcTemplate(workspacePartitions.get(0)).queryForObject(
+                "SELECT COUNT(*) FROM \"flyway_schema_history\" WHERE \"success\" AND \"version\" IS NOT NULL", Integer.class);
+        assertEquals(migrations, applied);
+    }
+
+    @Test
+    void subtreeAndForest_loadEveryLevelDownToTheDepth() {
+        nodeService.createSubtrees(null, List.of(
+                draft("a", draft("a1", draft("a11")), draft("a2")),
+                draft("b", draft("b1"))));
+
+        List<NodeTree> forest = nodeService.getForest(null);
+        assertEquals(List.of("a", "b"), contents(forest));
+        NodeTree a = forest.get(0);
+        assertEquals(List.of("a1", "a2"), contents(a.children()));
+        assertEquals(List.of("a11"), contents(child(a, "a1").children()));
+
+        NodeTree shallow = nodeService.getSubtree(a.node().getId(), 1);
+        assertEquals(List.of("a1", "a2"), contents(shallow.children()));
+        assertTrue(child(shallow, "a1").children().isEmpty());
+        assertEquals(3, shallow.node().getDescendantCount());
+
+        List<NodeTree> roots = nodeService.getForest(0);
+        assertEquals(List.of("a", "b"), contents(roots));
+        assertTrue(roots.get(0).children().isEmpty());
+    }
+
+    @Test
+    void move_rewritesDescendantPathsAndRollupsOfBothAncestries() {
+        List<Node> roots = nodeService.createSubtrees(null, List.of(
+                draft("a", draft("a1", draft("a11"))),
+                draft("b")));
+        NodeTree a = nodeService.getSubtree(roots.get(0).getId(), null);
+        Long a1 = child(a, "a1").node().getId();
+        Long a11 = child(child(a, "a1"), "a11").node().getId();
+        Long b = roots.get(1).getId();
+        nodeService.toggleComplete(a11);
+        assertEquals(1, node(a.node().getId()).getCompletedDescendantCount());
+
+        nodeService.moveNode(a1, b, null);
+
+        assertEquals(List.of(b, a1), nodeService.getAncestors(a11).stream().map(Node::getId).toList());
+        assertEquals("/" + b + "/" + a1 + "/", node(a11).getPath());
+        Node oldParent = node(a.node().getId());
+        assertEquals(0, oldParent.getChildCount());
+        assertEquals(0, oldParent.getDescendantCount());
+        assertEquals(0, oldParent.getCompletedDescendantCount());
+        Node newParent = node(b);
+        assertEquals(1, newParent.getChildCount());
+        assertEquals(2, newParent.getDescendantCount());
+        assertEquals(1, newParent.getCompletedDescendantCount());
+    }
+
+    @Test
+    void delete_removesTheSubtreeAndDetachesMirrorsOutsideIt() {
+        List<Node> roots = nodeService.createSubtrees(null, List.of(draft("p", draft("doomed")), draft("q")));
+        Long p = roots.get(0).getId();
+        Long q = roots.get(1).getId();
+        Long doomed = nodeService.getSubtree(p, null).children().get(0).node().getId();
+        Node source = new Node("source", doomed, null);
+        source.setTags(List.of("kept"));
+        source = nodeService.createNode(source);
+        Node innerMirror = new Node("", doomed, null);
+        innerMirror.setMirrorId(source.getId());
+        innerMirror = nodeService.createNode(innerMirror);
+        Node outerMirror = new Node("", q, null);
+        outerMirror.setMirrorId(source.getId());
+        outerMirror = nodeService.createNode(outerMirror);
+
+        nodeService.deleteNode(doomed);
+
+        for (Long deleted : List.of(doomed, source.getId(), innerMirror.getId())) {
+            assertThrows(RuntimeException.class, () -> nodeService.getNodeById(deleted));
+        }
+        Node detached = node(outerMirror.getId());
+        assertNull(detached.getMirrorId());
+        assertEquals("source", detached.getContent());
+        assertEquals(List.of("kept"), detached.getTags());
+        assertEquals(0, node(p).getChildCount());
+        assertEquals(0, node(p).getDescendantCount());
+        assertEquals(1, node(q).getDescendantCount());
+    }
+
+    @Test
+    void deepNesting_isNotLimitedByThePathColumn() {
+        int depth = 600;
+        NodeDraft chain = draft("level " + (depth - 1));
+        for (int level = depth - 2; level >= 0; level--) {
+            chain = draft("level " + level, chain);
+        }
+        Node top = nodeService.createSubtrees(null, List.of(chain)).get(0);
+
+        NodeTree deepest = nodeService.getSubtree(top.getId(), null);
+        while (!deepest.children().isEmpty()) {
+            deepest = deepest.children().get(0);
+        }
+        assertEquals("level " + (depth - 1), deepest.node().getContent());
+
+        Node leaf = nodeService.createNode(new Node("leaf", deepest.node().getId(), null));
+        assertTrue(leaf.getPath().length() > 2000, "path of " + leaf.getPath().length() + " chars");
+        assertEquals(depth, nodeService.getAncestors(leaf.getId()).size());
+        assertEquals(depth, nodeService.getNodeById(top.getId()).getDescendantCount());
+
+        // Re-rooting the whole chain under a new root rewrites every long path in one statement
+        Node newRoot = nodeService.createNode(new Node("new root", null, null));
+        nodeService.moveNode(top.getId(), newRoot.getId(), null);
+        assertEquals(depth + 1, nodeService.getAncestors(leaf.getId()).size());
+        assertEquals(depth + 1, nodeService.getNodeById(newRoot.getId()).getDescendantCount());
+    }
+
+    @Test
+    void changes_pastTheRetention_askForAReloadAndResumeFromTheNewCursor() {
+        long start = nodeService.getChanges(null, null).cursor();
+        Node first = nodeService.createNode(new Node("first", null, null));
+        nodeService.updateNode(first.getId(), new Node("first, edited", null, null));
+
+        nodeChangeLog.prune(LocalDateTime.now().plusMinutes(1));
+
+        NodeChanges reload = nodeService.getChanges(start, null);
+        assertTrue(reload.reloadRequired());
+        assertTrue(reload.cursor() > start);
+        assertTrue(reload.nodes().isEmpty());
+
+        Node second = nodeService.createNode(new Node("second", null, null));
+        NodeChanges changes = nodeService.getChanges(reload.cursor(), null);
+        assertFalse(changes.reloadRequired());
+        assertEquals(List.of(second.getId()), changes.nodes().stream().map(Node::getId).toList());
+    }
+}
@@ -0,0 +1,45 @@
+package com.todo.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.Signature;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class NodeServiceMetricsTest {
+
+    private SimpleMeterRegistry registry;
+    private NodeServiceMetrics metrics;
+    private ProceedingJoinPoint joinPoint;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        metrics = new NodeServiceMetrics(registry);
+        joinPoint = mock(ProceedingJoinPoint.class);
+        Signature signature = mock(Signature.class);
+        when(joinPoint.getSignature()).thenReturn(signature);
+        when(signature.getName()).thenReturn("moveNode");
+    }
+
+    @Test
+    void measure_recordsDurationOfTheOperation() throws Throwable {
+        when(joinPoint.proceed()).thenReturn("moved");
+
+        assertEquals("moved", metrics.measure(joinPoint));
+
+        assertEquals(1, registry.get("todo.node.operation").tags("operation", "moveNode", "outcome", "success").timer().count());
+    }
+
+    @Test
+    void measure_tagsFailuresAndRethrows() throws Throwable {
+        when(joinPoint.proceed()).thenThrow(new RuntimeException("Node not found with id: 1"));
+
+        assertThrows(RuntimeException.class, () -> metrics.measure(joinPoint));
+
+        assertEquals(1, registry.get("todo.node.operation").tags("operation", "moveNode", "outcome", "error").timer().count());
+    }
+}
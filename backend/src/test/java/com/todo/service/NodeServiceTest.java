@@ -1,20 +1,42 @@
 package com.todo.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.todo.dto.FilteredNodeTree;
+import com.todo.dto.NodeBatchOperation;
+import com.todo.dto.NodeChanges;
+import com.todo.dto.NodeDetail;
+import com.todo.dto.NodeDraft;
+import com.todo.dto.NodeOutline;
+import com.todo.dto.NodePage;
+import com.todo.dto.NodeTree;
+import com.todo.dto.NodeVersion;
 import com.todo.entity.Node;
+import com.todo.entity.NodeChange;
 import com.todo.repository.NodeRepository;
+import jakarta.persistence.EntityManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -23,28 +45,140 @@ class NodeServiceTest {
     @Mock
     private NodeRepository nodeRepository;
 
-    @InjectMocks
+    @Mock
+    private NodeTreeCache nodeTreeCache;
+
+    @Mock
+    private NodeSearchIndex nodeSearchIndex;
+
+    @Mock
+    private NodeChangeLog nodeChangeLog;
+
+    @Mock
+    private NodeChangeBroadcaster nodeChangeBroadcaster;
+
+    @Mock
+    private NodeStateBuffer nodeStateBuffer;
+
+    @Mock
+    private EntityManager entityManager;
+
     private NodeService nodeService;
 
     private Node rootNode;
 
+    // Transactions the service opened, each run inline
+    private int transactions;
+
     @BeforeEach
     void setUp() {
+        TransactionOperations transactionOperations = new TransactionOperations() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) {
+                transactions++;
+                return action.doInTransaction(null);
+            }
+        };
+        nodeService = new NodeService(nodeRepository, nodeTreeCache, nodeSearchIndex, nodeChangeLog, nodeChangeBroadcaster,
+                nodeStateBuffer, transactionOperations, 100);
+        ReflectionTestUtils.setField(nodeService, "entityManager", entityManager);
+        // Ancestors not loaded by a test stand in as fresh instances
+        lenient().when(entityManager.getReference(eq(Node.class), any())).thenAnswer(invocation -> new Node());
         rootNode = new Node("root", null, 0);
         rootNode.setId(1L);
     }
 
+    private static Object[] row(long id, String path, boolean completed) {
+        return new Object[] {id, path, completed};
+    }
+
     @Test
     void getAllRootNodes_returnsOrderedRoots() {
         List<Node> roots = new ArrayList<>();
         roots.add(rootNode);
-        when(nodeRepository.findByParentIdIsNullOrderByPositionAsc()).thenReturn(roots);
+        when(nodeRepository.findByWorkspaceAndParentIdIsNullOrderByPositionAsc("default")).thenReturn(roots);
 
         List<Node> result = nodeService.getAllRootNodes();
 
         assertEquals(1, result.size());
         assertEquals(1L, result.get(0).getId());
-        verify(nodeRepository).findByParentIdIsNullOrderByPositionAsc();
+        verify(nodeRepository).findByWorkspaceAndParentIdIsNullOrderByPositionAsc("default");
+    }
+
+    @Test
+    void getChildren_servesCachedListWithoutQuery() {
+        Node child = new Node("child", 1L, 0); child.setId(2L);
+        when(nodeTreeCache.getChildren(1L)).thenReturn(Optional.of(List.of(child)));
+
+        List<Node> result = nodeService.getChildren(1L);
+
+        assertEquals(List.of(child), result);
+        verify(nodeRepository, never()).findByParentIdOrderByPositionAsc(any());
+    }
+
+    @Test
+    void getChildren_onMissLoadsAndCaches() {
+        Node child = new Node("child", 1L, 0); child.setId(2L);
+        when(nodeTreeCache.version()).thenReturn(7L);
+        when(nodeRepository.findByParentIdOrderByPositionAsc(1L)).thenReturn(List.of(child));
+
+        nodeService.getChildren(1L);
+
+        verify(nodeTreeCache).putChildren(1L, List.of(child), 7L);
+    }
+
+    @Test
+    void getSubtree_nestsChildrenInQueryOrder() {
+        Node first = new Node("first", 1L, 0); first.setId(2L);
+        Node second = new Node("second", 1L, 1); second.setId(3L);
+        Node grandchild = new Node("grandchild", 2L, 0); grandchild.setId(4L);
+        when(nodeRepository.findSubtree(1L, Integer.MAX_VALUE))
+                .thenReturn(List.of(rootNode, first, second, grandchild));
+
+        NodeTree tree = nodeService.getSubtree(1L, null);
+
+        assertEquals(1L, tree.node().getId());
+        assertEquals(List.of(2L, 3L), tree.children().stream().map(child -> child.node().getId()).toList());
+        assertEquals(4L, tree.children().get(0).children().get(0).node().getId());
+        assertTrue(tree.children().get(1).children().isEmpty());
+    }
+
+    @Test
+    void getSubtree_ofAVeryDeepChain_doesNotOverflowTheStack() {
+        List<Node> chain = new ArrayList<>(List.of(rootNode));
+        for (long id = 2; id <= 50_000; id++) {
+            Node node = new Node("level " + id, id - 1, 0); node.setId(id);
+            chain.add(node);
+        }
+        when(nodeRepository.findSubtree(1L, Integer.MAX_VALUE)).thenReturn(chain);
+
+        NodeTree tree = nodeService.getSubtree(1L, null);
+
+        int depth = 0;
+        for (; !tree.children().isEmpty(); depth++) {
+            tree = tree.children().get(0);
+        }
+        assertEquals(49_999, depth);
+        assertEquals(50_000L, tree.node().getId());
+    }
+
+    @Test
+    void getSubtree_whenNotFound_throws() {
+        when(nodeRepository.findSubtree(99L, 2)).thenReturn(List.of());
+        assertThrows(RuntimeException.class, () -> nodeService.getSubtree(99L, 2));
+    }
+
+    @Test
+    void getForest_returnsOneTreePerRoot() {
+        Node otherRoot = new Node("other", null, 1); otherRoot.setId(5L);
+        Node child = new Node("child", 5L, 0); child.setId(6L);
+        when(nodeRepository.findForest("default", 0)).thenReturn(List.of(rootNode, otherRoot, child));
+
+        List<NodeTree> forest = nodeService.getForest(-3);
+
+        assertEquals(2, forest.size());
+        assertTrue(forest.get(0).children().isEmpty());
+        assertEquals(6L, forest.get(1).children().get(0).node().getId());
     }
 
     @Test
@@ -54,24 +188,109 @@ class NodeServiceTest {
         assertTrue(ex.getMessage().contains("Node not found"));
     }
 
+    @Test
+    void getNodeById_fromAnotherWorkspace_isNotFound() {
+        when(nodeRepository.findById(1L)).thenReturn(Optional.of(rootNode));
+
+        RuntimeException ex = assertThrows(RuntimeException.class,
+                () -> WorkspaceContext.run("acme", () -> nodeService.getNodeById(1L)));
+        assertTrue(ex.getMessage().contains("Node not found"));
+    }
+
     @Test
     void createNode_setsDefaultPosition() {
         Node newNode = new Node("child", 1L, null);
-        when(nodeRepository.existsById(1L)).thenReturn(true);
-        when(nodeRepository.findMaxPositionByParentId(1L)).thenReturn(2);
-        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        rootNode.setPath("/");
+        when(nodeRepository.findById(1L)).thenReturn(Optional.of(rootNode));
+        when(nodeRepository.findMaxPositionByParentId("default", 1L)).thenReturn(2);
+        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> {
+            Node node = invocation.getArgument(0);
+            node.setId(2L);
+            return node;
+        });
 
         Node saved = nodeService.createNode(newNode);
 
-        assertEquals(3, saved.getPosition());
+        assertEquals(2 + NodeService.POSITION_GAP, saved.getPosition());
         assertEquals(1L, saved.getParentId());
-        verify(nodeRepository).save(any(Node.class));
+        assertEquals("/1/", saved.getPath());
+    }
+
+    @Test
+    void createNode_fromRequestBodyWithoutPosition_appendsAfterSiblings() throws Exception {
+        Node requested = new ObjectMapper().readValue("{\"content\":\"child\",\"parentId\":1}", Node.class);
+        rootNode.setPath("/");
+        when(nodeRepository.findById(1L)).thenReturn(Optional.of(rootNode));
+        when(nodeRepository.findMaxPositionByParentId("default", 1L)).thenReturn(2048);
+        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Node saved = nodeService.createNode(requested);
+
+        assertEquals(2048 + NodeService.POSITION_GAP, saved.getPosition());
+    }
+
+    @Test
+    void createNode_withPosition_takesItAsSiblingIndex() {
+        rootNode.setPath("/");
+        when(nodeRepository.findById(1L)).thenReturn(Optional.of(rootNode));
+        when(nodeRepository.findSiblingPositions("default", 1L, null)).thenReturn(List.of(0, 1024, 2048));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        assertEquals(1536, nodeService.createNode(new Node("third", 1L, 2)).getPosition());
+        assertEquals(-NodeService.POSITION_GAP, nodeService.createNode(new Node("first", 1L, 0)).getPosition());
+        // Past the end appends, as for moves
+        assertEquals(2048 + NodeService.POSITION_GAP, nodeService.createNode(new Node("last", 1L, 99)).getPosition());
+    }
+
+    @Test
+    void createNode_atRoot_setsRootPath() {
+        Node newNode = new Node("root", null, 0);
+        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> {
+            Node node = invocation.getArgument(0);
+            node.setId(8L);
+            return node;
+        });
+
+        Node saved = nodeService.createNode(newNode);
+
+        assertEquals("/", saved.getPath());
+    }
+
+    @Test
+    void createSubtrees_assignsPathsAndGappedPositionsDepthFirst() {
+        rootNode.setPath("/");
+        when(nodeRepository.findById(1L)).thenReturn(Optional.of(rootNode));
+        when(nodeRepository.findMaxPositionByParentId("default", 1L)).thenReturn(0);
+        long[] nextId = {100};
+        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> {
+            Node node = invocation.getArgument(0);
+            node.setId(nextId[0]++);
+            return node;
+        });
+        NodeDraft leaf = new NodeDraft("leaf", null, List.of("t"), true, null, null, null);
+        NodeDraft second = new NodeDraft("second", null, null, null, null, null, List.of());
+        NodeDraft template = new NodeDraft("template", "n", null, null, null, null, List.of(leaf, second));
+
+        List<Node> created = nodeService.createSubtrees(1L, List.of(template));
+
+        assertEquals(1, created.size());
+        Node top = created.get(0);
+        assertEquals("/1/", top.getPath());
+        assertEquals(NodeService.POSITION_GAP, top.getPosition());
+        ArgumentCaptor<Node> saved = ArgumentCaptor.forClass(Node.class);
+        verify(nodeRepository, times(3)).save(saved.capture());
+        Node savedLeaf = saved.getAllValues().get(1);
+        assertEquals("/1/100/", savedLeaf.getPath());
+        assertEquals(0, savedLeaf.getPosition());
+        assertTrue(savedLeaf.getIsCompleted());
+        assertEquals(NodeService.POSITION_GAP, saved.getAllValues().get(2).getPosition());
+        verify(nodeTreeCache).childrenChanged(1L);
     }
 
     @Test
     void createNode_missingParent_throws() {
         Node newNode = new Node("child", 42L, null);
-        when(nodeRepository.existsById(42L)).thenReturn(false);
+        when(nodeRepository.findById(42L)).thenReturn(Optional.empty());
         assertThrows(RuntimeException.class, () -> nodeService.createNode(newNode));
         verify(nodeRepository, never()).save(any());
     }
@@ -81,46 +300,271 @@ class NodeServiceTest {
         Node existing = new Node("old", null, 0);
         existing.setId(10L);
         when(nodeRepository.findById(10L)).thenReturn(Optional.of(existing));
+        when(nodeRepository.findSiblingPositions("default", null, 10L)).thenReturn(List.of(1024, 2048));
         when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> invocation.getArgument(0));
 
-        Node update = new Node("new", null, 5);
+        // Index 1 lies between the two other roots
+        Node update = new Node("new", null, 1);
         Node updated = nodeService.updateNode(10L, update);
 
         assertEquals("new", updated.getContent());
-        assertEquals(5, updated.getPosition());
+        assertEquals(1536, updated.getPosition());
     }
 
     @Test
-    void deleteNode_recursivelyDeletesChildren() {
-        Node parent = new Node("p", null, 0);
-        parent.setId(1L);
-        Node child = new Node("c", 1L, 0);
-        child.setId(2L);
-        when(nodeRepository.findById(1L)).thenReturn(Optional.of(parent));
-        when(nodeRepository.findByParentIdOrderByPositionAsc(1L)).thenReturn(List.of(child));
-        when(nodeRepository.findById(2L)).thenReturn(Optional.of(child));
-        when(nodeRepository.findByParentIdOrderByPositionAsc(2L)).thenReturn(List.of());
+    void updateNode_withoutPosition_keepsSortKey() {
+        Node existing = new Node("old", null, 3072);
+        existing.setId(10L);
+        when(nodeRepository.findById(10L)).thenReturn(Optional.of(existing));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        Node updated = nodeService.updateNode(10L, new Node("new", null, null));
+
+        assertEquals(3072, updated.getPosition());
+        verify(nodeRepository, never()).findSiblingPositions(any(), any(), any());
+    }
+
+    @Test
+    void updateNode_withStaleExpectedVersion_failsWithoutSaving() {
+        Node existing = new Node("old", null, 0); existing.setId(10L); existing.setVersion(4L);
+        when(nodeRepository.findById(10L)).thenReturn(Optional.of(existing));
+
+        assertThrows(ObjectOptimisticLockingFailureException.class,
+                () -> nodeService.updateNode(10L, new Node("new", null, 0), NodeVersion.of(3)));
+        assertEquals("old", existing.getContent());
+        verify(nodeRepository, never()).save(any());
+    }
+
+    @Test
+    void updateNode_withCurrentExpectedVersion_saves() {
+        Node existing = new Node("old", null, 0); existing.setId(10L); existing.setVersion(4L);
+        when(nodeRepository.findById(10L)).thenReturn(Optional.of(existing));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        assertEquals("new", nodeService.updateNode(10L, new Node("new", null, 0), NodeVersion.of(4)).getContent());
+    }
+
+    @Test
+    void moveNode_withStaleExpectedVersion_fails() {
+        Node n = new Node("n", null, 0); n.setId(9L); n.setPath("/"); n.setVersion(2L);
+        when(nodeRepository.findById(9L)).thenReturn(Optional.of(n));
+
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> nodeService.moveNode(9L, null, 0, NodeVersion.of(1)));
+        verify(nodeRepository, never()).findSiblingPositions(any(), any(), any());
+    }
+
+    @Test
+    void deleteNode_deletesSubtreeAndTagsInBulkDeepestFirst() {
+        Node root = new Node("root", 7L, 0); root.setId(1L); root.setPath("/7/");
+        when(nodeRepository.findById(1L)).thenReturn(Optional.of(root));
+        when(nodeRepository.findSubtreeRows(1L)).thenReturn(List.of(row(1, "/7/", false), row(2, "/7/1/", false), row(3, "/7/1/2/", false)));
+
+        nodeService.deleteNode(1L);
+
+        verify(nodeRepository).deleteTagsByNodeIds(List.of(3L, 2L, 1L));
+        verify(nodeRepository).deleteByIds(List.of(3L, 2L, 1L));
+        verify(nodeRepository, never()).delete(any(Node.class));
+        verify(nodeTreeCache).nodesDeleted(List.of(3L, 2L, 1L));
+        verify(nodeChangeLog).recordAll(NodeChange.Type.DELETE, List.of(3L, 2L, 1L));
+        verify(nodeChangeBroadcaster).changed("/7/1/");
+    }
+
+    @Test
+    void deleteNode_commitsLargeSubtreesInBoundedBatchesLeavingTheRootLast() {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(row(1, "/", false));
+        for (long id = 2; id <= NodeService.DELETE_BATCH_SIZE * 2 + 1; id++) {
+            rows.add(row(id, "/1/", false));
+        }
+        Node root = new Node("root", null, 0); root.setId(1L); root.setPath("/");
+        when(nodeRepository.findById(1L)).thenReturn(Optional.of(root));
+        when(nodeRepository.findSubtreeRows(1L)).thenReturn(rows);
 
         nodeService.deleteNode(1L);
 
-        verify(nodeRepository, times(1)).delete(child);
-        verify(nodeRepository, times(1)).delete(parent);
+        verify(nodeRepository, times(3)).deleteTagsByNodeIds(anyCollection());
+        verify(nodeRepository, times(3)).deleteByIds(anyCollection());
+        verify(nodeRepository).deleteByIds(List.of(1L));
+        // One transaction finds the subtree, then one per batch
+        assertEquals(4, transactions);
+        // Every batch of children is taken off the root before the root itself goes
+        verify(nodeRepository, times(2)).adjustRollups(List.of(1L), 1L, -NodeService.DELETE_BATCH_SIZE, -NodeService.DELETE_BATCH_SIZE, 0);
+    }
+
+    @Test
+    void duplicateSubtree_copiesDescendantsInOrderAfterTheOriginal() {
+        Node source = new Node("template", null, 0); source.setId(1L); source.setPath("/");
+        source.setNotes("n"); source.setTags(new ArrayList<>(List.of("t")));
+        Node second = new Node("second", 1L, 2048); second.setId(3L); second.setPath("/1/");
+        Node first = new Node("first", 1L, 1024); first.setId(2L); first.setPath("/1/"); first.setIsCompleted(true);
+        when(nodeRepository.findById(1L)).thenReturn(Optional.of(source));
+        when(nodeRepository.findSubtreeWithTags(1L, "/1/")).thenReturn(List.of(source, second, first));
+        when(nodeRepository.findSiblingPositions("default", null, 1L)).thenReturn(List.of(NodeService.POSITION_GAP));
+        long[] nextId = {100};
+        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> {
+            Node node = invocation.getArgument(0);
+            node.setId(nextId[0]++);
+            return node;
+        });
+
+        NodeTree copy = nodeService.duplicateSubtree(1L);
+
+        assertEquals(100L, copy.node().getId());
+        assertEquals("/", copy.node().getPath());
+        assertEquals(NodeService.POSITION_GAP / 2, copy.node().getPosition());
+        assertEquals("n", copy.node().getNotes());
+        assertEquals(List.of("t"), copy.node().getTags());
+        assertNotSame(source.getTags(), copy.node().getTags());
+        assertEquals(List.of("first", "second"), copy.children().stream().map(child -> child.node().getContent()).toList());
+        Node copiedFirst = copy.children().get(0).node();
+        assertEquals("/100/", copiedFirst.getPath());
+        assertEquals(100L, copiedFirst.getParentId());
+        assertTrue(copiedFirst.getIsCompleted());
+        verify(nodeTreeCache).childrenChanged(null);
+    }
+
+    @Test
+    void getChanges_withoutCursor_returnsLatestOnly() {
+        when(nodeChangeLog.latest()).thenReturn(42L);
+
+        NodeChanges changes = nodeService.getChanges(null, null);
+
+        assertEquals(new NodeChanges(42L, true, List.of(), List.of(), false), changes);
+        verifyNoInteractions(nodeRepository);
+    }
+
+    @Test
+    void getChanges_loadsChangedNodesAndReportsVanishedOnesAsDeleted() {
+        Node moved = new Node("moved", null, 0); moved.setId(2L);
+        when(nodeChangeLog.since(10L, 50)).thenReturn(new NodeChangeLog.Delta(15L, false, List.of(2L, 3L), List.of(4L), false));
+        when(nodeRepository.findAllById(List.of(2L, 3L))).thenReturn(List.of(moved));
+
+        NodeChanges changes = nodeService.getChanges(10L, 50);
+
+        assertEquals(15L, changes.cursor());
+        assertFalse(changes.complete());
+        assertEquals(List.of(moved), changes.nodes());
+        assertEquals(List.of(4L, 3L), changes.deletedIds());
+    }
+
+    @Test
+    void getChanges_pastTheRetention_asksForAReloadWithoutLoadingNodes() {
+        when(nodeChangeLog.since(10L, null)).thenReturn(new NodeChangeLog.Delta(80L, true, List.of(), List.of(), true));
+
+        NodeChanges changes = nodeService.getChanges(10L, null);
+
+        assertEquals(new NodeChanges(80L, true, List.of(), List.of(), true), changes);
+        verifyNoInteractions(nodeRepository);
+    }
+
+    @Test
+    void deleteNode_whenNotFound_throws() {
+        when(nodeRepository.findById(99L)).thenReturn(Optional.empty());
+        assertThrows(RuntimeException.class, () -> nodeService.deleteNode(99L));
+        verify(nodeRepository, never()).deleteByIds(anyCollection());
     }
 
     @Test
     void moveNode_preventsCircularReferences() {
-        Node a = new Node("a", null, 0); a.setId(1L);
-        Node b = new Node("b", 1L, 0); b.setId(2L);
+        Node a = new Node("a", null, 0); a.setId(1L); a.setPath("/");
+        Node b = new Node("b", 1L, 0); b.setId(2L); b.setPath("/1/");
         when(nodeRepository.findById(1L)).thenReturn(Optional.of(a));
         when(nodeRepository.findById(2L)).thenReturn(Optional.of(b));
 
         // attempt to move a under b (would create cycle)
         assertThrows(RuntimeException.class, () -> nodeService.moveNode(1L, 2L, 0));
+        verify(nodeRepository, never()).replacePathPrefix(any(), any());
+    }
+
+    @Test
+    void moveNode_rewritesSubtreePaths() {
+        Node a = new Node("a", null, 0); a.setId(1L); a.setPath("/");
+        Node b = new Node("b", 1L, 0); b.setId(2L); b.setPath("/1/");
+        Node c = new Node("c", null, 1); c.setId(3L); c.setPath("/");
+        when(nodeRepository.findById(2L)).thenReturn(Optional.of(b));
+        when(nodeRepository.findById(3L)).thenReturn(Optional.of(c));
+        when(nodeRepository.findSiblingPositions("default", 3L, 2L)).thenReturn(List.of());
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
+
+        Node moved = nodeService.moveNode(2L, 3L, 0);
+
+        assertEquals("/3/", moved.getPath());
+        verify(nodeRepository).replacePathPrefix("/1/2/", "/3/2/");
+        verify(nodeTreeCache).subtreeMoved("/1/2/");
+        verify(nodeTreeCache).childrenChanged(1L);
+        verify(nodeTreeCache).childrenChanged(3L);
+        verify(nodeTreeCache).nodeSaved(moved);
+        verify(nodeChangeLog).record(NodeChange.Type.MOVE, 2L);
+        verify(nodeChangeBroadcaster).changed("/1/2/");
+        verify(nodeChangeBroadcaster).changed("/3/2/");
+    }
+
+    @Test
+    void moveNode_takesMidpointOfNeighboursAndWritesOnlyMovedRow() {
+        Node n = new Node("n", null, 0); n.setId(9L); n.setPath("/");
+        when(nodeRepository.findById(9L)).thenReturn(Optional.of(n));
+        when(nodeRepository.findSiblingPositions("default", null, 9L)).thenReturn(List.of(1024, 2048, 3072));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
+
+        Node moved = nodeService.moveNode(9L, null, 2);
+
+        assertEquals(2560, moved.getPosition());
+        verify(nodeRepository, times(1)).save(any(Node.class));
+        verify(nodeRepository, never()).findByParentIdOrderByPositionAsc(any());
+    }
+
+    @Test
+    void moveNode_rebalancesSiblingsWhenGapIsExhausted() {
+        Node n = new Node("n", null, 0); n.setId(9L); n.setPath("/");
+        Node first = new Node("first", null, 5); first.setId(1L);
+        Node second = new Node("second", null, 6); second.setId(2L);
+        when(nodeRepository.findById(9L)).thenReturn(Optional.of(n));
+        when(nodeRepository.findSiblingPositions("default", null, 9L))
+                .thenReturn(List.of(5, 6))
+                .thenReturn(List.of(0, NodeService.POSITION_GAP));
+        when(nodeRepository.findByWorkspaceAndParentIdIsNullOrderByPositionAsc("default")).thenReturn(List.of(first, n, second));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
+
+        Node moved = nodeService.moveNode(9L, null, 1);
+
+        assertEquals(0, first.getPosition());
+        assertEquals(NodeService.POSITION_GAP, second.getPosition());
+        assertEquals(NodeService.POSITION_GAP / 2, moved.getPosition());
+    }
+
+    @Test
+    void getAncestors_returnsRootFirst() {
+        Node a = new Node("a", null, 0); a.setId(1L); a.setPath("/");
+        Node b = new Node("b", 1L, 0); b.setId(2L); b.setPath("/1/");
+        Node c = new Node("c", 2L, 0); c.setId(3L); c.setPath("/1/2/");
+        when(nodeRepository.findById(3L)).thenReturn(Optional.of(c));
+        when(nodeRepository.findAllById(List.of(1L, 2L))).thenReturn(List.of(b, a));
+
+        List<Node> ancestors = nodeService.getAncestors(3L);
+
+        assertEquals(List.of(1L, 2L), ancestors.stream().map(Node::getId).toList());
+    }
+
+    @Test
+    void getAncestors_showsMirrorsWithTheirSourcesContent() {
+        Node a = new Node("a", null, 0); a.setId(1L); a.setPath("/");
+        Node mirror = new Node("", 1L, 0); mirror.setId(2L); mirror.setPath("/1/"); mirror.setMirrorId(10L);
+        Node c = new Node("c", 2L, 0); c.setId(3L); c.setPath("/1/2/");
+        Node source = new Node("Project", null, 1); source.setId(10L); source.setVersion(5L);
+        when(nodeRepository.findById(3L)).thenReturn(Optional.of(c));
+        when(nodeRepository.findAllById(List.of(1L, 2L))).thenReturn(List.of(mirror, a));
+        when(nodeRepository.findWithTagsByIdIn(List.of(10L))).thenReturn(List.of(source));
+
+        List<Node> ancestors = nodeService.getAncestors(3L);
+
+        assertEquals(List.of("a", "Project"), ancestors.stream().map(Node::getContent).toList());
+        assertEquals(2L, ancestors.get(1).getId());
+        assertEquals("", mirror.getContent());
     }
 
     @Test
     void toggleComplete_togglesFlag() {
-        Node n = new Node("n", null, 0); n.setId(3L); n.setIsCompleted(false);
+        Node n = new Node("n", null, 0); n.setId(3L); n.setPath("/"); n.setIsCompleted(false);
         when(nodeRepository.findById(3L)).thenReturn(Optional.of(n));
         when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
 
@@ -130,6 +574,127 @@ class NodeServiceTest {
         verify(nodeRepository).save(updated);
     }
 
+    @Test
+    void createNode_addsToAncestorRollupsInOneStatement() {
+        Node parent = new Node("parent", 1L, 0); parent.setId(2L); parent.setPath("/1/");
+        Node newNode = new Node("child", 2L, 0); newNode.setIsCompleted(true);
+        when(nodeRepository.findById(2L)).thenReturn(Optional.of(parent));
+        when(entityManager.getReference(Node.class, 2L)).thenReturn(parent);
+        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> {
+            Node node = invocation.getArgument(0);
+            node.setId(3L);
+            return node;
+        });
+
+        nodeService.createNode(newNode);
+
+        verify(nodeRepository).adjustRollups(List.of(1L, 2L), 2L, 1, 1, 1);
+        verify(nodeTreeCache).nodesChanged(List.of(1L, 2L));
+        verify(entityManager).refresh(parent);
+    }
+
+    @Test
+    void createNode_atRoot_leavesRollupsAlone() {
+        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        nodeService.createNode(new Node("root", null, 0));
+
+        verify(nodeRepository, never()).adjustRollups(any(), any(), anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    void createSubtrees_storesDraftRollupsAndAddsTotalsToAncestors() {
+        rootNode.setPath("/");
+        when(nodeRepository.findById(1L)).thenReturn(Optional.of(rootNode));
+        long[] nextId = {100};
+        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> {
+            Node node = invocation.getArgument(0);
+            node.setId(nextId[0]++);
+            return node;
+        });
+        NodeDraft done = new NodeDraft("done", null, null, true, null, null, null);
+        NodeDraft open = new NodeDraft("open", null, null, null, null, null, List.of(done));
+        NodeDraft template = new NodeDraft("template", null, null, true, null, null, List.of(open, done));
+
+        List<Node> created = nodeService.createSubtrees(1L, List.of(template, done));
+
+        Node top = created.get(0);
+        assertEquals(2, top.getChildCount());
+        assertEquals(3, top.getDescendantCount());
+        assertEquals(2, top.getCompletedDescendantCount());
+        verify(nodeRepository).adjustRollups(List.of(1L), 1L, 2, 5, 4);
+    }
+
+    @Test
+    void deleteNode_takesEachDeletedNodeOffItsAncestors() {
+        Node node = new Node("n", 2L, 0); node.setId(3L); node.setPath("/1/2/"); node.setIsCompleted(true);
+        node.setDescendantCount(2); node.setCompletedDescendantCount(1);
+        when(nodeRepository.findById(3L)).thenReturn(Optional.of(node));
+        when(nodeRepository.findSubtreeRows(3L)).thenReturn(List.of(row(3, "/1/2/", true), row(4, "/1/2/3/", true), row(5, "/1/2/3/", false)));
+
+        nodeService.deleteNode(3L);
+
+        // 1 and 2 lose three descendants, two of them completed, and 2 loses its child
+        verify(nodeRepository).adjustRollups(List.of(1L, 2L, 3L), 3L, -2, -2, -1);
+        verify(nodeRepository).adjustRollups(List.of(1L, 2L), 2L, -1, -1, -1);
+    }
+
+    @Test
+    void moveNode_shiftsRollupsBetweenAncestorChains() {
+        Node b = new Node("b", 1L, 0); b.setId(2L); b.setPath("/1/");
+        b.setDescendantCount(6); b.setCompletedDescendantCount(1);
+        Node c = new Node("c", null, 1); c.setId(3L); c.setPath("/");
+        when(nodeRepository.findById(2L)).thenReturn(Optional.of(b));
+        when(nodeRepository.findById(3L)).thenReturn(Optional.of(c));
+        when(nodeRepository.findSiblingPositions("default", 3L, 2L)).thenReturn(List.of());
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
+
+        nodeService.moveNode(2L, 3L, 0);
+
+        verify(nodeRepository).adjustRollups(List.of(1L), 1L, -1, -7, -1);
+        verify(nodeRepository).adjustRollups(List.of(3L), 3L, 1, 7, 1);
+    }
+
+    @Test
+    void moveNode_withinSameParent_leavesRollupsAlone() {
+        Node n = new Node("n", 1L, 0); n.setId(9L); n.setPath("/1/");
+        when(nodeRepository.findById(9L)).thenReturn(Optional.of(n));
+        when(nodeRepository.findById(1L)).thenReturn(Optional.of(rootNode));
+        rootNode.setPath("/");
+        when(nodeRepository.findSiblingPositions("default", 1L, 9L)).thenReturn(List.of(1024));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
+
+        nodeService.moveNode(9L, 1L, 1);
+
+        verify(nodeRepository, never()).adjustRollups(any(), any(), anyInt(), anyInt(), anyInt());
+    }
+
+    @Test
+    void toggleComplete_adjustsCompletedDescendantsOfAncestors() {
+        Node n = new Node("n", 2L, 0); n.setId(3L); n.setPath("/1/2/"); n.setIsCompleted(true);
+        when(nodeRepository.findById(3L)).thenReturn(Optional.of(n));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
+
+        nodeService.toggleComplete(3L);
+
+        verify(nodeRepository).adjustRollups(List.of(1L, 2L), 2L, 0, 0, -1);
+    }
+
+    @Test
+    void applyBatch_updateAdjustsRollupsOnlyWhenCompletionChanges() {
+        Node first = new Node("a", 1L, 0); first.setId(7L); first.setPath("/1/");
+        Node second = new Node("b", 1L, 1); second.setId(8L); second.setPath("/1/"); second.setIsCompleted(true);
+        when(nodeRepository.findAllById(List.of(7L, 8L))).thenReturn(List.of(first, second));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
+
+        nodeService.applyBatch(List.of(
+                new NodeBatchOperation(NodeBatchOperation.Type.UPDATE, 7L, null, null, null, null, null, true, null, null),
+                new NodeBatchOperation(NodeBatchOperation.Type.UPDATE, 8L, null, null, null, null, null, true, null, null)));
+
+        verify(nodeRepository, times(1)).adjustRollups(List.of(1L), 1L, 0, 0, 1);
+        verify(nodeRepository, times(1)).adjustRollups(any(), any(), anyInt(), anyInt(), anyInt());
+    }
+
     @Test
     void toggleExpand_togglesFlag() {
         Node n = new Node("n", null, 0); n.setId(4L); n.setIsExpanded(true);
@@ -161,33 +726,473 @@ class NodeServiceTest {
     }
 
     @Test
-    void batchUpdate_updatesFields() {
-        Node existing = new Node("old", null, 0); existing.setId(7L);
-        when(nodeRepository.findById(7L)).thenReturn(Optional.of(existing));
+    void applyBatch_loadsUpdatesInOneQueryAndPatchesOnlyGivenFields() {
+        Node first = new Node("old", null, 0); first.setId(7L); first.setPath("/"); first.setIsStarred(true);
+        Node second = new Node("other", null, 1); second.setId(8L); second.setPath("/");
+        when(nodeRepository.findAllById(List.of(7L, 8L))).thenReturn(List.of(first, second));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
+
+        List<Node> result = nodeService.applyBatch(List.of(
+                new NodeBatchOperation(NodeBatchOperation.Type.UPDATE, 7L, null, null, "new", "n", null, true, null, null),
+                new NodeBatchOperation(NodeBatchOperation.Type.UPDATE, 8L, null, null, null, null, null, true, null, null)));
+
+        assertEquals(List.of(first, second), result);
+        assertEquals("new", first.getContent());
+        assertEquals("n", first.getNotes());
+        assertTrue(first.getIsCompleted());
+        assertTrue(first.getIsStarred());
+        assertEquals("other", second.getContent());
+        verify(nodeRepository, never()).findById(any());
+    }
 
-        Node update = new Node("new", null, 0); update.setId(7L);
-        update.setIsCompleted(true);
-        update.setIsExpanded(false);
-        update.setIsStarred(true);
-        update.setNotes("n");
+    @Test
+    void applyBatch_runsCreatesAndDeletesInOrder() {
+        when(nodeRepository.findAllById(List.of())).thenReturn(List.of());
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> {
+            Node node = i.getArgument(0);
+            node.setId(20L);
+            return node;
+        });
+        Node doomed = new Node("doomed", null, 1024); doomed.setId(5L); doomed.setPath("/");
+        when(nodeRepository.findById(5L)).thenReturn(Optional.of(doomed));
+        when(nodeRepository.findSubtreeRows(5L)).thenReturn(List.<Object[]>of(row(5, "/", false)));
 
-        List<Node> result = nodeService.batchUpdate(List.of(update));
+        List<Node> result = nodeService.applyBatch(List.of(
+                new NodeBatchOperation(NodeBatchOperation.Type.CREATE, null, null, 0, "new", null, List.of("t"), null, null, null),
+                new NodeBatchOperation(NodeBatchOperation.Type.DELETE, 5L, null, null, null, null, null, null, null, null)));
 
         assertEquals(1, result.size());
-        verify(nodeRepository, atLeastOnce()).save(any(Node.class));
+        assertEquals("/", result.get(0).getPath());
+        assertEquals(List.of("t"), result.get(0).getTags());
+        verify(nodeRepository).deleteByIds(List.of(5L));
+    }
+
+    @Test
+    void applyBatch_unknownUpdateId_throws() {
+        when(nodeRepository.findAllById(List.of(99L))).thenReturn(List.of());
+        assertThrows(RuntimeException.class, () -> nodeService.applyBatch(List.of(
+                new NodeBatchOperation(NodeBatchOperation.Type.UPDATE, 99L, null, null, "x", null, null, null, null, null))));
     }
 
     @Test
-    void search_combinesFilters() {
-        when(nodeRepository.findByContentContaining("foo")).thenReturn(List.of(new Node("foo", null, 0)));
-        when(nodeRepository.findByTagsContaining("work"))
-                .thenReturn(List.of(new Node("bar", null, 0)));
-        when(nodeRepository.findByIsCompletedOrderByPositionAsc(true))
-                .thenReturn(new ArrayList<>());
+    void search_returnsNodesInIndexRankOrder() {
+        Node first = new Node("milk", null, 0); first.setId(2L);
+        Node second = new Node("buy milk", null, 1); second.setId(3L);
+        when(nodeSearchIndex.search("milk", "shop", false, 100)).thenReturn(List.of(3L, 2L));
+        when(nodeRepository.findAllById(List.of(3L, 2L))).thenReturn(List.of(first, second));
+
+        List<Node> result = nodeService.search("milk", "shop", false, null);
 
-        List<Node> result = nodeService.search("foo", "work", true);
-        assertNotNull(result);
+        assertEquals(List.of(3L, 2L), result.stream().map(Node::getId).toList());
+    }
+
+    @Test
+    void search_withOnlyCompletedFilter_usesRepositoryAndLimit() {
+        Node a = new Node("a", null, 0); a.setId(2L);
+        Node b = new Node("b", null, 1); b.setId(3L);
+        when(nodeRepository.findByWorkspaceAndIsCompletedOrderByPositionAsc("default", true, PageRequest.of(0, 1))).thenReturn(List.of(a));
+
+        List<Node> result = nodeService.search(null, "", true, 1);
+
+        assertEquals(List.of(a), result);
+        verifyNoInteractions(nodeSearchIndex);
+    }
+
+    @Test
+    void search_withOnlyCompletedFilter_resolvesMirrors() {
+        Node mirror = new Node("", null, 0); mirror.setId(3L); mirror.setMirrorId(10L);
+        Node source = new Node("shared", null, 1); source.setId(10L); source.setVersion(5L);
+        when(nodeRepository.findByWorkspaceAndIsCompletedOrderByPositionAsc("default", true, PageRequest.of(0, 100))).thenReturn(List.of(mirror));
+        when(nodeTreeCache.getNode(10L)).thenReturn(Optional.of(source));
+
+        List<Node> result = nodeService.search(null, null, true, null);
+
+        assertEquals("shared", result.get(0).getContent());
+        assertEquals(5L, result.get(0).getSourceVersion());
+    }
+
+    @Test
+    void toOutlines_carriesStoredRollupsWithoutQueries() {
+        Node a = new Node("a", 1L, 0); a.setId(2L); a.setNotes("long notes");
+        a.setChildCount(4); a.setDescendantCount(9); a.setCompletedDescendantCount(3);
+        Node b = new Node("b", 1L, 1024); b.setId(3L);
+
+        List<NodeOutline> outlines = nodeService.toOutlines(List.of(a, b));
+
+        assertEquals(List.of(
+                new NodeOutline(2L, 1L, "a", 0, false, true, false, null, 4, 9, 3),
+                new NodeOutline(3L, 1L, "b", 1024, false, true, false, null, 0, 0, 0)), outlines);
+        verifyNoInteractions(nodeRepository);
+    }
+
+    @Test
+    void toDetails_loadsTagsOfAllNodesInOneQuery() {
+        Node a = new Node("a", null, 0); a.setId(2L); a.setNotes("notes");
+        Node b = new Node("b", null, 1024); b.setId(3L);
+        when(nodeRepository.findTagsByNodeIdIn(List.of(2L, 3L))).thenReturn(List.of(
+                new Object[] {2L, "work"}, new Object[] {2L, "urgent"}, new Object[] {3L, "home"}));
+
+        List<NodeDetail> details = nodeService.toDetails(List.of(a, b));
+
+        assertEquals(List.of("work", "urgent"), details.get(0).tags());
+        assertEquals("notes", details.get(0).notes());
+        assertEquals(List.of("home"), details.get(1).tags());
+        assertEquals(0, details.get(1).childCount());
+        verify(nodeRepository).findTagsByNodeIdIn(any());
+    }
+
+    @Test
+    void toDetails_batchesLargeListings() {
+        List<Node> nodes = IntStream.rangeClosed(1, NodeService.LOOKUP_BATCH_SIZE + 1)
+                .mapToObj(i -> { Node node = new Node("n" + i, null, 0); node.setId((long) i); return node; })
+                .toList();
+
+        assertEquals(nodes.size(), nodeService.toDetails(nodes).size());
+        verify(nodeRepository, times(2)).findTagsByNodeIdIn(any());
+    }
+
+    @Test
+    void getChildrenPage_returnsCursorOfLastNodeWhenMoreFollow() {
+        Node a = new Node("a", 1L, 0); a.setId(2L);
+        Node b = new Node("b", 1L, 1024); b.setId(3L);
+        Node c = new Node("c", 1L, 2048); c.setId(4L);
+        when(nodeRepository.findChildrenAfter(1L, Integer.MIN_VALUE, 0L, PageRequest.of(0, 3))).thenReturn(List.of(a, b, c));
+
+        NodePage page = nodeService.getChildrenPage(1L, null, 2);
+
+        assertEquals(List.of(a, b), page.nodes());
+        assertEquals("1024:3", page.next());
+    }
+
+    @Test
+    void getChildrenPage_continuesAfterCursorAndEndsWithoutOne() {
+        Node c = new Node("c", null, 2048); c.setId(4L);
+        when(nodeRepository.findRootsAfter("default", 1024, 3L, PageRequest.of(0, 3))).thenReturn(List.of(c));
+
+        NodePage page = nodeService.getChildrenPage(null, "1024:3", 2);
+
+        assertEquals(List.of(c), page.nodes());
+        assertNull(page.next());
+    }
+
+    @Test
+    void getChildrenPage_rejectsMalformedCursor() {
+        RuntimeException exception = assertThrows(RuntimeException.class,
+                () -> nodeService.getChildrenPage(1L, "oops", 10));
+
+        assertEquals("Invalid cursor: oops", exception.getMessage());
+        verifyNoInteractions(nodeRepository);
+    }
+
+    @Test
+    void filterNodes_capsPageSizeAndPagesById() {
+        List<Node> nodes = IntStream.rangeClosed(1, NodeService.MAX_PAGE_SIZE + 1)
+                .mapToObj(i -> { Node node = new Node("n" + i, null, 0); node.setId(10L + i); return node; })
+                .toList();
+        when(nodeRepository.findFilteredAfter("default", null, true, 10L, PageRequest.of(0, NodeService.MAX_PAGE_SIZE + 1)))
+                .thenReturn(nodes);
+
+        NodePage page = nodeService.filterNodes(null, true, "10", 5000);
+
+        assertEquals(NodeService.MAX_PAGE_SIZE, page.nodes().size());
+        assertEquals(String.valueOf(10L + NodeService.MAX_PAGE_SIZE), page.next());
+    }
+
+    @Test
+    void filterByTags_loadsOnlyThePageInIdOrder() {
+        Node first = new Node("first", null, 0); first.setId(11L);
+        Node second = new Node("second", null, 1); second.setId(12L);
+        when(nodeSearchIndex.findByTags(List.of("work"), List.of(), null, 10L, 3)).thenReturn(List.of(11L, 12L, 13L));
+        when(nodeRepository.findAllById(List.of(11L, 12L))).thenReturn(List.of(second, first));
+
+        NodePage page = nodeService.filterByTags(List.of("work"), List.of(), null, "10", 2);
+
+        assertEquals(List.of(11L, 12L), page.nodes().stream().map(Node::getId).toList());
+        assertEquals("12", page.next());
     }
-}
 
+    @Test
+    void filterByTags_endsWithoutCursorOnLastPage() {
+        Node only = new Node("only", null, 0); only.setId(5L);
+        when(nodeSearchIndex.findByTags(List.of(), List.of("a", "b"), true, 0L, 3)).thenReturn(List.of(5L));
+        when(nodeRepository.findAllById(List.of(5L))).thenReturn(List.of(only));
+
+        NodePage page = nodeService.filterByTags(List.of(), List.of("a", "b"), true, null, 2);
+
+        assertEquals(List.of(only), page.nodes());
+        assertNull(page.next());
+    }
+
+    @Test
+    void streamFiltered_consumesChunksAndClearsPersistenceContext() {
+        int total = NodeService.STREAM_CHUNK_SIZE + 1;
+        List<Node> nodes = IntStream.rangeClosed(1, total)
+                .mapToObj(i -> { Node node = new Node("n" + i, null, 0); node.setId((long) i); return node; })
+                .toList();
+        when(nodeRepository.streamFiltered("default", true, null)).thenReturn(nodes.stream());
+        List<Integer> chunkSizes = new ArrayList<>();
+
+        long count = nodeService.streamFiltered(true, null, chunk -> chunkSizes.add(chunk.size()));
+
+        assertEquals(total, count);
+        assertEquals(List.of(NodeService.STREAM_CHUNK_SIZE, 1), chunkSizes);
+        verify(entityManager, times(2)).clear();
+    }
+
+    @Test
+    void searchTree_nestsMatchesUnderAncestorsWithHighlightRanges() {
+        Node project = new Node("Projects", null, 0); project.setId(1L); project.setPath("/");
+        Node shopping = new Node("Shopping", 1L, 0); shopping.setId(2L); shopping.setPath("/1/");
+        Node milk = new Node("Buy milk, Milky way", 2L, 0); milk.setId(3L); milk.setPath("/1/2/");
+        Node organic = new Node("organic", 3L, 0); organic.setId(4L); organic.setPath("/1/2/3/");
+        when(nodeSearchIndex.search("milk", null, null, 100)).thenReturn(List.of(3L));
+        when(nodeRepository.findSubtrees(List.of(3L))).thenReturn(List.of(milk, organic));
+        when(nodeRepository.findAllById(Set.of(1L, 2L))).thenReturn(List.of(shopping, project));
+
+        List<FilteredNodeTree> forest = nodeService.searchTree("milk", null, null, null, true);
+
+        assertEquals(1, forest.size());
+        FilteredNodeTree root = forest.get(0);
+        assertEquals(1L, root.node().getId());
+        assertFalse(root.matched());
+        FilteredNodeTree hit = root.children().get(0).children().get(0);
+        assertTrue(hit.matched());
+        assertEquals(List.of(new FilteredNodeTree.MatchRange(4, 8), new FilteredNodeTree.MatchRange(10, 14)), hit.matches());
+        assertEquals(4L, hit.children().get(0).node().getId());
+        assertFalse(hit.children().get(0).matched());
+    }
+
+    @Test
+    void searchTree_showsMirrorsWithTheirSourcesContent() {
+        Node mirror = new Node("", null, 0); mirror.setId(3L); mirror.setPath("/"); mirror.setMirrorId(10L);
+        Node source = new Node("Buy milk", null, 1); source.setId(10L); source.setVersion(5L);
+        when(nodeSearchIndex.search("milk", null, null, 100)).thenReturn(List.of(3L));
+        when(nodeRepository.findAllById(List.of(3L))).thenReturn(List.of(mirror));
+        when(nodeTreeCache.getNode(10L)).thenReturn(Optional.of(source));
+
+        List<FilteredNodeTree> forest = nodeService.searchTree("milk", null, null, null, false);
+
+        assertEquals("Buy milk", forest.get(0).node().getContent());
+        assertEquals(List.of(new FilteredNodeTree.MatchRange(4, 8)), forest.get(0).matches());
+    }
+
+    @Test
+    void searchTree_withoutMatches_skipsLoading() {
+        when(nodeSearchIndex.search("zzz", null, null, 100)).thenReturn(List.of());
+
+        assertTrue(nodeService.searchTree("zzz", null, null, null, true).isEmpty());
+        verifyNoInteractions(nodeRepository);
+    }
+
+    @Test
+    void getChildren_resolvesAllMirrorsWithOneSourceQuery() {
+        Node plain = new Node("plain", 1L, 0); plain.setId(2L);
+        Node mirror = new Node("", 1L, 1024); mirror.setId(3L); mirror.setMirrorId(10L); mirror.setVersion(2L);
+        mirror.setIsCompleted(true);
+        Node cachedMirror = new Node("", 1L, 2048); cachedMirror.setId(4L); cachedMirror.setMirrorId(11L);
+        Node source = new Node("shared", null, 0); source.setId(10L); source.setVersion(5L);
+        source.setNotes("n"); source.setTags(new ArrayList<>(List.of("t")));
+        Node cachedSource = new Node("cached", null, 0); cachedSource.setId(11L); cachedSource.setVersion(1L);
+        when(nodeTreeCache.getChildren(1L)).thenReturn(Optional.of(List.of(plain, mirror, cachedMirror)));
+        when(nodeTreeCache.getNode(10L)).thenReturn(Optional.empty());
+        when(nodeTreeCache.getNode(11L)).thenReturn(Optional.of(cachedSource));
+        when(nodeTreeCache.version()).thenReturn(3L);
+        when(nodeRepository.findWithTagsByIdIn(List.of(10L))).thenReturn(List.of(source));
+
+        List<Node> result = nodeService.getChildren(1L);
+
+        assertSame(plain, result.get(0));
+        Node view = result.get(1);
+        assertEquals(3L, view.getId());
+        assertEquals("shared", view.getContent());
+        assertEquals("n", view.getNotes());
+        assertEquals(List.of("t"), view.getTags());
+        assertTrue(view.getIsCompleted());
+        assertEquals(2L, view.getVersion());
+        assertEquals(5L, view.getSourceVersion());
+        assertEquals("", mirror.getContent());
+        assertEquals("cached", result.get(2).getContent());
+        verify(nodeTreeCache).putNode(source, 3L);
+    }
+
+    @Test
+    void createNode_mirrorPointsAtTheUltimateSourceAndKeepsNoContent() {
+        Node source = new Node("shared", null, 0); source.setId(10L); source.setPath("/");
+        Node other = new Node("", null, 1024); other.setId(11L); other.setPath("/"); other.setMirrorId(10L);
+        when(nodeRepository.findById(11L)).thenReturn(Optional.of(other));
+        when(nodeRepository.findById(10L)).thenReturn(Optional.of(source));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
+        Node mirror = new Node("typed", null, 0);
+        mirror.setMirrorId(11L); mirror.setTags(new ArrayList<>(List.of("x")));
+
+        Node result = nodeService.createNode(mirror);
+
+        assertEquals(10L, mirror.getMirrorId());
+        assertEquals("", mirror.getContent());
+        assertTrue(mirror.getTags().isEmpty());
+        assertEquals("shared", result.getContent());
+    }
+
+    @Test
+    void updateNode_onMirrorWritesContentToTheSourceOnly() {
+        Node source = new Node("old", null, 0); source.setId(10L); source.setVersion(5L);
+        Node mirror = new Node("", null, 1024); mirror.setId(3L); mirror.setMirrorId(10L);
+        when(nodeRepository.findById(3L)).thenReturn(Optional.of(mirror));
+        when(nodeRepository.findById(10L)).thenReturn(Optional.of(source));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
+        when(nodeChangeBroadcaster.subscriberCount()).thenReturn(1);
+        List<Object[]> mirrorPaths = new ArrayList<>();
+        mirrorPaths.add(new Object[] {"/7/", 3L});
+        when(nodeRepository.findMirrorPaths(10L)).thenReturn(mirrorPaths);
+
+        Node result = nodeService.updateNode(3L, new Node("new", null, 0));
 
+        assertEquals("new", source.getContent());
+        assertEquals("", mirror.getContent());
+        assertEquals("new", result.getContent());
+        assertEquals(5L, result.getSourceVersion());
+        verify(nodeRepository).save(source);
+        verify(nodeChangeBroadcaster).changed("/7/3/");
+    }
+
+    @Test
+    void updateNotes_onMirrorChecksTheSourceVersionItsTagNamed() {
+        Node source = new Node("shared", null, 0); source.setId(10L); source.setVersion(6L);
+        Node mirror = new Node("", null, 1024); mirror.setId(3L); mirror.setMirrorId(10L); mirror.setVersion(2L);
+        when(nodeRepository.findById(3L)).thenReturn(Optional.of(mirror));
+        when(nodeRepository.findById(10L)).thenReturn(Optional.of(source));
+
+        assertThrows(ObjectOptimisticLockingFailureException.class,
+                () -> nodeService.updateNotes(3L, "lost", new NodeVersion(2, 5L)));
+        assertThrows(ObjectOptimisticLockingFailureException.class,
+                () -> nodeService.updateNotes(3L, "lost", NodeVersion.of(2)));
+        assertNull(source.getNotes());
+        verify(nodeRepository, never()).save(any(Node.class));
+
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
+        nodeService.updateNotes(3L, "kept", new NodeVersion(2, 6L));
+        assertEquals("kept", source.getNotes());
+    }
+
+    @Test
+    void updateNotes_onSourceSkipsMirrorLookupWithoutSubscribers() {
+        Node n = new Node("n", null, 0); n.setId(6L);
+        when(nodeRepository.findById(6L)).thenReturn(Optional.of(n));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(i -> i.getArgument(0));
+
+        nodeService.updateNotes(6L, "hello");
+
+        verify(nodeRepository, never()).findMirrorPaths(any());
+    }
+
+    @Test
+    void deleteNode_detachesMirrorsOutsideTheSubtree() {
+        Node root = new Node("root", null, 0); root.setId(1L); root.setPath("/");
+        Node outside = new Node("root", null, 1024); outside.setId(9L); outside.setPath("/");
+        when(nodeRepository.findById(1L)).thenReturn(Optional.of(root));
+        when(nodeRepository.findSubtreeRows(1L)).thenReturn(List.of(row(1, "/", false), row(2, "/1/", false)));
+        when(nodeRepository.findIdsByMirrorIdIn(List.of(2L, 1L))).thenReturn(List.of(2L, 9L));
+        when(nodeRepository.findAllById(List.of(9L))).thenReturn(List.of(outside));
+
+        nodeService.deleteNode(1L);
+
+        var order = inOrder(nodeRepository);
+        order.verify(nodeRepository).copySourceTags(List.of(9L));
+        order.verify(nodeRepository).detachMirrors(List.of(9L));
+        order.verify(nodeRepository).deleteByIds(List.of(2L, 1L));
+        verify(nodeSearchIndex).index(outside);
+        verify(nodeTreeCache).nodesChanged(List.of(9L));
+        verify(nodeChangeLog).recordAll(NodeChange.Type.UPDATE, List.of(9L));
+    }
+
+    @Test
+    void deleteNode_detachesEachMirrorInTheBatchThatDeletesItsSource() {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(row(1, "/", false));
+        for (long id = 2; id <= NodeService.DELETE_BATCH_SIZE + 1; id++) {
+            rows.add(row(id, "/1/", false));
+        }
+        Node root = new Node("root", null, 0); root.setId(1L); root.setPath("/");
+        Node outside = new Node("mirror of the root", null, 1024); outside.setId(900L); outside.setPath("/");
+        when(nodeRepository.findById(1L)).thenReturn(Optional.of(root));
+        when(nodeRepository.findSubtreeRows(1L)).thenReturn(rows);
+        when(nodeRepository.findIdsByMirrorIdIn(anyCollection()))
+                .thenAnswer(invocation -> invocation.<Collection<Long>>getArgument(0).contains(1L) ? List.of(900L) : List.of());
+        when(nodeRepository.findAllById(List.of(900L))).thenReturn(List.of(outside));
+        doAnswer(invocation -> {
+            if (invocation.<Collection<Long>>getArgument(0).contains(1L)) {
+                throw new IllegalStateException("connection lost");
+            }
+            return null;
+        }).when(nodeRepository).deleteByIds(anyCollection());
+
+        assertThrows(IllegalStateException.class, () -> nodeService.deleteNode(1L));
+
+        // The mirror is only detached by the root's batch, and goes back with it when that batch fails
+        var order = inOrder(nodeRepository);
+        order.verify(nodeRepository).deleteByIds(argThat(ids -> ids.size() == NodeService.DELETE_BATCH_SIZE));
+        order.verify(nodeRepository).detachMirrors(List.of(900L));
+        order.verify(nodeRepository).deleteByIds(List.of(1L));
+        assertEquals(3, transactions);
+    }
+
+    @Test
+    void toDetails_takesMirrorTagsFromTheirSources() {
+        Node mirror = new Node("shared", null, 0); mirror.setId(3L); mirror.setMirrorId(10L);
+        Node source = new Node("shared", null, 1024); source.setId(10L);
+        when(nodeRepository.findTagsByNodeIdIn(List.of(10L))).thenReturn(List.<Object[]>of(new Object[] {10L, "t"}));
+
+        List<NodeDetail> details = nodeService.toDetails(List.of(mirror, source));
+
+        assertEquals(List.of("t"), details.get(0).tags());
+        assertEquals(List.of("t"), details.get(1).tags());
+    }
+
+    @Test
+    void toggleExpand_withWriteBehind_onlyFlipsTheBufferedState() {
+        Node n = new Node("n", null, 0); n.setId(4L); n.setIsExpanded(true); n.setVersion(3L);
+        when(nodeStateBuffer.isEnabled()).thenReturn(true);
+        when(nodeTreeCache.getNode(4L)).thenReturn(Optional.of(n));
+        when(nodeStateBuffer.toggleExpanded(eq(4L), any())).thenAnswer(invocation -> {
+            BooleanSupplier stored = invocation.getArgument(1);
+            assertTrue(stored.getAsBoolean());
+            return new NodeStateBuffer.Pending("default", false, 1);
+        });
+        when(nodeStateBuffer.pending(4L)).thenReturn(new NodeStateBuffer.Pending("default", false, 1));
+
+        Node result = nodeService.toggleExpand(4L);
+
+        assertFalse(result.getIsExpanded());
+        assertEquals(4L, result.getVersion());
+        assertTrue(n.getIsExpanded());
+        verify(nodeRepository, never()).findById(any());
+        verify(nodeRepository, never()).save(any());
+    }
+
+    @Test
+    void getChildren_overlaysBufferedExpansion() {
+        Node a = new Node("a", 1L, 0); a.setId(2L); a.setVersion(5L);
+        Node b = new Node("b", 1L, 1024); b.setId(3L); b.setVersion(1L);
+        when(nodeTreeCache.getChildren(1L)).thenReturn(Optional.of(List.of(a, b)));
+        when(nodeStateBuffer.pending(2L)).thenReturn(new NodeStateBuffer.Pending("default", false, 2));
+
+        List<Node> result = nodeService.getChildren(1L);
+
+        assertFalse(result.get(0).getIsExpanded());
+        assertEquals(7L, result.get(0).getVersion());
+        assertTrue(a.getIsExpanded());
+        assertSame(b, result.get(1));
+    }
+
+    @Test
+    void updateNode_expectedVersionIncludesBufferedFlips() {
+        Node existing = new Node("old", null, 0); existing.setId(10L); existing.setVersion(4L);
+        when(nodeRepository.findById(10L)).thenReturn(Optional.of(existing));
+        when(nodeRepository.save(any(Node.class))).thenAnswer(invocation -> invocation.getArgument(0));
+        when(nodeStateBuffer.pendingFlips(10L)).thenReturn(2);
+
+        assertThrows(ObjectOptimisticLockingFailureException.class,
+                () -> nodeService.updateNode(10L, new Node("new", null, 0), NodeVersion.of(4)));
+        assertEquals("new", nodeService.updateNode(10L, new Node("new", null, 0), NodeVersion.of(6)).getContent());
+    }
+}
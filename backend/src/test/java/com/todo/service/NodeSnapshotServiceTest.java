@@ -0,0 +1,166 @@
+package com.todo.service;
+
+import com.todo.dto.SnapshotImport;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NodeSnapshotServiceTest {
+
+    private static final LocalDateTime CREATED = LocalDateTime.of(2024, 3, 1, 12, 0);
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private NodeTreeCache nodeTreeCache;
+
+    @Mock
+    private NodeSearchIndex nodeSearchIndex;
+
+    @Mock
+    private NodeChangeBroadcaster nodeChangeBroadcaster;
+
+    private NodeSnapshotService nodeSnapshotService;
+
+    // Copies of the rows of every batch, which the service clears after each insert
+    private final List<Object[]> insertedNodes = new ArrayList<>();
+    private final List<Object[]> insertedTags = new ArrayList<>();
+    private int nodeBatches;
+
+    @BeforeEach
+    void setUp() {
+        nodeSnapshotService = new NodeSnapshotService(jdbcTemplate, TransactionOperations.withoutTransaction(),
+                nodeTreeCache, nodeSearchIndex, nodeChangeBroadcaster);
+        lenient().when(jdbcTemplate.batchUpdate(startsWith("INSERT INTO nodes"), anyList())).thenAnswer(invocation -> {
+            List<Object[]> rows = invocation.getArgument(1);
+            insertedNodes.addAll(rows);
+            nodeBatches++;
+            return new int[rows.size()];
+        });
+        lenient().when(jdbcTemplate.batchUpdate(startsWith("INSERT INTO node_tags"), anyList())).thenAnswer(invocation -> {
+            List<Object[]> rows = invocation.getArgument(1);
+            insertedTags.addAll(rows);
+            return new int[rows.size()];
+        });
+    }
+
+    @Test
+    void importSnapshot_shiftsIdsPastTheSequenceAndRootsPastExistingRoots() throws IOException {
+        when(jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR node_id_seq", Long.class)).thenReturn(501L);
+        when(jdbcTemplate.queryForObject(startsWith("SELECT MAX(position)"), eq(Integer.class), eq("default"))).thenReturn(4096);
+        byte[] snapshot = snapshot(9, -1024,
+                entry(1, null, -1024, "/", null, List.of()),
+                entry(4, 1L, 0, "/1/", 9L, List.of("work", "home")),
+                entry(9, 4L, 1024, "/1/4/", null, List.of()));
+
+        SnapshotImport result = nodeSnapshotService.importSnapshot(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+
+        assertEquals(new SnapshotImport(3, 501), result);
+        verify(jdbcTemplate).execute("ALTER SEQUENCE node_id_seq RESTART WITH 610");
+
+        Object[] root = insertedNodes.get(0);
+        assertEquals(502L, root[0]);
+        assertNull(root[2]);
+        assertEquals(4096 + NodeService.POSITION_GAP, root[3]);
+        assertEquals("/", root[4]);
+
+        Object[] child = insertedNodes.get(1);
+        assertEquals(505L, child[0]);
+        assertEquals(502L, child[2]);
+        assertEquals(0, child[3]);
+        assertEquals("/502/", child[4]);
+        assertEquals(510L, child[11]);
+
+        assertEquals("/502/505/", insertedNodes.get(2)[4]);
+        assertEquals(List.of(505L, 505L), insertedTags.stream().map(row -> row[0]).toList());
+        assertEquals(List.of("work", "home"), insertedTags.stream().map(row -> row[1]).toList());
+
+        verify(nodeTreeCache).childrenChanged(null);
+        verify(nodeChangeBroadcaster).changed("/");
+        verify(nodeSearchIndex).rebuildInBackground();
+    }
+
+    @Test
+    void importSnapshot_keepsRootPositionsWhenTreeIsEmpty() throws IOException {
+        when(jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR node_id_seq", Long.class)).thenReturn(1L);
+        when(jdbcTemplate.queryForObject(startsWith("SELECT MAX(position)"), eq(Integer.class), eq("default"))).thenReturn(null);
+        byte[] snapshot = snapshot(2, 2048, entry(2, null, 2048, "/", null, List.of()));
+
+        nodeSnapshotService.importSnapshot(Channels.newChannel(new ByteArrayInputStream(snapshot)));
+
+        assertEquals(3L, insertedNodes.get(0)[0]);
+        assertEquals(2048, insertedNodes.get(0)[3]);
+    }
+
+    @Test
+    void importSnapshot_insertsInBatches() throws IOException {
+        when(jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR node_id_seq", Long.class)).thenReturn(1L);
+        int nodes = NodeSnapshotService.BATCH_SIZE * 2 + 1;
+        NodeSnapshot.Entry[] entries = new NodeSnapshot.Entry[nodes];
+        for (int i = 0; i < nodes; i++) {
+            entries[i] = entry(i + 1, null, i * NodeService.POSITION_GAP, "/", null, List.of());
+        }
+
+        SnapshotImport result = nodeSnapshotService.importSnapshot(
+                Channels.newChannel(new ByteArrayInputStream(snapshot(nodes, 0, entries))));
+
+        assertEquals(nodes, result.nodes());
+        assertEquals(nodes, insertedNodes.size());
+        assertEquals(3, nodeBatches);
+    }
+
+    @Test
+    void importSnapshot_rejectsIdsAboveTheDeclaredMaximum() throws IOException {
+        when(jdbcTemplate.queryForObject("SELECT NEXT VALUE FOR node_id_seq", Long.class)).thenReturn(1L);
+        byte[] snapshot = snapshot(5, 0, entry(6, null, 0, "/", null, List.of()));
+
+        RuntimeException exception = assertThrows(RuntimeException.class, () ->
+                nodeSnapshotService.importSnapshot(Channels.newChannel(new ByteArrayInputStream(snapshot))));
+        assertEquals("Snapshot node id 6 is outside 1..5", exception.getMessage());
+        assertTrue(insertedNodes.isEmpty());
+    }
+
+    @Test
+    void shiftPath_offsetsEveryAncestor() {
+        assertEquals("/", NodeSnapshotService.shiftPath("/", 100));
+        assertEquals("/101/105/", NodeSnapshotService.shiftPath("/1/5/", 100));
+        assertEquals("/1/5/", NodeSnapshotService.shiftPath("/1/5/", 0));
+        assertNull(NodeSnapshotService.shiftPath(null, 100));
+    }
+
+    private static NodeSnapshot.Entry entry(long id, Long parentId, int position, String path,
+                                            Long mirrorId, List<String> tags) {
+        return new NodeSnapshot.Entry(id, parentId, position, path, CREATED, null,
+                false, true, false, mirrorId, "Node " + id, null, tags, 0, 0, 0);
+    }
+
+    private static byte[] snapshot(long maxId, int minRootPosition, NodeSnapshot.Entry... entries) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NodeSnapshot.Writer writer = new NodeSnapshot.Writer(Channels.newChannel(out), maxId, minRootPosition);
+        for (NodeSnapshot.Entry entry : entries) {
+            writer.write(entry);
+        }
+        writer.finish();
+        return out.toByteArray();
+    }
+}
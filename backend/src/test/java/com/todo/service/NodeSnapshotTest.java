@@ -0,0 +1,88 @@
+package com.todo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeSnapshotTest {
+
+    private static final LocalDateTime CREATED = LocalDateTime.of(2024, 3, 1, 12, 30, 15, 123_456_000);
+
+    @Test
+    void roundTrip_preservesEveryField() throws IOException {
+        NodeSnapshot.Entry root = new NodeSnapshot.Entry(1, null, -2048, "/", CREATED, null,
+                false, true, false, null, "Root", null, List.of(), 0, 0, 0);
+        NodeSnapshot.Entry child = new NodeSnapshot.Entry(7, 1L, 1024, "/1/", CREATED, CREATED.plusDays(1),
+                true, false, true, 1L, "Chïld ✓", "some notes", List.of("work", "urgent"), 3, 12, 5);
+
+        byte[] bytes = write(7, -2048, root, child);
+        NodeSnapshot.Reader reader = reader(bytes);
+
+        assertEquals(7, reader.maxId());
+        assertEquals(-2048, reader.minRootPosition());
+        assertEquals(root, reader.next());
+        assertEquals(child, reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    void roundTrip_stringsLargerThanTheBuffer() throws IOException {
+        char[] chars = new char[200_000];
+        Arrays.fill(chars, 'é');
+        String notes = new String(chars);
+        NodeSnapshot.Entry entry = new NodeSnapshot.Entry(3, null, 0, "/", CREATED, null,
+                false, true, false, null, "Long notes", notes, List.of("a"), 0, 0, 0);
+
+        NodeSnapshot.Reader reader = reader(write(3, 0, entry, entry));
+
+        assertEquals(notes, reader.next().notes());
+        assertEquals(entry, reader.next());
+        assertNull(reader.next());
+    }
+
+    @Test
+    void reader_rejectsOtherFormats() {
+        byte[] bytes = "[{\"id\":1}]".getBytes();
+
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> reader(bytes));
+        assertEquals("Not a node snapshot", exception.getMessage());
+    }
+
+    @Test
+    void reader_rejectsTruncatedSnapshot() throws IOException {
+        NodeSnapshot.Entry entry = new NodeSnapshot.Entry(1, null, 0, "/", CREATED, null,
+                false, true, false, null, "Root", null, List.of(), 0, 0, 0);
+        byte[] bytes = write(1, 0, entry);
+        NodeSnapshot.Reader reader = reader(Arrays.copyOf(bytes, bytes.length - 3));
+
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> {
+            while (reader.next() != null) {
+                // read to the end
+            }
+        });
+        assertEquals("Truncated snapshot", exception.getMessage());
+    }
+
+    private static byte[] write(long maxId, int minRootPosition, NodeSnapshot.Entry... entries) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        NodeSnapshot.Writer writer = new NodeSnapshot.Writer(Channels.newChannel(out), maxId, minRootPosition);
+        for (NodeSnapshot.Entry entry : entries) {
+            writer.write(entry);
+        }
+        writer.finish();
+        assertEquals(entries.length, writer.count());
+        return out.toByteArray();
+    }
+
+    private static NodeSnapshot.Reader reader(byte[] bytes) throws IOException {
+        return new NodeSnapshot.Reader(Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+}
@@ -0,0 +1,143 @@
+package com.todo.service;
+
+import com.todo.entity.NodeChange;
+import com.todo.repository.NodeRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class NodeStateBufferTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private NodeRepository nodeRepository;
+
+    @Mock
+    private NodeTreeCache nodeTreeCache;
+
+    @Mock
+    private NodeChangeLog nodeChangeLog;
+
+    @Mock
+    private NodeChangeBroadcaster nodeChangeBroadcaster;
+
+    @Mock
+    private WorkspaceDirectory workspaceDirectory;
+
+    private NodeStateBuffer buffer;
+
+    // Copies of the rows of every flush
+    private final List<Object[]> flushedRows = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        // Never started, so only explicit flushes write
+        buffer = new NodeStateBuffer(jdbcTemplate, TransactionOperations.withoutTransaction(), nodeRepository,
+                nodeTreeCache, nodeChangeLog, nodeChangeBroadcaster, workspaceDirectory, true, 200, 1000);
+        lenient().when(jdbcTemplate.batchUpdate(eq(NodeStateBuffer.FLUSH_SQL), anyList())).thenAnswer(invocation -> {
+            List<Object[]> rows = invocation.getArgument(1);
+            flushedRows.addAll(rows);
+            int[] counts = new int[rows.size()];
+            Arrays.fill(counts, 1);
+            return counts;
+        });
+        lenient().when(workspaceDirectory.writeLock("default")).thenReturn(new ReentrantLock());
+    }
+
+    @Test
+    void toggleExpanded_coalescesFlipsAndReadsStoredStateOnce() {
+        int[] reads = {0};
+
+        buffer.toggleExpanded(4L, () -> { reads[0]++; return true; });
+        buffer.toggleExpanded(4L, () -> { reads[0]++; return true; });
+        NodeStateBuffer.Pending pending = buffer.toggleExpanded(4L, () -> { reads[0]++; return true; });
+
+        assertEquals(new NodeStateBuffer.Pending("default", false, 3), pending);
+        assertEquals(1, reads[0]);
+        assertEquals(3, buffer.pendingFlips(4L));
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void flush_writesEveryPendingNodeInOneBatchAndClearsThem() {
+        buffer.toggleExpanded(4L, () -> true);
+        buffer.toggleExpanded(4L, () -> true);
+        buffer.toggleExpanded(5L, () -> false);
+
+        buffer.flush();
+
+        verify(jdbcTemplate, times(1)).batchUpdate(eq(NodeStateBuffer.FLUSH_SQL), anyList());
+        assertEquals(2, flushedRows.size());
+        Object[] four = flushedRows.stream().filter(row -> row[2].equals(4L)).findFirst().orElseThrow();
+        assertArrayEquals(new Object[] {true, 2, 4L}, four);
+        verify(nodeTreeCache).nodesChanged(argThat(ids -> ids.containsAll(List.of(4L, 5L))));
+        verify(nodeChangeLog).recordAll(eq(NodeChange.Type.UPDATE), argThat(ids -> ids.size() == 2));
+        verify(nodeRepository, never()).findPathsByIdIn(any());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void flush_keepsFlipsMadeWhileItRuns() {
+        buffer.toggleExpanded(4L, () -> false);
+        when(jdbcTemplate.batchUpdate(eq(NodeStateBuffer.FLUSH_SQL), anyList())).thenAnswer(invocation -> {
+            buffer.toggleExpanded(4L, () -> false);
+            return new int[] {1};
+        });
+
+        buffer.flush();
+
+        assertEquals(new NodeStateBuffer.Pending("default", false, 1), buffer.pending(4L));
+    }
+
+    @Test
+    void flush_dropsNodesDeletedMeanwhile() {
+        buffer.toggleExpanded(4L, () -> false);
+        when(jdbcTemplate.batchUpdate(eq(NodeStateBuffer.FLUSH_SQL), anyList())).thenReturn(new int[] {0});
+
+        buffer.flush();
+
+        assertTrue(buffer.isEmpty());
+        verifyNoInteractions(nodeChangeLog, nodeTreeCache);
+    }
+
+    @Test
+    void flush_notifiesSubscribersAtTheNodesPaths() {
+        buffer.toggleExpanded(4L, () -> false);
+        when(nodeChangeBroadcaster.subscriberCount()).thenReturn(1);
+        List<Object[]> paths = new ArrayList<>();
+        paths.add(new Object[] {"/1/", 4L});
+        when(nodeRepository.findPathsByIdIn(List.of(4L))).thenReturn(paths);
+
+        buffer.flush();
+
+        verify(nodeChangeBroadcaster).changed("/1/4/");
+    }
+
+    @Test
+    void expandedSet_replacesPendingStateAndCountsAsAFlip() {
+        buffer.toggleExpanded(4L, () -> false);
+
+        buffer.expandedSet(4L, false);
+        buffer.expandedSet(5L, true);
+
+        assertEquals(new NodeStateBuffer.Pending("default", false, 2), buffer.pending(4L));
+        assertNull(buffer.pending(5L));
+    }
+}
@@ -0,0 +1,196 @@
+package com.todo.service;
+
+import com.todo.entity.Node;
+import org.hibernate.collection.spi.PersistentBag;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeTreeCacheTest {
+
+    private static Node node(long id, Long parentId, int position) {
+        Node node = new Node("n" + id, parentId, position);
+        node.setId(id);
+        node.setPath(parentId == null ? "/" : "/" + parentId + "/");
+        return node;
+    }
+
+    @Test
+    void getChildren_hitsAfterPutAndReturnsSnapshots() {
+        NodeTreeCache cache = new NodeTreeCache(true, 10);
+        Node child = node(2, 1L, 0);
+        cache.putChildren(1L, List.of(child), cache.version());
+
+        List<Node> cached = cache.getChildren(1L).orElseThrow();
+
+        assertEquals(1, cached.size());
+        assertEquals(2L, cached.get(0).getId());
+        assertNotSame(child, cached.get(0));
+        assertEquals(new NodeTreeCache.Stats(1, 0, 0, 1), cache.getStats());
+    }
+
+    @Test
+    void putChildren_ignoresLoadsThatRacedWithAWrite() {
+        NodeTreeCache cache = new NodeTreeCache(true, 10);
+        long version = cache.version();
+        cache.childrenChanged(1L);
+
+        cache.putChildren(1L, List.of(node(2, 1L, 0)), version);
+
+        assertTrue(cache.getChildren(1L).isEmpty());
+    }
+
+    @Test
+    void nodesDeleted_turnsParentListIntoMiss() {
+        NodeTreeCache cache = new NodeTreeCache(true, 10);
+        cache.putChildren(1L, List.of(node(2, 1L, 0), node(3, 1L, 1024)), cache.version());
+
+        cache.nodesDeleted(List.of(3L));
+
+        assertTrue(cache.getChildren(1L).isEmpty());
+        assertEquals(1, cache.getStats().misses());
+    }
+
+    private static void saveAndCommit(NodeTreeCache cache, Node node, Runnable flush) {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.nodeSaved(node);
+            flush.run();
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void nodeSaved_takesTheStateTheNodeHasOnCommit() {
+        NodeTreeCache cache = new NodeTreeCache(true, 10);
+        Node node = node(1, null, 0);
+        node.setVersion(4L);
+        LocalDateTime flushedAt = LocalDateTime.of(2024, 1, 2, 3, 4);
+
+        saveAndCommit(cache, node, () -> {
+            node.setVersion(5L);
+            node.setUpdatedAt(flushedAt);
+        });
+
+        Node cached = cache.getNode(1L).orElseThrow();
+        assertEquals(5L, cached.getVersion());
+        assertEquals(flushedAt, cached.getUpdatedAt());
+    }
+
+    @Test
+    void nodeSaved_withUnloadedTags_dropsTheNodeInsteadOfLoadingThem() {
+        NodeTreeCache cache = new NodeTreeCache(true, 10);
+        cache.putNode(node(1, null, 0), cache.version());
+        Node node = node(1, null, 0);
+        node.setTags(new PersistentBag<>());
+
+        saveAndCommit(cache, node, () -> { });
+
+        assertTrue(cache.getNode(1L).isEmpty());
+    }
+
+    @Test
+    void nodesChanged_dropsNodesButKeepsTheirChildLists() {
+        NodeTreeCache cache = new NodeTreeCache(true, 10);
+        cache.putChildren(null, List.of(node(1, null, 0)), cache.version());
+        cache.putChildren(1L, List.of(node(2, 1L, 0)), cache.version());
+
+        cache.nodesChanged(List.of(1L));
+
+        assertTrue(cache.getNode(1L).isEmpty());
+        assertTrue(cache.getChildren(null).isEmpty());
+        assertTrue(cache.getChildren(1L).isPresent());
+    }
+
+    @Test
+    void subtreeMoved_dropsNodesUnderThePath() {
+        NodeTreeCache cache = new NodeTreeCache(true, 10);
+        cache.putNode(node(1, null, 0), cache.version());
+        cache.putNode(node(2, 1L, 0), cache.version());
+        cache.putNode(node(5, null, 1), cache.version());
+
+        cache.subtreeMoved("/1/");
+
+        assertTrue(cache.getNode(1L).isPresent());
+        assertTrue(cache.getNode(2L).isEmpty());
+        assertTrue(cache.getNode(5L).isPresent());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedNodesBeyondBound() {
+        NodeTreeCache cache = new NodeTreeCache(true, 2);
+        cache.putNode(node(1, null, 0), cache.version());
+        cache.putNode(node(2, null, 1), cache.version());
+        cache.getNode(1L);
+        cache.putNode(node(3, null, 2), cache.version());
+
+        assertTrue(cache.getNode(2L).isEmpty());
+        assertTrue(cache.getNode(1L).isPresent());
+        assertEquals(1, cache.getStats().evictions());
+        assertEquals(2, cache.getStats().size());
+    }
+
+    @Test
+    void subtreeMoved_dropsDeepDescendantsWithTheirChildLists() {
+        NodeTreeCache cache = new NodeTreeCache(true, 10);
+        Node grandchild = node(3, 2L, 0);
+        grandchild.setPath("/1/2/");
+        cache.putNode(node(1, null, 0), cache.version());
+        cache.putNode(node(2, 1L, 0), cache.version());
+        cache.putChildren(2L, List.of(grandchild), cache.version());
+        cache.putNode(node(4, null, 1), cache.version());
+
+        cache.subtreeMoved("/1/");
+
+        assertTrue(cache.getNode(2L).isEmpty());
+        assertTrue(cache.getNode(3L).isEmpty());
+        assertTrue(cache.getChildren(2L).isEmpty());
+        assertTrue(cache.getNode(4L).isPresent());
+    }
+
+    @Test
+    void evictsTheColdestNodeTogetherWithItsCachedDescendants() {
+        NodeTreeCache cache = new NodeTreeCache(true, 4);
+        Node grandchild = node(3, 2L, 0);
+        grandchild.setPath("/1/2/");
+        cache.putNode(node(1, null, 0), cache.version());
+        cache.putNode(node(2, 1L, 0), cache.version());
+        cache.putNode(grandchild, cache.version());
+        cache.putNode(node(5, null, 1), cache.version());
+        cache.putNode(node(6, null, 2), cache.version());
+
+        assertTrue(cache.getNode(1L).isEmpty());
+        assertTrue(cache.getNode(2L).isEmpty());
+        assertTrue(cache.getNode(3L).isEmpty());
+        assertEquals(3, cache.getStats().evictions());
+        assertEquals(2, cache.getStats().size());
+    }
+
+    @Test
+    void readingAChildList_keepsItsParentWarm() {
+        NodeTreeCache cache = new NodeTreeCache(true, 3);
+        cache.putNode(node(1, null, 0), cache.version());
+        cache.putNode(node(9, null, 1), cache.version());
+        cache.putChildren(1L, List.of(node(2, 1L, 0)), cache.version());
+        cache.putNode(node(10, null, 2), cache.version());
+
+        assertTrue(cache.getNode(9L).isEmpty());
+        assertTrue(cache.getChildren(1L).isPresent());
+    }
+
+    @Test
+    void disabledCacheNeverServes() {
+        NodeTreeCache cache = new NodeTreeCache(false, 10);
+        cache.putNode(node(1, null, 0), cache.version());
+
+        assertTrue(cache.getNode(1L).isEmpty());
+        assertEquals(0, cache.getStats().size());
+    }
+}
@@ -0,0 +1,126 @@
+package com.todo.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class WorkspaceDirectoryTest {
+
+    @Mock
+    private JdbcTemplate catalog;
+
+    private WorkspaceDirectory directory;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // default and acme on partition 0, beta on partition 1
+        ResultSet row = mock(ResultSet.class);
+        lenient().when(row.getString(1)).thenReturn("default", "acme", "beta");
+        lenient().when(row.getInt(2)).thenReturn(0, 0, 1);
+        lenient().doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (int i = 0; i < 3; i++) {
+                handler.processRow(row);
+            }
+            return null;
+        }).when(catalog).query(anyString(), any(RowCallbackHandler.class));
+
+        directory = new WorkspaceDirectory(catalog, 3);
+    }
+
+    @Test
+    void partitionOf_readsAssignmentsOnce() {
+        assertEquals(0, directory.partitionOf("acme"));
+        assertEquals(1, directory.partitionOf("beta"));
+        assertEquals(Map.of("default", 0, "acme", 0, "beta", 1), directory.assignments());
+
+        verify(catalog, times(1)).query(anyString(), any(RowCallbackHandler.class));
+        verify(catalog, never()).update(anyString(), any(Object[].class));
+    }
+
+    @Test
+    void partitionOf_placesNewWorkspacesOnTheLeastUsedPartition() {
+        assertEquals(2, directory.partitionOf("gamma"));
+        assertEquals(1, directory.partitionOf("delta"));
+        assertEquals(2, directory.partitionOf("gamma"));
+
+        verify(catalog).update("INSERT INTO workspaces (name, partition_index) VALUES (?, ?)", "gamma", 2);
+        verify(catalog).update("INSERT INTO workspaces (name, partition_index) VALUES (?, ?)", "delta", 1);
+    }
+
+    @Test
+    void partitionIfKnown_doesNotRegister() {
+        assertNull(directory.partitionIfKnown("gamma"));
+        assertNull(directory.assignments().get("gamma"));
+    }
+
+    @Test
+    void currentPartition_placesANewWorkspaceOnlyWhenItIsWritten() {
+        assertEquals(1, WorkspaceContext.callReadOnly("beta", directory::currentPartition));
+        assertEquals(0, WorkspaceContext.callReadOnly("gamma", directory::currentPartition));
+        assertNull(directory.partitionIfKnown("gamma"));
+        verify(catalog, never()).update(anyString(), any(Object[].class));
+
+        assertEquals(2, WorkspaceContext.call("gamma", directory::currentPartition));
+        assertEquals(2, WorkspaceContext.callReadOnly("gamma", directory::currentPartition));
+        verify(catalog).update("INSERT INTO workspaces (name, partition_index) VALUES (?, ?)", "gamma", 2);
+    }
+
+    @Test
+    void currentPartition_followsAPartitionBoundDirectly() {
+        assertEquals(0, directory.currentPartition());
+        assertEquals(2, WorkspaceContext.call("beta", () -> WorkspaceContext.callOnPartition(2, directory::currentPartition)));
+    }
+
+    @Test
+    void assign_storesAndRoutesToTheNewPartition() {
+        directory.assign("acme", 2);
+
+        assertEquals(2, directory.partitionOf("acme"));
+        verify(catalog).update(eq("UPDATE workspaces SET partition_index = ? WHERE name = ?"), eq(2), eq("acme"));
+    }
+
+    @Test
+    void changesPruned_storesTheLastPrunedEntry() {
+        assertEquals(0, directory.changesPrunedThrough("acme"));
+
+        directory.changesPruned("acme", 42);
+
+        assertEquals(42, directory.changesPrunedThrough("acme"));
+        assertEquals(0, directory.changesPrunedThrough("beta"));
+        verify(catalog).update(eq("UPDATE workspaces SET changes_pruned_through = ? WHERE name = ?"), eq(42L), eq("acme"));
+    }
+
+    @Test
+    void moveLock_excludesWritesToTheSameWorkspaceOnly() throws Exception {
+        directory.moveLock("acme").lock();
+        try {
+            boolean[] acquired = new boolean[2];
+            Thread writer = new Thread(() -> {
+                acquired[0] = directory.writeLock("acme").tryLock();
+                acquired[1] = directory.writeLock("beta").tryLock();
+            });
+            writer.start();
+            writer.join();
+
+            assertFalse(acquired[0]);
+            assertTrue(acquired[1]);
+        } finally {
+            directory.moveLock("acme").unlock();
+        }
+    }
+}
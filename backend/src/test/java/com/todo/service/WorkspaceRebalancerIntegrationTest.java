@@ -0,0 +1,150 @@
+package com.todo.service;
+
+import com.todo.dto.NodeChanges;
+import com.todo.dto.WorkspaceSummary;
+import com.todo.entity.Node;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Routes workspaces over two in-memory H2 partitions, each migrated by Flyway, and moves one
+ * between them while checking the rows where they actually land.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:rebalancer-p0",
+        "todo.partitions.urls=jdbc:h2:mem:rebalancer-p1"
+})
+class WorkspaceRebalancerIntegrationTest {
+
+    @Autowired
+    private NodeService nodeService;
+
+    @Autowired
+    private WorkspaceRebalancer workspaceRebalancer;
+
+    @Autowired
+    private WorkspaceDirectory workspaceDirectory;
+
+    @Autowired
+    private WorkspacePartitions workspacePartitions;
+
+    @Autowired
+    private NodeChangeLog nodeChangeLog;
+
+    private long rows(int partition, String table, String workspace) {
+        return new JdbcTemplate(workspacePartitions.get(partition)).queryForObject(
+                "SELECT COUNT(*) FROM " + table + " WHERE workspace = ?", Long.class, workspace);
+    }
+
+    private JdbcTemplate partition(int partition) {
+        return new JdbcTemplate(workspacePartitions.get(partition));
+    }
+
+    private List<Long> seqs(int partition, String workspace) {
+        return partition(partition).queryForList(
+                "SELECT seq FROM node_changes WHERE workspace = ? ORDER BY seq", Long.class, workspace);
+    }
+
+    private static Node tagged(String content, Long parentId, String tag) {
+        Node node = new Node(content, parentId, null);
+        node.setTags(List.of(tag));
+        return node;
+    }
+
+    @Test
+    void workspaces_areServedFromTheirOwnPartitions() {
+        String first = "route-" + UUID.randomUUID();
+        String second = "route-" + UUID.randomUUID();
+        WorkspaceContext.run(first, () -> nodeService.createNode(new Node("first", null, null)));
+        int firstPartition = workspaceDirectory.partitionOf(first);
+        // The second is placed on the other partition before it holds anything
+        int secondPartition = 1 - firstPartition;
+        workspaceDirectory.partitionOf(second);
+        workspaceDirectory.assign(second, secondPartition);
+        Node secondNode = WorkspaceContext.call(second, () -> nodeService.createNode(new Node("second", null, null)));
+
+        assertEquals(1, rows(firstPartition, "nodes", first));
+        assertEquals(0, rows(secondPartition, "nodes", first));
+        assertEquals(1, rows(secondPartition, "nodes", second));
+        assertEquals(0, rows(firstPartition, "nodes", second));
+
+        // A node is only reachable through its own workspace
+        WorkspaceContext.run(first, () ->
+                assertThrows(RuntimeException.class, () -> nodeService.getNodeById(secondNode.getId())));
+    }
+
+    @Test
+    void move_copiesTheWorkspaceAndKeepsIdsTagsAndCursors() {
+        String workspace = "move-" + UUID.randomUUID();
+        Node root = WorkspaceContext.call(workspace, () -> nodeService.createNode(tagged("root", null, "home")));
+        Node child = WorkspaceContext.call(workspace, () -> nodeService.createNode(tagged("child", root.getId(), "work")));
+        long cursor = WorkspaceContext.call(workspace, () -> nodeService.getChanges(null, null).cursor());
+        int source = workspaceDirectory.partitionOf(workspace);
+        int target = 1 - source;
+
+        WorkspaceSummary moved = workspaceRebalancer.move(workspace, target);
+
+        assertEquals(new WorkspaceSummary(workspace, target, 2), moved);
+        assertEquals(target, workspaceDirectory.partitionOf(workspace));
+        assertEquals(0, rows(source, "nodes", workspace));
+        assertEquals(0, rows(source, "node_changes", workspace));
+        assertEquals(2, rows(target, "nodes", workspace));
+        assertEquals(2, rows(target, "node_changes", workspace));
+
+        WorkspaceContext.run(workspace, () -> {
+            Node copied = nodeService.getNodeById(child.getId());
+            assertEquals("child", copied.getContent());
+            assertEquals(List.of("work"), copied.getTags());
+            assertEquals(1, nodeService.getNodeById(root.getId()).getDescendantCount());
+
+            // Nothing changed since the cursor taken before the move; a write after it follows it
+            NodeChanges unchanged = nodeService.getChanges(cursor, null);
+            assertEquals(cursor, unchanged.cursor());
+            assertTrue(unchanged.nodes().isEmpty());
+            Node added = nodeService.createNode(new Node("added", root.getId(), null));
+            NodeChanges changes = nodeService.getChanges(cursor, null);
+            assertTrue(changes.cursor() > cursor);
+            assertEquals(List.of(added.getId()), changes.nodes().stream().map(Node::getId).toList());
+            assertEquals(2, nodeService.getNodeById(root.getId()).getDescendantCount());
+        });
+        assertEquals(3, rows(target, "nodes", workspace));
+        assertEquals(0, rows(source, "nodes", workspace));
+    }
+
+    @Test
+    void move_intoAPartitionWhoseOwnChangesUseTheSameNumbers_keepsBothLogs() {
+        String moving = "move-" + UUID.randomUUID();
+        String resident = "resident-" + UUID.randomUUID();
+        workspaceDirectory.partitionOf(moving);
+        workspaceDirectory.assign(moving, 0);
+        workspaceDirectory.partitionOf(resident);
+        workspaceDirectory.assign(resident, 1);
+        // Both sequences continue from the same number, so each partition records the same ones
+        String nextSql = "SELECT BASE_VALUE FROM INFORMATION_SCHEMA.SEQUENCES WHERE SEQUENCE_NAME = 'NODE_CHANGE_SEQ'";
+        long next = Math.max(partition(0).queryForObject(nextSql, Long.class), partition(1).queryForObject(nextSql, Long.class));
+        nodeChangeLog.skipSeqsThrough(0, next);
+        nodeChangeLog.skipSeqsThrough(1, next);
+        Node root = WorkspaceContext.call(moving, () -> nodeService.createNode(new Node("moving", null, null)));
+        WorkspaceContext.run(resident, () -> nodeService.createNode(new Node("resident", null, null)));
+        assertEquals(seqs(0, moving), seqs(1, resident));
+        long cursor = WorkspaceContext.call(moving, () -> nodeService.getChanges(null, null).cursor());
+
+        workspaceRebalancer.move(moving, 1);
+
+        assertEquals(List.of(cursor), seqs(1, moving));
+        assertEquals(List.of(cursor), seqs(1, resident));
+        WorkspaceContext.run(moving, () -> {
+            Node added = nodeService.createNode(new Node("added", root.getId(), null));
+            NodeChanges changes = nodeService.getChanges(cursor, null);
+            assertTrue(changes.cursor() > cursor);
+            assertTrue(changes.nodes().stream().anyMatch(node -> node.getId().equals(added.getId())));
+        });
+    }
+}
@@ -1,4 +1,4 @@
-import { Component, OnInit } from '@angular/core';
+import { Component, OnDestroy, OnInit } from '@angular/core';
 import { CommonModule } from '@angular/common';
 import { FormsModule } from '@angular/forms';
 import { NodeTreeComponent } from './components/node-tree/node-tree.component';
@@ -16,7 +16,7 @@ import { FormattingService } from './services/formatting.service';
 import { ViewSettingsService } from './services/view-settings.service';
 import { TagService } from './services/tag.service';
 import { ActionHistory, SearchResult, Node } from './models/node.model';
-import { firstValueFrom } from 'rxjs';
+import { Subscription, finalize, firstValueFrom } from 'rxjs';
 
 @Component({
   selector: 'app-root',
@@ -25,8 +25,15 @@ import { firstValueFrom } from 'rxjs';
   templateUrl: './app.component.html',
   styleUrls: ['./app.component.css']
 })
-export class AppComponent implements OnInit {
+export class AppComponent implements OnInit, OnDestroy {
   title = 'NodeFlow';
+  // Pushed events trigger a fetch right away; the poll only covers events lost to a dropped stream
+  private static readonly CHANGES_POLL_MS = 60000;
+  private changesCursor: number | null = null;
+  private changesTimer?: ReturnType<typeof setInterval>;
+  private changesSubscription?: Subscription;
+  private changesInFlight = false;
+  private changesRequested = false;
   isEmpty = true;
   showSearch = false;
   searchQuery = '';
@@ -151,8 +158,56 @@ export class AppComponent implements OnInit {
   }
 
   ngOnInit(): void {
-    // Load all nodes from backend (root nodes and their children)
-    this.loadAllNodes();
+    // Take the change-log cursor first so edits made while loading are picked up by the next poll
+    this.nodeService.getChanges(null).pipe(
+      finalize(() => {
+        this.loadAllNodes();
+        this.changesTimer = setInterval(() => this.pollChanges(), AppComponent.CHANGES_POLL_MS);
+        this.changesSubscription = this.nodeService.watchChanges().subscribe(() => this.pollChanges());
+      })
+    ).subscribe({
+      next: changes => this.changesCursor = changes.cursor,
+      error: error => console.error('Failed to read change cursor:', error)
+    });
+  }
+
+  ngOnDestroy(): void {
+    clearInterval(this.changesTimer);
+    this.changesSubscription?.unsubscribe();
+  }
+
+  private pollChanges(): void {
+    // Local edits still waiting to sync would be overwritten by the server copy
+    if (this.changesCursor === null || this.pendingCount > 0) {
+      return;
+    }
+    // Events arriving during a fetch are folded into one follow-up fetch
+    if (this.changesInFlight) {
+      this.changesRequested = true;
+      return;
+    }
+    this.changesInFlight = true;
+    this.changesRequested = false;
+    this.nodeService.getChanges(this.changesCursor).pipe(
+      finalize(() => {
+        this.changesInFlight = false;
+        if (this.changesRequested) {
+          this.pollChanges();
+        }
+      })
+    ).subscribe({
+      next: changes => {
+        this.changesCursor = changes.cursor;
+        // The server no longer has every change since our cursor
+        if (changes.reloadRequired) {
+          this.loadAllNodes();
+          return;
+        }
+        this.stateService.applyChanges(changes.nodes, changes.deletedIds);
+        this.changesRequested ||= !changes.complete;
+      },
+      error: error => console.error('Failed to fetch changes:', error)
+    });
   }
 
   private loadAllNodes(): void {
@@ -268,7 +323,7 @@ export class AppComponent implements OnInit {
         break;
       case 'delete':
         this.stateService.addNode(action.node);
-        this.nodeService.createNode(action.node).subscribe({
+        this.nodeService.createNode(this.atSiblingIndex(action.node)).subscribe({
           next: (createdNode) => {
             // Update state with real ID from backend
             this.stateService.removeNode(action.node.id);
@@ -302,7 +357,10 @@ export class AppComponent implements OnInit {
             position: action.previousPosition 
           };
           this.stateService.updateNode(updatedNode);
-          this.nodeService.moveNode(action.node.id, action.previousParentId, action.previousPosition).subscribe({
+          const previousIndex = this.stateService.getSiblingIndex(
+            action.node.id, action.previousParentId, action.previousPosition
+          );
+          this.nodeService.moveNode(action.node.id, action.previousParentId, previousIndex).subscribe({
             error: (error) => {
               console.error('Failed to undo move:', error);
               // Revert state change on error
@@ -321,7 +379,7 @@ export class AppComponent implements OnInit {
     switch (action.type) {
       case 'create':
         this.stateService.addNode(action.node);
-        this.nodeService.createNode(action.node).subscribe({
+        this.nodeService.createNode(this.atSiblingIndex(action.node)).subscribe({
           next: (createdNode) => {
             // Update state with real ID from backend
             this.stateService.removeNode(action.node.id);
@@ -359,7 +417,8 @@ export class AppComponent implements OnInit {
         break;
       case 'move':
         this.stateService.updateNode(action.node);
-        this.nodeService.moveNode(action.node.id, action.node.parentId, action.node.position).subscribe({
+        const index = this.stateService.getSiblingIndex(action.node.id, action.node.parentId, action.node.position);
+        this.nodeService.moveNode(action.node.id, action.node.parentId, index).subscribe({
           error: (error) => {
             console.error('Failed to redo move:', error);
             // Revert state change on error
@@ -422,6 +481,11 @@ export class AppComponent implements OnInit {
     });
   }
 
+  // A node recreated where it was, its sort key turned into the index the create API expects
+  private atSiblingIndex(node: Node): Node {
+    return { ...node, position: this.stateService.getSiblingIndex(node.id, node.parentId, node.position) };
+  }
+
   pasteNodes(): void {
     const clipboardData = this.clipboardService.getClipboardData();
     if (!clipboardData) return;
@@ -1,6 +1,6 @@
 import { Component, Input, OnInit, OnDestroy } from '@angular/core';
 import { CommonModule } from '@angular/common';
-import { Node } from '../../models/node.model';
+import { Node, NodeTree } from '../../models/node.model';
 import { NodeItemComponent } from '../node-item/node-item.component';
 import { StateService } from '../../services/state.service';
 import { NodeService } from '../../services/node.service';
@@ -169,16 +169,12 @@ export class NodeTreeComponent implements OnInit, OnDestroy {
   }
 
   onCreateSibling(node: Node): void {
-    const siblings = this.allNodes.filter(
-      n => n.parentId === node.parentId && n.position >= node.position
-    );
-    
-    // Calculate new position
-    let newPosition = node.position + 1;
+    // The server takes the index among the siblings and picks the sort key itself
+    const newIndex = this.stateService.getSiblingIndex(node.id, node.parentId, node.position) + 1;
     const newNodeData: Partial<Node> = {
       content: '',
       parentId: node.parentId,
-      position: newPosition,
+      position: newIndex,
       isExpanded: true
     };
     
@@ -201,14 +197,10 @@ export class NodeTreeComponent implements OnInit, OnDestroy {
   }
 
   onCreateChild(node: Node): void {
-    // Create a child node
-    const children = this.allNodes.filter(n => n.parentId === node.id);
-    const newPosition = children.length;
-    
+    // Create a child node; without a position the server appends it after the existing children
     const newNodeData: Partial<Node> = {
       content: '',
       parentId: node.id,
-      position: newPosition,
       isExpanded: true
     };
     
@@ -235,31 +227,20 @@ export class NodeTreeComponent implements OnInit, OnDestroy {
   }
 
   onDuplicate(node: Node): void {
-    // Create a sibling with the same content
-    const siblings = this.allNodes.filter(
-      n => n.parentId === node.parentId && n.position >= node.position
-    );
-    
-    // Calculate new position
-    let newPosition = node.position + 1;
-    const newNodeData: Partial<Node> = {
-      content: node.content, // Copy the content
-      parentId: node.parentId,
-      position: newPosition,
-      isCompleted: node.isCompleted,
-      tags: node.tags ? [...node.tags] : undefined,
-      notes: node.notes,
-      isExpanded: true
-    };
-    
-    // Create node in backend first
-    this.nodeService.createNode(newNodeData).subscribe({
-      next: (createdNode) => {
-        // Add to state with real ID from backend
-        this.stateService.addNode(createdNode);
+    // The server copies the whole subtree and places it right after the original
+    this.nodeService.duplicateNode(node.id).subscribe({
+      next: (copy) => {
+        const created: Node[] = [];
+        const pending: NodeTree[] = [copy];
+        while (pending.length > 0) {
+          const { children, ...createdNode } = pending.pop()!;
+          created.push(createdNode);
+          pending.push(...children);
+        }
+        created.forEach(createdNode => this.stateService.addNode(createdNode));
         const historyItem = {
           type: 'create' as const,
-          node: createdNode
+          node: created[0]
         };
         this.stateService.addToUndoStack(historyItem);
       },
@@ -351,6 +332,7 @@ export class NodeTreeComponent implements OnInit, OnDestroy {
     
     const targetSibling = siblings[siblings.length - 1];
     const newPosition = targetSibling.position;
+    const newIndex = siblings.length - 1;
     
     // Update both nodes in state first for immediate UI feedback
     const updatedTarget = { ...targetSibling, position: node.position };
@@ -359,7 +341,7 @@ export class NodeTreeComponent implements OnInit, OnDestroy {
     this.stateService.updateNode(updatedNode);
 
     // Update in backend
-    this.nodeService.moveNode(node.id, node.parentId, newPosition).subscribe({
+    this.nodeService.moveNode(node.id, node.parentId, newIndex).subscribe({
       next: (backendNode) => {
         // Update state with backend response to ensure consistency
         this.stateService.updateNode(backendNode);
@@ -385,6 +367,7 @@ export class NodeTreeComponent implements OnInit, OnDestroy {
     
     const targetSibling = siblings[0];
     const newPosition = targetSibling.position;
+    const newIndex = this.stateService.getSiblingIndex(node.id, node.parentId, node.position) + 1;
     
     // Update both nodes in state first for immediate UI feedback
     const updatedTarget = { ...targetSibling, position: node.position };
@@ -393,7 +376,7 @@ export class NodeTreeComponent implements OnInit, OnDestroy {
     this.stateService.updateNode(updatedNode);
 
     // Update in backend
-    this.nodeService.moveNode(node.id, node.parentId, newPosition).subscribe({
+    this.nodeService.moveNode(node.id, node.parentId, newIndex).subscribe({
       next: (backendNode) => {
         // Update state with backend response to ensure consistency
         this.stateService.updateNode(backendNode);
@@ -12,6 +12,20 @@ export interface Node {
   isStarred?: boolean;
 }
 
+// A node with its nested, position-ordered children
+export interface NodeTree extends Node {
+  children: NodeTree[];
+}
+
+// Nodes changed or deleted since a change-log cursor
+export interface NodeChanges {
+  cursor: number;
+  complete: boolean;
+  nodes: Node[];
+  deletedIds: number[];
+  reloadRequired: boolean;
+}
+
 export interface ActionHistory {
   type: 'create' | 'delete' | 'update' | 'move' | 'complete' | 'expand';
   node: Node;
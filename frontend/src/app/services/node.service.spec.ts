@@ -86,6 +86,30 @@ describe('NodeService', () => {
     req.flush(testNode);
   });
 
+  it('should duplicate a node subtree', () => {
+    const copy = { ...testNode, id: 2, children: [] };
+
+    service.duplicateNode(1).subscribe(tree => {
+      expect(tree).toEqual(copy);
+    });
+
+    const req = httpMock.expectOne('http://localhost:8080/api/nodes/1/duplicate');
+    expect(req.request.method).toBe('POST');
+    req.flush(copy);
+  });
+
+  it('should get changes since a cursor', () => {
+    const changes = { cursor: 9, complete: true, nodes: [testNode], deletedIds: [3], reloadRequired: false };
+
+    service.getChanges(5).subscribe(result => {
+      expect(result).toEqual(changes);
+    });
+
+    const req = httpMock.expectOne('http://localhost:8080/api/nodes/changes?since=5');
+    expect(req.request.method).toBe('GET');
+    req.flush(changes);
+  });
+
   it('should update a node', () => {
     const updatedNode = { content: 'Updated Node' };
     
@@ -99,6 +123,14 @@ describe('NodeService', () => {
     req.flush(testNode);
   });
 
+  it('should leave the sort key out of an update', () => {
+    service.updateNode(1, { content: 'Updated Node', position: 2048 }).subscribe();
+
+    const req = httpMock.expectOne('http://localhost:8080/api/nodes/1');
+    expect(req.request.body).toEqual({ content: 'Updated Node' });
+    req.flush(testNode);
+  });
+
   it('should delete a node', () => {
     service.deleteNode(1).subscribe(response => {
       expect(response).toBeNull();
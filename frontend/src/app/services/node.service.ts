@@ -1,7 +1,7 @@
 import { Injectable } from '@angular/core';
 import { HttpClient } from '@angular/common/http';
 import { Observable } from 'rxjs';
-import { Node } from '../models/node.model';
+import { Node, NodeChanges, NodeTree } from '../models/node.model';
 
 @Injectable({
   providedIn: 'root'
@@ -27,14 +27,38 @@ export class NodeService {
     return this.http.post<Node>(this.apiUrl, node);
   }
 
+  // Create and update take a position as an index among the siblings, while nodes carry sort keys;
+  // updates never send one, repositioning goes through moveNode
   updateNode(id: number, node: Partial<Node>): Observable<Node> {
-    return this.http.put<Node>(`${this.apiUrl}/${id}`, node);
+    const { position, ...changes } = node;
+    return this.http.put<Node>(`${this.apiUrl}/${id}`, changes);
   }
 
   deleteNode(id: number): Observable<void> {
     return this.http.delete<void>(`${this.apiUrl}/${id}`);
   }
 
+  duplicateNode(id: number): Observable<NodeTree> {
+    return this.http.post<NodeTree>(`${this.apiUrl}/${id}/duplicate`, {});
+  }
+
+  // Without a cursor only the current cursor is returned
+  getChanges(since: number | null): Observable<NodeChanges> {
+    const url = since !== null ? `${this.apiUrl}/changes?since=${since}` : `${this.apiUrl}/changes`;
+    return this.http.get<NodeChanges>(url);
+  }
+
+  // Emits on every (re)connect and whenever the server reports changes; EventSource reconnects by itself
+  watchChanges(rootId: number | null = null): Observable<void> {
+    return new Observable<void>(subscriber => {
+      const url = rootId !== null ? `${this.apiUrl}/changes/stream?rootId=${rootId}` : `${this.apiUrl}/changes/stream`;
+      const source = new EventSource(url);
+      source.onopen = () => subscriber.next();
+      source.addEventListener('changes', () => subscriber.next());
+      return () => source.close();
+    });
+  }
+
   moveNode(id: number, parentId: number | null, position: number | null): Observable<Node> {
     let url = `${this.apiUrl}/${id}/move?`;
     if (parentId !== null) {
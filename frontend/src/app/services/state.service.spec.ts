@@ -73,6 +73,19 @@ describe('StateService', () => {
     expect(service.getNode(testNode.id)).toBeUndefined();
   });
 
+  it('should convert a sparse position into a sibling index', () => {
+    service.setNodes([
+      { ...testNode, id: 1, position: 0 },
+      { ...testNode, id: 2, position: 1024 },
+      { ...testNode, id: 3, position: 2048 },
+      { ...testNode, id: 4, parentId: 1, position: 0 }
+    ]);
+
+    expect(service.getSiblingIndex(3, null, 2048)).toBe(2);
+    expect(service.getSiblingIndex(1, null, 1536)).toBe(1);
+    expect(service.getSiblingIndex(4, null, 0)).toBe(0);
+  });
+
   it('should manage undo/redo stack', () => {
     const action: ActionHistory = {
       type: 'create',
@@ -103,4 +116,16 @@ describe('StateService', () => {
     
     expect(service.getFocusedNodeId()).toBe(testNode.id);
   });
+
+  it('should apply changes', () => {
+    const other = { ...testNode, id: 2, content: 'Other' };
+    service.setNodes([testNode, other]);
+    const updated = { ...testNode, content: 'Changed elsewhere' };
+    const created = { ...testNode, id: 3, parentId: 1 };
+
+    service.applyChanges([updated, created], [2]);
+
+    expect(service.getAllNodes()).toEqual([updated, created]);
+    expect(service.getNode(2)).toBeUndefined();
+  });
 });
@@ -50,6 +50,27 @@ export class StateService {
     this.nodesSubject.next([...this.nodes]);
   }
 
+  // Merges a server-side delta, replacing changed nodes and dropping deleted ones in one emission
+  applyChanges(changed: Node[], deletedIds: number[]): void {
+    if (changed.length === 0 && deletedIds.length === 0) {
+      return;
+    }
+    const deleted = new Set(deletedIds);
+    const nodes = this.nodes.filter(n => !deleted.has(n.id));
+    deletedIds.forEach(id => this.nodeMap.delete(id));
+    changed.forEach(node => {
+      const index = nodes.findIndex(n => n.id === node.id);
+      if (index !== -1) {
+        nodes[index] = node;
+      } else {
+        nodes.push(node);
+      }
+      this.nodeMap.set(node.id, node);
+    });
+    this.nodes = nodes;
+    this.nodesSubject.next([...this.nodes]);
+  }
+
   getNode(nodeId: number): Node | undefined {
     return this.nodeMap.get(nodeId);
   }
@@ -58,6 +79,13 @@ export class StateService {
     return [...this.nodes];
   }
 
+  // Positions are sparse sort keys; the move API expects an index among the other siblings
+  getSiblingIndex(nodeId: number, parentId: number | null, position: number): number {
+    return this.nodes.filter(
+      n => n.id !== nodeId && n.parentId === parentId && n.position < position
+    ).length;
+  }
+
   setFocusedNodeId(nodeId: number | null): void {
     this.focusedNodeIdSubject.next(nodeId);
   }
@@ -87,7 +87,8 @@ export class SyncService {
 
     switch (operation.type) {
       case 'create':
-        await this.nodeService.createNode(operation.node).toPromise();
+        // The queued node's sort key is no index among its siblings, so it is appended
+        await this.nodeService.createNode({ ...operation.node, position: undefined }).toPromise();
         break;
       case 'update':
         await this.nodeService.updateNode(operation.node.id, operation.node).toPromise();